@@ -0,0 +1,147 @@
+package org.yesworkflow.benchmarks;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.yesworkflow.Language;
+import org.yesworkflow.LanguageModel;
+import org.yesworkflow.YWKeywords;
+import org.yesworkflow.annotations.Annotation;
+import org.yesworkflow.benchmarks.baseline.BaselineCommentMatcher;
+import org.yesworkflow.benchmarks.baseline.BaselineExtractor;
+import org.yesworkflow.benchmarks.baseline.BaselineKeywordMatcher;
+import org.yesworkflow.extract.CommentDfa;
+import org.yesworkflow.extract.CommentMatcher;
+import org.yesworkflow.extract.DefaultExtractor;
+import org.yesworkflow.extract.ExtractFacts;
+import org.yesworkflow.extract.KeywordMatcher;
+import org.yesworkflow.extract.Source;
+import org.yesworkflow.extract.SourceLine;
+import org.yesworkflow.query.LogicLanguage;
+
+/** Benchmarks of the stages of extraction from a single generated script.
+ *  Benchmarks prefixed with <i>baseline</i> run the implementations that the
+ *  compiled comment and keyword matchers replaced, on the same inputs. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtractBenchmarks {
+
+    @Param({"10", "100"})
+    public int steps;
+
+    @Param({"1", "3"})
+    public int depth;
+
+    @Param({"2"})
+    public int fanout;
+
+    @Param({"20"})
+    public int codeLines;
+
+    private String script;
+    private Source source;
+    private LanguageModel languageModel;
+    private CommentDfa commentDfa;
+    private KeywordMatcher keywordMatcher;
+    private BaselineKeywordMatcher baselineKeywordMatcher;
+    private List<String> comments;
+    private List<String> keywordLines;
+    private List<String> sources;
+    private List<Annotation> annotations;
+
+    @Setup
+    public void setUp() throws Exception {
+
+        script = SyntheticScripts.pythonScript("script", steps, depth, fanout, codeLines);
+        source = new Source(1, "script.py");
+        languageModel = new LanguageModel(Language.PYTHON);
+
+        // the extractor compiles the comment state table once per language, not per source
+        commentDfa = new CommentDfa(languageModel);
+        keywordMatcher = new KeywordMatcher(new YWKeywords().getKeywords());
+        baselineKeywordMatcher = new BaselineKeywordMatcher(new YWKeywords().getKeywords());
+
+        comments = new ArrayList<String>();
+        keywordLines = new ArrayList<String>();
+        for (SourceLine line : new CommentMatcher(source, commentDfa).getCommentsAsLines(script)) {
+            comments.add(line.text);
+            String keywordLine = keywordMatcher.match(line.text, true);
+            if (keywordLine != null) keywordLines.add(keywordLine);
+        }
+
+        sources = new LinkedList<String>();
+        sources.add("script.py");
+        annotations = SyntheticScripts.allAnnotations(script);
+    }
+
+    @Benchmark
+    public List<SourceLine> getCommentsAsLines() throws Exception {
+        return new CommentMatcher(source, commentDfa).getCommentsAsLines(script);
+    }
+
+    @Benchmark
+    public List<SourceLine> baselineGetCommentsAsLines() throws Exception {
+        return new BaselineCommentMatcher(source, languageModel).getCommentsAsLines(script);
+    }
+
+    @Benchmark
+    public void findKeyword(Blackhole blackhole) {
+        for (String comment : comments) {
+            blackhole.consume(keywordMatcher.findKeyword(comment));
+        }
+    }
+
+    @Benchmark
+    public void baselineFindKeyword(Blackhole blackhole) {
+        for (String comment : comments) {
+            blackhole.consume(baselineKeywordMatcher.findKeyword(comment));
+        }
+    }
+
+    @Benchmark
+    public void findCommentsOnLine(Blackhole blackhole) {
+        for (String line : keywordLines) {
+            blackhole.consume(DefaultExtractor.findCommentsOnLine(line, keywordMatcher));
+        }
+    }
+
+    @Benchmark
+    public void baselineFindCommentsOnLine(Blackhole blackhole) {
+        for (String line : keywordLines) {
+            blackhole.consume(BaselineExtractor.findCommentsOnLine(line, baselineKeywordMatcher));
+        }
+    }
+
+    @Benchmark
+    public String extractFactsBuild() {
+        return new ExtractFacts(LogicLanguage.PROLOG, sources, annotations).build().toString();
+    }
+
+    @Benchmark
+    public List<Annotation> extract() throws Exception {
+        return new DefaultExtractor(SyntheticScripts.NULL_STREAM, SyntheticScripts.NULL_STREAM)
+            .configure("language", Language.PYTHON)
+            .reader(new StringReader(script))
+            .extract()
+            .getAnnotations();
+    }
+}
@@ -0,0 +1,59 @@
+package org.yesworkflow.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yesworkflow.graph.DotGrapher;
+import org.yesworkflow.model.Model;
+
+/** Benchmarks of rendering the model of a generated script as a GraphViz graph. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GraphBenchmarks {
+
+    @Param({"10", "100"})
+    public int steps;
+
+    @Param({"1", "3"})
+    public int depth;
+
+    @Param({"2"})
+    public int fanout;
+
+    @Param({"process", "data", "combined"})
+    public String view;
+
+    @Param({"show"})
+    public String params;
+
+    private Model model;
+
+    @Setup
+    public void setUp() throws Exception {
+        model = SyntheticScripts.model(SyntheticScripts.pythonScript("script", steps, depth, fanout, 0));
+    }
+
+    @Benchmark
+    public String graph() throws Exception {
+        return new DotGrapher(SyntheticScripts.NULL_STREAM, SyntheticScripts.NULL_STREAM)
+            .configure("view", view)
+            .configure("params", params)
+            .model(model)
+            .graph()
+            .toString();
+    }
+}
@@ -0,0 +1,61 @@
+package org.yesworkflow.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yesworkflow.graph.DotGrapher;
+import org.yesworkflow.model.Model;
+
+/** Benchmarks of rendering a model with about ten thousand nodes, either with a new
+ *  grapher for each graph or with one grapher reused for every graph.  Run with
+ *  <code>-prof gc</code> to compare the allocation rates of the two. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LargeGraphBenchmarks {
+
+    @Param({"5000"})
+    public int steps;
+
+    @Param({"process", "data", "combined"})
+    public String view;
+
+    private Model model;
+    private DotGrapher reused;
+
+    @Setup
+    public void setUp() throws Exception {
+        model = SyntheticScripts.model(SyntheticScripts.pythonScript("script", steps, 1, 1, 0));
+        reused = grapher();
+    }
+
+    @Benchmark
+    public String graphWithNewGrapher() throws Exception {
+        return grapher().graph().toString();
+    }
+
+    @Benchmark
+    public String graphWithReusedGrapher() throws Exception {
+        return reused.graph().toString();
+    }
+
+    private DotGrapher grapher() throws Exception {
+        return new DotGrapher(SyntheticScripts.NULL_STREAM, SyntheticScripts.NULL_STREAM)
+            .configure("view", view)
+            .configure("params", "show")
+            .model(model);
+    }
+}
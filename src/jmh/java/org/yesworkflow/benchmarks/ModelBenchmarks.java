@@ -0,0 +1,64 @@
+package org.yesworkflow.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yesworkflow.annotations.Annotation;
+import org.yesworkflow.model.DefaultModeler;
+import org.yesworkflow.model.Model;
+import org.yesworkflow.model.ModelFacts;
+import org.yesworkflow.query.LogicLanguage;
+
+/** Benchmarks of building a model from the annotations in a generated script,
+ *  and of exporting the model as facts. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmarks {
+
+    @Param({"10", "100"})
+    public int steps;
+
+    @Param({"1", "3"})
+    public int depth;
+
+    @Param({"2"})
+    public int fanout;
+
+    private List<Annotation> annotations;
+    private Model model;
+
+    @Setup
+    public void setUp() throws Exception {
+        String script = SyntheticScripts.pythonScript("script", steps, depth, fanout, 0);
+        annotations = SyntheticScripts.primaryAnnotations(script);
+        model = SyntheticScripts.model(script);
+    }
+
+    @Benchmark
+    public Model model() throws Exception {
+        return new DefaultModeler(SyntheticScripts.NULL_STREAM, SyntheticScripts.NULL_STREAM)
+            .annotations(annotations)
+            .model()
+            .getModel();
+    }
+
+    @Benchmark
+    public String modelFactsBuild() {
+        return new ModelFacts(LogicLanguage.PROLOG, model).build().toString();
+    }
+}
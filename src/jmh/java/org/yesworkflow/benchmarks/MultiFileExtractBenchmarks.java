@@ -0,0 +1,62 @@
+package org.yesworkflow.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yesworkflow.annotations.Annotation;
+import org.yesworkflow.extract.DefaultExtractor;
+
+/** Benchmarks of extraction from many generated source files on disk. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiFileExtractBenchmarks {
+
+    @Param({"1", "10", "100"})
+    public int files;
+
+    @Param({"20"})
+    public int steps;
+
+    @Param({"2"})
+    public int depth;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private List<String> paths;
+
+    @Setup
+    public void setUp() throws Exception {
+        paths = SyntheticScripts.writeScripts(files, steps, depth, 2, 20);
+    }
+
+    @TearDown
+    public void tearDown() {
+        SyntheticScripts.deleteScripts(paths);
+    }
+
+    @Benchmark
+    public List<Annotation> extract() throws Exception {
+        return new DefaultExtractor(SyntheticScripts.NULL_STREAM, SyntheticScripts.NULL_STREAM)
+            .configure("sources", paths)
+            .configure("parallelism", parallelism)
+            .extract()
+            .getAnnotations();
+    }
+}
@@ -0,0 +1,161 @@
+package org.yesworkflow.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.yesworkflow.Language;
+import org.yesworkflow.annotations.Annotation;
+import org.yesworkflow.extract.AnnotationHandler;
+import org.yesworkflow.extract.DefaultExtractor;
+import org.yesworkflow.model.DefaultModeler;
+import org.yesworkflow.model.Model;
+
+/** Generates YW-annotated Python scripts of configurable size for benchmarking.
+ *
+ *  <p>Each script contains one top-level workflow made of a chain of steps.  Each step
+ *  is nested to the requested depth: a step at depth greater than one is itself a
+ *  workflow made of a chain of <i>fanout</i> steps one level shallower.  Every step
+ *  has a parameter, an input and an output, with URI templates on the data ports,
+ *  and innermost steps contain the requested number of lines of code, half of them
+ *  followed by comments that contain no YW keywords.  The number of annotations thus
+ *  grows linearly with the number of steps and exponentially with the depth.</p>
+ */
+public class SyntheticScripts {
+
+    public static final String EOL = System.getProperty("line.separator");
+    public static final PrintStream NULL_STREAM = new PrintStream(new OutputStream() {
+        public void write(int b) {}
+        public void write(byte[] b, int off, int len) {}
+    });
+
+    /** Generates a script.
+     *  @param name The name of the top-level workflow.
+     *  @param steps The number of steps in the top-level workflow.
+     *  @param depth The nesting depth of each step, with 1 meaning not nested.
+     *  @param fanout The number of steps in each nested workflow.
+     *  @param codeLines The number of lines of code in each innermost step.
+     *  @return The text of the script.
+     */
+    public static String pythonScript(String name, int steps, int depth, int fanout, int codeLines) {
+
+        StringBuilder script = new StringBuilder();
+        script.append("import sys").append(EOL)
+              .append(EOL)
+              .append("# @begin ").append(name).append(EOL)
+              .append("# @param run").append(EOL)
+              .append("# @in ").append(name).append("_input  @uri file:data/{run}/").append(name).append("_input.csv").append(EOL)
+              .append("# @out ").append(name).append("_output  @uri file:data/{run}/").append(name).append("_output.csv").append(EOL)
+              .append("def ").append(name).append("(run):").append(EOL);
+
+        appendChain(script, "    ", name, name + "_input", name + "_output", steps, depth, fanout, codeLines);
+
+        script.append("# @end ").append(name).append(EOL);
+        return script.toString();
+    }
+
+    private static void appendChain(StringBuilder script, String indent, String parent, String input, String output,
+                                    int steps, int depth, int fanout, int codeLines) {
+        String previous = input;
+        for (int i = 1; i <= steps; ++i) {
+            String step = parent + "_" + i;
+            String next = (i == steps) ? output : step + "_data";
+            appendStep(script, indent, step, previous, next, depth, fanout, codeLines);
+            previous = next;
+        }
+    }
+
+    private static void appendStep(StringBuilder script, String indent, String step, String input, String output,
+                                   int depth, int fanout, int codeLines) {
+
+        script.append(EOL)
+              .append(indent).append("# @begin ").append(step).append("  Transforms ").append(input).append(EOL)
+              .append(indent).append("# @param run").append(EOL)
+              .append(indent).append("# @in ").append(input).append("  @uri file:data/{run}/").append(input).append(".csv").append(EOL)
+              .append(indent).append("# @out ").append(output).append("  @uri file:data/{run}/").append(output).append(".csv").append(EOL);
+
+        if (depth > 1) {
+            appendChain(script, indent + "    ", step, input, output, fanout, depth - 1, fanout, codeLines);
+        } else {
+            for (int i = 0; i < codeLines; ++i) {
+                script.append(indent).append("value_").append(i).append(" = transform(").append(input)
+                      .append(", ").append(i).append(")");
+                if (i % 2 == 1) {
+                    script.append("  # adjust value ").append(i).append(" before writing ").append(output);
+                }
+                script.append(EOL);
+            }
+        }
+
+        script.append(indent).append("# @end ").append(step).append(EOL);
+    }
+
+    /** Writes generated scripts to files in a new temporary directory.
+     *  @return The paths of the files written.
+     */
+    public static List<String> writeScripts(int files, int steps, int depth, int fanout, int codeLines) throws IOException {
+        File directory = File.createTempFile("yw-benchmark", "");
+        directory.delete();
+        directory.mkdirs();
+        List<String> paths = new LinkedList<String>();
+        for (int i = 1; i <= files; ++i) {
+            File file = new File(directory, "script_" + i + ".py");
+            OutputStream stream = new FileOutputStream(file);
+            try {
+                stream.write(pythonScript("script_" + i, steps, depth, fanout, codeLines).getBytes(Charset.forName("UTF-8")));
+            } finally {
+                stream.close();
+            }
+            paths.add(file.getPath());
+        }
+        return paths;
+    }
+
+    /** Deletes the files written by {@link #writeScripts} and their directory. */
+    public static void deleteScripts(List<String> paths) {
+        File directory = null;
+        for (String path : paths) {
+            File file = new File(path);
+            directory = file.getParentFile();
+            file.delete();
+        }
+        if (directory != null) directory.delete();
+    }
+
+    /** @return All annotations in a script, including qualifications. */
+    public static List<Annotation> allAnnotations(String script) throws Exception {
+        final List<Annotation> annotations = new LinkedList<Annotation>();
+        new DefaultExtractor(NULL_STREAM, NULL_STREAM)
+            .configure("language", Language.PYTHON)
+            .reader(new StringReader(script))
+            .extract(new AnnotationHandler() {
+                public void annotation(Annotation annotation) {
+                    annotations.add(annotation);
+                }
+            });
+        return annotations;
+    }
+
+    /** @return The primary annotations in a script, as passed to the modeler. */
+    public static List<Annotation> primaryAnnotations(String script) throws Exception {
+        return new DefaultExtractor(NULL_STREAM, NULL_STREAM)
+            .configure("language", Language.PYTHON)
+            .reader(new StringReader(script))
+            .extract()
+            .getAnnotations();
+    }
+
+    /** @return The model of a script. */
+    public static Model model(String script) throws Exception {
+        return new DefaultModeler(NULL_STREAM, NULL_STREAM)
+            .annotations(primaryAnnotations(script))
+            .model()
+            .getModel();
+    }
+}
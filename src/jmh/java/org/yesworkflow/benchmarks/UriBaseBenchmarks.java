@@ -0,0 +1,59 @@
+package org.yesworkflow.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yesworkflow.benchmarks.baseline.BaselineUriBase;
+import org.yesworkflow.data.UriBase;
+
+/** Benchmarks of encoding variable values and splitting URIs into scheme and path.
+ *  Benchmarks prefixed with <i>baseline</i> run the implementations that used
+ *  String.format() and a regular expression, on the same inputs. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UriBaseBenchmarks {
+
+    @Param({"sample_042", "run 7/frame 12.tif", "a & b: c/d#e"})
+    public String value;
+
+    private String uri;
+
+    @Setup
+    public void setUp() {
+        uri = "file:/data/runs/" + UriBase.encodeString(value) + "/spectra/{frame}.csv";
+    }
+
+    @Benchmark
+    public String encodeString() {
+        return UriBase.encodeString(value);
+    }
+
+    @Benchmark
+    public String baselineEncodeString() {
+        return BaselineUriBase.encodeString(value);
+    }
+
+    @Benchmark
+    public UriBase.SchemePathPair extractSchemeAndPath() {
+        return UriBase.extractSchemeAndPath(uri);
+    }
+
+    @Benchmark
+    public UriBase.SchemePathPair baselineExtractSchemeAndPath() {
+        return BaselineUriBase.extractSchemeAndPath(uri);
+    }
+}
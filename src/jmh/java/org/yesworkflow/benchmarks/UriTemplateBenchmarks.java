@@ -0,0 +1,100 @@
+package org.yesworkflow.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yesworkflow.data.UriTemplate;
+
+/** Benchmarks of expanding URI templates with increasing numbers of variables.
+ *  The <i>sweep</i> benchmarks expand a template for each of 1000 bindings of its
+ *  variables, each variable taking one of ten values, one call at a time and with
+ *  a batch expander. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UriTemplateBenchmarks {
+
+    private static final int SWEEP_ROWS = 1000;
+
+    @Param({"1", "4", "16"})
+    public int variables;
+
+    private UriTemplate template;
+    private Map<String,Object> values;
+    private Object[] valueArray;
+    private Object[][] sweepColumns;
+    private UriTemplate.ExpansionSink sink;
+    private int sweepLength;
+    private String[] variableNames;
+
+    @Setup
+    public void setUp() throws Exception {
+        StringBuilder path = new StringBuilder("file:data");
+        values = new HashMap<String,Object>();
+        for (int i = 0; i < variables; ++i) {
+            path.append("/{var").append(i).append("}");
+            values.put("var" + i, "value " + i);
+        }
+        path.append("/result.csv");
+        template = new UriTemplate(path.toString());
+        valueArray = new Object[variables];
+
+        variableNames = template.batchExpander().getColumnNames();
+        sweepColumns = new Object[variables][SWEEP_ROWS];
+        for (int row = 0; row < SWEEP_ROWS; ++row) {
+            for (int i = 0, r = row; i < variables; ++i, r /= 10) {
+                sweepColumns[i][row] = "value " + (r % 10);
+            }
+        }
+        sink = new UriTemplate.ExpansionSink() {
+            public void expanded(int row, CharSequence path) {
+                sweepLength += path.length();
+            }
+        };
+    }
+
+    @Benchmark
+    public String getExpandedPath() throws Exception {
+        return template.getExpandedPath(values, valueArray);
+    }
+
+    @Benchmark
+    public UriTemplate construct() {
+        return new UriTemplate(template.getExpression());
+    }
+
+    @Benchmark
+    public int sweepGetExpandedPath() throws Exception {
+        int length = 0;
+        Map<String,Object> binding = new HashMap<String,Object>();
+        for (int row = 0; row < SWEEP_ROWS; ++row) {
+            for (int i = 0; i < variables; ++i) {
+                binding.put(variableNames[i], sweepColumns[i][row]);
+            }
+            length += template.getExpandedPath(binding, valueArray).length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public int sweepBatchExpander() throws Exception {
+        sweepLength = 0;
+        template.batchExpander().expandColumns(sweepColumns, sink);
+        return sweepLength;
+    }
+}
@@ -0,0 +1,263 @@
+package org.yesworkflow.benchmarks.baseline;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.yesworkflow.LanguageModel;
+import org.yesworkflow.extract.Source;
+import org.yesworkflow.extract.SourceLine;
+
+
+/** Class for matching and retrieving comments from source code implemented
+ *  in a particular programming language.  Uses a simple finite state machine
+ *  and the comment delimiter strings defined for the language to identify
+ *  the portions of the source code that are contained in comments.
+ *
+ *  <p>Copy of {@link org.yesworkflow.extract.CommentMatcher CommentMatcher} as it was
+ *  before the state machine was compiled into a transition table, kept so that
+ *  benchmarks can compare the two implementations on the same inputs.</p>
+ */
+public class BaselineCommentMatcher {
+
+    private static final String EOL = System.getProperty("line.separator");
+    private static Integer nextLineId = 1;
+    
+    private Source source;
+    private LanguageModel languageModel;
+    private State currentState;
+    private String commentStartToken;
+    private String lastFullMatch;
+    private boolean lastFullMatchWasSingle;
+    private StringBuffer buffer = new StringBuffer();
+    
+    /**
+     * Constructs a CommentMatcher for the given programming language model.
+     * @param languageModel The programming language model for the source code to be analyzed.
+     */
+    public BaselineCommentMatcher(Source source, LanguageModel languageModel) {
+        this.source = source;
+        this.languageModel = languageModel;
+        this.currentState = State.IN_CODE;
+        this.commentStartToken = null;
+        this.buffer = new StringBuffer();
+    }
+    
+    /** Extracts the contents of all comments found in the provided source code,
+     *  and returns each line of each comment as a string.  Comments that span multiple lines
+     *  in the source are represented as multiple strings in the return value.
+     * 
+     * @param source A String containing the entire source code to analyze.
+     * @return  A List of Strings representing the comments in the source code.
+     * @throws IOException 
+     */
+    public List<SourceLine> getCommentsAsLines(String source) throws IOException {    
+        BufferedReader reader = new BufferedReader(new StringReader(source));
+        return getCommentsAsLines(reader);
+    }
+    
+    /** Extracts the contents of all comments found in the source code provided via
+     *  a {@link java.io.BufferedReader BufferedReader}
+     *  and returns each line of each comment as a string.  Comments that span multiple lines
+     *  in the source are represented as multiple strings in the return value.
+     * 
+     * @param reader The BufferedReader used to read the source file.
+     * @return  A List of Strings representing the comments in the source code.
+     * @throws IOException 
+     */
+    public List<SourceLine> getCommentsAsLines(BufferedReader reader) throws IOException {
+
+        String line;
+        int nextLineNumber = 1;
+        List<SourceLine> commentLines = new LinkedList<SourceLine>();
+        lastFullMatch = null;
+        
+        while ((line = reader.readLine()) != null) {
+            StringBuffer commentLineText = new StringBuffer();            
+            for (int i = 0; i < line.length(); ++i) {
+                int c = line.charAt(i);
+                String newCommentChars = processNextChar((char)c);
+                commentLineText.append(newCommentChars);
+                if (newCommentChars.equals(EOL)) {
+                    addCommentLineToResult(commentLineText.toString(), nextLineNumber, commentLines);
+                    commentLineText = new StringBuffer();            
+                }
+            }
+            commentLineText.append(processNextChar('\n'));
+            addCommentLineToResult(commentLineText.toString(), nextLineNumber++, commentLines);
+        }
+        
+        return commentLines;
+    }
+        
+    /** Extracts the contents of all comments found in the provided source code,
+     *  and returns all of the comments as a single string.  The comments are separated
+     *  by end-of-line characters in the returned String. Comments that span multiple 
+     *  lines in the source are represented as multiple lines.
+     * 
+     * @param source A String containing the entire source code to analyze.
+     * @return  A Strings containing all the comments in the source code.
+     * @throws IOException 
+     */
+    public String getCommentsAsString(String source) throws IOException {
+        
+        StringBuffer comments = new StringBuffer();
+        for (SourceLine cl : getCommentsAsLines(source)) {
+            comments.append(cl.text);
+            comments.append(EOL);
+        }
+        
+        return comments.toString();
+    }
+    
+    /** Helper method for accumulating non-blank comment lines. */
+    private void addCommentLineToResult(String line, int sourceLineNumber, List<SourceLine> accumulatedLines) {
+        String trimmedCommentLine = line.toString().trim();
+        if (trimmedCommentLine.length() > 0) {
+            SourceLine commentLine = new SourceLine(nextLineId++, source.id, sourceLineNumber, trimmedCommentLine);
+            accumulatedLines.add(commentLine);
+        }
+    }
+    
+    /** Enumeration defining the three states of the comment-matching finite state machine */
+    private enum State {
+        IN_CODE,
+        IN_PREFIX,
+        IN_SINGLE_LINE_COMMENT,
+        IN_MULTI_LINE_COMMENT,
+    }
+    
+    /** Updates the state of the comment-matching finite state machine. */
+    @SuppressWarnings("incomplete-switch")
+    private String processNextChar(int c) {
+        
+        String newCommentCharacters = "";
+        State nextState = currentState;
+        buffer.append((char)c);
+        
+        switch(currentState) {
+        
+        case IN_CODE:
+            
+            lastFullMatch = null;
+            
+            switch(languageModel.commentStartMatches(buffer.toString())) {
+                
+                case FULL_MATCH_SINGLE:
+                    nextState = State.IN_SINGLE_LINE_COMMENT;
+                    buffer.setLength(0);
+                    break;
+                
+                case FULL_MATCH_PAIRED:
+                    nextState = State.IN_MULTI_LINE_COMMENT;
+                    commentStartToken = buffer.toString();
+                    buffer.setLength(0);
+                    break;
+
+                case PREFIX_MATCH:
+                    nextState = State.IN_PREFIX;
+                    break;
+
+                case FULL_MATCH_SINGLE_PREFIX_MATCH_PAIRED:
+                    lastFullMatch = buffer.toString();
+                    lastFullMatchWasSingle = true;
+                    nextState = State.IN_PREFIX;
+                    break;                    
+
+                case FULL_MATCH_PAIRED_PREFIX_MATCH_SINGLE:
+                    lastFullMatch = buffer.toString();
+                    lastFullMatchWasSingle = false;
+                    nextState = State.IN_PREFIX;
+                    break;                    
+                    
+                default:
+                    nextState = State.IN_CODE;
+                    buffer.setLength(0);
+            }
+            
+            break;
+
+        case IN_PREFIX:
+            
+            switch(languageModel.commentStartMatches(buffer.toString())) {
+                
+                case FULL_MATCH_SINGLE:
+                    nextState = State.IN_SINGLE_LINE_COMMENT;
+                    buffer.setLength(0);
+                    break;
+                
+                case FULL_MATCH_PAIRED:
+                    nextState = State.IN_MULTI_LINE_COMMENT;
+                    commentStartToken = buffer.toString();
+                    buffer.setLength(0);
+                    break;
+
+                case NO_MATCH:
+                    if (lastFullMatch == null) {
+                        nextState = State.IN_CODE;                    
+                    } else {
+                        commentStartToken = lastFullMatch;
+                        nextState = (lastFullMatchWasSingle) ? 
+                                State.IN_SINGLE_LINE_COMMENT :
+                                State.IN_MULTI_LINE_COMMENT;
+                    }
+                    buffer.setLength(0);
+                    buffer.append((char)c);
+                    break;
+                    
+                case PREFIX_MATCH:
+                    nextState = State.IN_PREFIX;
+                    break;
+
+                case FULL_MATCH_SINGLE_PREFIX_MATCH_PAIRED:
+                case FULL_MATCH_PAIRED_PREFIX_MATCH_SINGLE:
+                    lastFullMatch = buffer.toString();
+                    nextState = State.IN_PREFIX;
+                    break;
+                    
+                default:
+                    nextState = State.IN_CODE;
+                    buffer.setLength(0);
+            }
+            
+            break;
+            
+            
+        case IN_SINGLE_LINE_COMMENT:
+            
+            if (c == '\r' || c == '\n') {
+                nextState = State.IN_CODE;
+                newCommentCharacters = EOL;
+            } else {
+                newCommentCharacters = buffer.toString();
+            }
+            buffer.setLength(0);
+
+            break;
+            
+        case IN_MULTI_LINE_COMMENT:
+            
+            switch(languageModel.commentEndMatches(buffer.toString(), commentStartToken)) {
+            
+                case NO_MATCH:
+                    newCommentCharacters = buffer.toString();
+                    buffer.setLength(0);
+                    break;
+                
+                case FULL_MATCH_PAIRED:
+                    nextState = State.IN_CODE;
+                    newCommentCharacters = EOL;
+                    buffer.setLength(0);
+                    break;
+            }
+            
+            break;
+        }
+        
+        currentState = nextState;
+        
+        return newCommentCharacters;
+    }
+}
@@ -0,0 +1,54 @@
+package org.yesworkflow.benchmarks.baseline;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/** Copy of {@link org.yesworkflow.extract.DefaultExtractor#findCommentsOnLine findCommentsOnLine}
+ *  as it was before keywords were matched with a compiled automaton, kept so that
+ *  benchmarks can compare the two implementations on the same inputs.
+ */
+public class BaselineExtractor {
+
+    public static List<String> findCommentsOnLine(String line, BaselineKeywordMatcher keywordMatcher) {
+    	
+    	List<String> comments = new LinkedList<String>();
+    	StringBuilder buffer = new StringBuilder();
+    	StringBuilder currentComment = new StringBuilder();
+    	
+    	for (int i = 0; i < line.length(); ++i) {
+    		
+    		char c = line.charAt(i);
+    		buffer.append(c);
+    	
+    		switch(keywordMatcher.matchesKeyword(buffer.toString())) {
+    		
+	    		case NO_MATCH:
+	    			
+	    			if (currentComment.length() > 0) currentComment.append(buffer);
+	    			buffer.setLength(0);
+	    			break;
+	    		
+	    		case FULL_MATCH:
+	    			
+	    			if (currentComment.length() > 0) {
+	    				comments.add(currentComment.toString().trim());
+	    				currentComment.setLength(0);
+	    			}
+    				currentComment.append(buffer);
+    				buffer.setLength(0);
+    				break;
+	    			
+	    		default:
+	    			
+	    			break;
+    		}
+    	}
+    	
+    	if (currentComment.length() > 0) {
+    		currentComment.append(buffer);
+    		comments.add(currentComment.toString().trim());
+    	}
+    	
+    	return comments;
+    }
+}
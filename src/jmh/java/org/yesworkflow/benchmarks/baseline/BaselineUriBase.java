@@ -0,0 +1,44 @@
+package org.yesworkflow.benchmarks.baseline;
+
+import org.yesworkflow.data.ConcreteUri;
+import org.yesworkflow.data.UriBase.SchemePathPair;
+
+/** Encoding and parsing methods of {@link org.yesworkflow.data.UriBase UriBase}.
+ *
+ *  <p>Copy of the methods as they were before characters were encoded from a lookup
+ *  table and double slashes were reduced without a regular expression, kept so that
+ *  benchmarks can compare the two implementations on the same inputs.</p>
+ */
+public class BaselineUriBase {
+
+    public static SchemePathPair extractSchemeAndPath(String uriString) {
+
+        SchemePathPair spp = new SchemePathPair();
+        int colonIndex = uriString.indexOf(':');
+        if (colonIndex == -1) {
+            spp.scheme = ConcreteUri.NO_SCHEME;
+            spp.path = uriString;
+        } else {
+            spp.scheme = uriString.substring(0, colonIndex);
+            spp.path = uriString.substring(spp.scheme.length() + 1);
+        }
+        spp.path = spp.path.replaceAll("//", "/");
+        return spp;
+    }
+
+    public static String encodeString(String unescapedString) {
+
+        StringBuffer escapedString = new StringBuffer(unescapedString);
+
+        for (int index = 0; index < escapedString.length(); index++) {
+            Character c = escapedString.charAt(index);
+            if ((!Character.isLetterOrDigit(c)) && (c != '-') && (c != '.') && (c != '_') && (c != '~')) {
+                String hexCode = String.format("%02x", (int)c);
+                escapedString.replace(index, index+1, "%" + hexCode);
+                index += hexCode.length();
+            }
+        }
+
+        return escapedString.toString();
+    }
+}
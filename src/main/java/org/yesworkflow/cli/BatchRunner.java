@@ -0,0 +1,445 @@
+package org.yesworkflow.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.yaml.snakeyaml.Yaml;
+import org.yesworkflow.annotations.Annotation;
+import org.yesworkflow.config.YWConfiguration;
+import org.yesworkflow.exceptions.YWMarkupException;
+import org.yesworkflow.exceptions.YWToolUsageException;
+import org.yesworkflow.extract.DefaultExtractor;
+import org.yesworkflow.graph.DotGrapher;
+import org.yesworkflow.model.DefaultModeler;
+import org.yesworkflow.model.Model;
+
+/** Extracts, models and graphs many projects in one JVM.
+ *
+ *  <p>The projects are run as a pipeline.  Extraction, which mostly waits on the file
+ *  system, runs on virtual threads when the JVM provides them and otherwise on a pool
+ *  of <i>iothreads</i> threads.  As each project is extracted its modeling and graphing,
+ *  which keep a processor busy, are handed to a pool of <i>parallelism</i> threads.  The
+ *  number of projects extracted but not yet graphed is limited so that the annotations
+ *  of a large batch are not all held at once.  The standard output of each project is
+ *  buffered and printed in the order the projects were added, and the time spent in
+ *  each stage is recorded for each project.</p>
+ *
+ *  <p>A manifest is a YAML file with a <code>projects</code> list.  Each entry is either
+ *  a map of configuration sections for the project, with an optional <code>name</code>,
+ *  or the path of a YAML configuration file for the project.  Paths of configuration
+ *  files are relative to the directory of the manifest.  Relative source and output paths
+ *  given in a project configuration file are relative to the directory of that file, and
+ *  those given in a map in the manifest are relative to the directory of the manifest, so
+ *  that each project reads and writes in its own directory whatever the working directory
+ *  of the batch.  The configuration of a project is applied over the defaults given to the
+ *  runner, section by section.</p>
+ */
+public class BatchRunner {
+
+    public static final int DEFAULT_IO_THREADS_PER_PROCESSOR = 4;
+
+    /** Configuration options whose values are paths to be resolved against the directory
+     *  of the manifest or project configuration file giving them. */
+    private static final String[] PATH_OPTIONS = {
+        "extract.sources", "extract.cache", "extract.listfile", "extract.factsfile",
+        "extract.columnarfile", "extract.skeletonfile", "model.factsfile", "model.columnarfile",
+        "graph.dotfile", "query.rules", "recon.rundir", "recon.factsfile", "metrics.file"
+    };
+
+    private final PrintStream outStream;
+    private final PrintStream errStream;
+    private final List<String> projectNames = new ArrayList<String>();
+    private final List<YWConfiguration> projectConfigs = new ArrayList<YWConfiguration>();
+    private YWConfiguration defaults = null;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int ioThreads = DEFAULT_IO_THREADS_PER_PROCESSOR * Runtime.getRuntime().availableProcessors();
+    private boolean virtualThreads = false;
+
+    public BatchRunner(PrintStream outStream, PrintStream errStream) {
+        this.outStream = outStream;
+        this.errStream = errStream;
+    }
+
+    public BatchRunner configure(Map<String,Object> config) throws Exception {
+        if (config != null) {
+            for (Map.Entry<String, Object> entry : config.entrySet()) {
+                configure(entry.getKey(), entry.getValue());
+            }
+        }
+        return this;
+    }
+
+    public BatchRunner configure(String key, Object value) throws Exception {
+        if (key.equalsIgnoreCase("parallelism")) {
+            parallelism = toThreadCount(key, value);
+        } else if (key.equalsIgnoreCase("iothreads")) {
+            ioThreads = toThreadCount(key, value);
+        }
+        return this;
+    }
+
+    private static int toThreadCount(String key, Object value) throws YWToolUsageException {
+        int count;
+        try {
+            count = (value instanceof Number) ? ((Number)value).intValue() : Integer.parseInt(value.toString().trim());
+        } catch (NumberFormatException e) {
+            throw new YWToolUsageException("ERROR: Value of batch." + key + " must be a positive integer: " + value);
+        }
+        if (count < 1) {
+            throw new YWToolUsageException("ERROR: Value of batch." + key + " must be a positive integer: " + value);
+        }
+        return count;
+    }
+
+    /** Sets the configuration applied to every project before its own configuration. */
+    public BatchRunner defaults(YWConfiguration defaults) {
+        this.defaults = defaults;
+        return this;
+    }
+
+    /** Adds a project to the batch. */
+    public BatchRunner project(String name, YWConfiguration config) {
+        projectNames.add(name);
+        projectConfigs.add(config);
+        return this;
+    }
+
+    /** Adds the projects listed in a manifest file to the batch. */
+    @SuppressWarnings("unchecked")
+    public BatchRunner manifest(String path) throws Exception {
+
+        if (!new File(path).isFile()) {
+            throw new YWToolUsageException("ERROR: Batch manifest not found: " + path);
+        }
+        File manifestDirectory = new File(path).getAbsoluteFile().getParentFile();
+
+        Object document;
+        InputStream input = new FileInputStream(path);
+        try {
+            document = new Yaml().load(input);
+        } finally {
+            input.close();
+        }
+
+        Object projects = (document instanceof Map) ? ((Map<String,Object>)document).get("projects") : null;
+        if (!(projects instanceof List)) {
+            throw new YWToolUsageException("ERROR: Batch manifest has no list of projects: " + path);
+        }
+
+        for (Object entry : (List<Object>)projects) {
+            YWConfiguration config;
+            String name;
+            if (entry instanceof String) {
+                File configFile = resolve(manifestDirectory, (String)entry);
+                if (!configFile.isFile()) {
+                    throw new YWToolUsageException("ERROR: Project configuration file not found: " + entry);
+                }
+                config = YWConfiguration.fromYamlFile(configFile.getPath());
+                rebasePaths(config, configFile.getParentFile());
+                name = (String)entry;
+            } else if (entry instanceof Map) {
+                config = new YWConfiguration();
+                config.putAll((Map<String,Object>)entry);
+                rebasePaths(config, manifestDirectory);
+                name = (config.get("name") != null) ? config.remove("name").toString() : null;
+            } else {
+                throw new YWToolUsageException("ERROR: Unrecognized project in batch manifest " + path + ": " + entry);
+            }
+            project((name != null) ? name : "project" + (projectNames.size() + 1), config);
+        }
+
+        return this;
+    }
+
+    /** Resolves the relative paths given by the path options of a project configuration
+     *  against the given directory.  Standard input and output, given as "-", are left as is. */
+    @SuppressWarnings("unchecked")
+    private static void rebasePaths(YWConfiguration config, File directory) {
+        for (String option : PATH_OPTIONS) {
+            int dot = option.indexOf('.');
+            Object section = config.get(option.substring(0, dot));
+            if (!(section instanceof Map)) continue;
+            Map<String,Object> table = (Map<String,Object>)section;
+            String key = option.substring(dot + 1);
+            Object value = table.get(key);
+            if (value instanceof List) {
+                List<Object> paths = new ArrayList<Object>();
+                for (Object element : (List<Object>)value) {
+                    paths.add(rebasePath(directory, element.toString()));
+                }
+                table.put(key, paths);
+            } else if (value instanceof String && key.equals("sources")) {
+                // split here so that a directory containing spaces is not split later
+                List<Object> paths = new ArrayList<Object>();
+                for (String token : ((String)value).split("\\s")) {
+                    if (!token.trim().isEmpty()) paths.add(rebasePath(directory, token));
+                }
+                table.put(key, paths);
+            } else if (value instanceof String) {
+                table.put(key, rebasePath(directory, (String)value));
+            }
+        }
+    }
+
+    private static String rebasePath(File directory, String path) {
+        path = path.trim();
+        if (path.isEmpty() || path.equals("-")) return path;
+        return resolve(directory, path).getPath();
+    }
+
+    private static File resolve(File directory, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(directory, path);
+    }
+
+    /** Returns true if extraction ran on virtual threads during the last run. */
+    public boolean usedVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /** Runs every project through extraction, modeling and graphing.
+     *  @return The result of each project, in the order the projects were added.
+     */
+    public List<ProjectResult> run() throws Exception {
+
+        ExecutorService extractionExecutor = newExtractionExecutor();
+        ExecutorService modelingExecutor = Executors.newFixedThreadPool(parallelism);
+        final Semaphore projectsInProgress = new Semaphore(2 * parallelism + ioThreads);
+
+        List<Future<Future<ProjectResult>>> futures = new ArrayList<Future<Future<ProjectResult>>>();
+        List<ProjectResult> results = new ArrayList<ProjectResult>();
+
+        try {
+            for (int i = 0; i < projectNames.size(); ++i) {
+                final ProjectRun project = new ProjectRun(projectNames.get(i), configFor(projectConfigs.get(i)));
+                final ExecutorService modelers = modelingExecutor;
+                futures.add(extractionExecutor.submit(new Callable<Future<ProjectResult>>() {
+                    public Future<ProjectResult> call() throws Exception {
+                        projectsInProgress.acquire();
+                        boolean handedOff = false;
+                        try {
+                            if (project.extract()) {
+                                Future<ProjectResult> result = modelers.submit(new Callable<ProjectResult>() {
+                                    public ProjectResult call() throws Exception {
+                                        try {
+                                            project.modelAndGraph();
+                                            return project.result;
+                                        } finally {
+                                            projectsInProgress.release();
+                                        }
+                                    }
+                                });
+                                handedOff = true;
+                                return result;
+                            }
+                            return null;
+                        } finally {
+                            if (!handedOff) projectsInProgress.release();
+                        }
+                    }
+                }));
+                results.add(project.result);
+            }
+
+            // print the output of each project in order as soon as it is finished
+            for (int i = 0; i < futures.size(); ++i) {
+                Future<ProjectResult> modeled = get(futures.get(i));
+                if (modeled != null) get(modeled);
+                ProjectResult result = results.get(i);
+                outStream.print(result.output);
+                if (result.message != null) {
+                    errStream.println(result.name + ": " + result.message);
+                }
+            }
+            outStream.flush();
+
+        } finally {
+            extractionExecutor.shutdownNow();
+            modelingExecutor.shutdownNow();
+        }
+
+        return results;
+    }
+
+    private static <T> T get(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) throw (Exception)e.getCause();
+            throw e;
+        }
+    }
+
+    /** Returns an executor starting a virtual thread for each task if the JVM supports
+     *  virtual threads, and otherwise a fixed pool of iothreads threads. */
+    private ExecutorService newExtractionExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ExecutorService executor = (ExecutorService)factory.invoke(null);
+            virtualThreads = true;
+            return executor;
+        } catch (Exception e) {
+            virtualThreads = false;
+            return Executors.newFixedThreadPool(ioThreads);
+        }
+    }
+
+    /** Returns the configuration of a project applied over the defaults, section by section. */
+    @SuppressWarnings("unchecked")
+    private YWConfiguration configFor(YWConfiguration projectConfig) throws Exception {
+        YWConfiguration config = (defaults == null) ? new YWConfiguration() : defaults.copy();
+        for (Map.Entry<String,Object> entry : projectConfig.copy().entrySet()) {
+            Object section = config.get(entry.getKey());
+            if (section instanceof Map && entry.getValue() instanceof Map) {
+                ((Map<String,Object>)section).putAll((Map<String,Object>)entry.getValue());
+            } else {
+                config.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return config;
+    }
+
+    /** Prints the time spent in each stage for each project, followed by the totals. */
+    public static void printTimings(List<ProjectResult> results, long elapsedNanos, PrintStream stream) {
+
+        stream.println(String.format("%-40s %-8s %10s %10s %10s", "Project", "Status", "Extract ms", "Model ms", "Graph ms"));
+        stream.println(String.format("%-40s %-8s %10s %10s %10s", "-------", "------", "----------", "--------", "--------"));
+
+        long extractNanos = 0;
+        long modelNanos = 0;
+        long graphNanos = 0;
+        int failures = 0;
+        for (ProjectResult result : results) {
+            stream.println(String.format("%-40s %-8s %10.1f %10.1f %10.1f", result.name,
+                    (result.exitCode == ExitCode.SUCCESS) ? "OK" : "FAILED",
+                    millis(result.extractNanos), millis(result.modelNanos), millis(result.graphNanos)));
+            extractNanos += result.extractNanos;
+            modelNanos += result.modelNanos;
+            graphNanos += result.graphNanos;
+            if (result.exitCode != ExitCode.SUCCESS) failures++;
+        }
+
+        stream.println(String.format("%-40s %-8s %10.1f %10.1f %10.1f", "Total", "",
+                millis(extractNanos), millis(modelNanos), millis(graphNanos)));
+        stream.println(String.format("%d projects (%d failed) in %d ms",
+                results.size(), failures, TimeUnit.NANOSECONDS.toMillis(elapsedNanos)));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /** The outcome of running one project, and the time spent in each stage. */
+    public static class ProjectResult {
+
+        public final String name;
+        private volatile ExitCode exitCode = ExitCode.SUCCESS;
+        private volatile String message = null;
+        private volatile String output = "";
+        private volatile long extractNanos = 0;
+        private volatile long modelNanos = 0;
+        private volatile long graphNanos = 0;
+
+        ProjectResult(String name) {
+            this.name = name;
+        }
+
+        public ExitCode getExitCode()  { return exitCode; }
+        public String getMessage()     { return message; }
+        public String getOutput()      { return output; }
+        public long getExtractNanos()  { return extractNanos; }
+        public long getModelNanos()    { return modelNanos; }
+        public long getGraphNanos()    { return graphNanos; }
+    }
+
+    /** The stages of one project and the state passed between them. */
+    private class ProjectRun {
+
+        final YWConfiguration config;
+        final ProjectResult result;
+        final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        final PrintStream projectOutStream = new PrintStream(stdout);
+        List<Annotation> annotations = null;
+
+        ProjectRun(String name, YWConfiguration config) {
+            this.config = config;
+            this.result = new ProjectResult(name);
+        }
+
+        /** Extracts the annotations of the project.
+         *  @return True if modeling should follow. */
+        boolean extract() {
+            long start = System.nanoTime();
+            try {
+                annotations = new DefaultExtractor(projectOutStream, errStream)
+                        .configure(config.getSection("extract"))
+                        .configure("stream", false)
+                        .extract()
+                        .getAnnotations();
+                if (annotations.size() == 0) {
+                    throw new YWMarkupException("Cannot create workflow model from source with no YW comments.");
+                }
+                return true;
+            } catch (Exception e) {
+                fail(e);
+                finish();
+                return false;
+            } finally {
+                result.extractNanos = System.nanoTime() - start;
+            }
+        }
+
+        void modelAndGraph() {
+            long start = System.nanoTime();
+            try {
+                Model model = new DefaultModeler(projectOutStream, errStream)
+                        .configure(config.getSection("model"))
+                        .annotations(annotations)
+                        .model()
+                        .getModel();
+                annotations = null;
+                long modeled = System.nanoTime();
+                result.modelNanos = modeled - start;
+                new DotGrapher(projectOutStream, errStream)
+                        .configure(config.getSection("graph"))
+                        .model(model)
+                        .graph();
+                result.graphNanos = System.nanoTime() - modeled;
+            } catch (Exception e) {
+                fail(e);
+            } finally {
+                finish();
+            }
+        }
+
+        private void fail(Exception e) {
+            if (e instanceof YWMarkupException) {
+                result.exitCode = ExitCode.MARKUP_ERROR;
+            } else if (e instanceof YWToolUsageException) {
+                result.exitCode = ExitCode.CLI_USAGE_ERROR;
+            } else {
+                result.exitCode = ExitCode.UNCAUGHT_ERROR;
+            }
+            result.message = (e.getMessage() == null) ? e.toString() : e.getMessage().trim();
+        }
+
+        private void finish() {
+            projectOutStream.flush();
+            result.output = stdout.toString();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.yesworkflow.cli;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.yesworkflow.annotations.Annotation;
+import org.yesworkflow.model.Model;
+
+/** In-memory cache of the annotations extracted from the sources of each project and
+ *  of the models built from them, shared by the requests answered by a
+ *  {@link YesWorkflowServer}.
+ *
+ *  <p>Projects are keyed by the extract section of the configuration, which includes
+ *  the list of sources, and models are keyed in addition by the model section.  An
+ *  entry records the size and modification time of each source file when it was
+ *  extracted, and is discarded as soon as any source file is found to have changed.
+ *  Sections that name output files (keys ending in <i>file</i>) are never answered
+ *  from the cache, so that those files are still written, but their results are
+ *  cached for later requests.  The least recently used projects are dropped once
+ *  more than the maximum number of projects are cached.</p>
+ */
+public class ProjectCache {
+
+    public static final int DEFAULT_MAX_PROJECTS = 16;
+
+    private final Map<String,Project> projects;
+    private int hits = 0;
+    private int misses = 0;
+
+    public ProjectCache() {
+        this(DEFAULT_MAX_PROJECTS);
+    }
+
+    /** Creates a cache holding at most the given number of projects. */
+    @SuppressWarnings("serial")
+    public ProjectCache(final int maxProjects) {
+        projects = new LinkedHashMap<String,Project>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String,Project> eldest) {
+                return size() > maxProjects;
+            }
+        };
+    }
+
+    /** Returns the annotations cached for the given extract configuration, or null if none
+     *  are cached, a source has changed since they were cached, or the configuration names
+     *  an output file. */
+    public synchronized List<Annotation> annotations(Map<String,Object> extractConfig) {
+        Project project = writesFiles(extractConfig) ? null : currentProject(extractConfig);
+        return count((project == null) ? null : project.annotations);
+    }
+
+    /** Caches the annotations extracted for the given extract configuration, along with
+     *  the current size and modification time of each of its sources. */
+    public synchronized void putAnnotations(Map<String,Object> extractConfig, List<Annotation> annotations) {
+        List<String> sources = sources(extractConfig);
+        if (sources == null) return;
+        projects.put(key(extractConfig), new Project(sources, annotations));
+    }
+
+    /** Returns the model cached for the given extract and model configurations, or null. */
+    public synchronized Model model(Map<String,Object> extractConfig, Map<String,Object> modelConfig) {
+        Project project = writesFiles(modelConfig) ? null : currentProject(extractConfig);
+        return count((project == null) ? null : project.models.get(key(modelConfig)));
+    }
+
+    /** Caches the model built from the annotations cached for the given extract configuration. */
+    public synchronized void putModel(Map<String,Object> extractConfig, Map<String,Object> modelConfig,
+                                      List<Annotation> annotations, Model model) {
+        Project project = projects.get(key(extractConfig));
+        if (project != null && project.annotations == annotations) {
+            project.models.put(key(modelConfig), model);
+        }
+    }
+
+    /** Returns the number of lookups answered from the cache. */
+    public synchronized int hits() {
+        return hits;
+    }
+
+    /** Returns the number of lookups not answered from the cache. */
+    public synchronized int misses() {
+        return misses;
+    }
+
+    /** Returns the number of projects cached. */
+    public synchronized int size() {
+        return projects.size();
+    }
+
+    public synchronized void clear() {
+        projects.clear();
+    }
+
+    /** Returns the project cached for the extract configuration, discarding it if any
+     *  of its sources has changed. */
+    private Project currentProject(Map<String,Object> extractConfig) {
+        if (sources(extractConfig) == null) return null;
+        String key = key(extractConfig);
+        Project project = projects.get(key);
+        if (project != null && !project.isCurrent()) {
+            projects.remove(key);
+            project = null;
+        }
+        return project;
+    }
+    
+    private <T> T count(T cached) {
+        if (cached == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return cached;
+    }
+
+    /** Returns the source paths named by the extract configuration, or null if the sources
+     *  are read from standard input and so cannot be checked for changes. */
+    @SuppressWarnings("unchecked")
+    private static List<String> sources(Map<String,Object> extractConfig) {
+        Object value = (extractConfig == null) ? null : extractConfig.get("sources");
+        List<String> sources = new ArrayList<String>();
+        if (value instanceof String) {
+            for (String token : ((String)value).split("\\s")) {
+                if (!token.trim().isEmpty()) sources.add(token);
+            }
+        } else if (value instanceof List) {
+            sources.addAll((List<String>)value);
+        }
+        if (sources.isEmpty() || sources.size() == 1 && sources.get(0).trim().equals("-")) return null;
+        return sources;
+    }
+
+    private static boolean writesFiles(Map<String,Object> config) {
+        if (config != null) {
+            for (Map.Entry<String,Object> entry : config.entrySet()) {
+                if (entry.getKey().toLowerCase().endsWith("file") && entry.getValue() != null) return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns a description of the configuration that does not depend on the order of its keys. */
+    private static String key(Map<String,Object> config) {
+        return (config == null) ? "{}" : new TreeMap<String,Object>(config).toString();
+    }
+
+    private static class Project {
+
+        final List<Annotation> annotations;
+        final Map<String,Model> models = new HashMap<String,Model>();
+        private final File[] files;
+        private final long[] lengths;
+        private final long[] modificationTimes;
+
+        Project(List<String> sources, List<Annotation> annotations) {
+            this.annotations = annotations;
+            files = new File[sources.size()];
+            lengths = new long[files.length];
+            modificationTimes = new long[files.length];
+            for (int i = 0; i < files.length; ++i) {
+                files[i] = new File(sources.get(i));
+                lengths[i] = files[i].length();
+                modificationTimes[i] = files[i].lastModified();
+            }
+        }
+
+        boolean isCurrent() {
+            for (int i = 0; i < files.length; ++i) {
+                if (files[i].length() != lengths[i] || files[i].lastModified() != modificationTimes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
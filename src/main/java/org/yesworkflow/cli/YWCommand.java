@@ -5,7 +5,12 @@ public enum YWCommand {
     NOOP,
     EXTRACT,
     MODEL,
-    GRAPH;
+    GRAPH,
+    QUERY,
+    RECON,
+    SERVE,
+    WATCH,
+    BATCH;
     
     public static YWCommand toYWCommand(Object ywc) throws Exception {
                 
@@ -17,6 +22,11 @@ public enum YWCommand {
             if (ywcstring.equalsIgnoreCase("extract")) return YWCommand.EXTRACT;
             if (ywcstring.equalsIgnoreCase("model")) return YWCommand.MODEL;
             if (ywcstring.equalsIgnoreCase("graph")) return YWCommand.GRAPH;
+            if (ywcstring.equalsIgnoreCase("query")) return YWCommand.QUERY;
+            if (ywcstring.equalsIgnoreCase("recon")) return YWCommand.RECON;
+            if (ywcstring.equalsIgnoreCase("serve")) return YWCommand.SERVE;
+            if (ywcstring.equalsIgnoreCase("watch")) return YWCommand.WATCH;
+            if (ywcstring.equalsIgnoreCase("batch")) return YWCommand.BATCH;
         }
         
         throw new Exception("Unrecognized YW command: " + ywc);
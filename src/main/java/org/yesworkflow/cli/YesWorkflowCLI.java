@@ -3,21 +3,39 @@ package org.yesworkflow.cli;
 import static java.util.Arrays.asList;
 
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.yesworkflow.annotations.Annotation;
 import org.yesworkflow.config.YWConfiguration;
 import org.yesworkflow.exceptions.YWMarkupException;
 import org.yesworkflow.exceptions.YWToolUsageException;
 import org.yesworkflow.extract.DefaultExtractor;
+import org.yesworkflow.extract.ExtractFacts;
 import org.yesworkflow.extract.Extractor;
 import org.yesworkflow.graph.DotGrapher;
 import org.yesworkflow.graph.Grapher;
+import org.yesworkflow.metrics.Metered;
+import org.yesworkflow.metrics.MetricsReport;
+import org.yesworkflow.metrics.StageMetrics;
 import org.yesworkflow.model.DefaultModeler;
 import org.yesworkflow.model.Model;
+import org.yesworkflow.model.ModelFacts;
 import org.yesworkflow.model.Modeler;
+import org.yesworkflow.query.DatalogEngine;
+import org.yesworkflow.query.FactsWriter;
+import org.yesworkflow.query.LineageRules;
+import org.yesworkflow.query.LogicLanguage;
+import org.yesworkflow.query.LogicLanguageModel;
+import org.yesworkflow.recon.DefaultReconstructor;
 
 import joptsimple.OptionException;
 import joptsimple.OptionParser;
@@ -26,7 +44,8 @@ import joptsimple.OptionSet;
 /** 
  * Class that provides the default command-line interface (CLI) for YesWorkflow.
  * The CLI takes one argument (or option) representing the operation to 
- * be carried out (currently <i>extract</i>, <i>model</i>, or <i>graph</i>),
+ * be carried out (currently <i>extract</i>, <i>model</i>, <i>graph</i>, <i>query</i>,
+ * <i>recon</i>, <i>serve</i>, <i>watch</i>, or <i>batch</i>),
  * along with additional options that specify desired outputs and formats.  
  * Each operation implies and automatically runs the operations that logically 
  * precede it, i.e. the <i>graph</i> command implies the <i>extract</i> and 
@@ -65,6 +84,8 @@ public class YesWorkflowCLI {
     private List<Annotation> annotations;
     private Model model = null;
     private YWConfiguration config = null;
+    private ProjectCache cache = null;
+    private MetricsReport metrics = new MetricsReport();
     
     /** Method invoked first when the YesWorkflow CLI is run from the 
      * command line. Creates an instance of {@link YesWorkflowCLI},
@@ -114,6 +135,27 @@ public class YesWorkflowCLI {
         return this;
     }
     
+    /** Method used to inject a {@link ProjectCache} from which the annotations
+     * and model for the sources may be taken instead of extracting and modeling them
+     * again.  Used by {@link YesWorkflowServer} to share work between requests.
+     * @param cache The cache to use.
+     * @return This instance.
+     */
+    public YesWorkflowCLI cache(ProjectCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /** Returns the metrics recorded by the stages run by the last call to
+     * {@link #runForArgs(String[]) runForArgs()}, in the order the stages ran.
+     * Stages answered from a {@link ProjectCache} and stages that record no metrics
+     * are omitted.
+     * @return The metrics of each stage run.
+     */
+    public List<StageMetrics> getMetrics() {
+        return metrics.getStages();
+    }
+
     /** Method used to inject the 
      * {@link org.yesworkflow.extract.Extractor Extractor} to be used.
      * @param extractor A configured {@link org.yesworkflow.extract.Extractor Extractor} to use.
@@ -159,6 +201,7 @@ public class YesWorkflowCLI {
     public ExitCode runForArgs(String[] args) throws Exception {
 
         OptionParser parser = createOptionsParser();
+        metrics = new MetricsReport();
 
         try {
 
@@ -220,19 +263,47 @@ public class YesWorkflowCLI {
                     return ExitCode.SUCCESS;
             
                 case EXTRACT:
-                    extract();
+                    extract(false);
+                    writeMetrics();
                     return ExitCode.SUCCESS;
     
                 case MODEL:
-                    extract();
+                    extract(true);
                     model();
+                    writeMetrics();
                     return ExitCode.SUCCESS;
                     
                 case GRAPH:
-                    extract();
+                    extract(true);
                     model();
                     graph();
+                    writeMetrics();
+                    return ExitCode.SUCCESS;
+
+                case QUERY:
+                    extract(true);
+                    model();
+                    query();
+                    writeMetrics();
                     return ExitCode.SUCCESS;
+
+                case RECON:
+                    extract(true);
+                    model();
+                    recon();
+                    writeMetrics();
+                    return ExitCode.SUCCESS;
+
+                case SERVE:
+                    serve();
+                    return ExitCode.SUCCESS;
+
+                case WATCH:
+                    watch();
+                    return ExitCode.SUCCESS;
+
+                case BATCH:
+                    return batch();
             }
             
         } catch (YWToolUsageException e) {
@@ -268,19 +339,32 @@ public class YesWorkflowCLI {
         "-------                    --------"                                               + EOL +
         "extract                    Identify YW comments in script source file(s)"          + EOL +
         "model                      Build workflow model from identified YW comments"       + EOL +
-        "graph                      Graphically render workflow model of script"            + EOL;
+        "graph                      Graphically render workflow model of script"            + EOL +
+        "query                      Answer a query over the annotations and workflow model" + EOL +
+        "recon                      Match files of a run to the @uri templates of ports"    + EOL +
+        "serve                      Answer YW commands sent over HTTP from a warm cache"    + EOL +
+        "watch                      Graph script again each time a source file changes"     + EOL +
+        "batch                      Graph each project listed in YAML manifest file(s)"     + EOL;
 
     public static final String YW_CLI_CONFIG_HELP = 
         "Configuration Name         Value"                                                  + EOL +
         "------------------         -----"                                                  + EOL +
+        "extract.cache              Directory for caching comments extracted from sources"  + EOL +
+        "extract.cachesize          Maximum size of extraction cache in megabytes"          + EOL +
+        "extract.charset            Character encoding of source files, e.g. UTF-8"         + EOL +
+        "extract.columnarfile       File for storing binary columnar facts about scripts"   + EOL +
         "extract.comment            Single-line comment delimiter in source files"          + EOL +
         "extract.factsfile          File for storing prolog facts about scripts"            + EOL +
         "extract.language           Language used in source files"                          + EOL +
         "extract.listfile           File for storing flat list of extracted YW markup"      + EOL +
+        "extract.parallelism        Number of source files to scan concurrently"            + EOL +
         "extract.skeletonfile       File for storing YW-markup skeleton of source files"    + EOL +  
         "extract.sources            List of source files to analyze"                        + EOL +        
+        "extract.stream             TRUE to write extract outputs while scanning sources"   + EOL +
         ""                                                                                  + EOL +
+        "model.columnarfile         File for storing binary columnar facts about model"     + EOL +
         "model.factsfile            File for storing prolog facts describing model"         + EOL +
+        "model.lineage              TRUE to add upstream lineage relations to model facts"  + EOL +
         "model.workflow             Name of top-level workflow in model"                    + EOL +
         ""                                                                                  + EOL +
         "graph.datalabel            Info to display in data nodes: NAME, URI, or BOTH"      + EOL +
@@ -288,17 +372,47 @@ public class YesWorkflowCLI {
         "graph.dotfile              Name of GraphViz DOT file to write graph to"            + EOL +
         "graph.edgelabels           SHOW or HIDE labels on edges in process and data views" + EOL +
         "graph.layout               Direction of graph layout: TB, LR, RL, or BT"           + EOL +
+        "graph.parallelism          Number of graph views to render concurrently"           + EOL +
         "graph.params               SHOW, HIDE, or REDUCE visibility of parameters"         + EOL +
         "graph.portlayout           Layout mode for workflow ports: HIDE, RELAX or GROUP"   + EOL +
-        "graph.view                 Workflow view to render: PROCESS, DATA or COMBINED"     + EOL +
-        "graph.workflowbox          SHOW or HIDE box around nodes internal to workflow"     + EOL;
+        "graph.stream               TRUE to write graph while rendering it"                 + EOL +
+        "graph.view                 List of views to render: PROCESS, DATA, COMBINED"       + EOL +
+        "graph.workflowbox          SHOW or HIDE box around nodes internal to workflow"     + EOL +
+        ""                                                                                  + EOL +
+        "query.goal                 Datalog goal to answer, e.g. data_upstream(d, X)"       + EOL +
+        "query.logic                Logic language of facts: PROLOG, DLV or IRIS"           + EOL +
+        "query.rules                File of Datalog rules to add to the lineage rules"      + EOL +
+        ""                                                                                  + EOL +
+        "recon.factsfile            File for storing prolog facts about run files"          + EOL +
+        "recon.parallelism          Number of run directories to list concurrently"         + EOL +
+        "recon.rundir               Directory holding the files of a run, e.g. run1"        + EOL +
+        ""                                                                                  + EOL +
+        "serve.port                 Local port on which to answer commands, e.g. 7842"      + EOL +
+        "serve.projects             Number of projects to keep cached in memory"            + EOL +
+        "serve.tokenfile            File to which to write the request token of the server" + EOL +
+        ""                                                                                  + EOL +
+        "watch.delay                Milliseconds to wait for further changes, e.g. 50"      + EOL +
+        ""                                                                                  + EOL +
+        "batch.iothreads            Extraction threads when virtual threads are missing"    + EOL +
+        "batch.parallelism          Number of projects to model and graph concurrently"     + EOL +
+        ""                                                                                  + EOL +
+        "metrics.file               File for storing time and counts for each stage"        + EOL +
+        "metrics.format             Format of metrics file: JSON or CSV"                    + EOL;
     
     public static final String YW_CLI_EXAMPLES_HELP = 
         "Examples"                                                                          + EOL +
         "--------"                                                                          + EOL +
         "$ yw extract myscript -c extract.comment='#' -c extract.listing=comments.txt"      + EOL +
         "$ yw graph myscript.py -config graph.view=combined -config graph.datalabel=uri"    + EOL +
-        "$ yw graph scriptA.py scriptB.py > wf.gv; dot -Tpdf wf.gv -o wf.pdf; open wf.pdf"  + EOL;
+        "$ yw graph scriptA.py scriptB.py > wf.gv; dot -Tpdf wf.gv -o wf.pdf; open wf.pdf"  + EOL +
+        "$ yw graph myscript.py -c graph.view=process,data -c graph.dotfile=wf.gv"          + EOL +
+        "$ yw query myscript.py -c query.goal=\"program_upstream('step_two', P)\""          + EOL +
+        "$ yw recon myscript.py -c recon.rundir=run1 -c recon.factsfile=run1.P"            + EOL +
+        "$ yw serve & curl -H \"X-YW-Token: $(cat ~/.yw-serve-token)\" --data-binary \\"     + EOL +
+        "      $'graph\\nmyscript.py' http://localhost:7842/run"                             + EOL +
+        "$ yw watch myscript.py -c graph.dotfile=wf.gv"                                     + EOL +
+        "$ yw batch projects.yaml -c graph.view=data -c batch.parallelism=8"                + EOL +
+        "$ yw graph myscript.py -c metrics.file=metrics.csv > wf.gv"                        + EOL;
     
     private void printCLIHelp(OptionParser parser) throws IOException {
         errStream.println();
@@ -327,15 +441,35 @@ public class YesWorkflowCLI {
         return parser;
     }
 
-    private void extract() throws Exception {
+    private void extract(boolean annotationsNeeded) throws Exception {
     	
+        Map<String,Object> extractConfig = config.getSection("extract");
+        if (cache != null && annotationsNeeded) {
+            annotations = cache.annotations(extractConfig);
+            if (annotations != null) return;
+            if (extractConfig == null || extractConfig.get("sources") == null) {
+                throw new YWToolUsageException("ERROR: No source files given. Served commands cannot read standard input.");
+            }
+        }
+
         if (extractor == null) {
             extractor =  new DefaultExtractor(this.outStream, this.errStream);
         }
 
-        annotations = extractor.configure(config.getSection("extract"))
-	                           .extract()
+        extractor.configure(config.getSection("extract"));
+        
+        // streaming extraction does not retain the annotations needed by later stages
+        if (annotationsNeeded) {
+            extractor.configure("stream", false);
+        }
+        
+        annotations = extractor.extract()
 	                           .getAnnotations();
+        addMetrics(extractor);
+
+        if (cache != null && annotationsNeeded) {
+            cache.putAnnotations(extractConfig, annotations);
+        }
     }
 
     private void model() throws Exception {
@@ -344,6 +478,11 @@ public class YesWorkflowCLI {
             throw new YWMarkupException("Cannot create workflow model from source with no YW comments.");
         }
         
+        if (cache != null) {
+            model = cache.model(config.getSection("extract"), config.getSection("model"));
+            if (model != null) return;
+        }
+
         if (modeler == null) {
             modeler = new DefaultModeler(this.outStream, this.errStream);
          }
@@ -352,6 +491,11 @@ public class YesWorkflowCLI {
                            .annotations(annotations)
                            .model()
                            .getModel();
+        addMetrics(modeler);
+
+        if (cache != null) {
+            cache.putModel(config.getSection("extract"), config.getSection("model"), annotations, model);
+        }
     }
 
     private void graph() throws Exception {
@@ -363,5 +507,164 @@ public class YesWorkflowCLI {
         grapher.configure(config.getSection("graph"))
                .model(model)
                .graph();
+        addMetrics(grapher);
+    }
+
+    /** Matches the files under recon.rundir to the ports of the model and writes
+     *  the facts about them to recon.factsfile, or to stdout if no file is given. */
+    private void recon() throws Exception {
+
+        Map<String,Object> reconConfig = config.getSection("recon");
+        DefaultReconstructor reconstructor = new DefaultReconstructor(this.outStream, this.errStream)
+                .configure("factsfile", "-")
+                .configure(reconConfig);
+        Object logic = config.getConfigOptionValue("model.logic");
+        if (logic != null && (reconConfig == null || reconConfig.get("logic") == null)) {
+            reconstructor.configure("logic", logic);
+        }
+
+        reconstructor.model(model).recon();
+        addMetrics(reconstructor);
+    }
+
+    private void addMetrics(Object stage) {
+        if (stage instanceof Metered) {
+            metrics.add(((Metered)stage).getMetrics());
+        }
+    }
+
+    /** Writes the metrics of the stages run to the file named by metrics.file, as CSV if
+     *  the name ends in .csv or metrics.format is CSV, and otherwise as JSON. */
+    private void writeMetrics() throws Exception {
+        
+        String path = config.getConfigOptionValue("metrics.file");
+        if (path == null || path.trim().isEmpty()) return;
+        
+        MetricsReport.Format format = MetricsReport.formatForPath(path);
+        String formatName = config.getConfigOptionValue("metrics.format");
+        if (formatName != null) {
+            try {
+                format = MetricsReport.toFormat(formatName);
+            } catch (Exception e) {
+                throw new YWToolUsageException("ERROR: Value of metrics.format must be JSON or CSV.");
+            }
+        }
+        metrics.writeToFile(path.trim(), format);
+    }
+
+    private void serve() throws Exception {
+
+        if (cache != null) {
+            throw new YWToolUsageException("ERROR: The serve command cannot be sent to a running server.");
+        }
+
+        Object port = config.getConfigOptionValue("serve.port");
+        Object projects = config.getConfigOptionValue("serve.projects");
+        YesWorkflowServer server;
+        try {
+            server = new YesWorkflowServer(
+                    (port == null) ? YesWorkflowServer.DEFAULT_PORT : Integer.parseInt(port.toString().trim()),
+                    (projects == null) ? new ProjectCache() : new ProjectCache(Integer.parseInt(projects.toString().trim())));
+        } catch (NumberFormatException e) {
+            throw new YWToolUsageException("ERROR: Values of serve.port and serve.projects must be integers.");
+        }
+
+        Object tokenFile = config.getConfigOptionValue("serve.tokenfile");
+        Path tokenPath = (tokenFile == null) ? Paths.get(System.getProperty("user.home"), YesWorkflowServer.DEFAULT_TOKEN_FILE_NAME)
+                                             : Paths.get(tokenFile.toString().trim());
+        server.start();
+        server.writeTokenFile(tokenPath);
+        errStream.println("YesWorkflow server answering commands at http://localhost:" + server.getPort() + "/run");
+        errStream.println("Send the token in " + tokenPath + " in the " + YesWorkflowServer.TOKEN_HEADER + " header of each request");
+        server.awaitStop();
+    }
+
+    private void watch() throws Exception {
+
+        if (cache != null) {
+            throw new YWToolUsageException("ERROR: The watch command cannot be sent to a running server.");
+        }
+
+        YesWorkflowWatcher watcher = new YesWorkflowWatcher(config, this.outStream, this.errStream);
+        errStream.println("Watching sources for changes. Press Ctrl-C to stop.");
+        watcher.watch();
+    }
+
+    private ExitCode batch() throws Exception {
+
+        if (cache != null) {
+            throw new YWToolUsageException("ERROR: The batch command cannot be sent to a running server.");
+        }
+
+        // the arguments following the command name the manifests rather than sources
+        Map<String,Object> extractConfig = config.getSection("extract");
+        Object manifests = (extractConfig == null) ? null : extractConfig.remove("sources");
+        if (!(manifests instanceof List) || ((List<?>)manifests).isEmpty()) {
+            throw new YWToolUsageException("ERROR: No batch manifest given.");
+        }
+
+        BatchRunner runner = new BatchRunner(this.outStream, this.errStream)
+                .configure(config.getSection("batch"))
+                .defaults(config);
+        for (Object manifest : (List<?>)manifests) {
+            runner.manifest(manifest.toString());
+        }
+
+        long start = System.nanoTime();
+        List<BatchRunner.ProjectResult> results = runner.run();
+        BatchRunner.printTimings(results, System.nanoTime() - start, errStream);
+
+        for (BatchRunner.ProjectResult result : results) {
+            if (result.getExitCode() != ExitCode.SUCCESS) return result.getExitCode();
+        }
+        return ExitCode.SUCCESS;
+    }
+
+    private void query() throws Exception {
+
+        Object goal = config.getConfigOptionValue("query.goal");
+        if (goal == null || goal.toString().trim().isEmpty()) {
+            throw new YWToolUsageException("ERROR: No goal given for query. Assign a Datalog goal to query.goal.");
+        }
+
+        Object logic = config.getConfigOptionValue("query.logic");
+        LogicLanguage logicLanguage = (logic == null) ? LogicLanguage.PROLOG : LogicLanguage.toLogicLanguage(logic);
+
+        DatalogEngine engine = new DatalogEngine();
+        new ExtractFacts(logicLanguage, extractSources(), annotations).writeTo(engine);
+        new ModelFacts(logicLanguage, model).writeTo(engine);
+
+        Writer out = new OutputStreamWriter(outStream, Charset.defaultCharset());
+        try {
+            engine.rules(LineageRules.RULES);
+            Object rulesFile = config.getConfigOptionValue("query.rules");
+            if (rulesFile != null) {
+                engine.rules(new String(Files.readAllBytes(Paths.get(rulesFile.toString())), Charset.defaultCharset()));
+            }
+            engine.writeAnswers(goal.toString(), new FactsWriter(new LogicLanguageModel(logicLanguage), out));
+        } catch (IllegalArgumentException e) {
+            throw new YWToolUsageException("ERROR: " + e.getMessage());
+        }
+        out.flush();
+    }
+
+    /** Returns the source paths named by the extract configuration, in the order the
+     *  extractor numbers them in its facts. */
+    private List<String> extractSources() {
+        Map<String,Object> extractConfig = config.getSection("extract");
+        Object value = (extractConfig == null) ? null : extractConfig.get("sources");
+        List<String> sources = new LinkedList<String>();
+        if (value instanceof String) {
+            for (String token : ((String)value).split("\\s")) {
+                if (!token.trim().isEmpty()) sources.add(token);
+            }
+        } else if (value instanceof List) {
+            for (Object source : (List<?>)value) sources.add(source.toString());
+        }
+        if (sources.isEmpty() || sources.size() == 1 && sources.get(0).trim().equals("-")) {
+            sources.clear();
+            sources.add("__stdin__");
+        }
+        return sources;
     }
 }
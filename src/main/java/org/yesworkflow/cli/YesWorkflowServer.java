@@ -0,0 +1,266 @@
+package org.yesworkflow.cli;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.yesworkflow.config.YWConfiguration;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/** Long-running HTTP server that answers YesWorkflow commands without paying JVM
+ *  startup for each one, and that keeps the annotations and models of recently used
+ *  projects warm in a {@link ProjectCache}.  The server listens on the loopback
+ *  interface only.
+ *
+ *  <p>A request is a POST to <code>/run</code> whose body holds the command-line
+ *  arguments that would be passed to <code>yw</code>, one per line.  The arguments are
+ *  run with {@link YesWorkflowCLI#runForArgs(String[]) runForArgs()} against the
+ *  configuration read from the yw.yaml and yw.properties files in the working directory
+ *  of the server, which are parsed again only when they change.  The response body holds
+ *  the standard output of the command followed by its standard error, the length in
+ *  bytes of the standard output is given by the <code>X-YW-Stdout-Length</code> header,
+ *  and the {@link ExitCode} value is given by the <code>X-YW-Exit-Code</code> header.
+ *  A POST to <code>/shutdown</code> stops the server.  Relative source paths are
+ *  resolved against the working directory of the server.</p>
+ *
+ *  <p>Because served commands can write files at paths chosen by the caller, every
+ *  request must carry the random token generated when the server starts in the
+ *  <code>X-YW-Token</code> header.  The token can be written to a file readable only by
+ *  its owner with {@link #writeTokenFile(Path) writeTokenFile()}.  Requests with an
+ *  <code>Origin</code> header, or with a <code>Host</code> header naming anything but
+ *  localhost or 127.0.0.1, are refused so that web pages cannot reach the server from a
+ *  browser, whether directly or through DNS rebinding.</p>
+ */
+public class YesWorkflowServer {
+
+    public static final int DEFAULT_PORT = 7842;
+    public static final String EXIT_CODE_HEADER = "X-YW-Exit-Code";
+    public static final String STDOUT_LENGTH_HEADER = "X-YW-Stdout-Length";
+    public static final String TOKEN_HEADER = "X-YW-Token";
+    public static final String DEFAULT_TOKEN_FILE_NAME = ".yw-serve-token";
+
+    private static final String YAML_FILE_NAME = "yw.yaml";
+    private static final String PROPERTY_FILE_NAME = "yw.properties";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int requestedPort;
+    private final ProjectCache cache;
+    private final String token = newToken();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private HttpServer server = null;
+    private ExecutorService executor = null;
+    private YWConfiguration baseConfig = null;
+    private long[] configStamp = null;
+
+    /** Creates a server for the given port, or for any free port if the port is 0. */
+    public YesWorkflowServer(int port, ProjectCache cache) {
+        this.requestedPort = port;
+        this.cache = cache;
+    }
+
+    /** Starts answering requests on a pool of threads. */
+    public YesWorkflowServer start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), requestedPort), 0);
+        server.createContext("/run", new RunHandler());
+        server.createContext("/shutdown", new ShutdownHandler());
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        server.setExecutor(executor);
+        server.start();
+        return this;
+    }
+
+    /** Returns the port the server is listening on. */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public ProjectCache getCache() {
+        return cache;
+    }
+
+    /** Returns the token that requests must carry in the {@value #TOKEN_HEADER} header. */
+    public String getToken() {
+        return token;
+    }
+
+    /** Writes the token to the given file, creating the file readable and writable only by
+     *  its owner where the file system supports POSIX permissions. */
+    public void writeTokenFile(Path path) throws IOException {
+        Files.deleteIfExists(path);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Set<PosixFilePermission> ownerOnly = EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE);
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(ownerOnly));
+        } else {
+            File file = Files.createFile(path).toFile();
+            file.setReadable(false, false);
+            file.setWritable(false, false);
+            file.setReadable(true, true);
+            file.setWritable(true, true);
+        }
+        Files.write(path, (token + "\n").getBytes(UTF8), StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /** Stops the server, waiting briefly for requests in progress to finish. */
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(1);
+            executor.shutdownNow();
+            server = null;
+            stopped.countDown();
+        }
+    }
+
+    /** Blocks until the server is stopped. */
+    public void awaitStop() throws InterruptedException {
+        stopped.await();
+    }
+
+    /** Runs one command, writing its output to the given streams. */
+    ExitCode run(String[] args, PrintStream outStream, PrintStream errStream) {
+        try {
+            return new YesWorkflowCLI(outStream, errStream)
+                    .config(baseConfig().copy())
+                    .cache(cache)
+                    .runForArgs(args);
+        } catch (Exception e) {
+            e.printStackTrace(errStream);
+            return ExitCode.UNCAUGHT_ERROR;
+        }
+    }
+
+    /** Returns the configuration read from the files in the working directory, reading the
+     *  files again only if their size or modification time has changed. */
+    private synchronized YWConfiguration baseConfig() throws Exception {
+        File yamlFile = new File(YAML_FILE_NAME);
+        File propertyFile = new File(PROPERTY_FILE_NAME);
+        long[] stamp = { yamlFile.length(), yamlFile.lastModified(), propertyFile.length(), propertyFile.lastModified() };
+        if (baseConfig == null || !Arrays.equals(stamp, configStamp)) {
+            baseConfig = YWConfiguration.fromYamlFile(YAML_FILE_NAME);
+            baseConfig.applyPropertyFile(PROPERTY_FILE_NAME);
+            configStamp = stamp;
+        }
+        return baseConfig;
+    }
+
+    private static String newToken() {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) hex.append(String.format("%02x", b & 0xff));
+        return hex.toString();
+    }
+
+    /** Responds with an error and returns false if the request may have come from a web page
+     *  or does not carry the token of this server. */
+    private boolean authorize(HttpExchange exchange) throws IOException {
+        if (exchange.getRequestHeaders().containsKey("Origin") || !isLocalHost(exchange.getRequestHeaders().getFirst("Host"))) {
+            respond(exchange, 403, "Requests from web pages are not accepted\n".getBytes(UTF8));
+            return false;
+        }
+        String sent = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+        if (sent == null || !MessageDigest.isEqual(sent.trim().getBytes(UTF8), token.getBytes(UTF8))) {
+            respond(exchange, 401, ("Send the token of this server in the " + TOKEN_HEADER + " header\n").getBytes(UTF8));
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isLocalHost(String host) {
+        if (host == null) return false;
+        int colon = host.lastIndexOf(':');
+        String name = (colon == -1) ? host : host.substring(0, colon);
+        return name.equalsIgnoreCase("localhost") || name.equals("127.0.0.1");
+    }
+
+    private static List<String> readArguments(HttpExchange exchange) throws IOException {
+        List<String> args = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), UTF8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.trim().isEmpty()) args.add(line.trim());
+        }
+        return args;
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain");
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+
+    private class RunHandler implements HttpHandler {
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!authorize(exchange)) return;
+                if (!exchange.getRequestMethod().equalsIgnoreCase("POST")) {
+                    respond(exchange, 405, "Send the arguments to yw in the body of a POST request\n".getBytes(UTF8));
+                    return;
+                }
+                List<String> args = readArguments(exchange);
+
+                ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+                ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+                PrintStream outStream = new PrintStream(stdout);
+                PrintStream errStream = new PrintStream(stderr);
+                ExitCode exitCode = run(args.toArray(new String[args.size()]), outStream, errStream);
+                outStream.flush();
+                errStream.flush();
+
+                exchange.getResponseHeaders().set(EXIT_CODE_HEADER, String.valueOf(exitCode.value()));
+                exchange.getResponseHeaders().set(STDOUT_LENGTH_HEADER, String.valueOf(stdout.size()));
+                stdout.write(stderr.toByteArray());
+                respond(exchange, 200, stdout.toByteArray());
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    private class ShutdownHandler implements HttpHandler {
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!authorize(exchange)) return;
+                respond(exchange, 200, "Stopping YesWorkflow server\n".getBytes(UTF8));
+            } finally {
+                exchange.close();
+            }
+            // stop from another thread since stopping waits for this exchange to finish
+            new Thread(new Runnable() {
+                public void run() {
+                    stop();
+                }
+            }).start();
+        }
+    }
+}
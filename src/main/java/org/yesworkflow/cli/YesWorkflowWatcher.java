@@ -0,0 +1,224 @@
+package org.yesworkflow.cli;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.yesworkflow.annotations.Annotation;
+import org.yesworkflow.config.YWConfiguration;
+import org.yesworkflow.exceptions.YWMarkupException;
+import org.yesworkflow.exceptions.YWToolUsageException;
+import org.yesworkflow.extract.DefaultExtractor;
+import org.yesworkflow.graph.DotGrapher;
+import org.yesworkflow.model.DefaultModeler;
+import org.yesworkflow.model.Model;
+
+/** Keeps the graph of a set of source files up to date as the files are edited.
+ *
+ *  <p>The directories containing the sources are watched with a
+ *  {@link java.nio.file.WatchService}, and whenever a source changes the graph is
+ *  rendered again from an updated model.  The extractor and modeler are run in
+ *  incremental mode, so only the sources whose size or modification time changed
+ *  are scanned again, and the programs built from nested blocks whose annotations
+ *  are unchanged are reused rather than rebuilt.  Blocks moved by lines, ports or
+ *  blocks inserted above them are reused too, copied with their ids shifted.  Changes arriving within the
+ *  configured delay of each other are handled together.  Markup errors are reported
+ *  and watching continues, so that a source can be fixed while it is watched.</p>
+ */
+public class YesWorkflowWatcher {
+
+    public static final long DEFAULT_DELAY = 50;
+
+    private final PrintStream outStream;
+    private final PrintStream errStream;
+    private final DefaultExtractor extractor;
+    private final DefaultModeler modeler;
+    private final DotGrapher grapher;
+    private final List<Path> sourcePaths = new ArrayList<Path>();
+    private long delay = DEFAULT_DELAY;
+    private Model model = null;
+    private volatile int updateCount = 0;
+    private volatile int completedUpdateCount = 0;
+    private WatchService watchService = null;
+    private boolean stopped = false;
+
+    public YesWorkflowWatcher(YWConfiguration config, PrintStream outStream, PrintStream errStream) throws Exception {
+
+        this.outStream = outStream;
+        this.errStream = errStream;
+
+        Map<String,Object> extractConfig = config.getSection("extract");
+        Object sources = (extractConfig == null) ? null : extractConfig.get("sources");
+        if (sources instanceof String) {
+            for (String token : ((String)sources).split("\\s")) {
+                if (!token.trim().isEmpty()) sourcePaths.add(Paths.get(token.trim()).toAbsolutePath().normalize());
+            }
+        } else if (sources instanceof List) {
+            for (Object source : (List<?>)sources) {
+                sourcePaths.add(Paths.get(source.toString().trim()).toAbsolutePath().normalize());
+            }
+        }
+        if (sourcePaths.isEmpty() || sourcePaths.contains(Paths.get("-").toAbsolutePath().normalize())) {
+            throw new YWToolUsageException("ERROR: No source files given. The watch command cannot watch standard input.");
+        }
+
+        Object delay = config.getConfigOptionValue("watch.delay");
+        if (delay != null) {
+            try {
+                this.delay = Long.parseLong(delay.toString().trim());
+            } catch (NumberFormatException e) {
+                throw new YWToolUsageException("ERROR: Value of watch.delay must be an integer number of milliseconds.");
+            }
+        }
+
+        extractor = new DefaultExtractor(outStream, errStream);
+        extractor.configure(extractConfig)
+                 .configure("stream", false)
+                 .configure("incremental", true);
+
+        modeler = new DefaultModeler(outStream, errStream);
+        modeler.configure(config.getSection("model"))
+               .configure("incremental", true);
+
+        grapher = new DotGrapher(outStream, errStream);
+        grapher.configure(config.getSection("graph"));
+    }
+
+    /** Extracts, models and graphs the sources again, reporting any markup errors.
+     *  @return True if the graph was rendered.
+     */
+    public boolean update() throws Exception {
+
+        long start = System.nanoTime();
+        updateCount++;
+
+        try {
+            List<Annotation> annotations = extractor.extract().getAnnotations();
+            if (annotations.size() == 0) {
+                throw new YWMarkupException("Cannot create workflow model from source with no YW comments.");
+            }
+            model = modeler.annotations(annotations)
+                           .model()
+                           .getModel();
+            grapher.model(model).graph();
+        } catch (YWMarkupException e) {
+            errStream.println("******************* YESWORKFLOW MARKUP ERRORS **************************");
+            errStream.print(e.getMessage());
+            errStream.println();
+            errStream.println("------------------------------------------------------------------------");
+            return false;
+        } catch (YWToolUsageException e) {
+            errStream.println(e.getMessage());
+            return false;
+        } catch (Exception e) {
+            errStream.println("ERROR: " + e.getMessage());
+            return false;
+        } finally {
+            outStream.flush();
+            completedUpdateCount++;
+        }
+
+        errStream.println(String.format("Graph updated in %d ms (%d of %d sources scanned, %d nested programs reused)",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                extractor.getScannedSourceCount(), sourcePaths.size(), modeler.getReusedProgramCount()));
+        return true;
+    }
+
+    /** Renders the graph and then renders it again each time a source changes,
+     *  until {@link #stop()} is called. */
+    public void watch() throws Exception {
+
+        synchronized(this) {
+            if (stopped) return;
+            watchService = FileSystems.getDefault().newWatchService();
+            Set<Path> directories = new HashSet<Path>();
+            for (Path source : sourcePaths) {
+                Path directory = source.getParent();
+                if (directories.add(directory)) {
+                    directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                }
+            }
+        }
+
+        update();
+
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean sourceChanged = false;
+
+                // gather the events arriving until none arrive for the length of the delay
+                while (key != null) {
+                    Path directory = (Path)key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == OVERFLOW || sourcePaths.contains(directory.resolve((Path)event.context()))) {
+                            sourceChanged = true;
+                        }
+                    }
+                    key.reset();
+                    key = watchService.poll(delay, TimeUnit.MILLISECONDS);
+                }
+
+                if (sourceChanged) update();
+            }
+        } catch (ClosedWatchServiceException e) {
+            // stopped
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Stops watching the sources. */
+    public synchronized void stop() throws IOException {
+        stopped = true;
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    public Model getModel() {
+        return model;
+    }
+
+    /** Returns the number of updates started, including those that found markup errors. */
+    public int getUpdateCount() {
+        return updateCount;
+    }
+
+    /** Returns the number of updates finished, counting an update as finished once its graph
+     *  has been written to the output stream or its errors reported. */
+    public int getCompletedUpdateCount() {
+        return completedUpdateCount;
+    }
+
+    /** Returns the number of sources scanned by the last update. */
+    public int getScannedSourceCount() {
+        return extractor.getScannedSourceCount();
+    }
+
+    /** Returns the number of nested programs reused by the last update. */
+    public int getReusedProgramCount() {
+        return modeler.getReusedProgramCount();
+    }
+
+    public DotGrapher getGrapher() {
+        return grapher;
+    }
+}
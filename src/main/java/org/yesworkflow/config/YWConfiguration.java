@@ -5,6 +5,7 @@ import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.InputStream;
 import java.io.Reader;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +34,29 @@ public class YWConfiguration extends HashMap<String,Object> {
         return config;
     }
 
+    /** Returns a copy of this configuration that shares no tables with it, so that
+     *  options applied to the copy leave this configuration unchanged. */
+    public YWConfiguration copy() throws Exception {
+        YWConfiguration copy = new YWConfiguration();
+        copy.putAll(copyTable(this));
+        return copy;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static Map<String,Object> copyTable(Map<String,Object> table) {
+        Map<String,Object> copy = new HashMap<String,Object>();
+        for (Map.Entry<String,Object> entry : table.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Map) {
+                value = copyTable((Map<String,Object>)value);
+            } else if (value instanceof List) {
+                value = new ArrayList<Object>((List<Object>)value);
+            }
+            copy.put(entry.getKey(), value);
+        }
+        return copy;
+    }
+
     public void applyPropertyFile(String propertyFile) throws Exception {
         if (propertyFile != null && new File(propertyFile).exists()) {
             applyConfigProperties(new FileReader(propertyFile));
@@ -162,7 +162,7 @@ public abstract class UriBase {
 		}
 		
 		// reduce any double-slashes in path to single slashes
-		spp.path = spp.path.replaceAll("//", "/");
+		spp.path = reduceDoubleSlashes(spp.path);
 		
 		// return the scheme-path pair as a single return value
 		return spp;
@@ -201,22 +201,80 @@ public abstract class UriBase {
 		return uriString;
 	}
 	
+	/**
+	 * Replaces each pair of adjacent slashes in a path with a single slash, scanning
+	 * from left to right so that e.g. three slashes become two.
+	 * 
+	 * @param path A path that may contain double slashes.
+	 * @return The path with double slashes reduced, or the same string if it has none.
+	 */
+	public static String reduceDoubleSlashes(String path) {
+		
+		// return the path itself unless it contains a double slash
+		int index = path.indexOf("//");
+		if (index == -1) return path;
+		
+		// copy the path up to the first double slash and reduce the rest in one pass
+		int length = path.length();
+		StringBuilder reducedPath = new StringBuilder(length - 1);
+		reducedPath.append(path, 0, index);
+		while (index < length) {
+			char c = path.charAt(index++);
+			reducedPath.append(c);
+			if (c == '/' && index < length && path.charAt(index) == '/') index++;
+		}
+		
+		return reducedPath.toString();
+	}
+	
+	/**
+	 * Hex-encodes the characters of a string that are not safe to use in a file system path,
+	 * i.e. all characters other than letters, digits, and the characters - . _ and ~.  Each
+	 * encoded character is replaced by a percent sign followed by at least two lowercase hex
+	 * digits giving its value.
+	 * 
+	 * @param unescapedString The string to encode.
+	 * @return The encoded string, or the same string if no characters needed encoding.
+	 */
 	public static String encodeString(String unescapedString) {
 		
-		StringBuffer escapedString = new StringBuffer(unescapedString);
+		// return the string itself unless it contains a character that must be encoded
+		int length = unescapedString.length();
+		int index = 0;
+		while (index < length && isSafe(unescapedString.charAt(index))) index++;
+		if (index == length) return unescapedString;
 		
-		for (int index = 0; index < escapedString.length(); index++) {
-			Character c = escapedString.charAt(index);
-			if ((!Character.isLetterOrDigit(c)) && (c != '-') && (c != '.') && (c != '_') && (c != '~')) {
-				String hexCode = String.format("%02x", (int)c);
-				escapedString.replace(index, index+1, "%" + hexCode);
-				index += hexCode.length();
+		// copy the safe prefix and encode the remaining characters in one pass
+		StringBuilder escapedString = new StringBuilder(length + 16);
+		escapedString.append(unescapedString, 0, index);
+		for (; index < length; index++) {
+			char c = unescapedString.charAt(index);
+			if (isSafe(c)) {
+				escapedString.append(c);
+			} else {
+				escapedString.append('%');
+				if (c > 0xfff) escapedString.append(HEX_DIGITS[c >>> 12]);
+				if (c > 0xff) escapedString.append(HEX_DIGITS[(c >>> 8) & 0xf]);
+				escapedString.append(HEX_DIGITS[(c >>> 4) & 0xf]);
+				escapedString.append(HEX_DIGITS[c & 0xf]);
 			}
 		}
 		
 		return escapedString.toString();
 	}
 
+	private static boolean isSafe(char c) {
+		return (c < SAFE_ASCII.length) ? SAFE_ASCII[c] : Character.isLetterOrDigit(c);
+	}
+	
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private static final boolean[] SAFE_ASCII = new boolean[128];
+	static {
+		for (char c = 0; c < SAFE_ASCII.length; c++) {
+			SAFE_ASCII[c] = Character.isLetterOrDigit(c) || c == '-' || c == '.' || c == '_' || c == '~';
+		}
+	}
+
 	/**
 	 * Returns the scheme and path portion of uri, up to the final element.
 	 *  
@@ -1,9 +1,15 @@
 package org.yesworkflow.data;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.LinkedList;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * <p> This class represents a URI template that can be matched
@@ -35,6 +41,9 @@ public class UriTemplate extends UriBase {
 	private final String 		_reducedPath;	// Fully reduced, directly matchable representation of the URI template.
 	private final String[] 		_variableNames;	// Array of variables named in the URI template in position order
 	private final String[]		_pathFragments; // Array of strings representing non-variable portions of the template path
+	private final int[]			_repeatOf;		// Position of the earlier use of the same variable, or -1 for each variable
+	private final int[][]		_earlierUses;	// Positions before each variable of the first uses of variables repeated from it on
+	private final int			_minimumMatchLength; // Length of the shortest path that can match the template
 	
 	///////////////////////////////////////////////////////////////////
 	////                     public constructors                   ////
@@ -58,7 +67,37 @@ public class UriTemplate extends UriBase {
 		_variableNames = variableNames.toArray(new String[] {});
 
 		// store the fixed portions of the template path as an array
-		_pathFragments = constantFragments.toArray(new String[] {});		
+		_pathFragments = constantFragments.toArray(new String[] {});
+		
+		// compile the template for matching against concrete paths
+		_repeatOf = new int[_variableNames.length];
+		int minimumMatchLength = _variableNames.length;
+		for (int i = 0; i < _variableNames.length; i++) {
+			_repeatOf[i] = -1;
+			if (!_variableNames[i].isEmpty()) {
+				for (int j = 0; j < i; j++) {
+					if (_variableNames[j].equals(_variableNames[i])) {
+						_repeatOf[i] = j;
+						break;
+					}
+				}
+			}
+		}
+		for (String fragment : _pathFragments) minimumMatchLength += fragment.length();
+		_minimumMatchLength = minimumMatchLength;
+		
+		// note which earlier values the match of the variables from each position on depends on
+		_earlierUses = new int[_variableNames.length][];
+		for (int i = 0; i < _variableNames.length; i++) {
+			List<Integer> earlierUses = new LinkedList<Integer>();
+			for (int j = i; j < _variableNames.length; j++) {
+				if (_repeatOf[j] != -1 && _repeatOf[j] < i && !earlierUses.contains(_repeatOf[j])) {
+					earlierUses.add(_repeatOf[j]);
+				}
+			}
+			_earlierUses[i] = new int[earlierUses.size()];
+			for (int k = 0; k < _earlierUses[i].length; k++) _earlierUses[i][k] = earlierUses.get(k);
+		}
 	}	
 	
 
@@ -136,6 +175,11 @@ public class UriTemplate extends UriBase {
 		return Arrays.copyOf(_variableNames, _variableNames.length);
 	}
 
+	/** @return The constant portions of the template path, one more than the number of variables */
+	public String[] getPathFragments() {
+		return Arrays.copyOf(_pathFragments, _pathFragments.length);
+	}
+
 	/** 
 	 * @return true if the reduced paths of the two templates are identical, otherwise false
 	 */
@@ -198,6 +242,183 @@ public class UriTemplate extends UriBase {
 		return expandedPathBuilder.toString();
 	}
 
+	/**
+	 * Matches a concrete path against the path portion of the template and returns
+	 * the values of the template variables in the path, in order of appearance
+	 * in the template.
+	 * 
+	 * <p> The path is matched left to right against the constant fragments of the
+	 * template, without regular expressions.  A variable matches one or more characters
+	 * other than a slash, as expanded variable values have their slashes hex-encoded.
+	 * Where a variable is followed by a constant fragment within the same path element
+	 * the variable takes the shortest value after which the fragment occurs, and longer
+	 * values are tried only if the rest of the path then fails to match.  A variable
+	 * used more than once in the template must have the same value at each position,
+	 * so later uses of a variable match only the value taken by its first use.  The
+	 * positions from which the remaining variables failed to match are remembered and
+	 * not tried again, so the time taken grows with the product of the number of
+	 * variables and the length of the path rather than exponentially.  Values are
+	 * returned as they appear in the path, i.e. still hex-encoded. </p>
+	 * 
+	 * @param concretePath	The path portion of a concrete URI, e.g. a file path.
+	 * @return				The values of the template variables in order of appearance
+	 * 						in the template, or null if the path does not match the template.
+	 */
+	public String[] matchPath(String concretePath) {
+		
+		int variableCount = _variableNames.length;
+		
+		// a template without variables matches only an identical path
+		if (variableCount == 0) {
+			return _pathFragments[0].equals(concretePath) ? new String[0] : null;
+		}
+		
+		// the path must be long enough and start and end with the outermost constant fragments
+		String prefix = _pathFragments[0];
+		String suffix = _pathFragments[variableCount];
+		if (concretePath.length() < _minimumMatchLength 
+				|| !concretePath.startsWith(prefix) || !concretePath.endsWith(suffix)) {
+			return null;
+		}
+		
+		PathMatch match = new PathMatch(concretePath, concretePath.length() - suffix.length());
+		return match.matchVariables(0, prefix.length()) ? match.values : null;
+	}
+
+	/**
+	 * The state of one match of a concrete path against the template, including
+	 * the positions from which the remaining variables are known not to match.
+	 */
+	private class PathMatch {
+		
+		private final String path;					// The concrete path being matched
+		private final int end;						// The position in the path of the final constant fragment
+		private final String[] values;				// The values taken by the variables matched so far
+		private BitSet failed;						// Failed variable-position pairs not depending on earlier values
+		private Set<String> failedWithValues;		// Failed variable-position pairs with the earlier values they depend on
+		
+		private PathMatch(String path, int end) {
+			this.path = path;
+			this.end = end;
+			this.values = new String[_variableNames.length];
+		}
+		
+		/**
+		 * Matches the template variables from the given index on against the path from the
+		 * given position, storing their values, unless they already failed to match there.
+		 */
+		private boolean matchVariables(int i, int position) {
+			
+			// the earlier values the remaining variables must repeat are part of the failed state
+			if (_earlierUses[i].length == 0) {
+				int failedIndex = i * (path.length() + 1) + position;
+				if (failed != null && failed.get(failedIndex)) return false;
+				if (tryVariables(i, position)) return true;
+				if (failed == null) failed = new BitSet();
+				failed.set(failedIndex);
+			} else {
+				StringBuilder key = new StringBuilder().append(i).append('/').append(position);
+				for (int use : _earlierUses[i]) key.append('/').append(values[use]);
+				String failedKey = key.toString();
+				if (failedWithValues != null && failedWithValues.contains(failedKey)) return false;
+				if (tryVariables(i, position)) return true;
+				if (failedWithValues == null) failedWithValues = new HashSet<String>();
+				failedWithValues.add(failedKey);
+			}
+			return false;
+		}
+		
+		/** Tries each value of a variable, trying shorter values first. */
+		private boolean tryVariables(int i, int position) {
+
+			// a variable value cannot extend past the end of the current path element
+			int elementEnd = path.indexOf('/', position);
+			if (elementEnd == -1 || elementEnd > end) elementEnd = end;
+			
+			boolean last = (i == _variableNames.length - 1);
+			String fragment = last ? "" : _pathFragments[i + 1];
+			
+			// a repeated variable can only take the value of its first use
+			if (_repeatOf[i] != -1) {
+				int valueEnd = position + values[_repeatOf[i]].length();
+				if (valueEnd > elementEnd || !path.startsWith(values[_repeatOf[i]], position)) return false;
+				values[i] = values[_repeatOf[i]];
+				return last ? valueEnd == end : 
+						path.startsWith(fragment, valueEnd) && matchVariables(i + 1, valueEnd + fragment.length());
+			}
+			
+			// the last variable takes the rest of the path before the suffix
+			if (last) {
+				if (elementEnd != end || end <= position) return false;
+				values[i] = path.substring(position, end);
+				return true;
+			}
+			
+			// otherwise try each place the following constant fragment occurs in the element
+			int lastStart = Math.min(elementEnd, end - fragment.length());
+			for (int valueEnd = position + 1; valueEnd <= lastStart; valueEnd++) {
+				if (path.startsWith(fragment, valueEnd)) {
+					values[i] = path.substring(position, valueEnd);
+					if (matchVariables(i + 1, valueEnd + fragment.length())) return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Matches a concrete path against the path portion of the template and returns
+	 * the values of the named template variables in the path.
+	 * 
+	 * @param concretePath	The path portion of a concrete URI, e.g. a file path.
+	 * @return				Mapping of variable names to values in order of first appearance in
+	 * 						the template, or null if the path does not match the template.
+	 * 						Variables with missing names are not included.
+	 */
+	public Map<String,String> getVariableValues(String concretePath) {
+		String[] values = matchPath(concretePath);
+		if (values == null) return null;
+		Map<String,String> nameValueMap = new LinkedHashMap<String,String>();
+		for (int i = 0; i < values.length; i++) {
+			if (!_variableNames[i].isEmpty() && _repeatOf[i] == -1) {
+				nameValueMap.put(_variableNames[i], values[i]);
+			}
+		}
+		return nameValueMap;
+	}
+
+	/**
+	 * Creates an expander for expanding the path of the template for many bindings of
+	 * its variables, with the columns of values taken to be the variables named in the
+	 * template in order of first appearance.
+	 * 
+	 * @return				A new expander for the template.
+	 * @throws				Exception if template has missing variables, i.e. empty braces
+	 * 						and thus cannot be expanded.
+	 */
+	public BatchExpander batchExpander() throws Exception {
+		List<String> names = new LinkedList<String>();
+		for (String name : _variableNames) {
+			if (!names.contains(name)) names.add(name);
+		}
+		return new BatchExpander(names.toArray(new String[] {}));
+	}
+
+	/**
+	 * Creates an expander for expanding the path of the template for many bindings of
+	 * its variables, with columns of values given in the order of the given variable names.
+	 * 
+	 * @param columnNames	The names of the variables in the order their values will be
+	 * 						given to the expander.  Names of variables not used in the
+	 * 						template are allowed, and their values are ignored.
+	 * @return				A new expander for the template.
+	 * @throws				Exception if template has missing variables or a variable
+	 * 						in the template has no column.
+	 */
+	public BatchExpander batchExpander(String... columnNames) throws Exception {
+		return new BatchExpander(columnNames);
+	}
+
 	///////////////////////////////////////////////////////////////////
 	////                  public class methods                     ////
 	
@@ -248,5 +469,180 @@ public class UriTemplate extends UriBase {
 		
 		// return the reduced path
 		return reducedPathBuffer.toString();
-	}	
+	}
+
+	///////////////////////////////////////////////////////////////////
+	////                  public inner classes                     ////
+
+	/**
+	 * Receives the expansions of a template made by a {@link BatchExpander}.
+	 */
+	public interface ExpansionSink {
+		
+		/**
+		 * Receives one expanded path.
+		 * 
+		 * @param row		The index of the binding expanded, counting from zero.
+		 * @param path		The expanded path.  The characters are only valid until the
+		 * 					method returns, as the buffer holding them is reused.
+		 * @throws			Exception to stop the expansion.
+		 */
+		void expanded(int row, CharSequence path) throws Exception;
+	}
+	
+	/**
+	 * <p> Expands the path of a template for many bindings of its variables, e.g. for
+	 * every combination of values in a parameter sweep.  The position of each variable in
+	 * the template is bound to a column of values once, when the expander is created, so
+	 * that no variable is looked up by name per expansion.  Each expansion is written into
+	 * one reused buffer.  Encoded values are remembered, so values that repeat across
+	 * bindings are encoded only once. </p>
+	 * 
+	 * <p> Instances of this class are not thread safe.  Threads expanding the same
+	 * template should each create their own expander. </p>
+	 */
+	public class BatchExpander {
+
+		private static final int MAX_REMEMBERED_VALUES = 4096;
+		
+		private final String[] _columnNames;				// Names of the variables in column order
+		private final int[] _columnOfPosition;				// Column holding the value of each variable position
+		private final boolean[] _columnUsed;				// Whether each column is used by the template
+		private final Object[] _lastValues;					// Value most recently encoded for each column
+		private final String[] _lastEncodedValues;			// Encoding of the value most recently encoded for each column
+		private final List<Map<Object,String>> _encodedValues;	// Encodings of the values seen in each column
+		private final StringBuilder _buffer = new StringBuilder();
+		
+		private BatchExpander(String[] columnNames) throws Exception {
+
+			_columnNames = Arrays.copyOf(columnNames, columnNames.length);
+			_columnOfPosition = new int[_variableNames.length];
+			_columnUsed = new boolean[columnNames.length];
+			
+			// bind each variable position to the column of values for the variable
+			for (int i = 0; i < _variableNames.length; i++) {
+				String name = _variableNames[i];
+				if (name.isEmpty()) {
+					throw new Exception("Cannot expand a URI template with missing variable names: " 
+							+ expression);
+				}
+				int column = Arrays.asList(columnNames).indexOf(name);
+				if (column == -1) {
+					throw new Exception("Could not expand template. No column for variable '" + name + "'.");
+				}
+				_columnOfPosition[i] = column;
+				_columnUsed[column] = true;
+			}
+			
+			_lastValues = new Object[columnNames.length];
+			_lastEncodedValues = new String[columnNames.length];
+			_encodedValues = new ArrayList<Map<Object,String>>(columnNames.length);
+			for (int i = 0; i < columnNames.length; i++) {
+				_encodedValues.add(new HashMap<Object,String>());
+			}
+		}
+
+		/** @return The names of the variables in the order their values are given to the expander. */
+		public String[] getColumnNames() {
+			return Arrays.copyOf(_columnNames, _columnNames.length);
+		}
+
+		/**
+		 * Expands the template for one binding of its variables.
+		 * 
+		 * @param values	The values of the variables in column order.
+		 * @return			The expanded path.
+		 * @throws			Exception if a value used by the template is null.
+		 */
+		public String expand(Object... values) throws Exception {
+			return expandInto(values).toString();
+		}
+
+		/**
+		 * Expands the template for each row of columns of values.
+		 * 
+		 * @param columns	One array of values for each column, all of the same length.
+		 * @param sink		The receiver of each expanded path, in row order.
+		 * @return			The number of rows expanded.
+		 * @throws			Exception if the columns differ in length, a value used by
+		 * 					the template is null, or the sink throws an exception.
+		 */
+		public int expandColumns(Object[][] columns, ExpansionSink sink) throws Exception {
+			
+			if (columns.length != _columnNames.length) {
+				throw new Exception("Expected " + _columnNames.length + " columns of values but got " + columns.length + ".");
+			}
+			int rowCount = (columns.length == 0) ? 1 : columns[0].length;
+			for (Object[] column : columns) {
+				if (column.length != rowCount) throw new Exception("Columns of values differ in length.");
+			}
+			
+			Object[] row = new Object[columns.length];
+			for (int r = 0; r < rowCount; r++) {
+				for (int c = 0; c < columns.length; c++) {
+					row[c] = columns[c][r];
+				}
+				sink.expanded(r, expandInto(row));
+			}
+			return rowCount;
+		}
+
+		/**
+		 * Expands the template for each binding of variable names to values.
+		 * 
+		 * @param bindings	The bindings to expand, e.g. an iterable view of a sweep
+		 * 					that creates each binding as it is requested.
+		 * @param sink		The receiver of each expanded path, in iteration order.
+		 * @return			The number of bindings expanded.
+		 * @throws			Exception if a binding has no value for a variable used by
+		 * 					the template, or the sink throws an exception.
+		 */
+		public int expandBindings(Iterable<? extends Map<String,?>> bindings, ExpansionSink sink) throws Exception {
+			Object[] row = new Object[_columnNames.length];
+			int r = 0;
+			for (Map<String,?> binding : bindings) {
+				for (int c = 0; c < _columnNames.length; c++) {
+					row[c] = _columnUsed[c] ? binding.get(_columnNames[c]) : null;
+				}
+				sink.expanded(r++, expandInto(row));
+			}
+			return r;
+		}
+		
+		private StringBuilder expandInto(Object[] row) throws Exception {
+			
+			if (row.length != _columnNames.length) {
+				throw new Exception("Expected " + _columnNames.length + " values but got " + row.length + ".");
+			}
+			
+			_buffer.setLength(0);
+			_buffer.append(_pathFragments[0]);
+			for (int i = 0; i < _columnOfPosition.length; i++) {
+				_buffer.append(encodedValue(_columnOfPosition[i], row[_columnOfPosition[i]]));
+				_buffer.append(_pathFragments[i+1]);
+			}
+			return _buffer;
+		}
+		
+		/** Returns the encoding of a value, encoding it only if it was not seen before. */
+		private String encodedValue(int column, Object value) throws Exception {
+
+			if (value == null) {
+				throw new Exception ("Could not expand template. No value for variable '" + _columnNames[column] + "'.");
+			}
+			
+			// the value is usually the one seen last in the column when sweeping nested loops
+			if (value == _lastValues[column]) return _lastEncodedValues[column];
+			
+			Map<Object,String> encodedValues = _encodedValues.get(column);
+			String encodedValue = encodedValues.get(value);
+			if (encodedValue == null) {
+				encodedValue = encodeString(value.toString());
+				if (encodedValues.size() < MAX_REMEMBERED_VALUES) encodedValues.put(value, encodedValue);
+			}
+			_lastValues[column] = value;
+			_lastEncodedValues[column] = encodedValue;
+			return encodedValue;
+		}
+	}
 }
@@ -0,0 +1,229 @@
+package org.yesworkflow.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p> This class indexes many URI templates so that concrete paths, e.g. the files
+ * written by a run of a script, can be matched against all of them at once.
+ * Templates are stored in a prefix trie keyed on the constant fragment preceding
+ * the first variable of each template path, so that a path is matched only against
+ * those templates whose leading fragment it starts with, rather than against every
+ * template in the index. </p>
+ *
+ * <p> Each template is added together with a value, e.g. the port declaring the
+ * template, that is returned with each match.  Templates may be added while no
+ * other thread is using the index; once populated the index may be searched by
+ * any number of threads concurrently. </p>
+ *
+ * @param <T> The type of the values stored with the templates.
+ */
+public class UriTemplateIndex<T> {
+
+	///////////////////////////////////////////////////////////////////
+	////                    private data fields                    ////
+
+	private final Node<T> _root = new Node<T>();	// Trie node for the empty prefix
+	private int _size = 0;							// Number of templates in the index
+
+	///////////////////////////////////////////////////////////////////
+	////                 public instance methods                   ////
+
+	/**
+	 * Adds a template to the index.
+	 *
+	 * @param template	The URI template to index.
+	 * @param value		The value to return with each match of the template.
+	 * @return			This index.
+	 */
+	public UriTemplateIndex<T> add(UriTemplate template, T value) {
+
+		// walk down the trie along the leading constant fragment of the template path,
+		// adding nodes as needed, and store the template at the node for the full fragment
+		String prefix = template.getPathFragments()[0];
+		Node<T> node = _root;
+		for (int i = 0; i < prefix.length(); i++) {
+			node = node.childFor(prefix.charAt(i), true);
+		}
+		node.entries.add(new Entry<T>(template, value));
+		_size++;
+		return this;
+	}
+
+	/** @return The number of templates in the index. */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * Returns the templates whose leading constant fragment is a prefix of the given path,
+	 * i.e. the only templates the path can match.
+	 *
+	 * @param concretePath	The path portion of a concrete URI.
+	 * @return				The candidate templates, longest leading fragment first.
+	 */
+	public List<UriTemplate> getCandidates(String concretePath) {
+		List<UriTemplate> candidates = new ArrayList<UriTemplate>();
+		for (Entry<T> entry : candidateEntries(concretePath)) {
+			candidates.add(entry.template);
+		}
+		return candidates;
+	}
+
+	/**
+	 * Returns true if some path starting with the given prefix could match a template
+	 * in the index, i.e. if the leading constant fragment of some template either is a
+	 * prefix of the given one or starts with it.  Used to skip directories that cannot
+	 * hold any matching file.
+	 *
+	 * @param pathPrefix	The start of a concrete path, e.g. a directory path ending in a slash.
+	 * @return				False if no path starting with the prefix can match a template.
+	 */
+	public boolean mayMatchPathsStartingWith(String pathPrefix) {
+		Node<T> node = _root;
+		for (int i = 0; i < pathPrefix.length(); i++) {
+			if (!node.entries.isEmpty()) return true;
+			node = node.childFor(pathPrefix.charAt(i), false);
+			if (node == null) return false;
+		}
+		return _size > 0;
+	}
+
+	/**
+	 * Matches a concrete path against the templates in the index.
+	 *
+	 * @param concretePath	The path portion of a concrete URI.
+	 * @return				A match for each template the path matches, ordered by decreasing
+	 * 						length of the leading constant fragment of the template and then by
+	 * 						the order in which templates were added.  The list is empty if no
+	 * 						template matches.
+	 */
+	public List<Match<T>> match(String concretePath) {
+		List<Match<T>> matches = new ArrayList<Match<T>>(1);
+		for (Entry<T> entry : candidateEntries(concretePath)) {
+			String[] values = entry.template.matchPath(concretePath);
+			if (values != null) {
+				matches.add(new Match<T>(entry.template, entry.value, values));
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Matches a concrete path against the templates in the index and returns the first match.
+	 *
+	 * @param concretePath	The path portion of a concrete URI.
+	 * @return				The match of the template with the longest leading constant fragment,
+	 * 						or null if no template matches.
+	 */
+	public Match<T> matchFirst(String concretePath) {
+		for (Entry<T> entry : candidateEntries(concretePath)) {
+			String[] values = entry.template.matchPath(concretePath);
+			if (values != null) return new Match<T>(entry.template, entry.value, values);
+		}
+		return null;
+	}
+
+	///////////////////////////////////////////////////////////////////
+	////                 private instance methods                  ////
+
+	private List<Entry<T>> candidateEntries(String concretePath) {
+
+		// find the nodes along the path that hold templates
+		List<Node<T>> nodes = new ArrayList<Node<T>>();
+		Node<T> node = _root;
+		int depth = 0;
+		while (node != null) {
+			if (!node.entries.isEmpty()) nodes.add(node);
+			if (depth == concretePath.length()) break;
+			node = node.childFor(concretePath.charAt(depth++), false);
+		}
+
+		// return the templates at the deepest, i.e. most specific, nodes first
+		List<Entry<T>> candidates = new ArrayList<Entry<T>>();
+		for (int i = nodes.size() - 1; i >= 0; i--) {
+			candidates.addAll(nodes.get(i).entries);
+		}
+		return candidates;
+	}
+
+	///////////////////////////////////////////////////////////////////
+	////                  public inner classes                     ////
+
+	/**
+	 * A successful match of a concrete path against a template in the index.
+	 *
+	 * @param <T> The type of the values stored with the templates.
+	 */
+	public static class Match<T> {
+
+		public final UriTemplate template;		// The matching template
+		public final T value;					// The value added with the template
+		public final String[] variableValues;	// The values of the template variables in position order
+
+		public Match(UriTemplate template, T value, String[] variableValues) {
+			this.template = template;
+			this.value = value;
+			this.variableValues = variableValues;
+		}
+
+		/** @return Mapping of the named template variables to their values in the matched path. */
+		public Map<String,String> getVariableValues() {
+			Map<String,String> nameValueMap = new LinkedHashMap<String,String>();
+			String[] names = template.getVariableNames();
+			for (int i = 0; i < names.length; i++) {
+				if (!names[i].isEmpty() && !nameValueMap.containsKey(names[i])) {
+					nameValueMap.put(names[i], variableValues[i]);
+				}
+			}
+			return nameValueMap;
+		}
+
+		@Override
+		public String toString() {
+			return template + " " + Arrays.toString(variableValues);
+		}
+	}
+
+	///////////////////////////////////////////////////////////////////
+	////                  private inner classes                    ////
+
+	private static class Entry<T> {
+
+		final UriTemplate template;
+		final T value;
+
+		Entry(UriTemplate template, T value) {
+			this.template = template;
+			this.value = value;
+		}
+	}
+
+	private static class Node<T> {
+
+		final List<Entry<T>> entries = new ArrayList<Entry<T>>(1);
+		char[] keys = new char[0];
+		Node<T>[] children = newNodes(0);
+
+		Node<T> childFor(char c, boolean create) {
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] == c) return children[i];
+			}
+			if (!create) return null;
+			Node<T> child = new Node<T>();
+			keys = Arrays.copyOf(keys, keys.length + 1);
+			children = Arrays.copyOf(children, children.length + 1);
+			keys[keys.length - 1] = c;
+			children[children.length - 1] = child;
+			return child;
+		}
+
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		private static <T> Node<T>[] newNodes(int length) {
+			return new Node[length];
+		}
+	}
+}
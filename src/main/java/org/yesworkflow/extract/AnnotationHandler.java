@@ -0,0 +1,16 @@
+package org.yesworkflow.extract;
+
+import org.yesworkflow.annotations.Annotation;
+
+/** Receives annotations from a {@link DefaultExtractor} running in streaming mode,
+ *  one at a time as each source file is scanned.
+ */
+public interface AnnotationHandler {
+
+    /** Called once for each annotation, in the order the annotations occur in the sources.
+     *  Qualifications are delivered immediately after the annotation they qualify.
+     *  @param annotation The annotation extracted.
+     *  @throws Exception To abort the extraction.
+     */
+    void annotation(Annotation annotation) throws Exception;
+}
@@ -0,0 +1,354 @@
+package org.yesworkflow.extract;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.yesworkflow.LanguageModel;
+
+/** Table-driven finite state machine for locating comments in source code,
+ *  compiled from the comment delimiters defined by a {@link LanguageModel}.
+ *
+ *  <p>The table is built by running the delimiter-matching rules of the comment
+ *  matcher symbolically over classes of characters: every character used in a
+ *  delimiter gets its own class, the newline gets a class, and all other
+ *  characters share one class.  Each transition records the next state and what
+ *  the matcher outputs when taking it: nothing, the end of a comment line, or the
+ *  last <i>n</i> characters read.  Because these outputs are expressed as counts
+ *  rather than strings, scanning source code with the table allocates nothing
+ *  per character.</p>
+ *
+ *  <p>Instances are immutable once constructed and thus thread safe.</p>
+ */
+public class CommentDfa {
+
+    /** Output of a transition that emits no comment characters. */
+    public static final int NO_OUTPUT = 0;
+
+    /** Output of a transition that ends the current comment line.  Positive
+     *  outputs give the number of characters, ending with the current one,
+     *  emitted as comment text. */
+    public static final int END_OF_COMMENT_LINE = -1;
+
+    /** The state of the machine before any characters are read. */
+    public static final int START_STATE = 0;
+
+    private static final int ASCII_LIMIT = 128;
+
+    private final int[] asciiClass = new int[ASCII_LIMIT];
+    private final char[] otherChars;
+    private final int[] otherClass;
+    private final int newlineClass;
+    private final int classCount;
+    private final int[] transitions;
+    private final int[] outputs;
+
+    /** Compiles the comment delimiters of a language model into a new state table.
+     *  @param languageModel The programming language model defining the comment delimiters.
+     */
+    public CommentDfa(LanguageModel languageModel) {
+
+        // give each character used in a comment delimiter its own character class,
+        // reserving class 0 for all other characters
+        List<String> delimiters = new LinkedList<String>(languageModel.getSingleCommentDelimiters());
+        for (Map.Entry<String,String> pair : languageModel.getPairedCommentDelimiters().entrySet()) {
+            delimiters.add(pair.getKey());
+            delimiters.add(pair.getValue());
+        }
+        StringBuilder classRepresentatives = new StringBuilder();
+        classRepresentatives.append(otherCharacter(delimiters));
+        StringBuilder nonAscii = new StringBuilder();
+        for (String delimiter : delimiters) {
+            for (int i = 0; i < delimiter.length(); ++i) {
+                char c = delimiter.charAt(i);
+                if (classRepresentatives.indexOf(String.valueOf(c)) == -1) {
+                    classRepresentatives.append(c);
+                    if (c >= ASCII_LIMIT) nonAscii.append(c);
+                }
+            }
+        }
+        if (classRepresentatives.indexOf("\n") == -1) classRepresentatives.append('\n');
+        classCount = classRepresentatives.length();
+
+        otherChars = nonAscii.toString().toCharArray();
+        Arrays.sort(otherChars);
+        otherClass = new int[otherChars.length];
+        for (int cls = 1; cls < classCount; ++cls) {
+            char c = classRepresentatives.charAt(cls);
+            if (c < ASCII_LIMIT) {
+                asciiClass[c] = cls;
+            } else {
+                otherClass[Arrays.binarySearch(otherChars, c)] = cls;
+            }
+        }
+        newlineClass = classOf('\n');
+
+        // explore every state of the matcher reachable from the start state
+        List<MatcherState> states = new ArrayList<MatcherState>();
+        Map<String,Integer> stateIndex = new HashMap<String,Integer>();
+        List<int[]> rows = new ArrayList<int[]>();
+        MatcherState start = new MatcherState(languageModel);
+        states.add(start);
+        stateIndex.put(start.key(), START_STATE);
+
+        int nextUnexplored = 0;
+        while (nextUnexplored < states.size()) {
+            MatcherState state = states.get(nextUnexplored++);
+            int[] row = new int[2 * classCount];
+            for (int cls = 0; cls < classCount; ++cls) {
+                MatcherState next = state.copy();
+                int output = next.processNextChar(classRepresentatives.charAt(cls));
+                Integer nextIndex = stateIndex.get(next.key());
+                if (nextIndex == null) {
+                    nextIndex = states.size();
+                    states.add(next);
+                    stateIndex.put(next.key(), nextIndex);
+                }
+                row[2 * cls] = nextIndex;
+                row[2 * cls + 1] = output;
+            }
+            rows.add(row);
+        }
+
+        // flatten the explored transitions into the state table
+        transitions = new int[rows.size() * classCount];
+        outputs = new int[rows.size() * classCount];
+        int s = 0;
+        for (int[] row : rows) {
+            for (int cls = 0; cls < classCount; ++cls) {
+                transitions[s * classCount + cls] = row[2 * cls];
+                outputs[s * classCount + cls] = row[2 * cls + 1];
+            }
+            ++s;
+        }
+    }
+
+    /** @return The number of states in the compiled machine. */
+    public int getStateCount() {
+        return transitions.length / classCount;
+    }
+
+    /** @return The number of character classes distinguished by the compiled machine. */
+    public int getClassCount() {
+        return classCount;
+    }
+
+    /** @return The character class of the newline that ends each source line. */
+    public int newlineClass() {
+        return newlineClass;
+    }
+
+    /** Maps a source character to its character class. */
+    public int classOf(char c) {
+        if (c < ASCII_LIMIT) return asciiClass[c];
+        int i = Arrays.binarySearch(otherChars, c);
+        return (i < 0) ? 0 : otherClass[i];
+    }
+
+    /** @return The index into the state table of the transition from state on character class cls. */
+    public int transition(int state, int cls) {
+        return state * classCount + cls;
+    }
+
+    /** @return The state reached by the transition with the given index. */
+    public int nextState(int transition) {
+        return transitions[transition];
+    }
+
+    /** @return The output of the transition with the given index. */
+    public int output(int transition) {
+        return outputs[transition];
+    }
+
+    /** Finds a character that does not occur in any delimiter, to stand for all such characters. */
+    private static char otherCharacter(List<String> delimiters) {
+        for (char c = 'a'; ; ++c) {
+            boolean used = (c == '\n' || c == '\r');
+            for (String delimiter : delimiters) {
+                if (delimiter.indexOf(c) != -1) used = true;
+            }
+            if (!used) return c;
+        }
+    }
+
+    /** The mutable state of the comment-matching machine while the table is compiled.
+     *  The delimiter-matching rules below define the behavior of {@link CommentMatcher};
+     *  they run only at compile time, on one representative character per class. */
+    private static class MatcherState {
+
+        private final LanguageModel languageModel;
+        private State currentState = State.IN_CODE;
+        private String commentStartToken = null;
+        private String lastFullMatch = null;
+        private boolean lastFullMatchWasSingle = false;
+        private StringBuilder buffer = new StringBuilder();
+
+        MatcherState(LanguageModel languageModel) {
+            this.languageModel = languageModel;
+        }
+
+        MatcherState copy() {
+            MatcherState copy = new MatcherState(languageModel);
+            copy.currentState = currentState;
+            copy.commentStartToken = commentStartToken;
+            copy.lastFullMatch = lastFullMatch;
+            copy.lastFullMatchWasSingle = lastFullMatchWasSingle;
+            copy.buffer.append(buffer);
+            return copy;
+        }
+
+        String key() {
+            return currentState + "|" + buffer + "|" + commentStartToken + "|" +
+                   lastFullMatch + "|" + lastFullMatchWasSingle;
+        }
+
+        /** Updates the state of the comment-matching finite state machine. */
+        @SuppressWarnings("incomplete-switch")
+        int processNextChar(char c) {
+
+            int output = NO_OUTPUT;
+            State nextState = currentState;
+            buffer.append(c);
+
+            switch(currentState) {
+
+            case IN_CODE:
+
+                lastFullMatch = null;
+
+                switch(languageModel.commentStartMatches(buffer.toString())) {
+
+                    case FULL_MATCH_SINGLE:
+                        nextState = State.IN_SINGLE_LINE_COMMENT;
+                        buffer.setLength(0);
+                        break;
+
+                    case FULL_MATCH_PAIRED:
+                        nextState = State.IN_MULTI_LINE_COMMENT;
+                        commentStartToken = buffer.toString();
+                        buffer.setLength(0);
+                        break;
+
+                    case PREFIX_MATCH:
+                        nextState = State.IN_PREFIX;
+                        break;
+
+                    case FULL_MATCH_SINGLE_PREFIX_MATCH_PAIRED:
+                        lastFullMatch = buffer.toString();
+                        lastFullMatchWasSingle = true;
+                        nextState = State.IN_PREFIX;
+                        break;
+
+                    case FULL_MATCH_PAIRED_PREFIX_MATCH_SINGLE:
+                        lastFullMatch = buffer.toString();
+                        lastFullMatchWasSingle = false;
+                        nextState = State.IN_PREFIX;
+                        break;
+
+                    default:
+                        nextState = State.IN_CODE;
+                        buffer.setLength(0);
+                }
+
+                break;
+
+            case IN_PREFIX:
+
+                switch(languageModel.commentStartMatches(buffer.toString())) {
+
+                    case FULL_MATCH_SINGLE:
+                        nextState = State.IN_SINGLE_LINE_COMMENT;
+                        buffer.setLength(0);
+                        break;
+
+                    case FULL_MATCH_PAIRED:
+                        nextState = State.IN_MULTI_LINE_COMMENT;
+                        commentStartToken = buffer.toString();
+                        buffer.setLength(0);
+                        break;
+
+                    case NO_MATCH:
+                        if (lastFullMatch == null) {
+                            nextState = State.IN_CODE;
+                        } else {
+                            commentStartToken = lastFullMatch;
+                            nextState = (lastFullMatchWasSingle) ?
+                                    State.IN_SINGLE_LINE_COMMENT :
+                                    State.IN_MULTI_LINE_COMMENT;
+                        }
+                        buffer.setLength(0);
+                        buffer.append(c);
+                        break;
+
+                    case PREFIX_MATCH:
+                        nextState = State.IN_PREFIX;
+                        break;
+
+                    case FULL_MATCH_SINGLE_PREFIX_MATCH_PAIRED:
+                    case FULL_MATCH_PAIRED_PREFIX_MATCH_SINGLE:
+                        lastFullMatch = buffer.toString();
+                        nextState = State.IN_PREFIX;
+                        break;
+
+                    default:
+                        nextState = State.IN_CODE;
+                        buffer.setLength(0);
+                }
+
+                break;
+
+            case IN_SINGLE_LINE_COMMENT:
+
+                if (c == '\r' || c == '\n') {
+                    nextState = State.IN_CODE;
+                    output = END_OF_COMMENT_LINE;
+                } else {
+                    output = buffer.length();
+                }
+                buffer.setLength(0);
+
+                break;
+
+            case IN_MULTI_LINE_COMMENT:
+
+                switch(commentEndMatches()) {
+
+                    case NO_MATCH:
+                        output = buffer.length();
+                        buffer.setLength(0);
+                        break;
+
+                    case FULL_MATCH_PAIRED:
+                        nextState = State.IN_CODE;
+                        output = END_OF_COMMENT_LINE;
+                        buffer.setLength(0);
+                        break;
+                }
+
+                break;
+            }
+
+            currentState = nextState;
+
+            return output;
+        }
+
+        private LanguageModel.MatchExtent commentEndMatches() {
+            if (!languageModel.getPairedCommentDelimiters().containsKey(commentStartToken)) {
+                return LanguageModel.MatchExtent.NO_MATCH;
+            }
+            return languageModel.commentEndMatches(buffer.toString(), commentStartToken);
+        }
+    }
+
+    /** Enumeration defining the states of the comment-matching finite state machine */
+    private enum State {
+        IN_CODE,
+        IN_PREFIX,
+        IN_SINGLE_LINE_COMMENT,
+        IN_MULTI_LINE_COMMENT,
+    }
+}
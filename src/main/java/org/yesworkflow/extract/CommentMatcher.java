@@ -1,10 +1,12 @@
 package org.yesworkflow.extract;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.yesworkflow.LanguageModel;
 
@@ -13,245 +15,235 @@ import org.yesworkflow.LanguageModel;
  *  in a particular programming language.  Uses a simple finite state machine
  *  and the comment delimiter strings defined for the language to identify
  *  the portions of the source code that are contained in comments.
+ *
+ *  <p>The state machine is compiled into a {@link CommentDfa} transition table
+ *  when the matcher is constructed.  Source code is scanned directly from
+ *  character arrays, and comments are reported as spans of offsets into the
+ *  scanned characters, so that no objects are allocated for source characters
+ *  that are not part of a comment.</p>
  */
 public class CommentMatcher {
 
     private static final String EOL = System.getProperty("line.separator");
-    private static Integer nextLineId = 1;
-    
+    private static final int READ_CHUNK_SIZE = 8192;
+    private static final AtomicInteger nextLineId = new AtomicInteger(1);
+
     private Source source;
-    private LanguageModel languageModel;
-    private State currentState;
-    private String commentStartToken;
-    private String lastFullMatch;
-    private boolean lastFullMatchWasSingle;
-    private StringBuffer buffer = new StringBuffer();
-    
+    private CommentDfa dfa;
+    private int currentState;
+
+    /** Receives the comment spans found while scanning source code. */
+    public interface CommentSpanHandler {
+
+        /** Called once for each non-blank line of each comment, in source order.
+         *  Comments that span multiple lines in the source are reported as one span per line,
+         *  and the text of each span has leading and trailing white space trimmed.
+         *  @param lineNumber The one-based number of the source line containing the span.
+         *  @param text The characters being scanned.
+         *  @param start The index in text of the first character of the comment span.
+         *  @param end The index in text following the last character of the comment span.
+         */
+        void commentSpan(int lineNumber, char[] text, int start, int end);
+    }
+
     /**
      * Constructs a CommentMatcher for the given programming language model.
      * @param languageModel The programming language model for the source code to be analyzed.
      */
     public CommentMatcher(Source source, LanguageModel languageModel) {
+        this(source, new CommentDfa(languageModel));
+    }
+
+    /**
+     * Constructs a CommentMatcher that uses an already compiled state table.
+     * @param dfa The state table compiled for the language of the source code to be analyzed.
+     */
+    public CommentMatcher(Source source, CommentDfa dfa) {
         this.source = source;
-        this.languageModel = languageModel;
-        this.currentState = State.IN_CODE;
-        this.commentStartToken = null;
-        this.buffer = new StringBuffer();
+        this.dfa = dfa;
+        this.currentState = CommentDfa.START_STATE;
     }
-    
+
     /** Extracts the contents of all comments found in the provided source code,
      *  and returns each line of each comment as a string.  Comments that span multiple lines
      *  in the source are represented as multiple strings in the return value.
-     * 
+     *
      * @param source A String containing the entire source code to analyze.
      * @return  A List of Strings representing the comments in the source code.
-     * @throws IOException 
+     * @throws IOException
      */
-    public List<SourceLine> getCommentsAsLines(String source) throws IOException {    
-        BufferedReader reader = new BufferedReader(new StringReader(source));
-        return getCommentsAsLines(reader);
+    public List<SourceLine> getCommentsAsLines(String source) throws IOException {
+        char[] text = source.toCharArray();
+        return getCommentsAsLines(text, 0, text.length);
     }
-    
+
     /** Extracts the contents of all comments found in the source code provided via
-     *  a {@link java.io.BufferedReader BufferedReader}
+     *  a {@link java.io.Reader Reader}
+     *  and returns each line of each comment as a string.  Comments that span multiple lines
+     *  in the source are represented as multiple strings in the return value.
+     *
+     * @param reader The Reader used to read the source file.
+     * @return  A List of Strings representing the comments in the source code.
+     * @throws IOException
+     */
+    public List<SourceLine> getCommentsAsLines(Reader reader) throws IOException {
+        return getCommentsAsLines(readAll(reader));
+    }
+
+    /** Extracts the contents of all comments found in the remaining characters of a
+     *  {@link java.nio.CharBuffer CharBuffer} and returns each line of each comment as a string.
+     *  Comments that span multiple lines in the source are represented as multiple strings
+     *  in the return value.
+     *
+     * @param source The buffer containing the source code to analyze.
+     * @return  A List of Strings representing the comments in the source code.
+     */
+    public List<SourceLine> getCommentsAsLines(CharBuffer source) {
+        if (source.hasArray()) {
+            int start = source.arrayOffset() + source.position();
+            return getCommentsAsLines(source.array(), start, start + source.remaining());
+        } else {
+            char[] text = new char[source.remaining()];
+            source.duplicate().get(text);
+            return getCommentsAsLines(text, 0, text.length);
+        }
+    }
+
+    /** Extracts the contents of all comments found in a range of characters
      *  and returns each line of each comment as a string.  Comments that span multiple lines
      *  in the source are represented as multiple strings in the return value.
-     * 
-     * @param reader The BufferedReader used to read the source file.
+     *
+     * @param text The characters containing the source code to analyze.
+     * @param start The index of the first character to analyze.
+     * @param end The index following the last character to analyze.
      * @return  A List of Strings representing the comments in the source code.
-     * @throws IOException 
      */
-    public List<SourceLine> getCommentsAsLines(BufferedReader reader) throws IOException {
+    public List<SourceLine> getCommentsAsLines(char[] text, int start, int end) {
+        final List<SourceLine> commentLines = new LinkedList<SourceLine>();
+        scan(text, start, end, new CommentSpanHandler() {
+            public void commentSpan(int lineNumber, char[] text, int start, int end) {
+                commentLines.add(new SourceLine(nextLineId.getAndIncrement(), source.id, lineNumber,
+                                                new String(text, start, end - start)));
+            }
+        });
+        return commentLines;
+    }
+
+    /** Scans a range of characters for comments and reports the non-blank line of
+     *  each comment to the provided handler as a span of offsets into the characters.
+     *  Source lines may be terminated by a line feed, a carriage return, or both.
+     *
+     * @param text The characters containing the source code to analyze.
+     * @param start The index of the first character to analyze.
+     * @param end The index following the last character to analyze.
+     * @param handler The receiver of the comment spans found.
+     * @return The number of source lines scanned.
+     */
+    public int scan(char[] text, int start, int end, CommentSpanHandler handler) {
+
+        int state = currentState;
+        int newlineClass = dfa.newlineClass();
+        int lineNumber = 1;
+        int lineStart = start;
 
-        String line;
-        int nextLineNumber = 1;
-        List<SourceLine> commentLines = new LinkedList<SourceLine>();
-        lastFullMatch = null;
-        
-        while ((line = reader.readLine()) != null) {
-            StringBuffer commentLineText = new StringBuffer();            
-            for (int i = 0; i < line.length(); ++i) {
-                int c = line.charAt(i);
-                String newCommentChars = processNextChar((char)c);
-                commentLineText.append(newCommentChars);
-                if (newCommentChars.equals(EOL)) {
-                    addCommentLineToResult(commentLineText.toString(), nextLineNumber, commentLines);
-                    commentLineText = new StringBuffer();            
+        while (lineStart < end) {
+
+            // find the end of the current line
+            int lineEnd = lineStart;
+            while (lineEnd < end && text[lineEnd] != '\n' && text[lineEnd] != '\r') ++lineEnd;
+
+            int commentStart = -1;
+            int commentEnd = -1;
+
+            for (int i = lineStart; i < lineEnd; ++i) {
+                int transition = dfa.transition(state, dfa.classOf(text[i]));
+                int output = dfa.output(transition);
+                state = dfa.nextState(transition);
+                if (output > 0) {
+                    if (commentStart == -1) commentStart = Math.max(i - output + 1, lineStart);
+                    commentEnd = i + 1;
+                } else if (output == CommentDfa.END_OF_COMMENT_LINE) {
+                    reportSpan(handler, lineNumber, text, commentStart, commentEnd);
+                    commentStart = -1;
                 }
             }
-            commentLineText.append(processNextChar('\n'));
-            addCommentLineToResult(commentLineText.toString(), nextLineNumber++, commentLines);
+
+            // every source line ends with a newline as far as the state machine is concerned
+            int transition = dfa.transition(state, newlineClass);
+            int output = dfa.output(transition);
+            state = dfa.nextState(transition);
+            if (output > 0) {
+                if (commentStart == -1) commentStart = Math.max(lineEnd - output + 1, lineStart);
+                commentEnd = lineEnd;
+            }
+            reportSpan(handler, lineNumber++, text, commentStart, commentEnd);
+
+            // skip the line terminator
+            if (lineEnd < end) {
+                boolean crlf = text[lineEnd] == '\r' && lineEnd + 1 < end && text[lineEnd + 1] == '\n';
+                lineEnd += crlf ? 2 : 1;
+            }
+            lineStart = lineEnd;
         }
-        
-        return commentLines;
+
+        currentState = state;
+        return lineNumber - 1;
     }
-        
+
     /** Extracts the contents of all comments found in the provided source code,
      *  and returns all of the comments as a single string.  The comments are separated
-     *  by end-of-line characters in the returned String. Comments that span multiple 
+     *  by end-of-line characters in the returned String. Comments that span multiple
      *  lines in the source are represented as multiple lines.
-     * 
+     *
      * @param source A String containing the entire source code to analyze.
      * @return  A Strings containing all the comments in the source code.
-     * @throws IOException 
+     * @throws IOException
      */
     public String getCommentsAsString(String source) throws IOException {
-        
+
         StringBuffer comments = new StringBuffer();
         for (SourceLine cl : getCommentsAsLines(source)) {
             comments.append(cl.text);
             comments.append(EOL);
         }
-        
+
         return comments.toString();
     }
-    
-    /** Helper method for accumulating non-blank comment lines. */
-    private void addCommentLineToResult(String line, int sourceLineNumber, List<SourceLine> accumulatedLines) {
-        String trimmedCommentLine = line.toString().trim();
-        if (trimmedCommentLine.length() > 0) {
-            SourceLine commentLine = new SourceLine(nextLineId++, source.id, sourceLineNumber, trimmedCommentLine);
-            accumulatedLines.add(commentLine);
-        }
-    }
-    
-    /** Enumeration defining the three states of the comment-matching finite state machine */
-    private enum State {
-        IN_CODE,
-        IN_PREFIX,
-        IN_SINGLE_LINE_COMMENT,
-        IN_MULTI_LINE_COMMENT,
-    }
-    
-    /** Updates the state of the comment-matching finite state machine. */
-    @SuppressWarnings("incomplete-switch")
-    private String processNextChar(int c) {
-        
-        String newCommentCharacters = "";
-        State nextState = currentState;
-        buffer.append((char)c);
-        
-        switch(currentState) {
-        
-        case IN_CODE:
-            
-            lastFullMatch = null;
-            
-            switch(languageModel.commentStartMatches(buffer.toString())) {
-                
-                case FULL_MATCH_SINGLE:
-                    nextState = State.IN_SINGLE_LINE_COMMENT;
-                    buffer.setLength(0);
-                    break;
-                
-                case FULL_MATCH_PAIRED:
-                    nextState = State.IN_MULTI_LINE_COMMENT;
-                    commentStartToken = buffer.toString();
-                    buffer.setLength(0);
-                    break;
-
-                case PREFIX_MATCH:
-                    nextState = State.IN_PREFIX;
-                    break;
 
-                case FULL_MATCH_SINGLE_PREFIX_MATCH_PAIRED:
-                    lastFullMatch = buffer.toString();
-                    lastFullMatchWasSingle = true;
-                    nextState = State.IN_PREFIX;
-                    break;                    
-
-                case FULL_MATCH_PAIRED_PREFIX_MATCH_SINGLE:
-                    lastFullMatch = buffer.toString();
-                    lastFullMatchWasSingle = false;
-                    nextState = State.IN_PREFIX;
-                    break;                    
-                    
-                default:
-                    nextState = State.IN_CODE;
-                    buffer.setLength(0);
-            }
-            
-            break;
-
-        case IN_PREFIX:
-            
-            switch(languageModel.commentStartMatches(buffer.toString())) {
-                
-                case FULL_MATCH_SINGLE:
-                    nextState = State.IN_SINGLE_LINE_COMMENT;
-                    buffer.setLength(0);
-                    break;
-                
-                case FULL_MATCH_PAIRED:
-                    nextState = State.IN_MULTI_LINE_COMMENT;
-                    commentStartToken = buffer.toString();
-                    buffer.setLength(0);
-                    break;
-
-                case NO_MATCH:
-                    if (lastFullMatch == null) {
-                        nextState = State.IN_CODE;                    
-                    } else {
-                        commentStartToken = lastFullMatch;
-                        nextState = (lastFullMatchWasSingle) ? 
-                                State.IN_SINGLE_LINE_COMMENT :
-                                State.IN_MULTI_LINE_COMMENT;
-                    }
-                    buffer.setLength(0);
-                    buffer.append((char)c);
-                    break;
-                    
-                case PREFIX_MATCH:
-                    nextState = State.IN_PREFIX;
-                    break;
+    /** Reserves a block of consecutive ids for comment lines extracted outside of this class,
+     *  so that the ids do not collide with those assigned by
+     *  {@link #getCommentsAsLines(char[], int, int) getCommentsAsLines()}.
+     *  Safe to call from multiple threads.
+     *  @param count The number of line ids to reserve.
+     *  @return The first id in the reserved block.
+     */
+    public static int reserveLineIds(int count) {
+        return nextLineId.getAndAdd(count);
+    }
 
-                case FULL_MATCH_SINGLE_PREFIX_MATCH_PAIRED:
-                case FULL_MATCH_PAIRED_PREFIX_MATCH_SINGLE:
-                    lastFullMatch = buffer.toString();
-                    nextState = State.IN_PREFIX;
-                    break;
-                    
-                default:
-                    nextState = State.IN_CODE;
-                    buffer.setLength(0);
-            }
-            
-            break;
-            
-            
-        case IN_SINGLE_LINE_COMMENT:
-            
-            if (c == '\r' || c == '\n') {
-                nextState = State.IN_CODE;
-                newCommentCharacters = EOL;
-            } else {
-                newCommentCharacters = buffer.toString();
-            }
-            buffer.setLength(0);
+    /** Reads all of the characters provided by a reader into a single buffer.
+     *  @param reader The reader to read from.
+     *  @return An array-backed buffer containing the characters read.
+     *  @throws IOException
+     */
+    public static CharBuffer readAll(Reader reader) throws IOException {
+        char[] text = new char[READ_CHUNK_SIZE];
+        int length = 0;
+        int count;
+        while ((count = reader.read(text, length, text.length - length)) != -1) {
+            length += count;
+            if (length == text.length) text = Arrays.copyOf(text, text.length * 2);
+        }
+        return CharBuffer.wrap(text, 0, length);
+    }
 
-            break;
-            
-        case IN_MULTI_LINE_COMMENT:
-            
-            switch(languageModel.commentEndMatches(buffer.toString(), commentStartToken)) {
-            
-                case NO_MATCH:
-                    newCommentCharacters = buffer.toString();
-                    buffer.setLength(0);
-                    break;
-                
-                case FULL_MATCH_PAIRED:
-                    nextState = State.IN_CODE;
-                    newCommentCharacters = EOL;
-                    buffer.setLength(0);
-                    break;
-            }
-            
-            break;
+    /** Helper method for reporting non-blank comment lines trimmed of white space. */
+    private static void reportSpan(CommentSpanHandler handler, int lineNumber, char[] text, int start, int end) {
+        if (start == -1) return;
+        while (start < end && text[start] <= ' ') ++start;
+        while (end > start && text[end - 1] <= ' ') --end;
+        if (start < end) {
+            handler.commentSpan(lineNumber, text, start, end);
         }
-        
-        currentState = nextState;
-        
-        return newCommentCharacters;
     }
 }
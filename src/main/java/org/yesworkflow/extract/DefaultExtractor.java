@@ -1,15 +1,32 @@
 package org.yesworkflow.extract;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.yesworkflow.Language;
 import org.yesworkflow.LanguageModel;
@@ -29,14 +46,21 @@ import org.yesworkflow.annotations.Return;
 import org.yesworkflow.annotations.UriAnnotation;
 import org.yesworkflow.config.YWConfiguration;
 import org.yesworkflow.exceptions.YWToolUsageException;
+import org.yesworkflow.metrics.Metered;
+import org.yesworkflow.metrics.StageMetrics;
+import org.yesworkflow.query.ColumnarFactsWriter;
+import org.yesworkflow.query.FactsWriter;
 import org.yesworkflow.query.LogicLanguage;
 
-public class DefaultExtractor implements Extractor {
+public class DefaultExtractor implements Extractor, Metered {
 
     static private Language DEFAULT_LANGUAGE = Language.GENERIC;
     static private LogicLanguage DEFAULT_LOGIC_LANGUAGE = LogicLanguage.PROLOG;
+    static private int DEFAULT_PARALLELISM = 1;
+    static private String EOL = System.getProperty("line.separator");
     
     private LanguageModel globalLanguageModel = null;
+    private volatile CommentDfa globalCommentDfa = null;
     private Language lastLanguage = null;
     private LogicLanguage logicLanguage = DEFAULT_LOGIC_LANGUAGE;
     private BufferedReader sourceReader = null;
@@ -49,20 +73,53 @@ public class DefaultExtractor implements Extractor {
     private KeywordMatcher keywordMatcher;
     private String commentListingPath;
     private String factsFile = null;
+    private String columnarFile = null;
     private String skeletonFile = null;
     private String skeleton = null;
     private String extractFacts = null;
+    private int parallelism = DEFAULT_PARALLELISM;
+    private Charset charset = Charset.defaultCharset();
+    private boolean stream = false;
+    private String cacheDirectory = null;
+    private long cacheSize = ExtractionCache.DEFAULT_MAX_BYTES;
+    private boolean incremental = false;
+    private final Map<String,RetainedSource> retainedSources = new ConcurrentHashMap<String,RetainedSource>();
+    private final AtomicInteger scannedSourceCount = new AtomicInteger();
+    private final AtomicLong scannedLineCount = new AtomicLong();
+    private final StageMetrics metrics = new StageMetrics("extract");
     private PrintStream stdoutStream = null;
     private PrintStream stderrStream = null;
 
     private Integer nextSourceId = 1;
     private Integer nextAnnotationId = 1;
 
+    // state of the current extraction shared by the materializing and streaming modes
+    private Annotation primaryAnnotation = null;
+    private int commentCount = 0;
+    private long extractedCommentLineCount = 0;
+    private long extractedLineCount = 0;
+    private boolean streamed = false;
+
+    // sinks used only while extracting in streaming mode
+    private AnnotationHandler annotationHandler = null;
+    private Writer listingWriter = null;
+    private ExtractFactsWriter factsWriter = null;
+    private Writer factsOut = null;
+    private Writer stdoutWriter = null;
+    private File factsSpoolFile = null;
+    private ColumnarFactsWriter columnarWriter = null;
+    
+    // state tables compiled for the standard comment delimiters of each language, shared by
+    // all extractors since compiling a table can take longer than scanning a small source
+    private static final Map<Language,CommentDfa> languageCommentDfas = new ConcurrentHashMap<Language,CommentDfa>();
+
+    private static final AnnotationHandler IGNORE_ANNOTATIONS = new AnnotationHandler() {
+        public void annotation(Annotation annotation) {}
+    };
+
     
     public DefaultExtractor() {
         this(System.out, System.err);
-        this.keywordMapping = new YWKeywords();
-        this.keywordMatcher = new KeywordMatcher(keywordMapping.getKeywords());
     }
 
     public DefaultExtractor(PrintStream stdoutStream, PrintStream stderrStream) {
@@ -101,24 +158,69 @@ public class DefaultExtractor implements Extractor {
         } else if (key.equalsIgnoreCase("language")) {
             Language language = Language.toLanguage(value);
             globalLanguageModel = new LanguageModel(language);
+            globalCommentDfa = null;
         } else if (key.equalsIgnoreCase("languageModel")) {
             globalLanguageModel = (LanguageModel)value;
+            globalCommentDfa = null;
         } else if (key.equalsIgnoreCase("comment")) {
             globalLanguageModel = new LanguageModel();
             globalLanguageModel.singleDelimiter((String)value);
+            globalCommentDfa = null;
         } else if (key.equalsIgnoreCase("listfile")) {
             commentListingPath = (String)value;
         } else if (key.equalsIgnoreCase("factsfile")) {
             factsFile = (String)value;
+        } else if (key.equalsIgnoreCase("columnarfile")) {
+            columnarFile = (String)value;
         } else if (key.equalsIgnoreCase("skeletonfile")) {
             skeletonFile = (String)value;
         } else if (key.equalsIgnoreCase("logic")) {
             logicLanguage = LogicLanguage.toLogicLanguage((String)value);
+        } else if (key.equalsIgnoreCase("parallelism")) {
+            parallelism = toParallelism(value);
+        } else if (key.equalsIgnoreCase("charset")) {
+            charset = toCharset(value);
+        } else if (key.equalsIgnoreCase("cache")) {
+            cacheDirectory = (String)value;
+        } else if (key.equalsIgnoreCase("cachesize")) {
+            cacheSize = toCacheSize(value);
+        } else if (key.equalsIgnoreCase("stream")) {
+            stream = (value instanceof Boolean) ? (Boolean)value : Boolean.parseBoolean(value.toString().trim());
+        } else if (key.equalsIgnoreCase("incremental")) {
+            incremental = (value instanceof Boolean) ? (Boolean)value : Boolean.parseBoolean(value.toString().trim());
+            if (!incremental) retainedSources.clear();
         }
         
         return this;
     }
     
+    private static int toParallelism(Object value) throws Exception {
+        try {
+            int p = (value instanceof Integer) ? (Integer)value : Integer.parseInt(value.toString().trim());
+            if (p > 0) return p;
+        } catch (NumberFormatException e) {
+        }
+        throw new Exception("Value of parallelism property must be a positive integer");
+    }
+    
+    private static long toCacheSize(Object value) throws Exception {
+        try {
+            long megabytes = (value instanceof Number) ? ((Number)value).longValue() : Long.parseLong(value.toString().trim());
+            if (megabytes > 0) return megabytes * 1024 * 1024;
+        } catch (NumberFormatException e) {
+        }
+        throw new Exception("Value of cachesize property must be a positive number of megabytes");
+    }
+    
+    private static Charset toCharset(Object value) throws Exception {
+        if (value instanceof Charset) return (Charset)value;
+        try {
+            return Charset.forName(value.toString().trim());
+        } catch (IllegalArgumentException e) {
+            throw new Exception("Value of charset property must be a supported character set");
+        }
+    }
+
     @Override
     public Language getLanguage() {
         return lastLanguage;
@@ -156,7 +258,7 @@ public class DefaultExtractor implements Extractor {
 	
 	@Override
     public String getFacts() {
-        if (extractFacts == null) {
+        if (extractFacts == null && !streamed) {
             extractFacts = new ExtractFacts(logicLanguage, sources, allAnnotations).build().toString();
         }
         return extractFacts;
@@ -164,59 +266,321 @@ public class DefaultExtractor implements Extractor {
 	
     @Override
     public DefaultExtractor extract() throws Exception {
+        
+        if (stream) {
+            return extract(IGNORE_ANNOTATIONS);
+        }
+
+        metrics.start();
+        resetExtraction();
+        extractSources();
+        
+        writeCommentListing();
+        extractAnnotations();
+        writeSkeletonFile();
+        
+        if (commentCount == 0) {
+            stderrStream.println("WARNING: No YW comments found in source code.");
+        }
 
+        if (factsFile != null) {
+            writeFacts();
+        }
+
+        if (columnarFile != null) {
+            writeColumnarFacts();
+        }
+        
+        stopMetrics();
+        return this;
+    }
+    
+    /** Extracts annotations in streaming mode, delivering each annotation to a handler as soon
+     *  as the source file containing it has been scanned.  The comment listing and the
+     *  extract facts are written incrementally to their files, and neither the extracted
+     *  lines nor the annotations are retained, so that the memory used depends on the size
+     *  of the largest source file rather than on the total size of the sources.
+     *  Afterwards {@link #getLines()}, {@link #getComments()} and {@link #getAnnotations()}
+     *  return empty lists, and {@link #getFacts()} returns null.  Annotations are retained
+     *  only if a skeleton file is to be written.
+     *  
+     *  @param handler The receiver of the annotations, in source order, or null.
+     *  @return This extractor.
+     *  @throws Exception If a source cannot be read, if an annotation is invalid, or if thrown by the handler.
+     */
+    public DefaultExtractor extract(AnnotationHandler handler) throws Exception {
+        
+        metrics.start();
+        resetExtraction();
+        streamed = true;
+        annotationHandler = (handler != null) ? handler : IGNORE_ANNOTATIONS;
+        try {
+            openStreams();
+            extractSources();
+            closeStreams();
+        } finally {
+            releaseStreams();
+            annotationHandler = null;
+        }
+        
+        writeSkeletonFile();
+        
+        if (commentCount == 0) {
+            stderrStream.println("WARNING: No YW comments found in source code.");
+        }
+        
+        stopMetrics();
+        return this;
+    }
+    
+    private boolean isStreaming() {
+        return annotationHandler != null;
+    }
+    
+    /** Returns the time taken and the files, lines and annotations extracted by the last
+     *  extraction.  Files and lines read from the extraction cache or retained from an
+     *  earlier extraction are counted as files but not as scanned. */
+    @Override
+    public StageMetrics getMetrics() {
+        return metrics;
+    }
+    
+    private void stopMetrics() {
+        metrics.count("files", sources.size())
+               .count("files_scanned", scannedSourceCount.get())
+               .count("lines_scanned", scannedLineCount.get())
+               .count("comment_lines", extractedCommentLineCount)
+               .count("yw_lines", extractedLineCount)
+               .count("annotations", commentCount)
+               .stop();
+    }
+    
+    /** Returns the number of source files read and scanned by the last extraction, as
+     *  opposed to those whose comment lines were retained from an earlier extraction
+     *  in incremental mode. */
+    public int getScannedSourceCount() {
+        return scannedSourceCount.get();
+    }
+    
+    private void resetExtraction() {
+        if (incremental) {
+            // number sources and annotations from one again so that an unchanged source
+            // yields annotations with the same ids as in the previous extraction
+            nextSourceId = 1;
+            nextAnnotationId = 1;
+        }
+        scannedSourceCount.set(0);
+        scannedLineCount.set(0);
+        extractedCommentLineCount = 0;
+        extractedLineCount = 0;
         lines = new LinkedList<SourceLine>();
+        comments = new LinkedList<String>();
+        allAnnotations = new LinkedList<Annotation>();
+        primaryAnnotations = new LinkedList<Annotation>();
+        primaryAnnotation = null;
+        commentCount = 0;
+        skeleton = null;
+        extractFacts = null;
+        streamed = false;
+    }
+    
+    private void extractSources() throws Exception {
         
         if (sourceReader != null) {
-            Source source = new Source(nextSourceId++, "__reader__");
-            extractLines(source, sourceReader, globalLanguageModel);
             sources = new LinkedList<String>();
             sources.add("_reader__");
+            openFactsWriter();
+            Source source = new Source(nextSourceId++, "__reader__");
+            extractLines(source, sourceReader, globalLanguageModel);
         } else if (sources == null || 
                    sources.size() == 0 || 
                    sources.size() == 1 && (sources.get(0).trim().isEmpty() || 
                                            sources.get(0).trim().equals("-"))) {
             sources = new LinkedList<String>();
             sources.add("__stdin__");
+            openFactsWriter();
             extractLinesFromStdin();
         } else {
+            openFactsWriter();
             extractLinesFromFiles(sources);
         }
-        
-        writeCommentListing();
-        extractAnnotations();
-        writeSkeletonFile();
-        
-        if (comments.isEmpty()) {
-            stderrStream.println("WARNING: No YW comments found in source code.");
+    }
+    
+    private void openStreams() throws IOException {
+        if (commentListingPath != null) {
+            listingWriter = openWriterToFileOrStdout(commentListingPath);
         }
-
-        if (factsFile != null) {
-            writeTextToFileOrStdout(factsFile, getFacts());
+    }
+    
+    /** Opens the facts writer once the list of sources is known. */
+    private void openFactsWriter() throws IOException {
+        if (isStreaming() && factsFile != null) {
+            if (isStdout(factsFile) && listingWriter != null && isStdout(commentListingPath)) {
+                // keep the facts from interleaving with the listing on stdout
+                factsSpoolFile = File.createTempFile("yw-extract-facts", ".tmp");
+                factsOut = ExtractFactsWriter.openSpool(factsSpoolFile);
+            } else {
+                factsOut = openFactsWriterToFileOrStdout(factsFile);
+            }
+            factsWriter = new ExtractFactsWriter(logicLanguage, sources, factsOut);
+        }
+        if (isStreaming() && columnarFile != null) {
+            columnarWriter = ColumnarFactsWriter.openFile(columnarFile);
+            ExtractFacts.beginInterleaved(columnarWriter, sources);
+        }
+    }
+    
+    private void closeStreams() throws IOException {
+        if (listingWriter != null) {
+            listingWriter.flush();
+        }
+        if (factsWriter != null) {
+            factsWriter.close();
+            if (factsSpoolFile != null) {
+                factsOut.close();
+                factsOut = openFactsWriterToFileOrStdout(factsFile);
+                ExtractFactsWriter.copySpool(factsSpoolFile, factsOut);
+            }
+            factsOut.flush();
         }
-        
-        return this;
     }
     
-    private void extractLinesFromStdin() throws IOException, YWToolUsageException {
-        Reader reader = new InputStreamReader(System.in);
+    private void releaseStreams() throws IOException {
+        try {
+            if (listingWriter != null) closeWriterToFileOrStdout(listingWriter);
+            if (factsOut != null) closeWriterToFileOrStdout(factsOut);
+            if (columnarWriter != null) columnarWriter.close();
+        } finally {
+            listingWriter = null;
+            factsOut = null;
+            factsWriter = null;
+            columnarWriter = null;
+            if (factsSpoolFile != null) {
+                factsSpoolFile.delete();
+                factsSpoolFile = null;
+            }
+        }
+    }
+    
+    private void extractLinesFromStdin() throws Exception {
+        Reader reader = new InputStreamReader(System.in, charset);
         Source source = new Source(nextSourceId++, "__stdin__");
         extractLines(source, new BufferedReader(reader), globalLanguageModel);
     }
 
-    private void extractLinesFromFiles(List<String> sourcePaths) throws IOException, YWToolUsageException {
-        for (String sourcePath : sourcePaths) {
-            Source source = new Source(nextSourceId++, sourcePath);
-            LanguageModel languageModel = null;
-            if (globalLanguageModel != null) {
-                languageModel = globalLanguageModel;
-            } else {
-                Language language = LanguageModel.languageForFileName(sourcePath);
-                if (language != null) {
-                    languageModel = new LanguageModel(language);
+    private void extractLinesFromFiles(List<String> sourcePaths) throws Exception {
+
+        final SourceFileReader fileReader = new SourceFileReader(charset);
+        final ExtractionCache cache = (cacheDirectory == null) ? null :
+                new ExtractionCache(new File(cacheDirectory), cacheSize);
+
+        // assign source ids in source order before any source is scanned
+        List<Callable<ExtractedSource>> tasks = new LinkedList<Callable<ExtractedSource>>();
+        for (final String sourcePath : sourcePaths) {
+            final Source source = new Source(nextSourceId++, sourcePath);
+            final LanguageModel languageModel = languageModelForPath(sourcePath);
+            tasks.add(new Callable<ExtractedSource>() {
+                public ExtractedSource call() throws Exception {
+                    if (incremental) {
+                        return extractRetainedSource(source, fileReader, cache, languageModel);
+                    } else if (cache == null) {
+                        scannedSourceCount.incrementAndGet();
+                        return extractSource(source, fileReader.read(source.path), languageModel);
+                    } else {
+                        return extractSource(source, fileReader, cache, languageModel);
+                    }
+                }
+            });
+        }
+        
+        runExtractionTasks(tasks);
+        
+        if (cache != null) {
+            try {
+                cache.evict();
+            } catch (IOException e) {
+                // the cache is only an optimization, so a failure to trim it does not fail the extraction
+                stderrStream.println("WARNING: Cannot evict extraction cache entries: " + e.getMessage());
+            }
+        }
+    }
+    
+    private void runExtractionTasks(List<Callable<ExtractedSource>> tasks) throws Exception {
+
+        if (parallelism == 1 || tasks.size() < 2) {
+            for (Callable<ExtractedSource> task : tasks) {
+                addExtractedSource(task.call());
+            }
+        } else {
+            
+            // scan the sources concurrently but merge the results in source order, keeping
+            // no more than parallelism sources in flight so that memory use stays bounded
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()));
+            try {
+                Iterator<Callable<ExtractedSource>> pending = tasks.iterator();
+                LinkedList<Future<ExtractedSource>> results = new LinkedList<Future<ExtractedSource>>();
+                while (results.size() < parallelism && pending.hasNext()) {
+                    results.add(executor.submit(measured(pending.next())));
+                }
+                while (!results.isEmpty()) {
+                    ExtractedSource extractedSource;
+                    try {
+                        extractedSource = results.removeFirst().get();
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof Exception) throw (Exception)e.getCause();
+                        throw e;
+                    }
+                    if (pending.hasNext()) {
+                        results.add(executor.submit(measured(pending.next())));
+                    }
+                    addExtractedSource(extractedSource);
                 }
+            } finally {
+                executor.shutdownNow();
             }
-            extractLines(source, getFileReaderForPath(sourcePath), languageModel);
+        }
+    }
+    
+    /** Wraps a task run on a worker thread so that its CPU time and allocation are
+     *  added to the metrics of the extraction. */
+    private Callable<ExtractedSource> measured(final Callable<ExtractedSource> task) {
+        return new Callable<ExtractedSource>() {
+            public ExtractedSource call() throws Exception {
+                long[] usage = StageMetrics.currentThreadUsage();
+                try {
+                    return task.call();
+                } finally {
+                    metrics.addThreadUsageSince(usage);
+                }
+            }
+        };
+    }
+    
+    /** Returns the state table for the given language model, compiling the table only once
+     *  for each language and once for a configured language model. */
+    private CommentDfa commentDfaFor(LanguageModel languageModel) {
+        if (languageModel == globalLanguageModel) {
+            CommentDfa dfa = globalCommentDfa;
+            if (dfa == null) {
+                globalCommentDfa = dfa = new CommentDfa(languageModel);
+            }
+            return dfa;
+        }
+        CommentDfa dfa = languageCommentDfas.get(languageModel.getLanguage());
+        if (dfa == null) {
+            dfa = new CommentDfa(languageModel);
+            CommentDfa existing = languageCommentDfas.putIfAbsent(languageModel.getLanguage(), dfa);
+            if (existing != null) dfa = existing;
+        }
+        return dfa;
+    }
+
+    private LanguageModel languageModelForPath(String sourcePath) {
+        if (globalLanguageModel != null) {
+            return globalLanguageModel;
+        } else {
+            Language language = LanguageModel.languageForFileName(sourcePath);
+            return (language != null) ? new LanguageModel(language) : null;
         }
     }
 
@@ -224,7 +588,7 @@ public class DefaultExtractor implements Extractor {
 
         BufferedReader reader = null;
         try {
-            reader = new BufferedReader(new FileReader(path));
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), charset));
         } catch (FileNotFoundException e) {
             throw new YWToolUsageException("ERROR: Input file not found: " + path);
         }
@@ -232,21 +596,143 @@ public class DefaultExtractor implements Extractor {
         return reader;
     }
     
-    private void extractLines(Source source, BufferedReader reader, LanguageModel languageModel) throws IOException {
+    private void extractLines(Source source, BufferedReader reader, LanguageModel languageModel) throws Exception {
+        scannedSourceCount.incrementAndGet();
+        addExtractedSource(extractSource(source, CommentMatcher.readAll(reader), languageModel));
+    }
+
+    /** Appends the YW comment lines of a scanned source to the lines extracted so far,
+     *  assigning them the line ids they would receive if all sources were scanned in order.
+     *  In streaming mode the lines are instead listed and their annotations extracted immediately. */
+    private void addExtractedSource(ExtractedSource extractedSource) throws Exception {
+        lastLanguage = extractedSource.language;
+        extractedCommentLineCount += extractedSource.commentLineCount;
+        extractedLineCount += extractedSource.lines.size();
+        int firstLineId = CommentMatcher.reserveLineIds(extractedSource.commentLineCount);
+        if (isStreaming()) {
+            for (SourceLine line : extractedSource.numberLines(firstLineId)) {
+                if (listingWriter != null) {
+                    listingWriter.write(line.text);
+                    listingWriter.write(EOL);
+                }
+                extractAnnotations(line);
+            }
+        } else {
+            lines.addAll(extractedSource.numberLines(firstLineId));
+        }
+    }
+
+    /** Returns the YW comment lines of a source file retained in memory from an earlier
+     *  extraction if the size and modification time of the file are unchanged, and
+     *  otherwise extracts them again and retains the result. */
+    private ExtractedSource extractRetainedSource(Source source, SourceFileReader fileReader,
+                                                  ExtractionCache cache, LanguageModel languageModel) throws Exception {
+        
+        // check the size and modification time of the file before reading it
+        // so that a change made while reading is detected by the next extraction
+        File file = new File(source.path);
+        long size = file.length();
+        long modified = file.lastModified();
+        String settings = ExtractionCache.describeSettings(
+                (languageModel == null) ? new LanguageModel(DEFAULT_LANGUAGE) : languageModel, charset);
+
+        RetainedSource retained = retainedSources.get(source.path);
+        if (retained != null && retained.size == size && retained.modified == modified && 
+            retained.settings.equals(settings) && file.isFile()) {
+            return retained.extractedSource.forSource(source);
+        }
+        
+        ExtractedSource extractedSource;
+        if (cache == null) {
+            scannedSourceCount.incrementAndGet();
+            extractedSource = extractSource(source, fileReader.read(source.path), languageModel);
+        } else {
+            extractedSource = extractSource(source, fileReader, cache, languageModel);
+        }
+        retainedSources.put(source.path, new RetainedSource(size, modified, settings, extractedSource));
+        return extractedSource;
+    }
+    
+    /** YW comment lines of a source file retained between extractions in incremental mode. */
+    private static class RetainedSource {
+        
+        final long size;
+        final long modified;
+        final String settings;
+        final ExtractedSource extractedSource;
+        
+        RetainedSource(long size, long modified, String settings, ExtractedSource extractedSource) {
+            this.size = size;
+            this.modified = modified;
+            this.settings = settings;
+            this.extractedSource = extractedSource;
+        }
+    }
+
+    /** Extracts the YW comment lines of a source file from the extraction cache if the file
+     *  is unchanged since it was cached, and otherwise scans the file and caches the result. */
+    private ExtractedSource extractSource(Source source, SourceFileReader fileReader, 
+                                          ExtractionCache cache, LanguageModel languageModel) throws Exception {
 
         if (languageModel == null) {
             languageModel = new LanguageModel(DEFAULT_LANGUAGE);
         }
-
-        lastLanguage = languageModel.getLanguage();
         
-        // extract all comments from script using the language model
-        CommentMatcher commentMatcher = new CommentMatcher(source, languageModel);
-        List<SourceLine> allCommentLines = commentMatcher.getCommentsAsLines(reader);
+        // check the size and modification time of the file before reading it
+        // so that a change made while reading is detected by the next run
+        File file = new File(source.path);
+        long size = file.length();
+        long modified = file.lastModified();
+        
+        String settings = ExtractionCache.describeSettings(languageModel, charset);
+        ExtractionCache.Entry entry = cache.get(source.path, settings);
+        if (entry != null && file.isFile() && entry.isCurrent(size, modified)) {
+            return entry.toExtractedSource(source);
+        }
+        
+        scannedSourceCount.incrementAndGet();
+        ByteBuffer bytes = fileReader.readBytes(source.path);
+        byte[] contentHash = ExtractionCache.hash(bytes);
+        ExtractedSource extractedSource;
+        if (entry != null && entry.hasContent(contentHash)) {
+            extractedSource = entry.toExtractedSource(source);
+        } else {
+            extractedSource = extractSource(source, fileReader.decode(bytes), languageModel);
+        }
+        
+        cache.put(source.path, settings, size, modified, contentHash, extractedSource);
+        return extractedSource;
+    }
+
+    /** Scans one source for comments containing YW keywords.  Depends only on its
+     *  arguments and the immutable keyword matcher, so sources may be scanned concurrently. */
+    private ExtractedSource extractSource(final Source source, final CharBuffer text, LanguageModel languageModel) {
 
+        if (languageModel == null) {
+            languageModel = new LanguageModel(DEFAULT_LANGUAGE);
+        }
+        
+        // extract all comments from script using the language model, and
         // select only the comments that contain YW keywords,
         // trimming characters preceding the first YW keyword in each
-        lines.addAll(keywordMatcher.match(allCommentLines, true));
+        final List<SourceLine> keywordLines = new LinkedList<SourceLine>();
+        final int[] commentLineCount = new int[] { 0 };
+        CommentMatcher commentMatcher = new CommentMatcher(source, commentDfaFor(languageModel));
+        final int offset = text.arrayOffset() + text.position();
+        int lineCount = commentMatcher.scan(text.array(), offset, offset + text.remaining(), new CommentMatcher.CommentSpanHandler() {
+            public void commentSpan(int lineNumber, char[] chars, int start, int end) {
+                int keywordStart = keywordMatcher.findKeyword(text, start - offset, end - offset);
+                if (keywordStart != -1) {
+                    keywordStart += offset;
+                    String lineText = new String(chars, keywordStart, end - keywordStart);
+                    keywordLines.add(new SourceLine(commentLineCount[0], source.id, lineNumber, lineText));
+                }
+                commentLineCount[0]++;
+            }
+        });
+        scannedLineCount.addAndGet(lineCount);
+
+        return new ExtractedSource(source, languageModel.getLanguage(), commentLineCount[0], keywordLines);
     }
 
     private void writeCommentListing() throws IOException {
@@ -254,12 +740,36 @@ public class DefaultExtractor implements Extractor {
             StringBuffer linesBuffer = new StringBuffer();
             for (SourceLine line : lines) {
                 linesBuffer.append(line.text);
-                linesBuffer.append(System.getProperty("line.separator"));
+                linesBuffer.append(EOL);
             }
             writeTextToFileOrStdout(commentListingPath, linesBuffer.toString());
         }
     }
 
+    /** Writes the facts straight to the facts file without first building them
+     *  as a string, unless they have already been built by {@link #getFacts()}. */
+    private void writeFacts() throws IOException {
+        Writer out = openFactsWriterToFileOrStdout(factsFile);
+        try {
+            if (extractFacts != null) {
+                out.write(extractFacts);
+            } else {
+                new ExtractFacts(logicLanguage, sources, allAnnotations).writeTo(out);
+            }
+        } finally {
+            closeWriterToFileOrStdout(out);
+        }
+    }
+
+    private void writeColumnarFacts() throws IOException {
+        ColumnarFactsWriter out = ColumnarFactsWriter.openFile(columnarFile);
+        try {
+            new ExtractFacts(logicLanguage, sources, allAnnotations).writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
     private void writeSkeletonFile() throws IOException {
         if (skeletonFile != null) {
             writeTextToFileOrStdout(skeletonFile, this.getSkeleton());
@@ -267,58 +777,91 @@ public class DefaultExtractor implements Extractor {
     }
 
     private void writeTextToFileOrStdout(String path, String text) throws IOException {  
-        PrintStream stream = (path.equals(YWConfiguration.EMPTY_VALUE) || path.equals("-")) ?
-                             this.stdoutStream : new PrintStream(path);
+        PrintStream stream = isStdout(path) ? this.stdoutStream : new PrintStream(path);
         stream.print(text);
         if (stream != this.stdoutStream) {
             stream.close();
         }
     }
+
+    private static boolean isStdout(String path) {
+        return path.equals(YWConfiguration.EMPTY_VALUE) || path.equals("-");
+    }
+
+    private Writer openWriterToFileOrStdout(String path) throws IOException {
+        if (isStdout(path)) {
+            if (stdoutWriter == null) stdoutWriter = new OutputStreamWriter(this.stdoutStream);
+            return stdoutWriter;
+        } else {
+            return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path)));
+        }
+    }
+
+    private Writer openFactsWriterToFileOrStdout(String path) throws IOException {
+        return isStdout(path) ? openWriterToFileOrStdout(path) : FactsWriter.openFile(path);
+    }
+
+    private void closeWriterToFileOrStdout(Writer writer) throws IOException {
+        if (writer == stdoutWriter) {
+            writer.flush();
+        } else {
+            writer.close();
+        }
+    }
     
     private void extractAnnotations() throws Exception {
-    	
-    	comments = new LinkedList<String>();
-    	allAnnotations = new LinkedList<Annotation>();
-        primaryAnnotations = new LinkedList<Annotation>();
-        Annotation primaryAnnotation = null;
-        
         for (SourceLine sourceLine : lines) {
-        	List<String> commentsOnLine = findCommentsOnLine(sourceLine.text, keywordMatcher);
-        	for (String comment : commentsOnLine) {
-        		comments.add(comment);
+            extractAnnotations(sourceLine);
+        }
+    }
+    
+    private void extractAnnotations(SourceLine sourceLine) throws Exception {
+    	
+    	List<String> commentsOnLine = findCommentsOnLine(sourceLine.text, keywordMatcher);
+    	for (String comment : commentsOnLine) {
+    		commentCount++;
+    		if (!isStreaming()) comments.add(comment);
 
-        		Tag tag = KeywordMatcher.extractInitialKeyword(comment, keywordMapping);
+    		Tag tag = KeywordMatcher.extractInitialKeyword(comment, keywordMapping);
+        
+            Annotation annotation = null;
+            Integer id = nextAnnotationId++;
+            switch(tag) {
             
-                Annotation annotation = null;
-                Integer id = nextAnnotationId++;
-                switch(tag) {
-                
-                    case BEGIN:     annotation = new Begin(id, sourceLine, comment);
-                                    break;
-                    case CALL:      annotation = new Call(id, sourceLine, comment);
-                                    break;
-                    case END:       annotation = new End(id, sourceLine, comment);
-                                    break;
-                    case FILE:      annotation = new FileUri(id, sourceLine, comment, primaryAnnotation);
-                                    break;
-                    case IN:        annotation = new In(id, sourceLine, comment);
-                                    break;
-                    case OUT:       annotation = new Out(id, sourceLine, comment);
-                                    break;
-                    case AS:        annotation = new As(id, sourceLine, comment, primaryAnnotation);
-                                    break;
-                    case PARAM:     annotation = new Param(id, sourceLine, comment);
-                                    break;
-                    case RETURN:    annotation = new Return(id, sourceLine, comment);
-                                    break;
-                    case URI:       annotation = new UriAnnotation(id, sourceLine, comment, primaryAnnotation);
-                                    break;   
-                }
-                
+                case BEGIN:     annotation = new Begin(id, sourceLine, comment);
+                                break;
+                case CALL:      annotation = new Call(id, sourceLine, comment);
+                                break;
+                case END:       annotation = new End(id, sourceLine, comment);
+                                break;
+                case FILE:      annotation = new FileUri(id, sourceLine, comment, primaryAnnotation);
+                                break;
+                case IN:        annotation = new In(id, sourceLine, comment);
+                                break;
+                case OUT:       annotation = new Out(id, sourceLine, comment);
+                                break;
+                case AS:        annotation = new As(id, sourceLine, comment, primaryAnnotation);
+                                break;
+                case PARAM:     annotation = new Param(id, sourceLine, comment);
+                                break;
+                case RETURN:    annotation = new Return(id, sourceLine, comment);
+                                break;
+                case URI:       annotation = new UriAnnotation(id, sourceLine, comment, primaryAnnotation);
+                                break;   
+            }
+            
+            if (! (annotation instanceof Qualification)) {
+            	primaryAnnotation = annotation;
+            }
+            
+            if (isStreaming()) {
+                annotationHandler.annotation(annotation);
+                if (factsWriter != null) factsWriter.add(annotation);
+                if (columnarWriter != null) ExtractFacts.addAnnotation(columnarWriter, annotation);
+                if (skeletonFile != null) allAnnotations.add(annotation);
+            } else {
                 allAnnotations.add(annotation);
-    
                 if (! (annotation instanceof Qualification)) {
-                	primaryAnnotation = annotation;
                     primaryAnnotations.add(annotation);
                 }
             }
@@ -336,7 +879,7 @@ public class DefaultExtractor implements Extractor {
     		char c = line.charAt(i);
     		buffer.append(c);
     	
-    		switch(keywordMatcher.matchesKeyword(buffer.toString())) {
+    		switch(keywordMatcher.matchesKeyword(buffer)) {
     		
 	    		case NO_MATCH:
 	    			
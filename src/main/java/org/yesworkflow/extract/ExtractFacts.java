@@ -1,88 +1,133 @@
 package org.yesworkflow.extract;
 
+import java.io.IOException;
 import java.util.List;
 
 import org.yesworkflow.annotations.Annotation;
 import org.yesworkflow.annotations.Qualification;
-import org.yesworkflow.query.FactsBuilder;
+import org.yesworkflow.query.FactsSink;
+import org.yesworkflow.query.FactsWriter;
 import org.yesworkflow.query.LogicLanguage;
 import org.yesworkflow.query.LogicLanguageModel;
 
 public class ExtractFacts {
 
+    private static final String[] SOURCE_FIELDS = { "source_id", "source_path" };
+    private static final String[] ANNOTATION_FIELDS = { "annotation_id", "source_id", "line_number", "annotation_tag", "annotation_value" };
+    private static final String[] DESCRIPTION_FIELDS = { "annotation_id", "annotation_description" };
+    private static final String[] QUALIFICATION_FIELDS = { "qualifying_annotation_id", "primary_annotation_id" };
+
     private final List<Annotation> annotations;
     private final List<String> sources;
+    private final LogicLanguageModel logicLanguageModel;
     private String factsString = null;
-    private FactsBuilder sourceFileFacts;
-    private FactsBuilder annotationFacts;
-    private FactsBuilder descriptionFacts;
-    private FactsBuilder qualificationFacts;
 
     
     public ExtractFacts(LogicLanguage logicLanguage, List<String> sources, List<Annotation> annotations) {
         
         this.sources = sources;
         this.annotations = annotations;
-        
-        LogicLanguageModel logicLanguageModel = new LogicLanguageModel(logicLanguage);
-        this.sourceFileFacts  = new FactsBuilder(logicLanguageModel, "extract_source", "source_id", "source_path");
-        this.annotationFacts  = new FactsBuilder(logicLanguageModel, "annotation", "annotation_id", "source_id", "line_number", "annotation_tag", "annotation_value");
-        this.descriptionFacts  = new FactsBuilder(logicLanguageModel, "annotation_description", "annotation_id", "annotation_description");
-        this.qualificationFacts = new FactsBuilder(logicLanguageModel, "annotation_qualifies", "qualifying_annotation_id", "primary_annotation_id");
+        this.logicLanguageModel = new LogicLanguageModel(logicLanguage);
     }
 
     public ExtractFacts build() {        
                 
-        buildSourceFileFacts();
-        buildAnnotationFacts();
-        
         StringBuilder sb = new StringBuilder();
-        sb.append(sourceFileFacts)
-          .append(annotationFacts)
-          .append(descriptionFacts)
-          .append(qualificationFacts);
+        try {
+            writeTo(sb);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
         
         factsString = sb.toString();
         
         return this;
     }
 
-    public String toString() {
-        return factsString;
+    /** Writes the facts straight to the given output, one relation at a time, without
+     *  holding the facts in memory.  The output is identical to the string returned by
+     *  {@link #toString()} after {@link #build()}. */
+    public ExtractFacts writeTo(Appendable out) throws IOException {
+        return writeTo(new FactsWriter(logicLanguageModel, out));
     }
-    
-    private void buildSourceFileFacts() {
+
+    /** Writes the facts to the given sink, one relation at a time. */
+    public ExtractFacts writeTo(FactsSink facts) throws IOException {
+        
+        facts.relation("extract_source", SOURCE_FIELDS);
         int nextSourceId = 1;
         for (String source : sources) {
-            sourceFileFacts.add(nextSourceId++, source);
+            facts.add(nextSourceId++, source);
         }
-    }
-    
-    private void buildAnnotationFacts() {
         
+        facts.relation("annotation", ANNOTATION_FIELDS);
         for (Annotation annotation : annotations) {   
-            
-            annotationFacts.add(
+            facts.add(
                     annotation.id, 
                     annotation.line.sourceId, 
                     annotation.line.lineNumber, 
                     annotation.tag, 
                     annotation.name
             );
-            
+        }
+        
+        facts.relation("annotation_description", DESCRIPTION_FIELDS);
+        for (Annotation annotation : annotations) {   
             if (annotation.description() != null) {
-                descriptionFacts.add(
+                facts.add(
                         annotation.id, 
                         annotation.description()
                 );
             }
-            
+        }
+        
+        facts.relation("annotation_qualifies", QUALIFICATION_FIELDS);
+        for (Annotation annotation : annotations) {   
             if (annotation instanceof Qualification) {
-                qualificationFacts.add(
+                facts.add(
                         annotation.id, 
                         ((Qualification)annotation).primaryAnnotation.id
                 );
             }
         }
+        
+        return this;
+    }
+
+    /** Declares all extract relations on a sink that accepts the facts of different
+     *  relations interleaved, such as a {@link org.yesworkflow.query.ColumnarFactsWriter},
+     *  and adds the source file facts, so that the facts about each annotation can then
+     *  be added with {@link #addAnnotation(FactsSink, Annotation)} as it is extracted. */
+    static void beginInterleaved(FactsSink facts, List<String> sources) throws IOException {
+        facts.relation("extract_source", SOURCE_FIELDS);
+        int nextSourceId = 1;
+        for (String source : sources) {
+            facts.add(nextSourceId++, source);
+        }
+        facts.relation("annotation", ANNOTATION_FIELDS);
+        facts.relation("annotation_description", DESCRIPTION_FIELDS);
+        facts.relation("annotation_qualifies", QUALIFICATION_FIELDS);
+    }
+    
+    /** Adds the facts about one annotation to a sink prepared with
+     *  {@link #beginInterleaved(FactsSink, List)}. */
+    static void addAnnotation(FactsSink facts, Annotation annotation) throws IOException {
+        
+        facts.relation("annotation", ANNOTATION_FIELDS)
+             .add(annotation.id, annotation.line.sourceId, annotation.line.lineNumber, annotation.tag, annotation.name);
+        
+        if (annotation.description() != null) {
+            facts.relation("annotation_description", DESCRIPTION_FIELDS)
+                 .add(annotation.id, annotation.description());
+        }
+        
+        if (annotation instanceof Qualification) {
+            facts.relation("annotation_qualifies", QUALIFICATION_FIELDS)
+                 .add(annotation.id, ((Qualification)annotation).primaryAnnotation.id);
+        }
+    }
+
+    public String toString() {
+        return factsString;
     }
 }
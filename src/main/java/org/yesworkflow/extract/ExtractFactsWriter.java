@@ -0,0 +1,139 @@
+package org.yesworkflow.extract;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.yesworkflow.annotations.Annotation;
+import org.yesworkflow.annotations.Qualification;
+import org.yesworkflow.query.FactsBuilder;
+import org.yesworkflow.query.LogicLanguage;
+import org.yesworkflow.query.LogicLanguageModel;
+
+/** Writes the same facts as {@link ExtractFacts}, but incrementally as each annotation
+ *  is extracted rather than from a complete list of annotations.  Source file facts and
+ *  annotation facts are written straight to the output.  Because all annotation facts
+ *  precede all description and qualification facts in the output, the latter are spooled
+ *  to temporary files and copied to the output when the writer is closed, so that the
+ *  output is identical to that of {@link ExtractFacts} while the memory used stays
+ *  independent of the number of annotations.
+ */
+public class ExtractFactsWriter implements Closeable {
+
+    private static final Charset SPOOL_CHARSET = Charset.forName("UTF-8");
+
+    private final Writer out;
+    private final FactsBuilder annotationFacts;
+    private final FactsBuilder descriptionFacts;
+    private final FactsBuilder qualificationFacts;
+    private final File descriptionSpoolFile;
+    private final File qualificationSpoolFile;
+    private final Writer descriptionSpool;
+    private final Writer qualificationSpool;
+
+    /** Writes the source file facts and prepares to write annotation facts.
+     *  @param logicLanguage The logic language in which to express the facts.
+     *  @param sources The paths of all source files, in source id order.
+     *  @param out The output to write the facts to.  Flushed but not closed by {@link #close()}.
+     */
+    public ExtractFactsWriter(LogicLanguage logicLanguage, List<String> sources, Writer out) throws IOException {
+
+        this.out = out;
+
+        LogicLanguageModel logicLanguageModel = new LogicLanguageModel(logicLanguage);
+        FactsBuilder sourceFileFacts  = new FactsBuilder(logicLanguageModel, "extract_source", "source_id", "source_path");
+        this.annotationFacts  = new FactsBuilder(logicLanguageModel, "annotation", "annotation_id", "source_id", "line_number", "annotation_tag", "annotation_value");
+        this.descriptionFacts  = new FactsBuilder(logicLanguageModel, "annotation_description", "annotation_id", "annotation_description");
+        this.qualificationFacts = new FactsBuilder(logicLanguageModel, "annotation_qualifies", "qualifying_annotation_id", "primary_annotation_id");
+
+        int nextSourceId = 1;
+        for (String source : sources) {
+            sourceFileFacts.add(nextSourceId++, source);
+        }
+        sourceFileFacts.writeTo(out);
+        annotationFacts.writeTo(out);
+
+        descriptionSpoolFile = File.createTempFile("yw-description-facts", ".tmp");
+        qualificationSpoolFile = File.createTempFile("yw-qualification-facts", ".tmp");
+        descriptionSpool = openSpool(descriptionSpoolFile);
+        qualificationSpool = openSpool(qualificationSpoolFile);
+    }
+
+    /** Writes the facts about one annotation.  Annotations must be added in id order. */
+    public ExtractFactsWriter add(Annotation annotation) throws IOException {
+
+        annotationFacts.add(
+                annotation.id,
+                annotation.line.sourceId,
+                annotation.line.lineNumber,
+                annotation.tag,
+                annotation.name
+        );
+        annotationFacts.writeTo(out);
+
+        if (annotation.description() != null) {
+            descriptionFacts.add(
+                    annotation.id,
+                    annotation.description()
+            );
+            descriptionFacts.writeTo(descriptionSpool);
+        }
+
+        if (annotation instanceof Qualification) {
+            qualificationFacts.add(
+                    annotation.id,
+                    ((Qualification)annotation).primaryAnnotation.id
+            );
+            qualificationFacts.writeTo(qualificationSpool);
+        }
+
+        return this;
+    }
+
+    /** Writes the spooled description and qualification facts to the output,
+     *  and deletes the spool files. */
+    @Override
+    public void close() throws IOException {
+        try {
+            descriptionFacts.writeTo(descriptionSpool);
+            qualificationFacts.writeTo(qualificationSpool);
+            descriptionSpool.close();
+            qualificationSpool.close();
+            copySpool(descriptionSpoolFile, out);
+            copySpool(qualificationSpoolFile, out);
+            out.flush();
+        } finally {
+            descriptionSpool.close();
+            qualificationSpool.close();
+            descriptionSpoolFile.delete();
+            qualificationSpoolFile.delete();
+        }
+    }
+
+    static Writer openSpool(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), SPOOL_CHARSET));
+    }
+
+    static void copySpool(File file, Writer out) throws IOException {
+        Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), SPOOL_CHARSET));
+        try {
+            char[] chunk = new char[8192];
+            int count;
+            while ((count = reader.read(chunk)) != -1) {
+                out.write(chunk, 0, count);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.yesworkflow.extract;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import org.yesworkflow.Language;
+
+/** The YW comment lines extracted from a single source.  Lines are numbered
+ *  relative to the source, so that sources can be scanned independently and
+ *  their lines assigned global line ids afterwards, in source order.
+ */
+public class ExtractedSource {
+
+    public final Source source;
+    public final Language language;
+    public final int commentLineCount;
+
+    /** YW comment lines in the source.  The lineId of each is its zero-based
+     *  position among all of the comment lines in the source. */
+    public final List<SourceLine> lines;
+
+    public ExtractedSource(Source source, Language language, int commentLineCount, List<SourceLine> lines) {
+        this.source = source;
+        this.language = language;
+        this.commentLineCount = commentLineCount;
+        this.lines = lines;
+    }
+
+    /** Returns the same comment lines attributed to the given source, as when a file
+     *  extracted earlier is assigned a different source id by a later extraction. */
+    public ExtractedSource forSource(Source source) {
+        List<SourceLine> sourceLines = new LinkedList<SourceLine>();
+        for (SourceLine line : lines) {
+            sourceLines.add(new SourceLine(line.lineId, source.id, line.lineNumber, line.text));
+        }
+        return new ExtractedSource(source, language, commentLineCount, sourceLines);
+    }
+
+    /** Assigns global line ids to the YW comment lines of the source.
+     *  @param firstLineId The id assigned to the first comment line in the source.
+     *  @return The YW comment lines with their line ids offset by firstLineId.
+     */
+    public List<SourceLine> numberLines(int firstLineId) {
+        List<SourceLine> numberedLines = new LinkedList<SourceLine>();
+        for (SourceLine line : lines) {
+            numberedLines.add(new SourceLine(firstLineId + line.lineId, line.sourceId, line.lineNumber, line.text));
+        }
+        return numberedLines;
+    }
+}
@@ -0,0 +1,390 @@
+package org.yesworkflow.extract;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.yesworkflow.Language;
+import org.yesworkflow.LanguageModel;
+
+/** Persistent on-disk cache of the YW comment lines extracted from source files,
+ *  so that unchanged files need not be scanned again by later runs.
+ *
+ *  <p>Each file is cached in its own entry, keyed by the absolute path of the file and
+ *  by a description of the extraction settings (language model and character set).
+ *  An entry records the size, modification time and content hash of the file when it
+ *  was scanned.  An entry is used without reading the file if the size and modification
+ *  time still match, or after reading but without scanning the file if its content hash
+ *  still matches, as when a fresh checkout changes modification times only.  Entries
+ *  store lines numbered relative to their source, so source ids, line ids and annotation
+ *  ids are assigned exactly as when every file is scanned.</p>
+ *
+ *  <p>Entries are written to temporary files and atomically renamed into place, so
+ *  concurrent runs sharing a cache directory never see partially written entries, and
+ *  an entry that cannot be read is treated as missing.  Reading an entry refreshes its
+ *  timestamp, and {@link #evict()} deletes the least recently used entries once the
+ *  entries together exceed the maximum size, while holding a lock on the directory.</p>
+ */
+public class ExtractionCache {
+
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final int FORMAT_VERSION = 1;
+    private static final String ENTRY_SUFFIX = ".ywx";
+    private static final String TEMP_PREFIX = "yw-entry-";
+    private static final String LOCK_FILE_NAME = ".lock";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // files modified this soon before being cached might have changed again within
+    // the resolution of the file system clock, so their content hash is always checked
+    private static final long MODIFICATION_TIME_RESOLUTION = 2000;
+    private static final long STALE_TEMP_FILE_AGE = 60 * 60 * 1000;
+
+    // one lock object per canonical cache directory, shared by all caches in this JVM
+    private static final ConcurrentMap<String,Object> directoryLocks = new ConcurrentHashMap<String,Object>();
+
+    private final File directory;
+    private final long maxBytes;
+
+    /** Opens a cache in the given directory, creating the directory if necessary.
+     *  @param directory The directory in which to store cache entries.
+     *  @param maxBytes The total size of the entries above which the least recently used are evicted.
+     */
+    public ExtractionCache(File directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Cannot create extraction cache directory: " + directory);
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /** The extraction of one source file as recorded in the cache. */
+    public static class Entry {
+
+        public final String path;
+        public final String settings;
+        public final long size;
+        public final long modified;
+        public final long cached;
+        public final byte[] contentHash;
+        public final Language language;
+        public final int commentLineCount;
+        public final List<SourceLine> lines;
+
+        Entry(String path, String settings, long size, long modified, long cached, byte[] contentHash,
+              Language language, int commentLineCount, List<SourceLine> lines) {
+            this.path = path;
+            this.settings = settings;
+            this.size = size;
+            this.modified = modified;
+            this.cached = cached;
+            this.contentHash = contentHash;
+            this.language = language;
+            this.commentLineCount = commentLineCount;
+            this.lines = lines;
+        }
+
+        /** @return True if a file of the given size and modification time can be assumed unchanged. */
+        public boolean isCurrent(long size, long modified) {
+            return size == this.size && modified == this.modified &&
+                   modified < cached - MODIFICATION_TIME_RESOLUTION;
+        }
+
+        /** @return True if the cached extraction is of a file with the given content hash. */
+        public boolean hasContent(byte[] contentHash) {
+            return Arrays.equals(contentHash, this.contentHash);
+        }
+
+        /** @return The cached extraction as if just extracted from the given source. */
+        public ExtractedSource toExtractedSource(Source source) {
+            List<SourceLine> sourceLines = new LinkedList<SourceLine>();
+            for (SourceLine line : lines) {
+                sourceLines.add(new SourceLine(line.lineId, source.id, line.lineNumber, line.text));
+            }
+            return new ExtractedSource(source, language, commentLineCount, sourceLines);
+        }
+    }
+
+    /** Looks up the cached extraction of a file.
+     *  @param path The path of the source file.
+     *  @param settings The description of the extraction settings, from {@link #describeSettings}.
+     *  @return The cache entry, or null if there is no readable entry for the file and settings.
+     */
+    public Entry get(String path, String settings) {
+
+        String absolutePath = new File(path).getAbsolutePath();
+        File entryFile = entryFile(absolutePath, settings);
+        if (!entryFile.isFile()) return null;
+
+        Entry entry;
+        try {
+            entry = readEntry(entryFile);
+        } catch (IOException e) {
+            return null;
+        }
+
+        if (!entry.path.equals(absolutePath) || !entry.settings.equals(settings)) return null;
+
+        // note the use of the entry for the least-recently-used eviction policy
+        entryFile.setLastModified(System.currentTimeMillis());
+
+        return entry;
+    }
+
+    /** Stores the extraction of a file, replacing any previous entry for the file and settings.
+     *  Failure to write the entry is not reported, since the cache is only an optimization.
+     *  @param path The path of the source file.
+     *  @param settings The description of the extraction settings, from {@link #describeSettings}.
+     *  @param size The size of the file when it was read.
+     *  @param modified The modification time of the file when it was read.
+     *  @param contentHash The hash of the file contents read, from {@link #hash}.
+     *  @param extractedSource The lines extracted from the file contents read.
+     */
+    public void put(String path, String settings, long size, long modified, byte[] contentHash,
+                    ExtractedSource extractedSource) {
+
+        String absolutePath = new File(path).getAbsolutePath();
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile(TEMP_PREFIX, ".tmp", directory);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                out.writeInt(FORMAT_VERSION);
+                writeString(out, absolutePath);
+                writeString(out, settings);
+                out.writeLong(size);
+                out.writeLong(modified);
+                out.writeLong(System.currentTimeMillis());
+                out.writeInt(contentHash.length);
+                out.write(contentHash);
+                writeString(out, (extractedSource.language == null) ? "" : extractedSource.language.name());
+                out.writeInt(extractedSource.commentLineCount);
+                out.writeInt(extractedSource.lines.size());
+                for (SourceLine line : extractedSource.lines) {
+                    out.writeInt(line.lineId);
+                    out.writeInt(line.lineNumber);
+                    writeString(out, line.text);
+                }
+            } finally {
+                out.close();
+            }
+            moveIntoPlace(tempFile, entryFile(absolutePath, settings));
+            tempFile = null;
+        } catch (IOException e) {
+        } finally {
+            if (tempFile != null) tempFile.delete();
+        }
+    }
+
+    /** Deletes the least recently used entries until the entries together are no larger than the
+     *  maximum size, and deletes temporary files abandoned by runs that did not complete.
+     *  Holds a lock on the cache directory so that concurrent runs do not evict at the same time.
+     *  File locks are held on behalf of the whole JVM, so evictions of the same directory by
+     *  different caches in one JVM are first serialized on a lock shared by those caches.
+     */
+    public void evict() throws IOException {
+
+        synchronized (directoryLock(directory)) {
+            RandomAccessFile lockFile = new RandomAccessFile(new File(directory, LOCK_FILE_NAME), "rw");
+            try {
+                FileChannel channel = lockFile.getChannel();
+                FileLock lock;
+                try {
+                    lock = channel.lock();
+                } catch (OverlappingFileLockException e) {
+                    throw new IOException("Extraction cache directory already locked: " + directory);
+                }
+                try {
+                    deleteStaleTempFiles();
+                    deleteLeastRecentlyUsedEntries();
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                lockFile.close();
+            }
+        }
+    }
+
+    private static Object directoryLock(File directory) throws IOException {
+        String key = directory.getCanonicalPath();
+        Object lock = directoryLocks.get(key);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = directoryLocks.putIfAbsent(key, newLock);
+            if (lock == null) lock = newLock;
+        }
+        return lock;
+    }
+
+    /** Describes the settings that determine what is extracted from a source file, so that
+     *  entries made with different settings are kept apart. */
+    public static String describeSettings(LanguageModel languageModel, Charset charset) {
+        StringBuilder settings = new StringBuilder();
+        settings.append(FORMAT_VERSION)
+                .append('|').append(languageModel.getLanguage())
+                .append('|').append(languageModel.getSingleCommentDelimiters())
+                .append('|').append(new TreeMap<String,String>(languageModel.getPairedCommentDelimiters()))
+                .append('|').append(charset.name());
+        return settings.toString();
+    }
+
+    /** Computes the content hash of the remaining bytes in a buffer without consuming them. */
+    public static byte[] hash(ByteBuffer bytes) {
+        MessageDigest digest = newDigest();
+        digest.update(bytes.duplicate());
+        return digest.digest();
+    }
+
+    private File entryFile(String absolutePath, String settings) {
+        MessageDigest digest = newDigest();
+        digest.update(settings.getBytes(UTF8));
+        digest.update((byte)0);
+        digest.update(absolutePath.getBytes(UTF8));
+        StringBuilder name = new StringBuilder();
+        for (byte b : digest.digest()) {
+            name.append(Character.forDigit((b >> 4) & 0xF, 16))
+                .append(Character.forDigit(b & 0xF, 16));
+        }
+        return new File(directory, name.append(ENTRY_SUFFIX).toString());
+    }
+
+    private static Entry readEntry(File entryFile) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(entryFile)));
+        try {
+            if (in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Unsupported extraction cache entry format: " + entryFile);
+            }
+            String path = readString(in);
+            String settings = readString(in);
+            long size = in.readLong();
+            long modified = in.readLong();
+            long cached = in.readLong();
+            byte[] contentHash = new byte[in.readInt()];
+            in.readFully(contentHash);
+            String languageName = readString(in);
+            Language language = languageName.isEmpty() ? null : Language.valueOf(languageName);
+            int commentLineCount = in.readInt();
+            int lineCount = in.readInt();
+            List<SourceLine> lines = new LinkedList<SourceLine>();
+            for (int i = 0; i < lineCount; ++i) {
+                int lineId = in.readInt();
+                int lineNumber = in.readInt();
+                lines.add(new SourceLine(lineId, null, lineNumber, readString(in)));
+            }
+            return new Entry(path, settings, size, modified, cached, contentHash, language, commentLineCount, lines);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid extraction cache entry: " + entryFile);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) throw new IOException("Invalid string length in extraction cache entry");
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static void moveIntoPlace(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void deleteStaleTempFiles() {
+        long staleBefore = System.currentTimeMillis() - STALE_TEMP_FILE_AGE;
+        File[] tempFiles = directory.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.getName().startsWith(TEMP_PREFIX);
+            }
+        });
+        if (tempFiles == null) return;
+        for (File tempFile : tempFiles) {
+            if (tempFile.lastModified() < staleBefore) tempFile.delete();
+        }
+    }
+
+    private void deleteLeastRecentlyUsedEntries() {
+
+        File[] entryFiles = directory.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.getName().endsWith(ENTRY_SUFFIX);
+            }
+        });
+        if (entryFiles == null) return;
+
+        // snapshot the timestamps and sizes, since other runs may touch entries while sorting
+        final Map<File,Long> lastUsed = new TreeMap<File,Long>();
+        long totalBytes = 0;
+        List<File> entries = new ArrayList<File>();
+        for (File entryFile : entryFiles) {
+            lastUsed.put(entryFile, entryFile.lastModified());
+            totalBytes += entryFile.length();
+            entries.add(entryFile);
+        }
+        if (totalBytes <= maxBytes) return;
+
+        Collections.sort(entries, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return lastUsed.get(a).compareTo(lastUsed.get(b));
+            }
+        });
+
+        for (File entryFile : entries) {
+            if (totalBytes <= maxBytes) break;
+            long length = entryFile.length();
+            if (entryFile.delete()) totalBytes -= length;
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 message digest not available", e);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package org.yesworkflow.extract;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/** Compiled, case-insensitive multi-keyword matcher based on the
+ *  Aho-Corasick algorithm.  The keywords are compiled once into a trie
+ *  and a dense transition table over the characters that actually occur
+ *  in the keywords, so that a line can be searched for all keywords in a
+ *  single left-to-right pass without lowercasing or copying the line.
+ *
+ *  <p>Instances are immutable once constructed and thus thread safe.</p>
+ */
+public class KeywordAutomaton {
+
+    private static final int ASCII_LIMIT = 128;
+    private static final int NO_STATE = -1;
+
+    /** character class of each ASCII character, 0 if not used in any keyword */
+    private final int[] asciiClass = new int[ASCII_LIMIT];
+
+    /** sorted non-ASCII characters used in keywords and their character classes */
+    private final char[] otherChars;
+    private final int[] otherClass;
+
+    /** number of character classes, including class 0 for characters not in any keyword */
+    private final int classCount;
+
+    /** trie transitions, NO_STATE where the trie has no edge */
+    private final int[] trie;
+
+    /** complete transition function with failure links folded in */
+    private final int[] dfa;
+
+    /** length of the keyword ending at each state, or 0 if the state does not end a keyword */
+    private final int[] keywordLength;
+
+    /** length of the longest keyword that is a suffix of the text read to reach each state */
+    private final int[] matchLength;
+
+    private final int keywordCount;
+    private final int maxKeywordLength;
+
+    /** Compiles the provided keywords into a new automaton.
+     *  @param keywords The keywords to match.  Case is ignored and empty keywords are skipped.
+     */
+    public KeywordAutomaton(Collection<String> keywords) {
+
+        // normalize the keywords to lower case and collect the characters used in them
+        Set<String> lowercaseKeywords = new LinkedHashSet<String>();
+        int maxStates = 1;
+        int longest = 0;
+        for (String keyword : keywords) {
+            if (keyword.isEmpty()) continue;
+            String k = lowercase(keyword);
+            if (lowercaseKeywords.add(k)) {
+                maxStates += k.length();
+                longest = Math.max(longest, k.length());
+            }
+        }
+        keywordCount = lowercaseKeywords.size();
+        maxKeywordLength = longest;
+
+        // assign a character class to each distinct character used in the keywords
+        StringBuilder nonAscii = new StringBuilder();
+        int nextClass = 1;
+        for (String k : lowercaseKeywords) {
+            for (int i = 0; i < k.length(); ++i) {
+                char c = k.charAt(i);
+                if (c < ASCII_LIMIT) {
+                    if (asciiClass[c] == 0) asciiClass[c] = nextClass++;
+                } else if (nonAscii.indexOf(String.valueOf(c)) == -1) {
+                    nonAscii.append(c);
+                }
+            }
+        }
+        otherChars = nonAscii.toString().toCharArray();
+        Arrays.sort(otherChars);
+        otherClass = new int[otherChars.length];
+        for (int i = 0; i < otherChars.length; ++i) {
+            otherClass[i] = nextClass++;
+        }
+        classCount = nextClass;
+
+        // build the trie
+        trie = new int[maxStates * classCount];
+        Arrays.fill(trie, NO_STATE);
+        keywordLength = new int[maxStates];
+        int stateCount = 1;
+        for (String k : lowercaseKeywords) {
+            int state = 0;
+            for (int i = 0; i < k.length(); ++i) {
+                int edge = state * classCount + classOf(k.charAt(i));
+                if (trie[edge] == NO_STATE) trie[edge] = stateCount++;
+                state = trie[edge];
+            }
+            keywordLength[state] = k.length();
+        }
+
+        // fold failure links into a complete transition table in breadth-first order
+        dfa = new int[stateCount * classCount];
+        matchLength = new int[stateCount];
+        int[] fail = new int[stateCount];
+        int[] queue = new int[stateCount];
+        int head = 0;
+        int tail = 0;
+        for (int cls = 0; cls < classCount; ++cls) {
+            int child = trie[cls];
+            if (child == NO_STATE) {
+                dfa[cls] = 0;
+            } else {
+                dfa[cls] = child;
+                fail[child] = 0;
+                queue[tail++] = child;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            matchLength[state] = Math.max(keywordLength[state], matchLength[fail[state]]);
+            for (int cls = 0; cls < classCount; ++cls) {
+                int child = trie[state * classCount + cls];
+                if (child == NO_STATE) {
+                    dfa[state * classCount + cls] = dfa[fail[state] * classCount + cls];
+                } else {
+                    dfa[state * classCount + cls] = child;
+                    fail[child] = dfa[fail[state] * classCount + cls];
+                    queue[tail++] = child;
+                }
+            }
+        }
+    }
+
+    /** @return The number of distinct (case-insensitive) keywords compiled into the automaton. */
+    public int getKeywordCount() {
+        return keywordCount;
+    }
+
+    /** Finds the earliest-starting occurrence of any keyword in a range of characters.
+     *  @param text The characters to search.
+     *  @param start Index of the first character to search.
+     *  @param end Index following the last character to search.
+     *  @return The start index of the first keyword found, or -1 if no keyword is found.
+     */
+    public int find(CharSequence text, int start, int end) {
+
+        int state = 0;
+        int firstKeywordStart = -1;
+
+        for (int i = start; i < end; ++i) {
+
+            // no keyword ending at or beyond this point can start before the one already found
+            if (firstKeywordStart != -1 && i - firstKeywordStart >= maxKeywordLength) break;
+
+            state = dfa[state * classCount + classOf(text.charAt(i))];
+            int length = matchLength[state];
+            if (length > 0) {
+                int keywordStart = i - length + 1;
+                if (firstKeywordStart == -1 || keywordStart < firstKeywordStart) {
+                    firstKeywordStart = keywordStart;
+                }
+            }
+        }
+
+        return firstKeywordStart;
+    }
+
+    /** Finds the earliest-starting occurrence of any keyword in a string.
+     *  @param text The characters to search.
+     *  @return The start index of the first keyword found, or -1 if no keyword is found.
+     */
+    public int find(CharSequence text) {
+        return find(text, 0, text.length());
+    }
+
+    /** Follows the trie from the root along the characters of s.
+     *  @param s The characters to follow.
+     *  @return The trie state reached, or -1 if s is not a prefix of any keyword.
+     */
+    public int walk(CharSequence s) {
+        if (keywordCount == 0) return NO_STATE;
+        int state = 0;
+        for (int i = 0, length = s.length(); i < length && state != NO_STATE; ++i) {
+            state = trie[state * classCount + classOf(s.charAt(i))];
+        }
+        return state;
+    }
+
+    /** @return true if the given trie state, as returned by {@link #walk(CharSequence) walk()},
+     *  completes a keyword. */
+    public boolean isKeyword(int state) {
+        return state > 0 && keywordLength[state] > 0;
+    }
+
+    /** Maps a character to its class, folding case the same way keywords were folded. */
+    private int classOf(char c) {
+        if (c < ASCII_LIMIT) {
+            if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+            return asciiClass[c];
+        }
+        c = Character.toLowerCase(c);
+        if (c < ASCII_LIMIT) return asciiClass[c];
+        int i = Arrays.binarySearch(otherChars, c);
+        return (i < 0) ? 0 : otherClass[i];
+    }
+
+    private static String lowercase(String s) {
+        char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; ++i) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+}
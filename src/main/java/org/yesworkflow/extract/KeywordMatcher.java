@@ -1,10 +1,8 @@
 package org.yesworkflow.extract;
 
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
 import java.util.StringTokenizer;
 
 import org.yesworkflow.YWKeywords;
@@ -16,15 +14,15 @@ import org.yesworkflow.YWKeywords.Tag;
  */
 public class KeywordMatcher {
     
-    /** storage for the collection of YW keywords to match lines against */
-    private Set<String> keywords = new HashSet<String>();
+    /** automaton compiled from the YW keywords to match lines against */
+    private final KeywordAutomaton automaton;
     
     /** Constructs an instance configured to match comment lines against the
      *  provided collection of keywords.
      *  @param keywords The YW keywords against which comment lines are matched.
      */
     public KeywordMatcher(Collection<String> keywords) {
-        this.keywords.addAll(keywords);
+        this.automaton = new KeywordAutomaton(keywords);
     }
 
     /** Searches a list of comment lines for YW keywords and returns the 
@@ -54,17 +52,14 @@ public class KeywordMatcher {
         FULL_MATCH
     }
     
-    public MatchExtent matchesKeyword(String s) {
-        
-        String sl = s.toLowerCase();
-        
-        // look for a match with single-line comment start delimiter
-        for (String keyword : keywords) {
-            if (keyword.startsWith(sl)) {
-                return (s.length() == keyword.length()) ? MatchExtent.FULL_MATCH : MatchExtent.PREFIX_MATCH;
-            }
-        }
-        return MatchExtent.NO_MATCH;
+    /** Determines if the passed characters match, or are a prefix of, any YW keyword.
+     *  @param s The potential keyword to be tested.
+     *  @return The extent of the match found.
+     */
+    public MatchExtent matchesKeyword(CharSequence s) {
+        int state = automaton.walk(s);
+        if (state == -1) return MatchExtent.NO_MATCH;
+        return automaton.isKeyword(state) ? MatchExtent.FULL_MATCH : MatchExtent.PREFIX_MATCH;
     }
     
     /** Searches a comment line for YW keywords.  Returns the line if
@@ -85,25 +80,24 @@ public class KeywordMatcher {
     
     /** Finds the first occurrence of a YW keyword in a comment line.
      *  Returns the index of the start of the keyword or -1 if no keyword is found.
-     *  
-     *  <p><i>TODO: If the performance of this method proves unsatisfactory, replace it
-     *  with an implementation that uses a trie (prefix tree) to represent the set of
-     *  keywords.</i></p>
+     *  All keywords are searched for in a single pass over the line using the
+     *  {@link KeywordAutomaton} compiled when this instance was constructed.
      *  
      *  @param line The comment line to search for YW keywords.
      *  @return The start index of the first keyword found, or -1 if no keyword is found. 
      */
-    public int findKeyword(String line) {
-        String lineLowerCase = line.toLowerCase();
-        int firstKeywordStart = -1;
-        for (String keyword : keywords) {
-            int start = lineLowerCase.indexOf(keyword);
-            if (start == -1) continue;
-            if (firstKeywordStart == -1 || start < firstKeywordStart) {
-                firstKeywordStart = start;
-            }
-        }
-        return firstKeywordStart;
+    public int findKeyword(CharSequence line) {
+        return automaton.find(line);
+    }
+
+    /** Finds the first occurrence of a YW keyword in a range of characters.
+     *  @param text The characters to search for YW keywords.
+     *  @param start Index of the first character to search.
+     *  @param end Index following the last character to search.
+     *  @return The index in text of the first keyword found, or -1 if no keyword is found.
+     */
+    public int findKeyword(CharSequence text, int start, int end) {
+        return automaton.find(text, start, end);
     }
     
     public static Tag extractInitialKeyword(String s, YWKeywords keywords) {
@@ -0,0 +1,102 @@
+package org.yesworkflow.extract;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+import org.yesworkflow.exceptions.YWToolUsageException;
+
+/** Reads entire source files into array-backed character buffers that can be
+ *  scanned by a {@link CommentMatcher} without first splitting the source into lines.
+ *  Small files are read with a single bulk read, and large files are memory-mapped,
+ *  and in both cases the bytes are decoded in one pass using an explicitly specified
+ *  character set.  Malformed and unmappable input is replaced rather than rejected,
+ *  as when reading with a {@link java.io.FileReader FileReader}.
+ *
+ *  <p>Instances hold no state while not reading and may be shared between threads.</p>
+ */
+public class SourceFileReader {
+
+    /** Files at least this large are memory-mapped rather than read into a heap buffer. */
+    public static final long DEFAULT_MAP_THRESHOLD = 1 << 20;
+
+    private final Charset charset;
+    private final long mapThreshold;
+
+    public SourceFileReader(Charset charset) {
+        this(charset, DEFAULT_MAP_THRESHOLD);
+    }
+
+    public SourceFileReader(Charset charset, long mapThreshold) {
+        this.charset = charset;
+        this.mapThreshold = mapThreshold;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /** Reads and decodes the entire contents of a source file.
+     *  @param path The path of the file to read.
+     *  @return A buffer positioned at the first character of the file and backed by an accessible array.
+     *  @throws YWToolUsageException If the file does not exist.
+     *  @throws IOException
+     */
+    public CharBuffer read(String path) throws YWToolUsageException, IOException {
+        return decode(readBytes(path));
+    }
+
+    /** Reads the entire contents of a source file without decoding them.
+     *  @param path The path of the file to read.
+     *  @return A buffer containing the bytes of the file, memory-mapped if the file is large.
+     *  @throws YWToolUsageException If the file does not exist.
+     *  @throws IOException
+     */
+    public ByteBuffer readBytes(String path) throws YWToolUsageException, IOException {
+
+        FileInputStream stream;
+        try {
+            stream = new FileInputStream(path);
+        } catch (FileNotFoundException e) {
+            throw new YWToolUsageException("ERROR: Input file not found: " + path);
+        }
+
+        try {
+            FileChannel channel = stream.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Source file too large to read: " + path);
+            }
+            ByteBuffer bytes;
+            if (size >= mapThreshold) {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                bytes = ByteBuffer.allocate((int)size);
+                while (bytes.hasRemaining() && channel.read(bytes) != -1);
+                bytes.flip();
+            }
+            return bytes;
+        } finally {
+            stream.close();
+        }
+    }
+
+    /** Decodes a buffer of bytes in the configured character set. */
+    public CharBuffer decode(ByteBuffer bytes) throws CharacterCodingException {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer text = decoder.decode(bytes);
+        if (!text.hasArray()) {
+            text = CharBuffer.wrap(text.toString().toCharArray());
+        }
+        return text;
+    }
+}
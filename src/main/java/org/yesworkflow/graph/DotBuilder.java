@@ -4,41 +4,100 @@ package org.yesworkflow.graph;
  * package as of 28Dec2014.
  */
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+/** Builds the text of a GraphViz DOT graph.  By default the text is held in memory and
+ *  returned by {@link #toString()}.  A builder constructed with a {@link Writer} instead
+ *  streams the text to the writer in chunks of about {@link #FLUSH_THRESHOLD} characters
+ *  as the graph is built, and holds none of it once {@link #endGraph()} is called.
+ *  Errors writing to the writer are thrown as IllegalStateException.
+ *
+ *  <p>A builder can be reused for further graphs by calling {@link #reset(Writer)}, which
+ *  keeps the capacity of its buffer and tables so that rendering the same model again
+ *  allocates little more than the graph text itself.</p> */
 public class DotBuilder {
-	
+
     public static final String EOL = System.getProperty("line.separator");
+    public static final int FLUSH_THRESHOLD = 8 * 1024;
+
+    private static final String DEFAULT_FILLCOLOR = "#FFFFFF";
+    private static final String DEFAULT_SHAPE = "box";
+    private static final String DEFAULT_STYLE = "filled";
 
-    private StringBuilder _buffer = new StringBuilder();
+    private Writer out;
+    private final StringBuilder _buffer = new StringBuilder();
 	private int nodeCount = 0;
     private int subgraphCount = 0;
-	private Map<String,String> nodeNameToIdMap = new HashMap<String,String>();
-    private String fillcolor = "#FFFFFF";
-    private String shape = "box";
+	private final Map<String,Integer> nodeNameToIdMap = new HashMap<String,Integer>();
+    private String fillcolor = DEFAULT_FILLCOLOR;
+    private String shape = DEFAULT_SHAPE;
     private int peripheries = 1;
-    private String style = "filled";
+    private String style = DEFAULT_STYLE;
     private boolean newNodeStyle = true;
-    private Double width = null;
+    private double width = 0;
+    private boolean hasWidth = false;
     private boolean commentsEnabled = true;
     private boolean showClusterBox = true;
     private boolean horizontalLayout = true;
-    Map<String,Map<String,Set<String>>> uniqueEdges = new HashMap<String,Map<String,Set<String>>>();
-    
+    private final Set<Edge> uniqueEdges = new HashSet<Edge>();
+
+    /** Creates a builder that holds the graph text in memory. */
+    public DotBuilder() {
+        this(null);
+    }
+
+    /** Creates a builder that streams the graph text to the given writer.  The writer
+     *  is flushed but not closed by {@link #endGraph()}. */
+    public DotBuilder(Writer out) {
+        this.out = out;
+    }
+
+    /** Discards the graph built so far and restores the default node style, so that
+     *  the builder can build a new graph, streamed to <code>out</code> if it is not null
+     *  and held in memory otherwise. */
+    public DotBuilder reset(Writer out) {
+        this.out = out;
+        _buffer.setLength(0);
+        nodeCount = 0;
+        subgraphCount = 0;
+        nodeNameToIdMap.clear();
+        uniqueEdges.clear();
+        fillcolor = DEFAULT_FILLCOLOR;
+        shape = DEFAULT_SHAPE;
+        peripheries = 1;
+        style = DEFAULT_STYLE;
+        newNodeStyle = true;
+        hasWidth = false;
+        commentsEnabled = true;
+        showClusterBox = true;
+        horizontalLayout = true;
+        return this;
+    }
+
+    /** Returns true if this builder streams the graph text to a writer. */
+    public boolean isStreaming() {
+        return out != null;
+    }
+
 	public DotBuilder beginGraph() {
-		_buffer.append(	"digraph Workflow {" + EOL );
+		_buffer.append(	"digraph Workflow {" )
+		       .append( EOL                  );
 		return this;
 	}
 
 	public DotBuilder rankDir(String rankdir) {
-        _buffer.append( "rankdir=" + rankdir + EOL );        
-        horizontalLayout = (rankdir.equalsIgnoreCase("LR") || rankdir.equalsIgnoreCase("RL")); 
+        _buffer.append( "rankdir=" )
+               .append( rankdir    )
+               .append( EOL        );
+        horizontalLayout = (rankdir.equalsIgnoreCase("LR") || rankdir.equalsIgnoreCase("RL"));
 	    return this;
 	}
-	
+
     public DotBuilder enableComments(boolean state) {
         commentsEnabled = state;
         return this;
@@ -48,9 +107,9 @@ public class DotBuilder {
         showClusterBox = show;
         return this;
     }
-    
+
     public DotBuilder comment(String c) {
-        
+
         if (commentsEnabled) {
             _buffer.append(     EOL     )
                    .append(     "/* "   )
@@ -58,87 +117,74 @@ public class DotBuilder {
                    .append(     " */"   )
                    .append(     EOL     );
         }
-        
-        return this;
+
+        return spill();
     }
 
     public DotBuilder beginSubgraph() {
         return beginSubgraph("");
     }
-    
+
     public DotBuilder beginHiddenSubgraph() {
-        
-        String name = "cluster" + subgraphCount++;
-                
-        _buffer.append(     "subgraph "         )
-               .append(     name                )
+
+        _buffer.append(     "subgraph cluster"  )
+               .append(     subgraphCount++     )
                .append(     " {"                )
-               .append(     " label="           )
-               .append(     dq("")              )
-               .append(     " color="           )
-               .append(     dq("white")         )
+               .append(     " label=\"\""       )
+               .append(     " color=\"white\""  )
                .append(     EOL                 );
-            
-        name = "cluster" + subgraphCount++;
-        
-        _buffer.append(     "subgraph "         )
-               .append(     name                )
+
+        _buffer.append(     "subgraph cluster"  )
+               .append(     subgraphCount++     )
                .append(     " {"                )
-               .append(     " label="           )
-               .append(     dq("")              )
-               .append(     " color="           )
-               .append(     dq("white")         )
+               .append(     " label=\"\""       )
+               .append(     " color=\"white\""  )
                .append(     EOL                 );
 
         return this;
     }
-    
+
 
     public DotBuilder beginSubgraph(String label) {
-        
-        String name = "cluster" + subgraphCount++;
-                
-        _buffer.append(     "subgraph "         )
-               .append(     name                )
+
+        _buffer.append(     "subgraph cluster"  )
+               .append(     subgraphCount++     )
                .append(     " {"                )
                .append(     EOL                 )
-               .append(     "label="            )
-               .append(     dq(label)           )
+               .append(     "label=\""          )
+               .append(     label               )
+               .append(     '"'                 )
                .append(     EOL                 )
                .append(     "penwidth=2"        )
                .append(     EOL                 )
                .append(     "fontsize=18"       )
                .append(     EOL                 );
-        
+
         if (!showClusterBox) {
-            
-            _buffer.append(     "color="            )
-                   .append(     dq("white")         )
+
+            _buffer.append(     "color=\"white\""   )
                    .append(     EOL                 );
         }
-            
-        name = "cluster" + subgraphCount++;
-        
-        _buffer.append(     "subgraph "         )
-               .append(     name                )
+
+        _buffer.append(     "subgraph cluster"  )
+               .append(     subgraphCount++     )
                .append(     " {"                )
                .append(     EOL                 )
-               .append(     "label="            )
-               .append(     dq("")              )
+               .append(     "label=\"\""        )
                .append(     EOL                 )
-               .append(     "color="            )
-               .append(     dq("white")         )
+               .append(     "color=\"white\""   )
                .append(     EOL                 );
 
         return this;
     }
-    
-    
+
+
    public DotBuilder endSubgraph() {
-        _buffer .append(    "}}" + EOL       );
-        return this;
+        _buffer .append(    "}}"             )
+                .append(    EOL              );
+        return spill();
     }
-		
+
    public DotBuilder shape(String s) {
         this.shape = s;
         newNodeStyle = true;
@@ -150,7 +196,7 @@ public class DotBuilder {
        newNodeStyle = true;
        return this;
    }
-   
+
 	public DotBuilder fillcolor(String fc) {
 	    this.fillcolor = fc;
         newNodeStyle = true;
@@ -162,13 +208,17 @@ public class DotBuilder {
         newNodeStyle = true;
         return this;
     }
-    
+
     public DotBuilder width(double w) {
-        return width(new Double(w));
+        this.width = w;
+        this.hasWidth = true;
+        newNodeStyle = true;
+        return this;
     }
-    
+
     public DotBuilder width(Double w) {
-        this.width = w;
+        if (w != null) return width(w.doubleValue());
+        this.hasWidth = false;
         newNodeStyle = true;
         return this;
     }
@@ -176,45 +226,47 @@ public class DotBuilder {
     public DotBuilder node(String name) {
         return node(name, name);
     }
-        
+
     public DotBuilder node(String name, String label) {
 
         // TODO Investigate why this is needed
         if (nodeNameToIdMap.get(name) != null) return this;
-        
+
 	    if (newNodeStyle) {
 	        flushNodeStyle();
 	    }
-	    
-		String id = "node" + ++nodeCount;
+
+		int id = ++nodeCount;
 		nodeNameToIdMap.put(name, id);
-		
-		_buffer	.append(      id			   );
-		
+
+		_buffer	.append(      "node"		   )
+		        .append(      id               );
+
 		if (label != null && !label.isEmpty()) {
-		    _buffer.append(	  " [label="	   )
-				   .append(	   dq(label)	   )				
-				   .append(	   "]"             );
+		    _buffer.append(	  " [label=\""	   )
+				   .append(	   label    	   )
+				   .append(	   "\"]"           );
 		}
-		
+
 		_buffer.append(       EOL		       );
-		
-		return this;
+
+		return spill();
 	}
 
     public DotBuilder recordNode(String name, String label1, String label2) {
-        
+
         // TODO Investigate why this is needed
         if (nodeNameToIdMap.get(name) != null) return this;
-        
+
         if (newNodeStyle) {
             flushNodeStyle();
         }
-        
-        String id = "node" + ++nodeCount;
+
+        int id = ++nodeCount;
         nodeNameToIdMap.put(name, id);
-        
-        _buffer.append(     id                  )
+
+        _buffer.append(     "node"              )
+               .append(     id                  )
                .append(     " [shape=record "   )
                .append(     " rankdir=LR "      )
                .append(     "label=\"{"         );
@@ -222,76 +274,72 @@ public class DotBuilder {
         if (horizontalLayout) {
             _buffer.append( "{"                 );
         }
-        
+
         _buffer.append(     "<f0> "             )
                .append(     label1              )
                .append(     "|<f1>"             )
                .append(     label2              );
-               
+
         if (horizontalLayout) {
             _buffer.append( "}"                 );
         }
-        _buffer.append(     "}\"];"             )   
+        _buffer.append(     "}\"];"             )
                .append(     EOL                 );
-        
-        
-        return this;
+
+
+        return spill();
     }
-    
+
+    /** Returns the number of nodes added since the builder was created or reset. */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /** Returns the number of distinct edges added since the builder was created or reset. */
+    public int getEdgeCount() {
+        return uniqueEdges.size();
+    }
+
     public DotBuilder edge(String fromNode, String toNode) {
         return edge(fromNode, toNode, null);
     }
-    
+
 	public DotBuilder edge(String fromNode, String toNode, String edgeLabel) {
-	    
-		String fromId = nodeNameToIdMap.get(fromNode);
+
+		Integer fromId = nodeNameToIdMap.get(fromNode);
 		if (fromId == null) System.err.println("WARNING: No graph edge from-node with name '" + fromNode + "'");
-		
-		String toId = nodeNameToIdMap.get(toNode);
+
+		Integer toId = nodeNameToIdMap.get(toNode);
         if (toId == null) System.err.println("WARNING: No graph edge to-node with name '" + toNode + "'");
-		
-        if (edgeIsUnique(fromId, toId, edgeLabel)) {
-        
-    		_buffer .append(	fromId			)
-    				.append(	" -> "			)
-    				.append(	toId			);
-    		
+
+        if (uniqueEdges.add(new Edge(fromId, toId, edgeLabel))) {
+
+            appendNodeId(fromId);
+    		_buffer .append(	" -> "			);
+    		appendNodeId(toId);
+
     		if (edgeLabel != null) {
-    		 _buffer.append(	" [label="		)
-    				.append(	dq(edgeLabel)	)
-    				.append(	"]"             );
+    		 _buffer.append(	" [label=\""	)
+    				.append(	edgeLabel   	)
+    				.append(	"\"]"           );
     		}
-    		
+
     		_buffer.append(        EOL		);
         }
-        
-		return this;
-	}
 
-	boolean edgeIsUnique(String from, String to, String label) {
-	    
-	    Map<String,Set<String>> labelsForEdgesFromFirstNode = uniqueEdges.get(from);
-	    if (labelsForEdgesFromFirstNode == null) {
-	        labelsForEdgesFromFirstNode = new HashMap<String,Set<String>>();
-	        uniqueEdges.put(from, labelsForEdgesFromFirstNode);
-	    }
-	    
-	    Set<String> labels = labelsForEdgesFromFirstNode.get(to);
-	    if (labels == null) {
-	        labels = new HashSet<String>();
-	        labelsForEdgesFromFirstNode.put(to, labels);
-	    }
+		return spill();
+	}
 
-	    if (labels.contains(label)) {
-	        return false;
+	private void appendNodeId(Integer id) {
+	    if (id == null) {
+	        _buffer.append("null");
 	    } else {
-	        labels.add(label);
-	        return true;
+	        _buffer.append("node").append(id.intValue());
 	    }
 	}
-	
+
 	public DotBuilder graphFont(String font) {
-	    
+
 	    _buffer.append(    "graph[fontname="   )
 	           .append(    font                )
 	           .append(    "]"                 )
@@ -299,62 +347,115 @@ public class DotBuilder {
 
 	    return this;
 	}
-	
+
     public DotBuilder nodeFont(String font) {
-        
+
         _buffer.append(    "node[fontname="    )
                .append(    font                )
                .append(    "]"                 )
                .append(    EOL                 );
-        
+
         return this;
     }
 
     public DotBuilder edgeFont(String font) {
-       
+
         _buffer.append(    "edge[fontname="    )
                .append(    font                )
                .append(    "]"                 )
                .append(    EOL                 );
-       
+
         return this;
     }
-   
+
 	public void flushNodeStyle() {
-	    
-        _buffer.append(    "node["          )
-               .append(    "shape="         )
-               .append(    shape            )
-               .append(    " style="        )
-               .append(    dq(style)        )
-               .append(   " fillcolor="     )
-               .append(    dq(fillcolor)    )
-               .append(    " peripheries="  )
-               .append(    peripheries      )
-               .append(    " label="        )
-               .append(    dq("")           );
-        
-        if (width != null) {
+
+        _buffer.append(    "node[shape="        )
+               .append(    shape                )
+               .append(    " style=\""          )
+               .append(    style                )
+               .append(    "\" fillcolor=\""    )
+               .append(    fillcolor            )
+               .append(    "\" peripheries="    )
+               .append(    peripheries          )
+               .append(    " label=\"\""        );
+
+        if (hasWidth) {
             _buffer.append(   " width="     )
                    .append(   width         );
         }
-        
-        _buffer.append(    "]" + EOL        );
-        
+
+        _buffer.append(    "]"              )
+               .append(    EOL              );
+
         newNodeStyle = false;
 	}
 
 	public DotBuilder endGraph() {
-		_buffer	.append(	"}" + EOL		);
+		_buffer	.append(	"}"     		)
+		        .append(    EOL             );
+		if (out != null) {
+		    write();
+		    try {
+		        out.flush();
+		    } catch (IOException e) {
+		        throw new IllegalStateException("Error writing graph", e);
+		    }
+		}
         return this;
 	}
 
-	private String dq(String text) {
-		return "\"" + text + "\"";
+	/** Writes the buffered text to the writer once enough has accumulated. */
+	private DotBuilder spill() {
+	    if (out != null && _buffer.length() >= FLUSH_THRESHOLD) {
+	        write();
+	    }
+	    return this;
 	}
-	
+
+	private void write() {
+	    try {
+	        out.append(_buffer);
+	    } catch (IOException e) {
+	        throw new IllegalStateException("Error writing graph", e);
+	    }
+	    _buffer.setLength(0);
+	}
+
+	/** Returns the graph text built so far, or when streaming, the text not yet written. */
 	public String toString() {
 		return _buffer.toString();
 	}
 
-}
\ No newline at end of file
+	/** Key identifying an edge already drawn between two nodes with a given label. */
+	private static final class Edge {
+
+	    private final Integer from;
+	    private final Integer to;
+	    private final String label;
+
+	    Edge(Integer from, Integer to, String label) {
+	        this.from = from;
+	        this.to = to;
+	        this.label = label;
+	    }
+
+	    @Override
+	    public int hashCode() {
+	        int hash = (from == null) ? 0 : from.intValue();
+	        hash = 31 * hash + ((to == null) ? 0 : to.intValue());
+	        return 31 * hash + ((label == null) ? 0 : label.hashCode());
+	    }
+
+	    @Override
+	    public boolean equals(Object other) {
+	        if (!(other instanceof Edge)) return false;
+	        Edge that = (Edge)other;
+	        return same(from, that.from) && same(to, that.to) && same(label, that.label);
+	    }
+
+	    private static boolean same(Object a, Object b) {
+	        return (a == null) ? (b == null) : a.equals(b);
+	    }
+	}
+}
@@ -1,20 +1,40 @@
 package org.yesworkflow.graph;
 
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.yesworkflow.annotations.Param;
 import org.yesworkflow.config.YWConfiguration;
 import org.yesworkflow.data.UriTemplate;
 import org.yesworkflow.exceptions.YWToolUsageException;
+import org.yesworkflow.metrics.Metered;
+import org.yesworkflow.metrics.StageMetrics;
 import org.yesworkflow.model.Channel;
 import org.yesworkflow.model.Model;
 import org.yesworkflow.model.Port;
 import org.yesworkflow.model.Program;
 
-public class DotGrapher implements Grapher  {
+public class DotGrapher implements Grapher, Metered  {
 
     public static GraphView DEFAULT_GRAPH_VIEW = GraphView.PROCESS_CENTRIC_VIEW;
     public static CommentVisibility DEFAULT_COMMENT_VISIBILITY = CommentVisibility.HIDE;
@@ -28,7 +48,8 @@ public class DotGrapher implements Grapher  {
     
     private Program topWorkflow = null;
     private Model model = null;
-    private GraphView graphView = DEFAULT_GRAPH_VIEW;
+    private List<GraphView> graphViews = Collections.singletonList(DEFAULT_GRAPH_VIEW);
+    private int parallelism = 1;
     
     private ParamVisibility paramVisibility = DEFAULT_PARAM_VISIBILITY;
     private CommentVisibility commentView = DEFAULT_COMMENT_VISIBILITY;
@@ -38,11 +59,16 @@ public class DotGrapher implements Grapher  {
     private DataLabelMode uriDisplayMode = DEFAULT_URI_DISPLAY_MODE;
     private EdgeLabelMode edgeLabelMode = DEFAULT_EDGE_LABEL_MODE;
     private WorkflowTitleMode workflowTitleMode = DEFAULT_WORKFLOW_TITLE_MODE;
-    private String graphText = null;
+    private final Map<GraphView,String> graphTexts = new EnumMap<GraphView,String>(GraphView.class);
+    private final Map<UriTemplate,String> uriLabels = new IdentityHashMap<UriTemplate,String>();
+    private volatile boolean bindingIdsShared = false;
+    private final StageMetrics metrics = new StageMetrics("graph");
     private String outputDotFile = null;
+    private boolean stream = false;
     private PrintStream stdoutStream = null;
-    private List<String> channelBindings = new LinkedList<String>();
-    private DotBuilder dot;
+    private final GraphRendering processRendering = new ProcessRendering();
+    private final GraphRendering dataRendering = new DataRendering();
+    private final GraphRendering combinedRendering = new CombinedRendering();
         
     @SuppressWarnings("unused")
     private PrintStream stderrStream = null;
@@ -54,6 +80,10 @@ public class DotGrapher implements Grapher  {
 
     @Override
     public DotGrapher model(Model model) {
+        // graph the top program of the new model unless a workflow was assigned explicitly
+        if (this.model != null && topWorkflow == this.model.program) {
+            topWorkflow = null;
+        }
         this.model = model;
         return this;
     }
@@ -76,7 +106,7 @@ public class DotGrapher implements Grapher  {
     
     public DotGrapher configure(String key, Object value) throws Exception {
         if (key.equalsIgnoreCase("view")) { 
-            graphView = GraphView.toGraphView(value);
+            graphViews = GraphView.toGraphViews(value);
         } else if (key.equalsIgnoreCase("dotcomments")) {
             commentView = CommentVisibility.toCommentVisibility(value);
         } else if (key.equalsIgnoreCase("params")) {
@@ -95,15 +125,47 @@ public class DotGrapher implements Grapher  {
             workflowTitleMode = WorkflowTitleMode.toWorkflowTitleMode(value);
         } else if (key.equalsIgnoreCase("dotfile")) {
             outputDotFile = (String)value;
+        } else if (key.equalsIgnoreCase("parallelism")) {
+            parallelism = toParallelism(value);
+        } else if (key.equalsIgnoreCase("stream")) {
+            stream = (value instanceof Boolean) ? (Boolean)value : Boolean.parseBoolean(value.toString().trim());
         }
         
         return this;
     }
     
     
+    private static int toParallelism(Object value) throws Exception {
+        try {
+            int p = (value instanceof Integer) ? (Integer)value : Integer.parseInt(value.toString().trim());
+            if (p > 0) return p;
+        } catch (NumberFormatException e) {
+        }
+        throw new Exception("Value of parallelism property must be a positive integer");
+    }
+    
+    /** Returns the text of the graph, or of each requested view in turn when more than
+     *  one view was requested.  When the graphs were streamed to their outputs they are
+     *  rendered again the first time the text is requested. */
 	public String toString() {
-        return graphText;
+	    if (graphViews.size() == 1) return getGraphText(graphViews.get(0));
+	    StringBuilder text = new StringBuilder();
+	    for (GraphView view : graphViews) {
+	        String viewText = getGraphText(view);
+	        if (viewText != null) text.append(viewText);
+	    }
+        return text.toString();
     }
+	
+	/** Returns the text of the graph of the given view, or null if the view was not rendered. */
+	public String getGraphText(GraphView view) {
+	    String text = graphTexts.get(view);
+	    if (text == null && stream && topWorkflow != null && graphViews.contains(view)) {
+	        text = renderingFor(view).renderGraph(null).toString();
+	        graphTexts.put(view, text);
+	    }
+	    return text;
+	}
     
     @Override
     public DotGrapher graph() throws Exception {
@@ -116,55 +178,242 @@ public class DotGrapher implements Grapher  {
             }
         }
         
-        dot = new DotBuilder().beginGraph()
-                              .rankDir(layoutDirection.toString())
-                              .enableComments(commentView == CommentVisibility.SHOW)
-                              .showClusterBox(workflowBoxMode == WorkflowBoxMode.SHOW);
-
-        switch(graphView) {
+        metrics.start();
+        graphTexts.clear();
+        prepareSharedState();
         
-        case PROCESS_CENTRIC_VIEW:
-            new ProcessRendering().render();
-            break;
+        if (parallelism == 1 || graphViews.size() < 2) {
+            for (GraphView view : graphViews) {
+                graphView(view, dotFileForView(view));
+            }
+        } else {
+            graphViewsConcurrently();
+        }
         
-        case DATA_CENTRIC_VIEW:
-            new DataRendering().render();
-            break;
+        metrics.count("views", graphViews.size())
+               .count("nodes", 0)
+               .count("edges", 0);
+        for (GraphView view : graphViews) {
+            DotBuilder dot = renderingFor(view).dot;
+            metrics.count("nodes", dot.getNodeCount())
+                   .count("edges", dot.getEdgeCount());
+        }
+        metrics.stop();
+        return this;
+    }
+    
+    /** Returns the time taken by the last call to {@link #graph()} and the number of
+     *  nodes and edges in the views it rendered. */
+    @Override
+    public StageMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** Renders each view on its own thread, no more than parallelism at a time.  Views
+     *  written to stdout are rendered in memory and printed in the requested order. */
+    private void graphViewsConcurrently() throws Exception {
         
+        List<Future<String>> results = new LinkedList<Future<String>>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, graphViews.size()));
+        try {
+            for (final GraphView view : graphViews) {
+                final String path = dotFileForView(view);
+                results.add(executor.submit(new Callable<String>() {
+                    public String call() throws Exception {
+                        long[] usage = StageMetrics.currentThreadUsage();
+                        try {
+                            if (isStdout(path)) return renderingFor(view).renderGraph(null).toString();
+                            graphView(view, path);
+                            return null;
+                        } finally {
+                            metrics.addThreadUsageSince(usage);
+                        }
+                    }
+                }));
+            }
+            for (GraphView view : graphViews) {
+                String text;
+                try {
+                    text = results.remove(0).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) throw (Exception)e.getCause();
+                    throw e;
+                }
+                if (text != null) {
+                    writeTextToFileOrStdout(null, text);
+                    putGraphText(view, text);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    /** Renders one view to the given file or stdout. */
+    private void graphView(GraphView view, String path) throws IOException {
+        if (stream) {
+            writeGraphToFileOrStdout(renderingFor(view), path);
+        } else {
+            String text = renderingFor(view).renderGraph(null).toString();
+            putGraphText(view, text);
+            writeTextToFileOrStdout(path, text);
+        }
+    }
+    
+    private void putGraphText(GraphView view, String text) {
+        synchronized(graphTexts) {
+            graphTexts.put(view, text);
+        }
+    }
+
+    /** Builds the model lookup tables and data node labels used by every view up front,
+     *  so that the views share them and can read them from separate threads. */
+    private void prepareSharedState() {
+        // binding ids identify bindings only if every port drawn was built with the same registry
+        bindingIdsShared = model != null && model.symbols != null && model.symbols.registers(topWorkflow);
+        uriLabels.clear();
+        indexPrograms(topWorkflow);
+        addUriLabels(topWorkflow.innerChannels());
+        addUriLabels(topWorkflow.innerDataChannels());
+        addUriLabels(topWorkflow.innerParamChannels());
+    }
+    
+    private void addUriLabels(List<Channel> channels) {
+        for (Channel c : channels) {
+            UriTemplate uri = c.sourcePort.uriTemplate;
+            if (uri != null && !uriLabels.containsKey(uri)) {
+                uriLabels.put(uri, uri.toString().replace("{", "\\{").replace("}", "\\}"));
+            }
+        }
+    }
+    
+    private static void indexPrograms(Program program) {
+        program.index();
+        for (Program p : program.programs) {
+            indexPrograms(p);
+        }
+    }
+    
+    private GraphRendering renderingFor(GraphView view) {
+        switch(view) {
+        case DATA_CENTRIC_VIEW:
+            return dataRendering;
         case COMBINED_VIEW:
-            new CombinedRendering().render();
-            break;
+            return combinedRendering;
+        default:
+            return processRendering;
         }
-        
-        this.graphText = dot.endGraph().toString();        
-        writeTextToFileOrStdout(outputDotFile, this.graphText);
-        return this;
+    }
+    
+    /** Returns the dotfile for the given view.  When more than one view is requested the
+     *  name of the view is added to the configured file name, e.g. wf_data.gv. */
+    private String dotFileForView(GraphView view) {
+        if (isStdout(outputDotFile) || graphViews.size() == 1) return outputDotFile;
+        int dot = outputDotFile.lastIndexOf('.');
+        int separator = Math.max(outputDotFile.lastIndexOf('/'), outputDotFile.lastIndexOf('\\'));
+        String suffix = "_" + view.keyword();
+        return (dot > separator) ?
+                outputDotFile.substring(0, dot) + suffix + outputDotFile.substring(dot) :
+                outputDotFile + suffix;
+    }
+    
+    private static boolean isStdout(String path) {
+        return (path == null || path.equals(YWConfiguration.EMPTY_VALUE) || path.equals("-"));
     }
     
     private void writeTextToFileOrStdout(String path, String text) throws IOException {        
-        PrintStream stream = (path == null || path.equals(YWConfiguration.EMPTY_VALUE) || path.equals("-")) ?
-                             this.stdoutStream : new PrintStream(path);
-        stream.print(text);
+        PrintStream stream = isStdout(path) ? this.stdoutStream : new PrintStream(path);
+        synchronized(stream) {
+            stream.print(text);
+        }
         if (stream != this.stdoutStream) {
             stream.close();
         }
     }
+
+    /** Renders the graph straight to the file or stdout without holding its text in memory. */
+    private void writeGraphToFileOrStdout(GraphRendering rendering, String path) throws IOException {
+        boolean toStdout = isStdout(path);
+        Writer out = toStdout ? new OutputStreamWriter(this.stdoutStream) :
+                                new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path)));
+        try {
+            rendering.renderGraph(out);
+        } finally {
+            if (toStdout) {
+                out.flush();
+            } else {
+                out.close();
+            }
+        }
+    }
     
     
+    /** Draws one view of the top workflow.  Each rendering has its own builder and
+     *  record of drawn channels, so different views may be rendered at the same time. */
     private abstract class GraphRendering {
         
-        public GraphRendering() {
-            dot = new DotBuilder().beginGraph()
-                                  .rankDir(layoutDirection.toString())
-                                  .enableComments(commentView == CommentVisibility.SHOW)
-                                  .showClusterBox(workflowBoxMode == WorkflowBoxMode.SHOW);
-        }
+        protected final DotBuilder dot = new DotBuilder();
+        protected final BitSet channelBindings = new BitSet();   // ids of the bindings with a node drawn
+        protected final Set<String> channelBindingNames = new HashSet<String>();  // used if ports lack shared ids
         
         public abstract void render();
 
+        /** Renders the view, streaming it to <code>out</code> if not null.  The builder
+         *  is reused from one graph to the next. */
+        public DotBuilder renderGraph(Writer out) {
+            dot.reset(out)
+               .beginGraph()
+               .rankDir(layoutDirection.toString())
+               .enableComments(commentView == CommentVisibility.SHOW)
+               .showClusterBox(workflowBoxMode == WorkflowBoxMode.SHOW);
+            channelBindings.clear();
+            channelBindingNames.clear();
+            render();
+            return dot.endGraph();
+        }
+
+        /** Records the bindings of the in and out ports of a program as drawn, including
+         *  the bindings of parameters only if <code>includeParams</code> is true. */
+        protected void addChannelBindings(Program program, boolean includeParams) {
+            for (Port p : program.inPorts) {
+                if (includeParams || !(p.flowAnnotation instanceof Param)) {
+                    markDrawn(p);
+                }
+            }
+            for (Port p : program.outPorts) {
+                markDrawn(p);
+            }
+        }
+
+        /** Records the binding of the port as having a node drawn. */
+        protected void markDrawn(Port p) {
+            if (bindingIdsShared) {
+                channelBindings.set(p.bindingId);
+            } else {
+                channelBindingNames.add(p.binding);
+            }
+        }
+
+        /** Returns true if a node has been drawn for the binding of the port. */
+        protected boolean isDrawn(Port p) {
+            return bindingIdsShared ? channelBindings.get(p.bindingId) : channelBindingNames.contains(p.binding);
+        }
+
         protected String edgeLabel(String label) {
             return (edgeLabelMode == EdgeLabelMode.SHOW) ? label : "";
         }
+
+        /** Returns the bindings of the given ports that have a node drawn for them, in port order. */
+        protected List<String> drawnBindings(Port[] ports) {
+            List<String> bindings = new ArrayList<String>(ports.length);
+            for (Port p : ports) {
+                String binding = p.binding;
+                if (isDrawn(p)) {
+                    bindings.add(binding);
+                }
+            }
+            return bindings;
+        }
         
         protected void renderInputAndOutputPorts(Program workflow) {
             
@@ -175,8 +424,8 @@ public class DotGrapher implements Grapher  {
             if (portLayout == PortLayout.GROUP) dot.beginHiddenSubgraph();
             dot.comment("Nodes representing workflow input ports");
             for (Port p : workflow.inPorts) {
-                String binding = p.flowAnnotation.binding();
-                if (channelBindings.contains(binding)) {
+                String binding = p.binding;
+                if (isDrawn(p)) {
                     dot.node(binding + "_inport", "");
                 }
             }
@@ -185,8 +434,8 @@ public class DotGrapher implements Grapher  {
             if (portLayout == PortLayout.GROUP) dot.beginHiddenSubgraph();
             dot.comment("Nodes representing workflow output ports");
             for (Port p : workflow.outPorts) {
-                String binding = p.flowAnnotation.binding();
-                if (channelBindings.contains(binding)) {
+                String binding = p.binding;
+                if (isDrawn(p)) {
                     dot.node(binding + "_outport", "");
                 }
             }
@@ -221,14 +470,14 @@ public class DotGrapher implements Grapher  {
         
         protected void drawChannelNode(Channel c) {
             
-            String binding = c.sourcePort.flowAnnotation.binding();
-            channelBindings.add(binding);
+            String binding = c.sourcePort.binding;
+            markDrawn(c.sourcePort);
             UriTemplate uri = c.sourcePort.uriTemplate;
             
             if (uri == null) {
                 dot.node(binding);
             } else {
-                String uriLabel = uri.toString().replace("{", "\\{").replace("}", "\\}");
+                String uriLabel = uriLabels.get(uri);
                 switch(uriDisplayMode) {
                     case NAME: 
                         dot.node(binding);
@@ -250,15 +499,15 @@ public class DotGrapher implements Grapher  {
                 
                 // draw an edge from each workflow input to the corresponding channel node
                 for (Port p : topWorkflow.inPorts) {
-                    String binding = p.flowAnnotation.binding();
-                    if (channelBindings.contains(binding)) {
+                    String binding = p.binding;
+                    if (isDrawn(p)) {
                         dot.edge(binding + "_inport", binding);
                     }
                 }
                 
                 // draw an edge from each workflow output to the corresponding channel node
                 for (Port p : topWorkflow.outPorts) {
-                    String binding = p.flowAnnotation.binding();
+                    String binding = p.binding;
                     if (topWorkflow.hasChannelForBinding(binding)) {
                         dot.edge(binding, binding + "_outport");
                     }
@@ -297,11 +546,7 @@ public class DotGrapher implements Grapher  {
             for (Program p : workflow.programs) {
                 if (! (p.isWorkflow())) {
                     dot.node(p.beginAnnotation.name);
-                    if (paramVisibility != ParamVisibility.HIDE) {
-                        channelBindings.addAll(p.outerBindings());
-                    } else {
-                        channelBindings.addAll(p.outerDataBindings());
-                    }
+                    addChannelBindings(p, paramVisibility != ParamVisibility.HIDE);
                 }
             }
 
@@ -314,11 +559,7 @@ public class DotGrapher implements Grapher  {
             for (Program p : workflow.programs) {
                 if (p.isWorkflow()) {
                     dot.node(p.beginAnnotation.name);
-                    if (paramVisibility == ParamVisibility.SHOW) {
-                        channelBindings.addAll(p.outerBindings());
-                    } else {
-                        channelBindings.addAll(p.outerDataBindings());
-                    }
+                    addChannelBindings(p, paramVisibility == ParamVisibility.SHOW);
                 }
             }
 
@@ -342,9 +583,9 @@ public class DotGrapher implements Grapher  {
                     
                     if (portLayout != PortLayout.HIDE) {
                     
-                        dot.edge(c.sinkPort.flowAnnotation.binding() + "_inport",
+                        dot.edge(c.sinkPort.binding + "_inport",
                                  c.sinkProgram.beginAnnotation.name,
-                                 edgeLabel(c.sinkPort.flowAnnotation.binding()));
+                                 edgeLabel(c.sinkPort.binding));
                     }
                     
                 // draw edges for channels between programs in workflow and workflow out ports
@@ -353,8 +594,8 @@ public class DotGrapher implements Grapher  {
                     if (portLayout != PortLayout.HIDE) {
 
                         dot.edge(c.sourceProgram.beginAnnotation.name,
-                             c.sourcePort.flowAnnotation.binding() + "_outport",
-                             edgeLabel(c.sourcePort.flowAnnotation.binding()));
+                             c.sourcePort.binding + "_outport",
+                             edgeLabel(c.sourcePort.binding));
                     }
                     
                 // draw edges for channels between programs within workflow
@@ -362,7 +603,7 @@ public class DotGrapher implements Grapher  {
 
                     dot.edge(c.sourceProgram.beginAnnotation.name,
                              c.sinkProgram.beginAnnotation.name,
-                             edgeLabel(c.sourcePort.flowAnnotation.binding()));
+                             edgeLabel(c.sourcePort.binding));
                 }
             }
 
@@ -404,16 +645,17 @@ public class DotGrapher implements Grapher  {
             
             // draw an edge for each pairing of out port and in port for each program
             for (Program p : topWorkflow.programs) {
-                for (Port out : p.outPorts) {
-                    for (Port in : p.inPorts) {
-                        
-                        if (channelBindings.contains(in.flowAnnotation.binding()) && channelBindings.contains(out.flowAnnotation.binding())) {
-                            dot.edge(
-                                in.flowAnnotation.binding(), 
-                                out.flowAnnotation.binding(), 
-                                edgeLabel(p.beginAnnotation.name)
-                            );
-                        }
+                
+                List<String> inBindings = drawnBindings(p.inPorts);
+                if (inBindings.isEmpty()) continue;
+                
+                for (String outBinding : drawnBindings(p.outPorts)) {
+                    for (String inBinding : inBindings) {
+                        dot.edge(
+                            inBinding, 
+                            outBinding, 
+                            edgeLabel(p.beginAnnotation.name)
+                        );
                     }
                 }
             }
@@ -454,15 +696,15 @@ public class DotGrapher implements Grapher  {
 
                 for (Port out : p.outPorts) {
                     
-                    String binding = out.flowAnnotation.binding();
-                    if (channelBindings.contains(binding)) {
+                    String binding = out.binding;
+                    if (isDrawn(out)) {
                         dot.edge(p.beginAnnotation.name, binding);
                     }
                 }
 
                 for (Port in : p.inPorts) {
-                    String binding = in.flowAnnotation.binding();
-                    if (channelBindings.contains(binding)) {
+                    String binding = in.binding;
+                    if (isDrawn(in)) {
                         dot.edge(binding, p.beginAnnotation.name);
                     }
                 }
@@ -1,22 +1,62 @@
 package org.yesworkflow.graph;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 public enum GraphView {
     
-    PROCESS_CENTRIC_VIEW,
-    DATA_CENTRIC_VIEW, 
-    COMBINED_VIEW;
+    PROCESS_CENTRIC_VIEW("process"),
+    DATA_CENTRIC_VIEW("data"), 
+    COMBINED_VIEW("combined");
+    
+    private final String keyword;
+    
+    private GraphView(String keyword) {
+        this.keyword = keyword;
+    }
+    
+    /** Returns the word naming this view in configuration values. */
+    public String keyword() {
+        return keyword;
+    }
     
     public static GraphView toGraphView(Object gv) throws Exception {
         
         if (gv instanceof GraphView) return (GraphView)gv;
         
         if (gv instanceof String) {
-            String gvstring = (String)gv; 
-            if (gvstring.equalsIgnoreCase("process")) return GraphView.PROCESS_CENTRIC_VIEW;
-            if (gvstring.equalsIgnoreCase("data")) return GraphView.DATA_CENTRIC_VIEW;
-            if (gvstring.equalsIgnoreCase("combined")) return GraphView.COMBINED_VIEW;
+            String gvstring = ((String)gv).trim(); 
+            for (GraphView view : values()) {
+                if (gvstring.equalsIgnoreCase(view.keyword)) return view;
+            }
         }
         
         throw new Exception("Unrecognized GraphView: " + gv);
     }
-}
\ No newline at end of file
+    
+    /** Converts a single view, a comma-separated list of views, or a collection of views
+     *  to a list of distinct views in the order given. */
+    public static List<GraphView> toGraphViews(Object gv) throws Exception {
+        
+        List<GraphView> views = new ArrayList<GraphView>();
+        
+        if (gv instanceof Collection) {
+            for (Object item : (Collection<?>)gv) {
+                addView(views, toGraphView(item));
+            }
+        } else if (gv instanceof String && ((String)gv).contains(",")) {
+            for (String item : ((String)gv).split(",")) {
+                addView(views, toGraphView(item));
+            }
+        } else {
+            views.add(toGraphView(gv));
+        }
+        
+        return views;
+    }
+    
+    private static void addView(List<GraphView> views, GraphView view) {
+        if (!views.contains(view)) views.add(view);
+    }
+}
@@ -0,0 +1,8 @@
+package org.yesworkflow.metrics;
+
+/** A stage that records {@link StageMetrics} each time it runs. */
+public interface Metered {
+
+    /** Returns the metrics recorded by the last run of the stage. */
+    StageMetrics getMetrics();
+}
@@ -0,0 +1,127 @@
+package org.yesworkflow.metrics;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/** Writes the metrics of the stages of a run as JSON or as CSV.
+ *
+ *  <p>The JSON report is an object with a <code>stages</code> array holding one object
+ *  per stage.  The CSV report has a <code>stage,metric,value</code> header followed by
+ *  one row per metric, so that counters particular to a stage need no columns of their
+ *  own and reports from different releases can be concatenated and compared.</p>
+ */
+public class MetricsReport {
+
+    public enum Format { JSON, CSV }
+
+    public static final String EOL = System.getProperty("line.separator");
+
+    private final List<StageMetrics> stages = new ArrayList<StageMetrics>();
+
+    public MetricsReport add(StageMetrics metrics) {
+        if (metrics != null) stages.add(metrics);
+        return this;
+    }
+
+    public List<StageMetrics> getStages() {
+        return stages;
+    }
+
+    /** Returns CSV for paths ending in .csv and JSON otherwise. */
+    public static Format formatForPath(String path) {
+        return path.toLowerCase().endsWith(".csv") ? Format.CSV : Format.JSON;
+    }
+
+    public static Format toFormat(Object format) throws Exception {
+        if (format instanceof Format) return (Format)format;
+        for (Format f : Format.values()) {
+            if (f.toString().equalsIgnoreCase(format.toString().trim())) return f;
+        }
+        throw new Exception("Unrecognized metrics format: " + format);
+    }
+
+    public void writeToFile(String path, Format format) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), Charset.forName("UTF-8")));
+        try {
+            writeTo(out, format);
+        } finally {
+            out.close();
+        }
+    }
+
+    public void writeTo(Writer out, Format format) throws IOException {
+        if (format == Format.CSV) {
+            writeCsv(out);
+        } else {
+            writeJson(out);
+        }
+        out.flush();
+    }
+
+    public String toString(Format format) {
+        StringWriter out = new StringWriter();
+        try {
+            writeTo(out, format);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    private void writeJson(Writer out) throws IOException {
+        out.write("{" + EOL + "  \"stages\": [");
+        String stageSeparator = EOL;
+        for (StageMetrics metrics : stages) {
+            out.write(stageSeparator);
+            out.write("    {" + EOL);
+            out.write("      \"stage\": " + jsonString(metrics.stage) + "," + EOL);
+            out.write("      \"wallNanos\": " + metrics.getWallNanos() + "," + EOL);
+            out.write("      \"cpuNanos\": " + metrics.getCpuNanos() + "," + EOL);
+            out.write("      \"allocatedBytes\": " + metrics.getAllocatedBytes() + "," + EOL);
+            out.write("      \"counters\": {");
+            String counterSeparator = "";
+            for (Map.Entry<String,Long> counter : metrics.getCounters().entrySet()) {
+                out.write(counterSeparator + jsonString(counter.getKey()) + ": " + counter.getValue());
+                counterSeparator = ", ";
+            }
+            out.write("}" + EOL + "    }");
+            stageSeparator = "," + EOL;
+        }
+        out.write(EOL + "  ]" + EOL + "}" + EOL);
+    }
+
+    private void writeCsv(Writer out) throws IOException {
+        out.write("stage,metric,value" + EOL);
+        for (StageMetrics metrics : stages) {
+            out.write(metrics.stage + ",wallNanos," + metrics.getWallNanos() + EOL);
+            out.write(metrics.stage + ",cpuNanos," + metrics.getCpuNanos() + EOL);
+            out.write(metrics.stage + ",allocatedBytes," + metrics.getAllocatedBytes() + EOL);
+            for (Map.Entry<String,Long> counter : metrics.getCounters().entrySet()) {
+                out.write(metrics.stage + "," + counter.getKey() + "," + counter.getValue() + EOL);
+            }
+        }
+    }
+
+    private static String jsonString(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < ' ') {
+                quoted.append(String.format("\\u%04x", (int)c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
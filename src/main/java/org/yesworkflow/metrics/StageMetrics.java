@@ -0,0 +1,130 @@
+package org.yesworkflow.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Wall time, CPU time, allocated bytes and named counters recorded for one run of a
+ *  YesWorkflow stage.
+ *
+ *  <p>CPU time and allocation are read from the {@link ThreadMXBean} for the thread
+ *  that runs the stage, from {@link #start()} to {@link #stop()}.  Work a stage hands
+ *  to other threads is included when those threads report it with
+ *  {@link #addThreadUsageSince(long[])}.  Either value is -1 if the JVM does not
+ *  measure it.</p>
+ */
+public class StageMetrics {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME_MEASURED = cpuTimeMeasured();
+    private static final boolean ALLOCATION_MEASURED = allocationMeasured();
+
+    public final String stage;
+    private final Map<String,Long> counters = new LinkedHashMap<String,Long>();
+    private long wallNanos = 0;
+    private long cpuNanos = 0;
+    private long allocatedBytes = 0;
+    private long startNanos = 0;
+    private long[] startUsage = null;
+
+    public StageMetrics(String stage) {
+        this.stage = stage;
+    }
+
+    /** Clears the metrics and starts timing the stage on the current thread. */
+    public synchronized StageMetrics start() {
+        counters.clear();
+        wallNanos = 0;
+        cpuNanos = 0;
+        allocatedBytes = 0;
+        startUsage = currentThreadUsage();
+        startNanos = System.nanoTime();
+        return this;
+    }
+
+    /** Stops timing the stage. */
+    public synchronized StageMetrics stop() {
+        wallNanos = System.nanoTime() - startNanos;
+        if (startUsage != null) {
+            addThreadUsageSince(startUsage);
+            startUsage = null;
+        }
+        return this;
+    }
+
+    /** Returns the CPU time and allocated bytes of the current thread so far, to be passed
+     *  to {@link #addThreadUsageSince(long[])} once the thread has done its part of a stage. */
+    public static long[] currentThreadUsage() {
+        long cpu = CPU_TIME_MEASURED ? THREADS.getCurrentThreadCpuTime() : -1;
+        long allocated = ALLOCATION_MEASURED ?
+                ((com.sun.management.ThreadMXBean)THREADS).getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+        return new long[] { cpu, allocated };
+    }
+
+    /** Adds the CPU time and allocation of the current thread since the given usage. */
+    public synchronized StageMetrics addThreadUsageSince(long[] usage) {
+        long[] now = currentThreadUsage();
+        cpuNanos = (now[0] == -1 || cpuNanos == -1) ? -1 : cpuNanos + now[0] - usage[0];
+        allocatedBytes = (now[1] == -1 || allocatedBytes == -1) ? -1 : allocatedBytes + now[1] - usage[1];
+        return this;
+    }
+
+    /** Adds to the value of a counter, which starts at zero. */
+    public synchronized StageMetrics count(String counter, long amount) {
+        Long value = counters.get(counter);
+        counters.put(counter, (value == null) ? amount : value + amount);
+        return this;
+    }
+
+    /** Returns the value of a counter, or zero if it was never counted. */
+    public synchronized long getCounter(String counter) {
+        Long value = counters.get(counter);
+        return (value == null) ? 0 : value;
+    }
+
+    /** Returns the counters in the order they were first counted. */
+    public synchronized Map<String,Long> getCounters() {
+        return new LinkedHashMap<String,Long>(counters);
+    }
+
+    public synchronized long getWallNanos() {
+        return wallNanos;
+    }
+
+    public synchronized long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    private static boolean cpuTimeMeasured() {
+        try {
+            if (!THREADS.isCurrentThreadCpuTimeSupported()) return false;
+            if (!THREADS.isThreadCpuTimeEnabled()) THREADS.setThreadCpuTimeEnabled(true);
+            return THREADS.isThreadCpuTimeEnabled();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static boolean allocationMeasured() {
+        try {
+            if (!(THREADS instanceof com.sun.management.ThreadMXBean)) return false;
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)THREADS;
+            if (!threads.isThreadAllocatedMemorySupported()) return false;
+            if (!threads.isThreadAllocatedMemoryEnabled()) threads.setThreadAllocatedMemoryEnabled(true);
+            return threads.isThreadAllocatedMemoryEnabled();
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return stage + "{wallNanos=" + wallNanos + ",cpuNanos=" + cpuNanos +
+               ",allocatedBytes=" + allocatedBytes + ",counters=" + counters + "}";
+    }
+}
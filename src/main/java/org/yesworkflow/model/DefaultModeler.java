@@ -1,7 +1,13 @@
 package org.yesworkflow.model;
 
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -9,15 +15,21 @@ import java.util.Stack;
 
 import org.yesworkflow.annotations.Annotation;
 import org.yesworkflow.annotations.Begin;
+import org.yesworkflow.annotations.AliasableAnnotation;
 import org.yesworkflow.annotations.End;
+import org.yesworkflow.annotations.Flow;
 import org.yesworkflow.annotations.In;
 import org.yesworkflow.annotations.Out;
 import org.yesworkflow.annotations.Return;
 import org.yesworkflow.config.YWConfiguration;
 import org.yesworkflow.exceptions.YWMarkupException;
+import org.yesworkflow.metrics.Metered;
+import org.yesworkflow.metrics.StageMetrics;
+import org.yesworkflow.query.ColumnarFactsWriter;
+import org.yesworkflow.query.FactsWriter;
 import org.yesworkflow.query.LogicLanguage;
 
-public class DefaultModeler implements Modeler {
+public class DefaultModeler implements Modeler, Metered {
 
     static private LogicLanguage DEFAULT_LOGIC_LANGUAGE = LogicLanguage.PROLOG;
 
@@ -27,8 +39,15 @@ public class DefaultModeler implements Modeler {
     private PrintStream stdoutStream = null;
     private PrintStream stderrStream = null;
     private String factsFile = null;
+    private String columnarFile = null;
     private String modelFacts = null;
     private LogicLanguage logicLanguage = DEFAULT_LOGIC_LANGUAGE;
+    private boolean lineage = false;
+    private boolean incremental = false;
+    private Map<String,ReusableBlock> reusableBlocks = new HashMap<String,ReusableBlock>();
+    private int reusedProgramCount = 0;
+    private ModelSymbols symbols = new ModelSymbols();
+    private final StageMetrics metrics = new StageMetrics("model");
     
     public DefaultModeler() {
         this(System.out, System.err);
@@ -55,8 +74,15 @@ public class DefaultModeler implements Modeler {
             topWorkflowName = (String)value;
         } else if (key.equalsIgnoreCase("factsfile")) {
            factsFile = (String)value;
+        } else if (key.equalsIgnoreCase("columnarfile")) {
+            columnarFile = (String)value;
         } else if (key.equalsIgnoreCase("logic")) {
             logicLanguage = LogicLanguage.toLogicLanguage((String)value);
+        } else if (key.equalsIgnoreCase("lineage")) {
+            lineage = (value instanceof Boolean) ? (Boolean)value : Boolean.parseBoolean(value.toString().trim());
+        } else if (key.equalsIgnoreCase("incremental")) {
+            incremental = (value instanceof Boolean) ? (Boolean)value : Boolean.parseBoolean(value.toString().trim());
+            if (!incremental) reusableBlocks.clear();
         }
         return this;
     }  
@@ -69,32 +95,101 @@ public class DefaultModeler implements Modeler {
 
     @Override
     public Modeler model() throws Exception {	
+        metrics.start();
+        modelFacts = null;
+        // programs reused in incremental mode keep the bindings and templates they were built with,
+        // and the registry is pruned to those still used after each model is built
+        if (!incremental) symbols = new ModelSymbols();
     	buildModel();
+    	if (lineage) {
+    	    model.lineage();
+    	}
     	if (factsFile != null) {
-    	    writeTextToFileOrStdout(factsFile, getFacts());
+    	    writeFactsToFileOrStdout(factsFile);
+    	}
+    	if (columnarFile != null) {
+    	    writeColumnarFacts(columnarFile);
     	}
+    	countModelElements();
+    	metrics.stop();
     	return this;
     }
     
+    /** Returns the time taken and the programs, ports and channels built by the last
+     *  call to {@link #model()}. */
+    @Override
+    public StageMetrics getMetrics() {
+        return metrics;
+    }
+    
+    private void countModelElements() {
+        metrics.count("annotations", annotations.size())
+               .count("programs", 0)
+               .count("functions", 0)
+               .count("ports", 0)
+               .count("channels", 0);
+        if (model.program != null) countProgramElements(model.program);
+        for (Function function : model.functions) countProgramElements(function);
+    }
+    
+    private void countProgramElements(Program program) {
+        metrics.count("programs", 1)
+               .count("ports", program.inPorts.length + program.outPorts.length)
+               .count("channels", program.channels.length);
+        if (program instanceof Function) {
+            metrics.count("functions", 1)
+                   .count("ports", ((Function)program).returnPorts.length);
+        }
+        for (Program child : program.programs) countProgramElements(child);
+        for (Function function : program.functions) countProgramElements(function);
+    }
+    
     @Override
     public Model getModel() {
         return this.model;
     }
 
+    /** Returns the number of nested programs reused from the previous model by the last
+     *  call to {@link #model()} in incremental mode.  Programs nested within a reused
+     *  program are not counted. */
+    public int getReusedProgramCount() {
+        return reusedProgramCount;
+    }
+
     @Override
     public String getFacts() {
         if (modelFacts == null) {
-            modelFacts = new ModelFacts(logicLanguage, model).build().toString();
+            modelFacts = new ModelFacts(logicLanguage, model).lineage(lineage).build().toString();
         }
         return modelFacts;
     }
 
-    private void writeTextToFileOrStdout(String path, String text) throws IOException {  
-        PrintStream stream = (path.equals(YWConfiguration.EMPTY_VALUE) || path.equals("-")) ?
-                             this.stdoutStream : new PrintStream(path);
-        stream.print(text);
-        if (stream != this.stdoutStream) {
-            stream.close();
+    /** Writes the facts straight to the file or stdout without first building
+     *  them as a string, unless they have already been built by {@link #getFacts()}. */
+    private void writeFactsToFileOrStdout(String path) throws IOException {  
+        boolean toStdout = path.equals(YWConfiguration.EMPTY_VALUE) || path.equals("-");
+        Writer out = toStdout ? new OutputStreamWriter(this.stdoutStream) : FactsWriter.openFile(path);
+        try {
+            if (modelFacts != null) {
+                out.write(modelFacts);
+            } else {
+                new ModelFacts(logicLanguage, model).lineage(lineage).writeTo(out);
+            }
+        } finally {
+            if (toStdout) {
+                out.flush();
+            } else {
+                out.close();
+            }
+        }
+    }
+
+    private void writeColumnarFacts(String path) throws IOException {
+        ColumnarFactsWriter out = ColumnarFactsWriter.openFile(path);
+        try {
+            new ModelFacts(logicLanguage, model).lineage(lineage).writeTo(out);
+        } finally {
+            out.close();
         }
     }
 
@@ -109,11 +204,77 @@ public class DefaultModeler implements Modeler {
         
         Integer nextProgramId = 1;
         Integer nextPortId = 1;
+        Integer nextChannelId = 1;
 
-        for (Annotation annotation : annotations) {
+        // in incremental mode the annotations are visited by index so that the annotations
+        // of a nested block unchanged since the previous model can be skipped over
+        Annotation[] annotationArray = annotations.toArray(new Annotation[annotations.size()]);
+        Fingerprints fingerprints = null;
+        int[] endIndexes = null;
+        Stack<BlockRecord> blockRecords = new Stack<BlockRecord>();
+        Map<String,ReusableBlock> builtBlocks = new HashMap<String,ReusableBlock>();
+        reusedProgramCount = 0;
+        if (incremental) {
+            fingerprints = new Fingerprints(annotationArray);
+            endIndexes = endIndexes(annotationArray);
+        }
 
+        for (int i = 0; i < annotationArray.length; ++i) {
+
+            Annotation annotation = annotationArray[i];
+            
             if (annotation instanceof Begin) {
 
+                if (incremental && workflowBuilder != null && topWorkflowBuilder != null && endIndexes[i] != -1) {
+                    
+                    String key = fingerprints.blockKey(i, endIndexes[i]);
+                    ReusableBlock block = reusableBlocks.get(key);
+                    if (block != null && block.matches(fingerprints, i, endIndexes[i])) {
+                        
+                        // a block that has moved is copied with the ids and annotations it would
+                        // have been built with at its new position, as is a block whose bindings
+                        // were pruned from the registry since it was built
+                        if (!block.isAt(annotationArray[i], nextProgramId, nextPortId, nextChannelId)
+                                || !symbols.registers(block.program)) {
+                            block = block.moveTo(annotationArray, fingerprints, i, nextProgramId, nextPortId, nextChannelId, symbols);
+                        }
+
+                        // repeat the effects the nested block had on its parent when it was built
+                        for (Port port : block.inPorts) {
+                            workflowBuilder.nestedInPort(port);
+                        }
+                        for (Port port : block.outPorts) {
+                            workflowBuilder.nestedOutPort(port);
+                        }
+                        if (block.program instanceof Function) {
+                            workflowBuilder.nestedFunction((Function)block.program);
+                        } else {
+                            workflowBuilder.nestedProgram(block.program);
+                        }
+                        
+                        nextProgramId = block.nextProgramId;
+                        nextPortId = block.nextPortId;
+                        nextChannelId = block.nextChannelId;
+                        parentBuilder = parentWorkflowBuilders.isEmpty() ? workflowBuilder : parentWorkflowBuilders.peek();
+                        
+                        builtBlocks.put(key, block);
+                        builtBlocks.putAll(block.nestedBlocks);
+                        if (!blockRecords.isEmpty() && blockRecords.peek() != null) {
+                            blockRecords.peek().nestedBlocks.put(key, block);
+                            blockRecords.peek().nestedBlocks.putAll(block.nestedBlocks);
+                        }
+                        reusedProgramCount++;
+                        
+                        i = endIndexes[i];
+                        continue;
+                    }
+                }
+
+                if (incremental) {
+                    blockRecords.push((workflowBuilder == null || endIndexes[i] == -1) ? null :
+                        new BlockRecord(fingerprints.blockKey(i, endIndexes[i]), i, nextProgramId, nextPortId, nextChannelId));
+                }
+                
                 if (workflowBuilder != null) {
                     parentWorkflowBuilders.push(workflowBuilder);
                     parentBuilder = workflowBuilder;
@@ -131,26 +292,33 @@ public class DefaultModeler implements Modeler {
 
             } else if (annotation instanceof Return) {
                 
-                Port returnPort = new Port(nextPortId++, (Return)annotation, workflowBuilder.getBeginAnnotation());
+                Port returnPort = new Port(nextPortId++, (Return)annotation, workflowBuilder.getBeginAnnotation(), symbols);
                 workflowBuilder.returnPort(returnPort);
 
             } else if (annotation instanceof Out) {
-                Port outPort = new Port(nextPortId++, (Out)annotation, workflowBuilder.getBeginAnnotation());
+                Port outPort = new Port(nextPortId++, (Out)annotation, workflowBuilder.getBeginAnnotation(), symbols);
                 workflowBuilder.outPort(outPort);
                 if (parentBuilder != null) {
                     parentBuilder.nestedOutPort(outPort);
+                    if (!blockRecords.isEmpty() && blockRecords.peek() != null) {
+                        blockRecords.peek().outPorts.add(outPort);
+                    }
                 }
 
             } else if (annotation instanceof In) {
-                Port port = new Port(nextPortId++, (In)annotation, workflowBuilder.getBeginAnnotation());                
+                Port port = new Port(nextPortId++, (In)annotation, workflowBuilder.getBeginAnnotation(), symbols);                
                 workflowBuilder.inPort(port);
                 if (parentBuilder != null) {
                     parentBuilder.nestedInPort(port);
+                    if (!blockRecords.isEmpty() && blockRecords.peek() != null) {
+                        blockRecords.peek().inPorts.add(port);
+                    }
                 }
 
             } else if (annotation instanceof End) {
 
                 workflowBuilder.end((End)annotation);                
+                workflowBuilder.firstChannelId(nextChannelId);
                 
                 if (parentWorkflowBuilders.isEmpty()) {
                     
@@ -159,12 +327,14 @@ public class DefaultModeler implements Modeler {
                     } else {
                         functions.add(workflowBuilder.buildFunction());
                     }
+                    nextChannelId = workflowBuilder.getNextChannelId();
 
                     workflowBuilder = null;
                     
                 } else {
 
                     Program program = workflowBuilder.build();
+                    nextChannelId = workflowBuilder.getNextChannelId();
 
                     if (program instanceof Function) {
                         parentBuilder.nestedFunction((Function)program);
@@ -173,6 +343,25 @@ public class DefaultModeler implements Modeler {
                     }
                     
                     workflowBuilder = parentWorkflowBuilders.pop();
+
+                    if (incremental && !blockRecords.isEmpty() && blockRecords.peek() != null) {
+                        BlockRecord record = blockRecords.peek();
+                        ReusableBlock block = new ReusableBlock(
+                                annotationArray, fingerprints, record.beginIndex, i,
+                                program, record.inPorts, record.outPorts, record.nestedBlocks,
+                                record.firstProgramId, record.firstPortId, record.firstChannelId,
+                                nextProgramId, nextPortId, nextChannelId);
+                        builtBlocks.put(record.key, block);
+                        builtBlocks.putAll(record.nestedBlocks);
+                    }
+                }
+                
+                if (incremental && !blockRecords.isEmpty()) {
+                    BlockRecord record = blockRecords.pop();
+                    if (record != null && !blockRecords.isEmpty() && blockRecords.peek() != null) {
+                        blockRecords.peek().nestedBlocks.put(record.key, builtBlocks.get(record.key));
+                        blockRecords.peek().nestedBlocks.putAll(record.nestedBlocks);
+                    }
                 }
                 
                 if (!parentWorkflowBuilders.isEmpty()) {
@@ -199,6 +388,261 @@ public class DefaultModeler implements Modeler {
             if (functions.size() == 0) throw new Exception("No program or functions found in script.");
         }
         
-        model = new Model(topProgram, functions);
+        model = new Model(topProgram, functions, symbols);
+        
+        if (incremental) {
+            reusableBlocks = builtBlocks;
+            symbols.retainOnly(model);
+        }
+    }
+
+    /** Descriptions of annotations by everything about them that can affect the model, so that
+     *  the annotations of a block can be compared with those seen by the previous model.
+     *  Positions are described relative to the preceding annotation, so that a block whose
+     *  content is unchanged has the same description wherever it has moved in the sources. */
+    private static class Fingerprints {
+
+        /** What each annotation says, independent of where it is. */
+        final String[] contents;
+
+        /** What each annotation says and where it is relative to the preceding annotation. */
+        final String[] placed;
+
+        Fingerprints(Annotation[] annotations) {
+            contents = new String[annotations.length];
+            placed = new String[annotations.length];
+            Annotation previous = null;
+            for (int i = 0; i < annotations.length; ++i) {
+                Annotation annotation = annotations[i];
+                StringBuilder content = new StringBuilder()
+                    .append(annotation.getClass().getSimpleName())
+                    .append('|').append(annotation.comment)
+                    .append('|').append(annotation.description());
+                if (annotation instanceof AliasableAnnotation) {
+                    content.append("|as=").append(((AliasableAnnotation)annotation).alias());
+                }
+                if (annotation instanceof Flow && ((Flow)annotation).uriAnnotation() != null) {
+                    Annotation uri = ((Flow)annotation).uriAnnotation();
+                    content.append("|uri").append(offset(uri.id, annotation.id)).append('=').append(uri.comment);
+                }
+                contents[i] = content.toString();
+                placed[i] = contents[i] + "@" + placement(annotation, previous);
+                previous = annotation;
+            }
+        }
+
+        /** Returns a key shared by blocks described the same, wherever they are. */
+        String blockKey(int beginIndex, int endIndex) {
+            int hash = contents[beginIndex].hashCode();
+            for (int i = beginIndex + 1; i <= endIndex; ++i) {
+                hash = 31 * hash + placed[i].hashCode();
+            }
+            return contents[beginIndex] + "#" + (endIndex - beginIndex) + "#" + hash;
+        }
+
+        private static String placement(Annotation annotation, Annotation previous) {
+            Integer sourceId = (annotation.line == null) ? null : annotation.line.sourceId;
+            Integer lineNumber = (annotation.line == null) ? null : annotation.line.lineNumber;
+            if (previous == null || previous.line == null || sourceId == null
+                    || !sourceId.equals(previous.line.sourceId)) {
+                return offset(annotation.id, (previous == null) ? null : previous.id) + "|" + sourceId + ":" + lineNumber;
+            }
+            return offset(annotation.id, previous.id) + "|+" + offset(lineNumber, previous.line.lineNumber);
+        }
+
+        private static String offset(Integer value, Integer base) {
+            return (value == null || base == null) ? String.valueOf(value) : String.valueOf(value - base);
+        }
+    }
+
+    /** Returns the index of the end annotation paired with each begin annotation,
+     *  or -1 for begin annotations that are not paired and for other annotations. */
+    private static int[] endIndexes(Annotation[] annotations) {
+        int[] endIndexes = new int[annotations.length];
+        Arrays.fill(endIndexes, -1);
+        Stack<Integer> beginIndexes = new Stack<Integer>();
+        for (int i = 0; i < annotations.length; ++i) {
+            if (annotations[i] instanceof Begin) {
+                beginIndexes.push(i);
+            } else if (annotations[i] instanceof End && !beginIndexes.isEmpty()) {
+                endIndexes[beginIndexes.pop()] = i;
+            }
+        }
+        return endIndexes;
+    }
+
+    /** The state recorded while building a nested block in incremental mode. */
+    private static class BlockRecord {
+        
+        final String key;
+        final int beginIndex;
+        final Integer firstProgramId;
+        final Integer firstPortId;
+        final Integer firstChannelId;
+        final List<Port> inPorts = new LinkedList<Port>();
+        final List<Port> outPorts = new LinkedList<Port>();
+        final Map<String,ReusableBlock> nestedBlocks = new HashMap<String,ReusableBlock>();
+        
+        BlockRecord(String key, int beginIndex, Integer firstProgramId, Integer firstPortId, Integer firstChannelId) {
+            this.key = key;
+            this.beginIndex = beginIndex;
+            this.firstProgramId = firstProgramId;
+            this.firstPortId = firstPortId;
+            this.firstChannelId = firstChannelId;
+        }
+    }
+    
+    /** A program built from a nested block, along with what is needed to reuse it
+     *  in a later model if the annotations of the block are unchanged. */
+    private static class ReusableBlock {
+        
+        final Annotation[] annotations;
+        final Fingerprints fingerprints;
+        final int beginIndex;
+        final int endIndex;
+        final Program program;
+        final List<Port> inPorts;
+        final List<Port> outPorts;
+        final Map<String,ReusableBlock> nestedBlocks;
+        final Integer firstProgramId;
+        final Integer firstPortId;
+        final Integer firstChannelId;
+        final Integer nextProgramId;
+        final Integer nextPortId;
+        final Integer nextChannelId;
+        
+        ReusableBlock(Annotation[] annotations, Fingerprints fingerprints, int beginIndex, int endIndex,
+                      Program program, List<Port> inPorts, List<Port> outPorts,
+                      Map<String,ReusableBlock> nestedBlocks,
+                      Integer firstProgramId, Integer firstPortId, Integer firstChannelId,
+                      Integer nextProgramId, Integer nextPortId, Integer nextChannelId) {
+            this.annotations = annotations;
+            this.fingerprints = fingerprints;
+            this.beginIndex = beginIndex;
+            this.endIndex = endIndex;
+            this.program = program;
+            this.inPorts = inPorts;
+            this.outPorts = outPorts;
+            this.nestedBlocks = nestedBlocks;
+            this.firstProgramId = firstProgramId;
+            this.firstPortId = firstPortId;
+            this.firstChannelId = firstChannelId;
+            this.nextProgramId = nextProgramId;
+            this.nextPortId = nextPortId;
+            this.nextChannelId = nextChannelId;
+        }
+        
+        boolean matches(Fingerprints fingerprints, int beginIndex, int endIndex) {
+            if (this.endIndex - this.beginIndex != endIndex - beginIndex) return false;
+            if (!this.fingerprints.contents[this.beginIndex].equals(fingerprints.contents[beginIndex])) return false;
+            for (int i = 1; i <= endIndex - beginIndex; ++i) {
+                if (!this.fingerprints.placed[this.beginIndex + i].equals(fingerprints.placed[beginIndex + i])) return false;
+            }
+            return true;
+        }
+        
+        /** Returns true if a matching block beginning with the given annotation would be built
+         *  with the same ids and annotation positions as this one. */
+        boolean isAt(Annotation begin, Integer programId, Integer portId, Integer channelId) {
+            Annotation built = annotations[beginIndex];
+            return firstProgramId.equals(programId) && firstPortId.equals(portId) && firstChannelId.equals(channelId)
+                && built.id.equals(begin.id)
+                && (built.line == null ? begin.line == null : begin.line != null
+                    && built.line.sourceId.equals(begin.line.sourceId)
+                    && built.line.lineNumber.equals(begin.line.lineNumber));
+        }
+        
+        /** Returns a copy of this block for the matching block at the given index, with the
+         *  ids of its programs, ports and channels shifted to start from the given ids, and with
+         *  the annotations at the new position in place of those it was built from.  Blocks
+         *  nested within this one are kept as recorded, and are moved in turn if reused alone. */
+        ReusableBlock moveTo(Annotation[] annotations, Fingerprints fingerprints, int beginIndex,
+                             Integer programId, Integer portId, Integer channelId, ModelSymbols symbols) {
+            BlockMover mover = new BlockMover(symbols, programId - firstProgramId, portId - firstPortId, channelId - firstChannelId);
+            int length = endIndex - this.beginIndex;
+            for (int i = 0; i <= length; ++i) {
+                mover.annotations.put(this.annotations[this.beginIndex + i], annotations[beginIndex + i]);
+            }
+            Program program = mover.program(this.program);
+            return new ReusableBlock(annotations, fingerprints, beginIndex, beginIndex + length,
+                    program, mover.ports(inPorts), mover.ports(outPorts), nestedBlocks,
+                    programId, portId, channelId,
+                    nextProgramId + mover.programDelta, nextPortId + mover.portDelta, nextChannelId + mover.channelDelta);
+        }
+    }
+    
+    /** Copies the programs, ports and channels built from a block of annotations, shifting
+     *  their ids and replacing the annotations they refer to. */
+    private static class BlockMover {
+        
+        final ModelSymbols symbols;
+        final int programDelta;
+        final int portDelta;
+        final int channelDelta;
+        final Map<Annotation,Annotation> annotations = new IdentityHashMap<Annotation,Annotation>();
+        final Map<Port,Port> ports = new IdentityHashMap<Port,Port>();
+        final Map<Program,Program> programs = new IdentityHashMap<Program,Program>();
+        
+        BlockMover(ModelSymbols symbols, int programDelta, int portDelta, int channelDelta) {
+            this.symbols = symbols;
+            this.programDelta = programDelta;
+            this.portDelta = portDelta;
+            this.channelDelta = channelDelta;
+        }
+        
+        Program program(Program program) {
+            
+            if (program == null) return null;
+            Program moved = programs.get(program);
+            if (moved != null) return moved;
+            
+            Integer id = program.id + programDelta;
+            Begin begin = (Begin)annotation(program.beginAnnotation);
+            End end = (End)annotation(program.endAnnotation);
+            List<Port> inPorts = ports(Arrays.asList(program.inPorts));
+            List<Port> outPorts = ports(Arrays.asList(program.outPorts));
+            List<Program> nestedPrograms = new ArrayList<Program>(program.programs.length);
+            for (Program nested : program.programs) nestedPrograms.add(program(nested));
+            List<Function> nestedFunctions = new ArrayList<Function>(program.functions.length);
+            for (Function nested : program.functions) nestedFunctions.add((Function)program(nested));
+            List<Channel> channels = new ArrayList<Channel>(program.channels.length);
+            for (Channel channel : program.channels) {
+                channels.add(new Channel(channel.id + channelDelta,
+                        program(channel.sourceProgram), port(channel.sourcePort),
+                        program(channel.sinkProgram), port(channel.sinkPort)));
+            }
+            
+            if (program instanceof Function) {
+                moved = new Function(id, begin, end, inPorts, outPorts, ports(Arrays.asList(((Function)program).returnPorts)),
+                        nestedPrograms, channels, nestedFunctions);
+            } else if (program instanceof Workflow) {
+                moved = new Workflow(id, begin, end, inPorts, outPorts, nestedPrograms, channels, nestedFunctions);
+            } else {
+                moved = new Program(id, begin, end, inPorts, outPorts, nestedPrograms, nestedFunctions);
+            }
+            programs.put(program, moved);
+            return moved;
+        }
+        
+        List<Port> ports(List<Port> ports) {
+            List<Port> moved = new ArrayList<Port>(ports.size());
+            for (Port port : ports) moved.add(port(port));
+            return moved;
+        }
+        
+        Port port(Port port) {
+            Port moved = ports.get(port);
+            if (moved == null) {
+                moved = new Port(port.id + portDelta, (Flow)annotation(port.flowAnnotation),
+                        (Begin)annotation(port.beginAnnotation), symbols);
+                ports.put(port, moved);
+            }
+            return moved;
+        }
+        
+        Annotation annotation(Annotation annotation) {
+            Annotation moved = annotations.get(annotation);
+            return (moved == null) ? annotation : moved;
+        }
     }
 }
@@ -0,0 +1,338 @@
+package org.yesworkflow.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** The transitive upstream and downstream closure of every channel and program in
+ *  a {@link Model}, including those nested in sub-workflows and functions.  An index
+ *  is built on first use by {@link Model#lineage()} and may be shared freely between
+ *  threads.
+ *
+ *  <p>Data flows from a channel into the next channel either through a program that
+ *  is not itself a workflow, or across a port on the boundary of a sub-workflow.  A
+ *  program is upstream of another if a channel it writes to is, or is upstream of, a
+ *  channel the other reads from.  These are the same relations derived by the rules
+ *  in {@link org.yesworkflow.query.LineageRules}.</p>
+ *
+ *  <p>The closure of each channel and program is held as a bit set over the positions
+ *  of the channels or programs in the model, so checking whether one is upstream of
+ *  another takes constant time and listing the closure takes time proportional to its
+ *  size.  Channels on a cycle share one bit set.  All lists returned are unmodifiable.</p>
+ */
+public class LineageIndex {
+
+    private final List<Program> programs;
+    private final List<Channel> channels;
+    private final Map<Program,Integer> programPositions = new HashMap<Program,Integer>();
+    private final Map<Channel,Integer> channelPositions = new HashMap<Channel,Integer>();
+    private final BitSet[] upstreamChannels;
+    private final BitSet[] downstreamChannels;
+    private final BitSet[] upstreamPrograms;
+    private final BitSet[] downstreamPrograms;
+
+    LineageIndex(Model model) {
+
+        List<Program> programs = new ArrayList<Program>();
+        Map<Program,Program> parents = new HashMap<Program,Program>();
+        collectPrograms(model.program, null, programs, parents);
+        for (Function function : model.functions) {
+            collectPrograms(function, null, programs, parents);
+        }
+
+        List<Channel> channels = new ArrayList<Channel>();
+        List<Program> owners = new ArrayList<Program>();
+        for (Program program : programs) {
+            programPositions.put(program, programPositions.size());
+            for (Channel channel : program.channels) {
+                channelPositions.put(channel, channels.size());
+                channels.add(channel);
+                owners.add(program);
+            }
+        }
+
+        this.programs = Collections.unmodifiableList(programs);
+        this.channels = Collections.unmodifiableList(channels);
+
+        int[][] successors = feeds(owners, parents);
+        int[][] predecessors = reverse(successors);
+        int[][] components = stronglyConnectedComponents(successors);
+
+        // the programs writing to and reading from each channel
+        int[] producers = new int[channels.size()];
+        int[] consumers = new int[channels.size()];
+        for (int c = 0; c < producers.length; ++c) {
+            Channel channel = channels.get(c);
+            producers[c] = (channel.sourceProgram != null) ? programPositions.get(channel.sourceProgram) : -1;
+            consumers[c] = (channel.sinkProgram != null) ? programPositions.get(channel.sinkProgram) : -1;
+        }
+
+        // components are found downstream first, so visit them in reverse for upstream closures
+        upstreamChannels = new BitSet[channels.size()];
+        BitSet[] upstreamProducers = new BitSet[channels.size()];
+        for (int i = components.length - 1; i >= 0; --i) {
+            close(components[i], predecessors, producers, upstreamChannels, upstreamProducers);
+        }
+
+        downstreamChannels = new BitSet[channels.size()];
+        BitSet[] downstreamConsumers = new BitSet[channels.size()];
+        for (int i = 0; i < components.length; ++i) {
+            close(components[i], successors, consumers, downstreamChannels, downstreamConsumers);
+        }
+
+        upstreamPrograms = new BitSet[programs.size()];
+        downstreamPrograms = new BitSet[programs.size()];
+        for (int p = 0; p < upstreamPrograms.length; ++p) {
+            upstreamPrograms[p] = new BitSet();
+            downstreamPrograms[p] = new BitSet();
+        }
+        for (int c = 0; c < producers.length; ++c) {
+            if (consumers[c] >= 0) upstreamPrograms[consumers[c]].or(upstreamProducers[c]);
+            if (producers[c] >= 0) downstreamPrograms[producers[c]].or(downstreamConsumers[c]);
+        }
+    }
+
+    /** Returns every program in the model, each workflow before the programs
+     *  and functions it contains. */
+    public List<Program> programs() {
+        return programs;
+    }
+
+    /** Returns every channel in the model, in the order of the programs containing them. */
+    public List<Channel> channels() {
+        return channels;
+    }
+
+    /** Returns the channels in the model whose source port has the given binding. */
+    public List<Channel> channelsForBinding(String binding) {
+        List<Channel> bound = new ArrayList<Channel>();
+        for (Program program : programs) {
+            bound.addAll(program.index().channelsForBinding(binding));
+        }
+        return Collections.unmodifiableList(bound);
+    }
+
+    /** Returns true if data in the channel <code>upstream</code> can reach the channel
+     *  <code>downstream</code>. */
+    public boolean isUpstream(Channel upstream, Channel downstream) {
+        Integer u = channelPositions.get(upstream);
+        Integer d = channelPositions.get(downstream);
+        return u != null && d != null && upstreamChannels[d].get(u);
+    }
+
+    /** Returns true if data written by the program <code>upstream</code> can reach the
+     *  program <code>downstream</code>. */
+    public boolean isUpstream(Program upstream, Program downstream) {
+        Integer u = programPositions.get(upstream);
+        Integer d = programPositions.get(downstream);
+        return u != null && d != null && upstreamPrograms[d].get(u);
+    }
+
+    /** Returns the channels whose data can reach the given channel. */
+    public List<Channel> upstreamChannels(Channel channel) {
+        Integer c = channelPositions.get(channel);
+        return (c != null) ? select(channels, upstreamChannels[c]) : Collections.<Channel>emptyList();
+    }
+
+    /** Returns the channels the data in the given channel can reach. */
+    public List<Channel> downstreamChannels(Channel channel) {
+        Integer c = channelPositions.get(channel);
+        return (c != null) ? select(channels, downstreamChannels[c]) : Collections.<Channel>emptyList();
+    }
+
+    /** Returns the programs whose outputs can reach the given program. */
+    public List<Program> upstreamPrograms(Program program) {
+        Integer p = programPositions.get(program);
+        return (p != null) ? select(programs, upstreamPrograms[p]) : Collections.<Program>emptyList();
+    }
+
+    /** Returns the programs the outputs of the given program can reach. */
+    public List<Program> downstreamPrograms(Program program) {
+        Integer p = programPositions.get(program);
+        return (p != null) ? select(programs, downstreamPrograms[p]) : Collections.<Program>emptyList();
+    }
+
+    /** Returns the distinct bindings of the channels upstream of any channel with the given binding. */
+    public List<String> upstreamBindings(String binding) {
+        return bindings(binding, upstreamChannels);
+    }
+
+    /** Returns the distinct bindings of the channels downstream of any channel with the given binding. */
+    public List<String> downstreamBindings(String binding) {
+        return bindings(binding, downstreamChannels);
+    }
+
+    private List<String> bindings(String binding, BitSet[] closures) {
+        BitSet union = new BitSet();
+        for (Channel channel : channelsForBinding(binding)) {
+            union.or(closures[channelPositions.get(channel)]);
+        }
+        Set<String> bindings = new LinkedHashSet<String>();
+        for (int c = union.nextSetBit(0); c >= 0; c = union.nextSetBit(c + 1)) {
+            bindings.add(channels.get(c).sourcePort.binding);
+        }
+        return Collections.unmodifiableList(new ArrayList<String>(bindings));
+    }
+
+    private static void collectPrograms(Program program, Program parent, List<Program> programs,
+                                        Map<Program,Program> parents) {
+        programs.add(program);
+        parents.put(program, parent);
+        for (Program child : program.programs) {
+            collectPrograms(child, program, programs, parents);
+        }
+        for (Program function : program.functions) {
+            collectPrograms(function, program, programs, parents);
+        }
+    }
+
+    /** Returns for each channel the positions of the channels it feeds directly, looked
+     *  up in the index of the program in which the fed channels begin. */
+    private int[][] feeds(List<Program> owners, Map<Program,Program> parents) {
+
+        int[][] feeds = new int[channels.size()][];
+        for (int c = 0; c < feeds.length; ++c) {
+            Channel channel = channels.get(c);
+            List<Channel> fed = new ArrayList<Channel>();
+            if (channel.sinkProgram != null) {
+                // through a program that is not a workflow into the channels it writes to
+                if (channel.sinkProgram.channels.length == 0) {
+                    fed.addAll(owners.get(c).index().channelsFromProgram(channel.sinkProgram));
+                }
+                // across an in port of a sub-workflow into the channels it begins
+                fed.addAll(channel.sinkProgram.index().channelsFromPort(channel.sinkPort));
+            } else {
+                // across an out port of the workflow into the channels it begins in the enclosing workflow
+                Program parent = parents.get(owners.get(c));
+                if (parent != null) fed.addAll(parent.index().channelsFromPort(channel.sinkPort));
+            }
+            feeds[c] = new int[fed.size()];
+            for (int i = 0; i < fed.size(); ++i) {
+                feeds[c][i] = channelPositions.get(fed.get(i));
+            }
+        }
+        return feeds;
+    }
+
+    /** Unions into the closure of each channel in a strongly connected component the
+     *  closures of its neighbours outside the component, which must already be set. */
+    private static void close(int[] component, int[][] neighbours, int[] programs,
+                              BitSet[] channelClosures, BitSet[] programClosures) {
+
+        BitSet channelClosure = new BitSet();
+        BitSet programClosure = new BitSet();
+        boolean cyclic = component.length > 1;
+
+        for (int c : component) {
+            if (programs[c] >= 0) programClosure.set(programs[c]);
+            for (int n : neighbours[c]) {
+                if (channelClosures[n] != null) {
+                    channelClosure.set(n);
+                    channelClosure.or(channelClosures[n]);
+                    programClosure.or(programClosures[n]);
+                } else if (n == c) {
+                    cyclic = true;
+                }
+            }
+        }
+
+        if (cyclic) {
+            for (int c : component) channelClosure.set(c);
+        }
+
+        for (int c : component) {
+            channelClosures[c] = channelClosure;
+            programClosures[c] = programClosure;
+        }
+    }
+
+    /** Returns the strongly connected components of the graph, each component
+     *  following every component reachable from it, using Tarjan's algorithm
+     *  without recursion so that long chains of channels cannot overflow the stack. */
+    private static int[][] stronglyConnectedComponents(int[][] successors) {
+
+        int n = successors.length;
+        int[] order = new int[n];
+        int[] lowLink = new int[n];
+        boolean[] onStack = new boolean[n];
+        Arrays.fill(order, -1);
+
+        int[] stack = new int[n];
+        int stackSize = 0;
+        int[] callStack = new int[n];
+        int[] nextEdge = new int[n];
+        int nextOrder = 0;
+        List<int[]> components = new ArrayList<int[]>();
+
+        for (int root = 0; root < n; ++root) {
+
+            if (order[root] >= 0) continue;
+
+            int depth = 0;
+            callStack[0] = root;
+            order[root] = lowLink[root] = nextOrder++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+
+            while (depth >= 0) {
+                int v = callStack[depth];
+                if (nextEdge[v] < successors[v].length) {
+                    int w = successors[v][nextEdge[v]++];
+                    if (order[w] < 0) {
+                        order[w] = lowLink[w] = nextOrder++;
+                        stack[stackSize++] = w;
+                        onStack[w] = true;
+                        callStack[++depth] = w;
+                    } else if (onStack[w]) {
+                        lowLink[v] = Math.min(lowLink[v], order[w]);
+                    }
+                } else {
+                    if (lowLink[v] == order[v]) {
+                        int start = stackSize;
+                        do {
+                            onStack[stack[--start]] = false;
+                        } while (stack[start] != v);
+                        components.add(Arrays.copyOfRange(stack, start, stackSize));
+                        stackSize = start;
+                    }
+                    if (--depth >= 0) {
+                        int parent = callStack[depth];
+                        lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+                    }
+                }
+            }
+        }
+
+        return components.toArray(new int[components.size()][]);
+    }
+
+    private static int[][] reverse(int[][] edges) {
+        int[] counts = new int[edges.length];
+        for (int[] targets : edges) {
+            for (int t : targets) counts[t]++;
+        }
+        int[][] reversed = new int[edges.length][];
+        for (int v = 0; v < edges.length; ++v) {
+            reversed[v] = new int[counts[v]];
+            counts[v] = 0;
+        }
+        for (int v = 0; v < edges.length; ++v) {
+            for (int t : edges[v]) reversed[t][counts[t]++] = v;
+        }
+        return reversed;
+    }
+
+    private static <T> List<T> select(List<T> items, BitSet positions) {
+        List<T> selected = new ArrayList<T>(positions.cardinality());
+        for (int i = positions.nextSetBit(0); i >= 0; i = positions.nextSetBit(i + 1)) {
+            selected.add(items.get(i));
+        }
+        return Collections.unmodifiableList(selected);
+    }
+}
@@ -8,20 +8,35 @@ public class Model {
     
     public final Program program;
     public final Function[] functions;
+    
+    /** The registry of the bindings and URI templates shared by the ports of the model,
+     *  or null if the model was not built with one. */
+    public final ModelSymbols symbols;
+    
+    private volatile LineageIndex lineage = null;
 
     public Model(Program program, Function[] functions) {
+        this(program, functions, null);
+    }
+
+    public Model(Program program, Function[] functions, ModelSymbols symbols) {
         
         if (program == null) throw new IllegalArgumentException("Null program argument passed to Model contructor.");
         if (functions == null) throw new IllegalArgumentException("Null functions argument passed to Model contructor.");
         
         this.program = program;
         this.functions = functions;
+        this.symbols = symbols;
     }
     
 	public Model(Program program, List<Function> functions) {
         this(program, functionListToArray(functions));
 	}
 	
+	public Model(Program program, List<Function> functions, ModelSymbols symbols) {
+        this(program, functionListToArray(functions), symbols);
+	}
+	
 	private static Function[] functionListToArray(List<Function> functions) {
         if (functions == null) throw new IllegalArgumentException("Null functions argument passed to Model contructor.");	    
 	    return functions.toArray(new Function[functions.size()]);
@@ -31,6 +46,22 @@ public class Model {
 	    this(program, EMPTY_FUNCTION_ARRAY);
     }
 	
+    /** Returns the transitive lineage of the channels and programs in the model,
+     *  building it on first use. */
+    public LineageIndex lineage() {
+        LineageIndex lineage = this.lineage;
+        if (lineage == null) {
+            synchronized(this) {
+                lineage = this.lineage;
+                if (lineage == null) {
+                    lineage = new LineageIndex(this);
+                    this.lineage = lineage;
+                }
+            }
+        }
+        return lineage;
+    }
+	
 	@Override
 	public String toString() {
 	    return "Model(program=" + program.beginAnnotation.name + ")";
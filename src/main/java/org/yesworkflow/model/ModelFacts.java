@@ -1,32 +1,26 @@
 package org.yesworkflow.model;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import org.yesworkflow.query.FactsBuilder;
+import org.yesworkflow.annotations.In;
+import org.yesworkflow.query.FactsSink;
+import org.yesworkflow.query.FactsWriter;
 import org.yesworkflow.query.LogicLanguage;
 import org.yesworkflow.query.LogicLanguageModel;
 
 public class ModelFacts {
 
     private final Model model;
+    private final LogicLanguageModel logicLanguageModel;
+    private boolean includeLineage = false;
     private String factsString = null;
-    private Integer nextUriVariableId = 1;
     
-    private FactsBuilder programFacts ;
-//    private FactsBuilder qualifiedProgramNameFacts;
-    private FactsBuilder workflowFacts;
-    private FactsBuilder functionFacts;
-    private FactsBuilder subprogramFacts;
-    private FactsBuilder portFacts;
-    private FactsBuilder portAliasFacts;
-    private FactsBuilder portUriFacts;
-    private FactsBuilder hasInPortFacts;
-    private FactsBuilder hasOutPortFacts;
-    private FactsBuilder channelFacts;
-    private FactsBuilder portConnectionFacts;
-    private FactsBuilder portUriVariableFacts;
-
     public ModelFacts(LogicLanguage logicLanguage, Model model) {
 
         if (logicLanguage == null) throw new IllegalArgumentException("Null logicLanguage argument passed to ModelFacts constructor.");
@@ -34,140 +28,259 @@ public class ModelFacts {
         if (model.program == null) throw new IllegalArgumentException("Null program field in model argument passed to ModelFacts constructor.");
         
         this.model = model;
+        this.logicLanguageModel = new LogicLanguageModel(logicLanguage);
+    }
 
-        LogicLanguageModel logicLanguageModel = new LogicLanguageModel(logicLanguage);
-
-        this.programFacts  = new FactsBuilder(logicLanguageModel, "program", "program_id", "program_name", "begin_annotation_id", "end_annotation_id");
-        //this.qualifiedProgramNameFacts  = new FactsBuilder("qualified_program_name", "program_id", "qualified_program_name");
-        this.workflowFacts = new FactsBuilder(logicLanguageModel, "workflow", "program_id");
-        this.functionFacts = new FactsBuilder(logicLanguageModel, "function", "program_id");
-        this.subprogramFacts = new FactsBuilder(logicLanguageModel, "has_sub_program", "program_id", "subprogram_id");
-        this.portFacts = new FactsBuilder(logicLanguageModel, "port", "port_id", "port_type", "port_name", "port_annotation_id");
-        this.portAliasFacts = new FactsBuilder(logicLanguageModel, "port_alias", "port_id", "alias");
-        this.portUriFacts = new FactsBuilder(logicLanguageModel, "port_uri", "port_id", "uri");
-        this.hasInPortFacts = new FactsBuilder(logicLanguageModel, "has_in_port", "block_id", "port_id");
-        this.hasOutPortFacts = new FactsBuilder(logicLanguageModel, "has_out_port", "block_id", "port_id");
-        this.channelFacts = new FactsBuilder(logicLanguageModel, "channel", "channel_id", "binding");
-        this.portConnectionFacts = new FactsBuilder(logicLanguageModel, "port_connects_to_channel", "port_id", "channel_id");
-        this.portUriVariableFacts = new FactsBuilder(logicLanguageModel, "uri_variable", "uri_variable_id", "variable_name", "port_id");
-
+    /** Includes the upstream_channel and upstream_program relations computed by
+     *  the lineage index of the model in the facts. */
+    public ModelFacts lineage(boolean includeLineage) {
+        this.includeLineage = includeLineage;
+        return this;
     }
 
     public ModelFacts build() {
         
+        StringBuilder sb = new StringBuilder();
+        try {
+            writeTo(sb);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        factsString = sb.toString();
+        
+        return this;
+    }
+
+    /** Writes the facts about the model straight to the given output, one relation
+     *  at a time, without holding the facts in memory.  The output is identical to
+     *  the string returned by {@link #toString()} after {@link #build()}. */
+    public ModelFacts writeTo(Appendable out) throws IOException {
+        return writeTo(new FactsWriter(logicLanguageModel, out));
+    }
+
+    /** Writes the facts to the given sink, one relation at a time. */
+    public ModelFacts writeTo(FactsSink facts) throws IOException {
+        
         if (model.program == null) throw new NullPointerException("Null program field in ModelFacts.model.");
         if (model.functions == null) throw new NullPointerException("Null functions field in ModelFacts.model.");
 
-        buildProgramFactsRecursively(model.program, null);
+        List<Program> programs = new ArrayList<Program>();
+        List<Integer> parentIds = new ArrayList<Integer>();
+        
+        collectProgramsRecursively(model.program, null, programs, parentIds);
         
         for (Function function : model.functions) {
-            buildProgramFactsRecursively(function, null);            
+            collectProgramsRecursively(function, null, programs, parentIds);            
         }
         
-        StringBuilder sb = new StringBuilder();
-        sb.append(programFacts)
-          .append(workflowFacts)
-          .append(functionFacts)
-          .append(subprogramFacts)
-          .append(portFacts)
-          .append(portAliasFacts)
-          .append(portUriFacts)
-          .append(hasInPortFacts)
-          .append(hasOutPortFacts)
-          .append(channelFacts)
-          .append(portConnectionFacts)
-          .append(portUriVariableFacts);
-
-        factsString = sb.toString();
+        facts.relation("program", "program_id", "program_name", "begin_annotation_id", "end_annotation_id");
+        for (Program program : programs) {
+            facts.add(program.id, program.beginAnnotation.name, program.beginAnnotation.id, program.endAnnotation.id);
+        }
+        
+        facts.relation("workflow", "program_id");
+        for (Program program : programs) {
+            if (program.channels.length > 0) {
+                facts.add(program.id);
+            }
+        }
+        
+        facts.relation("function", "program_id");
+        for (Program program : programs) {
+            if (program instanceof Function) {            
+                facts.add(program.id);
+            }
+        }
         
+        facts.relation("has_sub_program", "program_id", "subprogram_id");
+        for (int i = 0; i < programs.size(); ++i) {
+            if (parentIds.get(i) != null) {
+                facts.add(parentIds.get(i), programs.get(i).id);
+            }
+        }
+
+        facts.relation("port", "port_id", "port_type", "port_name", "port_annotation_id");
+        for (Program program : programs) {
+            for (Port port : ports(program)) {
+                facts.add(port.id, portType(port), port.flowAnnotation.name, port.flowAnnotation.id);
+            }
+        }
+
+        facts.relation("port_alias", "port_id", "alias");
+        for (Program program : programs) {
+            for (Port port : ports(program)) {
+                String portAlias = port.flowAnnotation.alias();
+                if (portAlias != null) {
+                    facts.add(port.id, portAlias);
+                }
+            }
+        }
+
+        facts.relation("port_uri", "port_id", "uri");
+        for (Program program : programs) {
+            for (Port port : ports(program)) {
+                if (port.uriTemplate != null) {
+                    facts.add(port.id, port.uriTemplate.toString());
+                }
+            }
+        }
+
+        facts.relation("has_in_port", "block_id", "port_id");
+        for (Program program : programs) {
+            for (Port port : ports(program)) {
+                if (isInPort(port)) {
+                    facts.add(program.id, port.id);
+                }
+            }
+        }
+
+        facts.relation("has_out_port", "block_id", "port_id");
+        for (Program program : programs) {
+            for (Port port : ports(program)) {
+                if (! isInPort(port)) {
+                    facts.add(program.id, port.id);
+                }
+            }
+        }
+
+        facts.relation("channel", "channel_id", "binding");
+        for (Program program : programs) {
+            for (Channel channel : program.channels) {
+                facts.add(channel.id, channel.sourcePort.binding);
+            }
+        }
+
+        facts.relation("port_connects_to_channel", "port_id", "channel_id");
+        for (Program program : programs) {
+            for (Channel channel : program.channels) {
+                facts.add(channel.sourcePort.id, channel.id);
+                facts.add(channel.sinkPort.id, channel.id);
+            }
+        }
+
+        facts.relation("uri_variable", "uri_variable_id", "variable_name", "port_id");
+        for (Map.Entry<Port,Map<String,Integer>> portVariables : uriVariableIds(programs).entrySet()) {
+            for (Map.Entry<String,Integer> variable : portVariables.getValue().entrySet()) {
+                facts.add(variable.getValue(), variable.getKey(), portVariables.getKey().id);
+            }
+        }
+
+        if (includeLineage) {
+            writeLineageTo(facts);
+        }
+
         return this;
     }
 
-    private void buildProgramFactsRecursively(Program program, Integer parentId) {
+    /** Returns the ids given to the named variables in the URI templates of each port
+     *  in the uri_variable relation, so that facts about the values of the variables
+     *  can refer to them. */
+    public Map<Port,Map<String,Integer>> uriVariableIds() {
+        List<Program> programs = new ArrayList<Program>();
+        List<Integer> parentIds = new ArrayList<Integer>();
+        collectProgramsRecursively(model.program, null, programs, parentIds);
+        for (Function function : model.functions) {
+            collectProgramsRecursively(function, null, programs, parentIds);            
+        }
+        return uriVariableIds(programs);
+    }
+
+    private Map<Port,Map<String,Integer>> uriVariableIds(List<Program> programs) {
+        Map<Port,Map<String,Integer>> ids = new LinkedHashMap<Port,Map<String,Integer>>();
+        Integer nextUriVariableId = 1;
+        for (Program program : programs) {
+            for (Port port : ports(program)) {
+                if (port.uriTemplate != null) {
+                    Set<String> uniqueVariableNames = new HashSet<String>();
+                    for (String name : port.uriTemplate.getVariableNames()) {
+                        uniqueVariableNames.add(name);
+                    }
+                    Map<String,Integer> portIds = new LinkedHashMap<String,Integer>();
+                    for (String uriVariableName : uniqueVariableNames) {
+                        if (! uriVariableName.trim().isEmpty()) {
+                            portIds.put(uriVariableName, nextUriVariableId++);
+                        }
+                    }
+                    ids.put(port, portIds);
+                }
+            }
+        }
+        return ids;
+    }
+
+    private void writeLineageTo(FactsSink facts) throws IOException {
+
+        LineageIndex lineage = model.lineage();
+
+        facts.relation("upstream_channel", "channel_id", "upstream_channel_id");
+        for (Channel channel : lineage.channels()) {
+            for (Channel upstream : lineage.upstreamChannels(channel)) {
+                facts.add(channel.id, upstream.id);
+            }
+        }
+
+        facts.relation("upstream_program", "program_id", "upstream_program_id");
+        for (Program program : lineage.programs()) {
+            for (Program upstream : lineage.upstreamPrograms(program)) {
+                facts.add(program.id, upstream.id);
+            }
+        }
+    }
+
+    private void collectProgramsRecursively(Program program, Integer parentId, List<Program> programs, List<Integer> parentIds) {
         
         if (program == null) throw new IllegalArgumentException("Null program argument.");
         if (program.channels == null) throw new IllegalArgumentException("Null channels field in program argument.");
         if (program.programs == null) throw new IllegalArgumentException("Null programs field in program argument.");
         if (program.functions == null) throw new IllegalArgumentException("Null functions field in program argument.");
         
-        programFacts.add(program.id, program.beginAnnotation.name, program.beginAnnotation.id, program.endAnnotation.id);
-        
-        if (program.channels.length > 0) {
-            workflowFacts.add(program.id);
-        }
-        
-        if (program instanceof Function) {            
-            functionFacts.add(program.id);
-        }
-        
-        if (parentId != null) {
-            subprogramFacts.add(parentId, program.id);
-        }
-        
-        buildPortFacts(program.inPorts, program, program.id);
-        buildPortFacts(program.outPorts, program, program.id);
+        checkPorts(program.inPorts);
+        checkPorts(program.outPorts);
         
         for (Channel channel : program.channels) {
-            
             if (channel.sourcePort == null) throw new NullPointerException("Null sourcePort field in channel.");
             if (channel.sinkPort == null) throw new NullPointerException("Null sinkPort field in channel.");
             if (channel.sourcePort.flowAnnotation == null) throw new NullPointerException("Null flowAnnotation field in sourcePort.");
-            
-            String binding = channel.sourcePort.flowAnnotation.binding();
-            channelFacts.add(channel.id, binding);
-            portConnectionFacts.add(channel.sourcePort.id, channel.id);
-            portConnectionFacts.add(channel.sinkPort.id, channel.id);
         }
+
+        programs.add(program);
+        parentIds.add(parentId);
         
         for (Program childProgram : program.programs) {
-            buildProgramFactsRecursively(childProgram, program.id);
+            collectProgramsRecursively(childProgram, program.id, programs, parentIds);
         }
         
         for (Program childFunction : program.functions) {
-            buildProgramFactsRecursively(childFunction, program.id);
+            collectProgramsRecursively(childFunction, program.id, programs, parentIds);
         }
     }
 
-    private void buildPortFacts(Port[] ports, Program block, Integer blockId) {
+    private void checkPorts(Port[] ports) {
         
         if (ports == null) throw new IllegalArgumentException("Null ports argument.");
-        if (block == null) throw new IllegalArgumentException("Null block argument.");
-        if (blockId == null) throw new IllegalArgumentException("Null blockId argument.");
 
         for (Port port : ports) {
-
             if (port.flowAnnotation == null) throw new NullPointerException("Null flowAnnotation field in port.");
             if (port.flowAnnotation.tag == null) throw new NullPointerException("Null tag field in port.flowAnnotation.");
-            
-            String variableName = port.flowAnnotation.name;
-            String portType = port.flowAnnotation.tag.substring(1);            
-            portFacts.add(port.id, portType, variableName, port.flowAnnotation.id);
-
-            String portAlias = port.flowAnnotation.alias();
-            if (portAlias != null) {
-                portAliasFacts.add(port.id, portAlias);
-            }
-            
-            if (port.uriTemplate != null) {
-                portUriFacts.add(port.id, port.uriTemplate.toString());
-                Set<String> uniqueVariableNames = new HashSet<String>();
-                for (String name : port.uriTemplate.getVariableNames()) {
-                    uniqueVariableNames.add(name);
-                }
-                for (String uriVariableName : uniqueVariableNames) {
-                    if (! uriVariableName.trim().isEmpty()) {
-                        portUriVariableFacts.add(nextUriVariableId++, uriVariableName, port.id);
-                    }
-                }
-            }
-            
-            if (portType.equals("in") || portType.equals("param")) {
-                hasInPortFacts.add(blockId, port.id);
-            } else {
-                hasOutPortFacts.add(blockId, port.id);
-            }
         }
     }
+    
+    /** Returns the in ports of the program followed by its out ports. */
+    private static List<Port> ports(Program program) {
+        List<Port> ports = new ArrayList<Port>(program.inPorts.length + program.outPorts.length);
+        for (Port port : program.inPorts) ports.add(port);
+        for (Port port : program.outPorts) ports.add(port);
+        return ports;
+    }
+    
+    private static String portType(Port port) {
+        return port.flowAnnotation.tag.substring(1);
+    }
+    
+    private static boolean isInPort(Port port) {
+        return port.flowAnnotation instanceof In;
+    }
         
     public String toString() {
         return factsString;
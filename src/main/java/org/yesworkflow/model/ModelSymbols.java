@@ -0,0 +1,140 @@
+package org.yesworkflow.model;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.yesworkflow.data.UriTemplate;
+
+/** Registry of the binding names and URI templates shared by the ports of a model.
+ *
+ *  <p>The same bindings and templates recur across many ports of a large model, e.g.
+ *  on the out port writing a channel and on each in port reading it.  Each distinct
+ *  binding is stored once and given a small integer id, and each distinct template
+ *  expression is parsed once into a {@link UriTemplate} shared by every port declaring
+ *  it.  Ports built with the same registry therefore have the same binding when their
+ *  binding ids are equal, and the same binding string and template instance, so that
+ *  stages can compare them by id or identity rather than by content.</p>
+ *
+ *  <p>A registry kept from one model to the next, as in incremental modeling, can be
+ *  pruned with {@link #retainOnly(Model) retainOnly()} to the bindings and templates
+ *  still used.  The ids of pruned bindings are given to new bindings, so that ids stay
+ *  close to the number of bindings in use however many bindings have come and gone.</p>
+ */
+public class ModelSymbols {
+
+    private final Map<String,Integer> bindingIds = new HashMap<String,Integer>();
+    private final List<String> bindings = new ArrayList<String>();
+    private final Map<String,UriTemplate> uriTemplates = new HashMap<String,UriTemplate>();
+    private final BitSet freeIds = new BitSet();
+
+    /** Returns the id of the given binding, giving it the lowest free id, counting from zero,
+     *  if it was not seen before. */
+    public synchronized int bindingId(String binding) {
+        Integer id = bindingIds.get(binding);
+        if (id == null) {
+            id = freeIds.nextSetBit(0);
+            if (id == -1) {
+                id = bindings.size();
+                bindings.add(binding);
+            } else {
+                freeIds.clear(id);
+                bindings.set(id, binding);
+            }
+            bindingIds.put(binding, id);
+        }
+        return id;
+    }
+
+    /** Returns the binding with the given id. */
+    public synchronized String binding(int id) {
+        return bindings.get(id);
+    }
+
+    /** Returns the template for the given expression, parsing it only if it was not seen before. */
+    public synchronized UriTemplate uriTemplate(String expression) {
+        UriTemplate template = uriTemplates.get(expression);
+        if (template == null) {
+            template = new UriTemplate(expression);
+            uriTemplates.put(expression, template);
+        }
+        return template;
+    }
+
+    /** Returns true if the binding and template of the port are those registered here. */
+    public synchronized boolean registers(Port port) {
+        if (port.bindingId < 0 || port.bindingId >= bindings.size()) return false;
+        if (!port.binding.equals(bindings.get(port.bindingId))) return false;
+        if (port.uriTemplate == null) return true;
+        return uriTemplates.get(port.flowAnnotation.uriAnnotation().name) == port.uriTemplate;
+    }
+
+    /** Returns true if the bindings and templates of the ports of the program, and of the
+     *  programs nested within it, are all those registered here.  Ports of such programs
+     *  have the same binding exactly when their binding ids are equal. */
+    public synchronized boolean registers(Program program) {
+        for (Port port : program.inPorts) if (!registers(port)) return false;
+        for (Port port : program.outPorts) if (!registers(port)) return false;
+        if (program instanceof Function) {
+            for (Port port : ((Function)program).returnPorts) if (!registers(port)) return false;
+        }
+        for (Program nested : program.programs) if (!registers(nested)) return false;
+        for (Function nested : program.functions) if (!registers(nested)) return false;
+        return true;
+    }
+
+    /** Removes the bindings and templates not used by any port of the given model. */
+    public synchronized void retainOnly(Model model) {
+        BitSet usedIds = new BitSet();
+        Set<UriTemplate> usedTemplates = new HashSet<UriTemplate>();
+        if (model.program != null) addUsed(model.program, usedIds, usedTemplates);
+        for (Function function : model.functions) addUsed(function, usedIds, usedTemplates);
+
+        for (int id = 0; id < bindings.size(); ++id) {
+            if (bindings.get(id) != null && !usedIds.get(id)) {
+                bindingIds.remove(bindings.get(id));
+                bindings.set(id, null);
+                freeIds.set(id);
+            }
+        }
+        while (!bindings.isEmpty() && bindings.get(bindings.size() - 1) == null) {
+            freeIds.clear(bindings.size() - 1);
+            bindings.remove(bindings.size() - 1);
+        }
+        for (Iterator<UriTemplate> templates = uriTemplates.values().iterator(); templates.hasNext(); ) {
+            if (!usedTemplates.contains(templates.next())) templates.remove();
+        }
+    }
+
+    private void addUsed(Program program, BitSet usedIds, Set<UriTemplate> usedTemplates) {
+        addUsed(program.inPorts, usedIds, usedTemplates);
+        addUsed(program.outPorts, usedIds, usedTemplates);
+        if (program instanceof Function) addUsed(((Function)program).returnPorts, usedIds, usedTemplates);
+        for (Program nested : program.programs) addUsed(nested, usedIds, usedTemplates);
+        for (Function nested : program.functions) addUsed(nested, usedIds, usedTemplates);
+    }
+
+    private void addUsed(Port[] ports, BitSet usedIds, Set<UriTemplate> usedTemplates) {
+        for (Port port : ports) {
+            if (registers(port)) {
+                usedIds.set(port.bindingId);
+                if (port.uriTemplate != null) usedTemplates.add(port.uriTemplate);
+            }
+        }
+    }
+
+    /** Returns the number of distinct bindings registered. */
+    public synchronized int getBindingCount() {
+        return bindingIds.size();
+    }
+
+    /** Returns the number of distinct template expressions registered. */
+    public synchronized int getUriTemplateCount() {
+        return uriTemplates.size();
+    }
+}
@@ -1,29 +1,56 @@
-package org.yesworkflow.model;
-
-import org.yesworkflow.annotations.Begin;
-import org.yesworkflow.annotations.Flow;
-import org.yesworkflow.annotations.UriAnnotation;
-import org.yesworkflow.data.UriTemplate;
-
-public class Port {
-
-    public final Integer id;
-    public final Begin beginAnnotation;
-	public final Flow flowAnnotation;
-	public final UriTemplate uriTemplate;
-	
-	public Port(Integer id, Flow flowAnnotation, Begin beginAnnotation) {
-	    
-	    this.id = id;
-		this.flowAnnotation = flowAnnotation;
-		this.beginAnnotation = beginAnnotation;
-		
-		UriAnnotation uriAnnotation = this.flowAnnotation.uriAnnotation();
-		this.uriTemplate = (uriAnnotation != null) ? new UriTemplate(uriAnnotation.name) : null;
-	}
-	
-	@Override
-    public String toString() {
-        return String.format("%s:%s", this.beginAnnotation.name, this.flowAnnotation.binding());
-    }
-}
+package org.yesworkflow.model;
+
+import org.yesworkflow.annotations.Begin;
+import org.yesworkflow.annotations.Flow;
+import org.yesworkflow.annotations.UriAnnotation;
+import org.yesworkflow.data.UriTemplate;
+
+public class Port {
+
+    /** The binding id of a port not built with a {@link ModelSymbols} registry. */
+    public static final int NO_BINDING_ID = -1;
+
+    public final Integer id;
+    public final Begin beginAnnotation;
+	public final Flow flowAnnotation;
+	public final UriTemplate uriTemplate;
+	public final String binding;
+	public final int bindingId;
+	
+	/** Creates a port with a binding and URI template of its own, and no binding id.
+	 *  @deprecated Use {@link #Port(Integer, Flow, Begin, ModelSymbols)} so that the
+	 *  binding and template are shared with the other ports of the model. */
+	@Deprecated
+	public Port(Integer id, Flow flowAnnotation, Begin beginAnnotation) {
+	    
+	    this.id = id;
+		this.flowAnnotation = flowAnnotation;
+		this.beginAnnotation = beginAnnotation;
+		
+		this.bindingId = NO_BINDING_ID;
+		this.binding = flowAnnotation.binding();
+		
+		UriAnnotation uriAnnotation = this.flowAnnotation.uriAnnotation();
+		this.uriTemplate = (uriAnnotation != null) ? new UriTemplate(uriAnnotation.name) : null;
+	}
+	
+	/** Creates a port whose binding and URI template are taken from the given registry,
+	 *  so that they are shared with the other ports of the model built with it. */
+	public Port(Integer id, Flow flowAnnotation, Begin beginAnnotation, ModelSymbols symbols) {
+	    
+	    this.id = id;
+		this.flowAnnotation = flowAnnotation;
+		this.beginAnnotation = beginAnnotation;
+		
+		this.bindingId = symbols.bindingId(flowAnnotation.binding());
+		this.binding = symbols.binding(bindingId);
+		
+		UriAnnotation uriAnnotation = this.flowAnnotation.uriAnnotation();
+		this.uriTemplate = (uriAnnotation != null) ? symbols.uriTemplate(uriAnnotation.name) : null;
+	}
+	
+	@Override
+    public String toString() {
+        return String.format("%s:%s", this.beginAnnotation.name, this.binding);
+    }
+}
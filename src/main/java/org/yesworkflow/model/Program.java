@@ -1,11 +1,9 @@
 package org.yesworkflow.model;
 
-import java.util.LinkedList;
 import java.util.List;
 
 import org.yesworkflow.annotations.Begin;
 import org.yesworkflow.annotations.End;
-import org.yesworkflow.annotations.Param;
 
 public class Program {
 
@@ -21,6 +19,8 @@ public class Program {
     public final Program[] programs;
     public final Channel[] channels;
     public final Function[] functions;
+    
+    private volatile ProgramIndex index = null;
 
     public Program(
             Integer id,
@@ -67,76 +67,47 @@ public class Program {
 	}
     
 
-    public List<String> outerParamBindings() {
-        List<String> bindings = new LinkedList<String>();
-        for (Port p : inPorts) {
-            if (p.flowAnnotation instanceof Param) {
-                bindings.add(p.flowAnnotation.binding());
+    /** Returns the lookup tables for this program, building them on first use. */
+    public ProgramIndex index() {
+        ProgramIndex index = this.index;
+        if (index == null) {
+            synchronized(this) {
+                index = this.index;
+                if (index == null) {
+                    index = new ProgramIndex(this);
+                    this.index = index;
+                }
             }
         }
-        return bindings;
+        return index;
+    }
+
+    public List<String> outerParamBindings() {
+        return index().outerParamBindings();
     }
 
     public List<String> outerDataBindings() {
-        List<String> bindings = new LinkedList<String>();
-        for (Port p : inPorts) {
-            if (! (p.flowAnnotation instanceof Param)) {
-                bindings.add(p.flowAnnotation.binding());
-            }
-        }
-        for (Port p : outPorts) {
-            bindings.add(p.flowAnnotation.binding());
-        }
-        return bindings;
+        return index().outerDataBindings();
     }
 
     public List<String> outerBindings() {
-        List<String> bindings = new LinkedList<String>();
-        for (Port p : inPorts) {
-            bindings.add(p.flowAnnotation.binding());
-        }
-        for (Port p : outPorts) {
-            bindings.add(p.flowAnnotation.binding());
-        }
-        return bindings;
+        return index().outerBindings();
     }
         
     public List<Channel> innerParamChannels() {
-        List<Channel> pc = new LinkedList<Channel>();
-        for (Channel c : channels) {
-            if (c.isParam) {
-                pc.add(c);
-            }
-        }
-        return pc;
+        return index().paramChannels();
     }
  
     public List<Channel> innerDataChannels() {
-        List<Channel> dc = new LinkedList<Channel>();
-        for (Channel c : channels) {
-            if (! c.isParam) {
-                dc.add(c);
-            }
-        }
-        return dc;
+        return index().dataChannels();
     }
     
     public List<Channel> innerChannels() {
-        List<Channel> ch = new LinkedList<Channel>();
-        for (Channel c : channels) {
-            ch.add(c);
-        }
-        return ch;
+        return index().channels();
     }
- 
     
     public boolean hasChannelForBinding(String binding) {
-        for (Channel c : channels) {
-            if (binding.equals(c.sourcePort.flowAnnotation.binding())) {
-                return true;
-            }
-        }
-        return false;
+        return index().hasChannelForBinding(binding);
     }
     
 	@Override
@@ -0,0 +1,149 @@
+package org.yesworkflow.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.yesworkflow.annotations.Param;
+
+/** Immutable lookup tables over the ports and channels of a single
+ *  {@link Program}.  An index is built on first use by
+ *  {@link Program#index()} and may be shared freely between threads.
+ *  All lists returned are unmodifiable and preserve the order of the
+ *  corresponding arrays in the program. */
+public class ProgramIndex {
+
+    private final List<Channel> channels;
+    private final List<Channel> dataChannels;
+    private final List<Channel> paramChannels;
+    private final List<String> outerBindings;
+    private final List<String> outerDataBindings;
+    private final List<String> outerParamBindings;
+    private final Map<String,List<Channel>> channelsByBinding;
+    private final Map<Program,List<Channel>> channelsBySourceProgram;
+    private final Map<Port,List<Channel>> channelsBySourcePort;
+
+    ProgramIndex(Program program) {
+
+        List<Channel> dataChannels = new ArrayList<Channel>();
+        List<Channel> paramChannels = new ArrayList<Channel>();
+        Map<String,List<Channel>> channelsByBinding = new HashMap<String,List<Channel>>();
+        Map<Program,List<Channel>> channelsBySourceProgram = new HashMap<Program,List<Channel>>();
+        Map<Port,List<Channel>> channelsBySourcePort = new HashMap<Port,List<Channel>>();
+
+        for (Channel c : program.channels) {
+            if (c.isParam) {
+                paramChannels.add(c);
+            } else {
+                dataChannels.add(c);
+            }
+            addTo(channelsByBinding, c.sourcePort.binding, c);
+            addTo(channelsBySourceProgram, c.sourceProgram, c);
+            addTo(channelsBySourcePort, c.sourcePort, c);
+        }
+
+        List<String> outerBindings = new ArrayList<String>();
+        List<String> outerDataBindings = new ArrayList<String>();
+        List<String> outerParamBindings = new ArrayList<String>();
+
+        for (Port p : program.inPorts) {
+            String binding = p.binding;
+            outerBindings.add(binding);
+            if (p.flowAnnotation instanceof Param) {
+                outerParamBindings.add(binding);
+            } else {
+                outerDataBindings.add(binding);
+            }
+        }
+        for (Port p : program.outPorts) {
+            String binding = p.binding;
+            outerBindings.add(binding);
+            outerDataBindings.add(binding);
+        }
+
+        this.channels = Collections.unmodifiableList(Arrays.asList(program.channels));
+        this.dataChannels = Collections.unmodifiableList(dataChannels);
+        this.paramChannels = Collections.unmodifiableList(paramChannels);
+        this.outerBindings = Collections.unmodifiableList(outerBindings);
+        this.outerDataBindings = Collections.unmodifiableList(outerDataBindings);
+        this.outerParamBindings = Collections.unmodifiableList(outerParamBindings);
+        this.channelsByBinding = freeze(channelsByBinding);
+        this.channelsBySourceProgram = freeze(channelsBySourceProgram);
+        this.channelsBySourcePort = freeze(channelsBySourcePort);
+    }
+
+    /** Returns all channels in the program. */
+    public List<Channel> channels() {
+        return channels;
+    }
+
+    /** Returns the channels in the program that do not carry parameters. */
+    public List<Channel> dataChannels() {
+        return dataChannels;
+    }
+
+    /** Returns the channels in the program that carry parameters. */
+    public List<Channel> paramChannels() {
+        return paramChannels;
+    }
+
+    /** Returns the bindings of the in and out ports of the program. */
+    public List<String> outerBindings() {
+        return outerBindings;
+    }
+
+    /** Returns the bindings of the in and out ports of the program, excluding parameters. */
+    public List<String> outerDataBindings() {
+        return outerDataBindings;
+    }
+
+    /** Returns the bindings of the parameter ports of the program. */
+    public List<String> outerParamBindings() {
+        return outerParamBindings;
+    }
+
+    /** Returns the channels in the program whose source port has the given binding. */
+    public List<Channel> channelsForBinding(String binding) {
+        return lookup(channelsByBinding, binding);
+    }
+
+    /** Returns true if a channel in the program has a source port with the given binding. */
+    public boolean hasChannelForBinding(String binding) {
+        return channelsByBinding.containsKey(binding);
+    }
+
+    /** Returns the channels flowing out of the given child program, or out of the
+     *  program's own in ports when <code>source</code> is null. */
+    public List<Channel> channelsFromProgram(Program source) {
+        return lookup(channelsBySourceProgram, source);
+    }
+
+    /** Returns the channels whose source is the given port. */
+    public List<Channel> channelsFromPort(Port source) {
+        return lookup(channelsBySourcePort, source);
+    }
+
+    private static <K> void addTo(Map<K,List<Channel>> map, K key, Channel channel) {
+        List<Channel> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<Channel>(1);
+            map.put(key, list);
+        }
+        list.add(channel);
+    }
+
+    private static <K> Map<K,List<Channel>> freeze(Map<K,List<Channel>> map) {
+        for (Map.Entry<K,List<Channel>> entry : map.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        return map;
+    }
+
+    private static <K> List<Channel> lookup(Map<K,List<Channel>> map, K key) {
+        List<Channel> list = map.get(key);
+        return (list != null) ? list : Collections.<Channel>emptyList();
+    }
+}
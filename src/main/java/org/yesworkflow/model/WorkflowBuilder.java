@@ -52,6 +52,18 @@ public class WorkflowBuilder {
             this.endAnnotation = annotation;
         }
 
+        /** Sets the id of the first channel built, so that channel ids are unique across
+         *  all the workflows in a model. */
+        public WorkflowBuilder firstChannelId(Integer id) {
+            this.nextChannelId = id;
+            return this;
+        }
+
+        /** Returns the id following that of the last channel built. */
+        public Integer getNextChannelId() {
+            return nextChannelId;
+        }
+
 		public String getProgramName() {
 			return beginAnnotation.name;
 		}
@@ -97,7 +109,7 @@ public class WorkflowBuilder {
         }
         
 		public WorkflowBuilder nestedInPort(Port inPort) {
-		    String binding = inPort.flowAnnotation.binding();
+		    String binding = inPort.binding;
 			addNestedInport(binding, inPort);
 			return this;
 		}
@@ -113,7 +125,7 @@ public class WorkflowBuilder {
 		
 		public WorkflowBuilder nestedOutPort(Port outPort) throws Exception {
 			
-			String binding = outPort.flowAnnotation.binding();
+			String binding = outPort.binding;
 			
 			// ensure no other writers to this @out binding
 			if (nestedProgramOutPorts.containsKey(binding)) {
@@ -127,7 +139,7 @@ public class WorkflowBuilder {
 		}
 
         public WorkflowBuilder nestedReturnPort(Port returnPort) throws Exception {
-            String binding = returnPort.flowAnnotation.binding();
+            String binding = returnPort.binding;
             
             // ensure no other writers to this @out binding
             if (nestedProgramOutPorts.containsKey(binding)) {
@@ -0,0 +1,44 @@
+package org.yesworkflow.query;
+
+/** A predicate applied to terms, used as the head of a Datalog {@link Rule}, as a
+ *  literal in its body, or as a query goal.  A body literal may be negated, and the
+ *  built-in predicate {@link #NOT_EQUAL} compares its two terms. */
+public class Atom {
+
+    public static final String NOT_EQUAL = "!=";
+
+    public final String predicate;
+    public final Term[] terms;
+    public final boolean negated;
+
+    public Atom(String predicate, Term... terms) {
+        this(predicate, false, terms);
+    }
+
+    public Atom(String predicate, boolean negated, Term... terms) {
+        this.predicate = predicate;
+        this.negated = negated;
+        this.terms = terms;
+    }
+
+    public boolean isNotEqual() {
+        return predicate.equals(NOT_EQUAL);
+    }
+
+    @Override
+    public String toString() {
+        if (isNotEqual()) return terms[0] + " != " + terms[1];
+        StringBuilder sb = new StringBuilder();
+        if (negated) sb.append("not ");
+        sb.append(predicate);
+        if (terms.length > 0) {
+            sb.append("(");
+            for (int i = 0; i < terms.length; ++i) {
+                if (i > 0) sb.append(", ");
+                sb.append(terms[i]);
+            }
+            sb.append(")");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,181 @@
+package org.yesworkflow.query;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Facts loaded from a file written by {@link ColumnarFactsWriter}.  Columns are
+ *  read-only views onto the loaded bytes, so loading a file costs one pass over the
+ *  dictionary and nothing per row.  Queries can look up the dictionary index of a
+ *  string once with {@link #stringId(String)} and then compare ints. */
+public class ColumnarFacts {
+
+    private final String[] dictionary;
+    private final Map<String,Relation> relations = new LinkedHashMap<String,Relation>();
+    private Map<String,Integer> dictionaryIds = null;
+
+    private ColumnarFacts(ByteBuffer buffer) throws IOException {
+
+        try {
+            if (buffer.getInt() != ColumnarFactsWriter.MAGIC) {
+                throw new IOException("Not a columnar facts file.");
+            }
+            int version = buffer.getInt();
+            if (version != ColumnarFactsWriter.VERSION) {
+                throw new IOException("Unsupported columnar facts version: " + version);
+            }
+
+            dictionary = new String[buffer.getInt()];
+            for (int i = 0; i < dictionary.length; ++i) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                dictionary[i] = new String(bytes, ColumnarFactsWriter.UTF8);
+            }
+
+            int relationCount = buffer.getInt();
+            for (int i = 0; i < relationCount; ++i) {
+                Relation relation = new Relation(buffer);
+                relations.put(relation.name, relation);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated columnar facts file.");
+        }
+    }
+
+    /** Loads the facts in the file at the given path by mapping it into memory. */
+    public static ColumnarFacts read(String path) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        try {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            channel.close();
+        }
+    }
+
+    /** Loads the facts in the given buffer, from its position to its limit. */
+    public static ColumnarFacts read(ByteBuffer buffer) throws IOException {
+        return new ColumnarFacts(buffer.duplicate());
+    }
+
+    /** Returns the names of the relations in the order they were declared. */
+    public List<String> relationNames() {
+        return Collections.unmodifiableList(new ArrayList<String>(relations.keySet()));
+    }
+
+    /** Returns the relation with the given name, or null if there is none. */
+    public Relation relation(String name) {
+        return relations.get(name);
+    }
+
+    /** Returns the string with the given dictionary index. */
+    public String string(int id) {
+        return dictionary[id];
+    }
+
+    /** Returns the dictionary index of the given string, or -1 if no fact contains it. */
+    public synchronized int stringId(String s) {
+        if (dictionaryIds == null) {
+            dictionaryIds = new HashMap<String,Integer>(dictionary.length * 2);
+            for (int i = 0; i < dictionary.length; ++i) {
+                dictionaryIds.put(dictionary[i], i);
+            }
+        }
+        Integer id = dictionaryIds.get(s);
+        return (id != null) ? id : -1;
+    }
+
+    /** The columns of one relation. */
+    public class Relation {
+
+        public final String name;
+        private final String[] fieldNames;
+        private final boolean[] isString;
+        private final IntBuffer[] columns;
+        private final int rowCount;
+
+        private Relation(ByteBuffer buffer) throws IOException {
+
+            this.name = dictionary[buffer.getInt()];
+            int fieldCount = buffer.getInt();
+            this.rowCount = buffer.getInt();
+
+            this.fieldNames = new String[fieldCount];
+            this.isString = new boolean[fieldCount];
+            for (int i = 0; i < fieldCount; ++i) {
+                fieldNames[i] = dictionary[buffer.getInt()];
+                isString[i] = (buffer.get() == ColumnarFactsWriter.STRING_COLUMN);
+            }
+
+            long columnBytes = rowCount * 4L;
+            if (rowCount < 0 || columnBytes * fieldCount > buffer.remaining()) {
+                throw new IOException("Truncated columnar facts file.");
+            }
+
+            this.columns = new IntBuffer[fieldCount];
+            for (int i = 0; i < fieldCount; ++i) {
+                ByteBuffer slice = buffer.slice();
+                slice.limit((int) columnBytes);
+                columns[i] = slice.asIntBuffer().asReadOnlyBuffer();
+                buffer.position(buffer.position() + (int) columnBytes);
+            }
+        }
+
+        public int rowCount() {
+            return rowCount;
+        }
+
+        public int fieldCount() {
+            return fieldNames.length;
+        }
+
+        public String fieldName(int field) {
+            return fieldNames[field];
+        }
+
+        /** Returns the position of the field with the given name, or -1. */
+        public int field(String fieldName) {
+            for (int i = 0; i < fieldNames.length; ++i) {
+                if (fieldNames[i].equals(fieldName)) return i;
+            }
+            return -1;
+        }
+
+        /** Returns true if the values in the field are dictionary indexes
+         *  rather than Integer values. */
+        public boolean isStringColumn(int field) {
+            return isString[field];
+        }
+
+        /** Returns a read-only view of the raw int values in the field. */
+        public IntBuffer column(int field) {
+            return columns[field].duplicate();
+        }
+
+        /** Returns the raw int value of a field: an Integer value or a dictionary index. */
+        public int getInt(int row, int field) {
+            return columns[field].get(row);
+        }
+
+        /** Returns the value of a field in its string form. */
+        public String getString(int row, int field) {
+            int value = columns[field].get(row);
+            return isString[field] ? dictionary[value] : Integer.toString(value);
+        }
+
+        /** Returns the value of a field as an Integer or a String. */
+        public Object get(int row, int field) {
+            int value = columns[field].get(row);
+            return isString[field] ? dictionary[value] : Integer.valueOf(value);
+        }
+    }
+}
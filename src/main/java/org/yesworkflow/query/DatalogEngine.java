@@ -0,0 +1,584 @@
+package org.yesworkflow.query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** An embedded bottom-up Datalog evaluator over the relations exported by
+ *  {@link org.yesworkflow.model.ModelFacts} and {@link org.yesworkflow.extract.ExtractFacts}.
+ *
+ *  <p>Facts are loaded by passing the engine as the {@link FactsSink} of their
+ *  <code>writeTo()</code> methods, or with {@link #rules(String)}.  Every value is
+ *  encoded as an int, and relations are hash-indexed on whichever columns a rule
+ *  or goal binds.  Rules may be recursive and may use stratified negation.  They
+ *  are evaluated semi-naively, stratum by stratum: after a first naive round, each
+ *  round joins only the facts derived in the previous round against the rest.</p>
+ *
+ *  <p>Loading facts or rules invalidates the derived facts, which are recomputed
+ *  on the next query.</p>
+ */
+public class DatalogEngine implements FactsSink {
+
+    private final Map<Object,Integer> codes = new HashMap<Object,Integer>();
+    private final List<Object> values = new ArrayList<Object>();
+    private final Map<String,Table> facts = new HashMap<String,Table>();
+    private final List<Rule> rules = new ArrayList<Rule>();
+    private Map<String,Table> derived = null;
+    private Table current = null;
+
+    @Override
+    public DatalogEngine relation(String name, String... fields) {
+        current = factTable(name, fields.length);
+        return this;
+    }
+
+    @Override
+    public DatalogEngine add(Object... values) {
+        if (current == null) throw new IllegalStateException("No relation selected before adding a fact.");
+        int[] tuple = new int[current.arity];
+        for (int i = 0; i < tuple.length; ++i) {
+            tuple[i] = encode(values[i]);
+        }
+        current.add(tuple);
+        derived = null;
+        return this;
+    }
+
+    /** Parses and adds the rules and ground facts in the given Datalog text. */
+    public DatalogEngine rules(String text) {
+        for (Rule rule : new DatalogParser(text).parseRules()) {
+            if (rule.body.length == 0) {
+                addFact(rule.head);
+            } else {
+                rule(rule);
+            }
+        }
+        return this;
+    }
+
+    /** Adds a rule, checking that every variable in its head, in its negated literals
+     *  and in its comparisons also appears in a positive literal of its body. */
+    public DatalogEngine rule(Rule rule) {
+        Set<String> bound = new HashSet<String>();
+        for (Atom literal : rule.body) {
+            if (! literal.negated && ! literal.isNotEqual()) {
+                for (Term term : literal.terms) {
+                    if (term.isVariable()) bound.add(term.variable);
+                }
+            }
+        }
+        checkBound(rule, rule.head, bound);
+        for (Atom literal : rule.body) {
+            if (literal.negated || literal.isNotEqual()) checkBound(rule, literal, bound);
+        }
+        rules.add(rule);
+        derived = null;
+        return this;
+    }
+
+    /** Returns the facts matching the goal, given in Datalog syntax, as arrays of
+     *  Integer and String values in the order the facts were derived. */
+    public List<Object[]> query(String goal) {
+        return query(new DatalogParser(goal).parseGoal());
+    }
+
+    /** Returns the facts matching the goal as arrays of Integer and String values
+     *  in the order the facts were derived. */
+    public List<Object[]> query(Atom goal) {
+
+        evaluate();
+
+        List<Object[]> answers = new ArrayList<Object[]>();
+        Table table = table(goal.predicate);
+        if (table == null || table.arity != goal.terms.length) return answers;
+
+        CompiledRule matcher = new CompiledRule(new Rule(goal, goal));
+        for (int[] tuple : matcher.match(table)) {
+            Object[] answer = new Object[tuple.length];
+            for (int i = 0; i < tuple.length; ++i) {
+                answer[i] = values.get(tuple[i]);
+            }
+            answers.add(answer);
+        }
+        return answers;
+    }
+
+    /** Writes the facts matching the goal to the given sink as a relation named
+     *  after the goal predicate, with fields named after the goal's terms. */
+    public DatalogEngine writeAnswers(String goal, FactsSink out) throws IOException {
+        Atom atom = new DatalogParser(goal).parseGoal();
+        String[] fields = new String[atom.terms.length];
+        for (int i = 0; i < fields.length; ++i) {
+            fields[i] = atom.terms[i].isVariable() && ! atom.terms[i].variable.startsWith("_") ?
+                        atom.terms[i].variable.toLowerCase() : "arg" + (i + 1);
+        }
+        out.relation(atom.predicate, fields);
+        for (Object[] answer : query(atom)) {
+            out.add(answer);
+        }
+        return this;
+    }
+
+    /** Returns the number of facts loaded or derived for the predicate. */
+    public int size(String predicate) {
+        evaluate();
+        Table table = table(predicate);
+        return (table == null) ? 0 : table.tuples.size();
+    }
+
+    /** Derives all facts implied by the rules, if not already done. */
+    public DatalogEngine evaluate() {
+
+        if (derived != null) return this;
+
+        Map<String,Integer> strata = stratify();
+        derived = new HashMap<String,Table>();
+        int maxStratum = 0;
+        for (Map.Entry<String,Integer> entry : strata.entrySet()) {
+            String predicate = entry.getKey();
+            Table table = new Table(arityOf(predicate));
+            Table loaded = facts.get(predicate);
+            if (loaded != null) {
+                for (int[] tuple : loaded.tuples) table.add(tuple);
+            }
+            derived.put(predicate, table);
+            maxStratum = Math.max(maxStratum, entry.getValue());
+        }
+
+        for (int stratum = 0; stratum <= maxStratum; ++stratum) {
+            List<CompiledRule> stratumRules = new ArrayList<CompiledRule>();
+            for (Rule rule : rules) {
+                if (strata.get(rule.head.predicate) == stratum) {
+                    stratumRules.add(new CompiledRule(rule));
+                }
+            }
+            evaluateStratum(stratumRules, strata, stratum);
+        }
+
+        return this;
+    }
+
+    private void evaluateStratum(List<CompiledRule> stratumRules, Map<String,Integer> strata, int stratum) {
+
+        // first round joins the full relations
+        Map<String,Table> delta = new HashMap<String,Table>();
+        for (CompiledRule rule : stratumRules) {
+            rule.evaluate(-1, null, delta);
+        }
+        commit(delta);
+
+        // later rounds join the facts new in the previous round against the rest
+        while (! delta.isEmpty()) {
+            Map<String,Table> next = new HashMap<String,Table>();
+            for (CompiledRule rule : stratumRules) {
+                for (int step = 0; step < rule.steps.length; ++step) {
+                    String predicate = rule.steps[step].atom.predicate;
+                    Table changed = delta.get(predicate);
+                    Integer predicateStratum = strata.get(predicate);
+                    if (changed != null && predicateStratum != null && predicateStratum == stratum) {
+                        rule.evaluate(step, changed, next);
+                    }
+                }
+            }
+            commit(next);
+            delta = next;
+        }
+    }
+
+    private void commit(Map<String,Table> delta) {
+        for (Map.Entry<String,Table> entry : delta.entrySet()) {
+            Table table = derived.get(entry.getKey());
+            for (int[] tuple : entry.getValue().tuples) table.add(tuple);
+        }
+    }
+
+    /** Assigns each derived predicate to a stratum such that every predicate it
+     *  depends on is in the same or a lower stratum, and every predicate it depends
+     *  on through negation is in a lower stratum. */
+    private Map<String,Integer> stratify() {
+
+        Map<String,Integer> strata = new LinkedHashMap<String,Integer>();
+        for (Rule rule : rules) strata.put(rule.head.predicate, 0);
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Rule rule : rules) {
+                int stratum = strata.get(rule.head.predicate);
+                for (Atom literal : rule.body) {
+                    Integer dependency = strata.get(literal.predicate);
+                    if (dependency == null) continue;
+                    int required = literal.negated ? dependency + 1 : dependency;
+                    if (required > stratum) {
+                        if (required > strata.size()) {
+                            throw new IllegalArgumentException("Rules are not stratified: " + rule.head.predicate +
+                                                               " depends on itself through negation");
+                        }
+                        stratum = required;
+                        strata.put(rule.head.predicate, stratum);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return strata;
+    }
+
+    private void addFact(Atom fact) {
+        int[] tuple = new int[fact.terms.length];
+        for (int i = 0; i < tuple.length; ++i) {
+            if (fact.terms[i].isVariable()) {
+                throw new IllegalArgumentException("Fact " + fact + " contains variable " + fact.terms[i].variable);
+            }
+            tuple[i] = encode(fact.terms[i].constant);
+        }
+        factTable(fact.predicate, tuple.length).add(tuple);
+        derived = null;
+    }
+
+    private Table factTable(String name, int arity) {
+        Table table = facts.get(name);
+        if (table == null) {
+            table = new Table(arity);
+            facts.put(name, table);
+        } else if (table.arity != arity) {
+            throw new IllegalArgumentException("Relation " + name + " used with " + arity +
+                                               " fields instead of " + table.arity);
+        }
+        return table;
+    }
+
+    private Table table(String predicate) {
+        if (derived != null) {
+            Table table = derived.get(predicate);
+            if (table != null) return table;
+        }
+        return facts.get(predicate);
+    }
+
+    private int arityOf(String predicate) {
+        for (Rule rule : rules) {
+            if (rule.head.predicate.equals(predicate)) return rule.head.terms.length;
+        }
+        return facts.get(predicate).arity;
+    }
+
+    private int encode(Object value) {
+        if (! (value instanceof Integer)) value = value.toString();
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = values.size();
+            values.add(value);
+            codes.put(value, code);
+        }
+        return code;
+    }
+
+    private static void checkBound(Rule rule, Atom atom, Set<String> bound) {
+        for (Term term : atom.terms) {
+            if (term.isVariable() && ! bound.contains(term.variable)) {
+                throw new IllegalArgumentException("Unsafe rule, variable " + term.variable +
+                                                   " not in a positive body literal: " + rule);
+            }
+        }
+    }
+
+    /** The tuples of one relation, with hash indexes on the sets of columns looked up. */
+    private static class Table {
+
+        final int arity;
+        final List<int[]> tuples = new ArrayList<int[]>();
+        private final Set<Key> members = new HashSet<Key>();
+        private final Map<Integer,Map<Key,List<int[]>>> indexes = new HashMap<Integer,Map<Key,List<int[]>>>();
+
+        Table(int arity) {
+            this.arity = arity;
+        }
+
+        boolean add(int[] tuple) {
+            if (! members.add(new Key(tuple))) return false;
+            tuples.add(tuple);
+            for (Map.Entry<Integer,Map<Key,List<int[]>>> index : indexes.entrySet()) {
+                addToIndex(index.getValue(), index.getKey(), tuple);
+            }
+            return true;
+        }
+
+        boolean contains(int[] tuple) {
+            return members.contains(new Key(tuple));
+        }
+
+        /** Returns the tuples whose values in the columns of the mask equal the key. */
+        List<int[]> lookup(int mask, int[] key) {
+            if (mask == 0) return tuples;
+            Map<Key,List<int[]>> index = indexes.get(mask);
+            if (index == null) {
+                index = new HashMap<Key,List<int[]>>();
+                for (int[] tuple : tuples) addToIndex(index, mask, tuple);
+                indexes.put(mask, index);
+            }
+            List<int[]> matches = index.get(new Key(key));
+            return (matches != null) ? matches : Collections.<int[]>emptyList();
+        }
+
+        private static void addToIndex(Map<Key,List<int[]>> index, int mask, int[] tuple) {
+            Key key = new Key(project(tuple, mask));
+            List<int[]> matches = index.get(key);
+            if (matches == null) {
+                matches = new ArrayList<int[]>(2);
+                index.put(key, matches);
+            }
+            matches.add(tuple);
+        }
+
+        static int[] project(int[] tuple, int mask) {
+            int[] key = new int[Integer.bitCount(mask)];
+            for (int column = 0, k = 0; column < tuple.length; ++column) {
+                if ((mask & (1 << column)) != 0) key[k++] = tuple[column];
+            }
+            return key;
+        }
+    }
+
+    /** An int array compared by value. */
+    private static class Key {
+
+        private final int[] values;
+        private final int hash;
+
+        Key(int[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.equals(values, ((Key)other).values);
+        }
+    }
+
+    /** A positive body literal compiled against the variables bound before it. */
+    private static class Step {
+
+        final Atom atom;
+        int mask = 0;
+        int[] keySlots;        // variable slot for each bound column, or -1 for a constant
+        int[] keyConstants;
+        int[] bindColumns;     // columns binding a variable for the first time
+        int[] bindSlots;
+        int[] checkColumns;    // columns repeating a variable first bound in this literal
+        int[] checkSlots;
+        List<Atom> filters = new ArrayList<Atom>();
+
+        Step(Atom atom) {
+            this.atom = atom;
+        }
+    }
+
+    /** A rule with its variables numbered and its body literals compiled into steps. */
+    private class CompiledRule {
+
+        final Rule rule;
+        final Map<String,Integer> slots = new HashMap<String,Integer>();
+        final Step[] steps;
+        final List<Atom> initialFilters = new ArrayList<Atom>();
+
+        CompiledRule(Rule rule) {
+
+            this.rule = rule;
+
+            List<Step> positive = new ArrayList<Step>();
+            List<Atom> filters = new ArrayList<Atom>();
+            for (Atom literal : rule.body) {
+                if (literal.negated || literal.isNotEqual()) {
+                    filters.add(literal);
+                } else {
+                    positive.add(new Step(literal));
+                }
+            }
+            steps = positive.toArray(new Step[positive.size()]);
+
+            Set<String> bound = new HashSet<String>();
+            assignFilters(filters, bound, initialFilters);
+            for (Step step : steps) {
+                compile(step, bound);
+                assignFilters(filters, bound, step.filters);
+            }
+        }
+
+        private void compile(Step step, Set<String> bound) {
+
+            Term[] terms = step.atom.terms;
+            List<Integer> keySlots = new ArrayList<Integer>();
+            List<Integer> keyConstants = new ArrayList<Integer>();
+            List<Integer> bindColumns = new ArrayList<Integer>();
+            List<Integer> checkColumns = new ArrayList<Integer>();
+            Set<String> boundHere = new HashSet<String>();
+
+            for (int column = 0; column < terms.length; ++column) {
+                Term term = terms[column];
+                if (! term.isVariable()) {
+                    step.mask |= 1 << column;
+                    keySlots.add(-1);
+                    keyConstants.add(encode(term.constant));
+                } else if (bound.contains(term.variable)) {
+                    step.mask |= 1 << column;
+                    keySlots.add(slot(term.variable));
+                    keyConstants.add(0);
+                } else if (boundHere.contains(term.variable)) {
+                    checkColumns.add(column);
+                } else {
+                    boundHere.add(term.variable);
+                    bindColumns.add(column);
+                }
+            }
+
+            step.keySlots = toArray(keySlots);
+            step.keyConstants = toArray(keyConstants);
+            step.bindColumns = toArray(bindColumns);
+            step.bindSlots = new int[bindColumns.size()];
+            for (int i = 0; i < step.bindSlots.length; ++i) {
+                step.bindSlots[i] = slot(terms[step.bindColumns[i]].variable);
+            }
+            step.checkColumns = toArray(checkColumns);
+            step.checkSlots = new int[checkColumns.size()];
+            for (int i = 0; i < step.checkSlots.length; ++i) {
+                step.checkSlots[i] = slot(terms[step.checkColumns[i]].variable);
+            }
+            bound.addAll(boundHere);
+        }
+
+        private void assignFilters(List<Atom> pending, Set<String> bound, List<Atom> target) {
+            for (int i = 0; i < pending.size(); ) {
+                Atom filter = pending.get(i);
+                boolean ready = true;
+                for (Term term : filter.terms) {
+                    if (term.isVariable() && ! bound.contains(term.variable)) ready = false;
+                }
+                if (ready) {
+                    target.add(filter);
+                    pending.remove(i);
+                } else {
+                    ++i;
+                }
+            }
+        }
+
+        private int slot(String variable) {
+            Integer slot = slots.get(variable);
+            if (slot == null) {
+                slot = slots.size();
+                slots.put(variable, slot);
+            }
+            return slot;
+        }
+
+        /** Derives the head facts of the rule not yet known, adding them to the tables in
+         *  <code>out</code>.  If <code>deltaStep</code> is not negative, the literal at that
+         *  step is matched against <code>delta</code> instead of its full relation. */
+        void evaluate(int deltaStep, Table delta, Map<String,Table> out) {
+
+            Table known = derived.get(rule.head.predicate);
+            Table target = out.get(rule.head.predicate);
+            if (target == null) {
+                target = new Table(known.arity);
+            }
+
+            Table[] sources = new Table[steps.length];
+            for (int i = 0; i < steps.length; ++i) {
+                sources[i] = (i == deltaStep) ? delta : table(steps[i].atom.predicate);
+                if (sources[i] == null || sources[i].arity != steps[i].atom.terms.length) return;
+            }
+
+            int[] binding = new int[slots.size()];
+            if (passes(initialFilters, binding)) {
+                join(0, sources, binding, known, target);
+            }
+
+            if (! target.tuples.isEmpty()) {
+                out.put(rule.head.predicate, target);
+            }
+        }
+
+        /** Returns the tuples of the table matching the head of the rule, used for goals. */
+        List<int[]> match(Table table) {
+            Table target = new Table(table.arity);
+            int[] binding = new int[slots.size()];
+            join(0, new Table[] { table }, binding, null, target);
+            return target.tuples;
+        }
+
+        private void join(int index, Table[] sources, int[] binding, Table known, Table target) {
+
+            if (index == steps.length) {
+                int[] head = instantiate(rule.head, binding);
+                if (known == null || ! known.contains(head)) target.add(head);
+                return;
+            }
+
+            Step step = steps[index];
+            int[] key = new int[step.keySlots.length];
+            for (int i = 0; i < key.length; ++i) {
+                key[i] = (step.keySlots[i] < 0) ? step.keyConstants[i] : binding[step.keySlots[i]];
+            }
+
+            tuples:
+            for (int[] tuple : sources[index].lookup(step.mask, key)) {
+                for (int i = 0; i < step.bindColumns.length; ++i) {
+                    binding[step.bindSlots[i]] = tuple[step.bindColumns[i]];
+                }
+                for (int i = 0; i < step.checkColumns.length; ++i) {
+                    if (binding[step.checkSlots[i]] != tuple[step.checkColumns[i]]) continue tuples;
+                }
+                if (passes(step.filters, binding)) {
+                    join(index + 1, sources, binding, known, target);
+                }
+            }
+        }
+
+        private boolean passes(List<Atom> filters, int[] binding) {
+            for (Atom filter : filters) {
+                if (filter.isNotEqual()) {
+                    if (value(filter.terms[0], binding) == value(filter.terms[1], binding)) return false;
+                } else {
+                    Table table = table(filter.predicate);
+                    if (table != null && table.arity == filter.terms.length &&
+                            table.contains(instantiate(filter, binding))) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private int[] instantiate(Atom atom, int[] binding) {
+            int[] tuple = new int[atom.terms.length];
+            for (int i = 0; i < tuple.length; ++i) {
+                tuple[i] = value(atom.terms[i], binding);
+            }
+            return tuple;
+        }
+
+        private int value(Term term, int[] binding) {
+            return term.isVariable() ? binding[slots.get(term.variable)] : encode(term.constant);
+        }
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; ++i) array[i] = list.get(i);
+        return array;
+    }
+}
@@ -0,0 +1,218 @@
+package org.yesworkflow.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Parses Datalog rules and goals written in the Prolog-like syntax of the facts
+ *  exported by YesWorkflow.  Variables begin with an upper-case letter or an
+ *  underscore, and each <code>_</code> is a distinct anonymous variable.  Constants
+ *  are integers, quoted strings, or identifiers beginning with a lower-case letter.
+ *  A body literal may be negated with <code>not</code> or <code>\+</code>, and
+ *  <code>X != Y</code> compares two terms.  Comments begin with <code>%</code>. */
+class DatalogParser {
+
+    private final String text;
+    private int position = 0;
+    private int anonymousCount = 0;
+
+    DatalogParser(String text) {
+        this.text = text;
+    }
+
+    /** Parses a sequence of rules and facts, each ending with a period.
+     *  Facts are returned as rules with empty bodies. */
+    List<Rule> parseRules() {
+        List<Rule> rules = new ArrayList<Rule>();
+        skipSpace();
+        while (position < text.length()) {
+            Atom head = parseAtom();
+            List<Atom> body = new ArrayList<Atom>();
+            if (accept(":-")) {
+                do {
+                    body.add(parseLiteral());
+                } while (accept(","));
+            }
+            expect(".");
+            rules.add(new Rule(head, body.toArray(new Atom[body.size()])));
+        }
+        return rules;
+    }
+
+    /** Parses a single goal, optionally preceded by <code>?-</code> and followed by a period. */
+    Atom parseGoal() {
+        skipSpace();
+        accept("?-");
+        Atom goal = parseAtom();
+        accept(".");
+        if (position < text.length()) throw error("Unexpected text after goal");
+        return goal;
+    }
+
+    private Atom parseLiteral() {
+        if (accept("\\+") || acceptWord("not")) {
+            Atom atom = parseAtom();
+            return new Atom(atom.predicate, true, atom.terms);
+        }
+        int start = position;
+        if (startsVariable() || startsConstantTerm()) {
+            Term left = parseTerm();
+            if (accept("!=")) {
+                return new Atom(Atom.NOT_EQUAL, left, parseTerm());
+            }
+            position = start;
+        }
+        return parseAtom();
+    }
+
+    private Atom parseAtom() {
+        String predicate = parseIdentifier();
+        if (predicate == null || Character.isUpperCase(predicate.charAt(0)) || predicate.charAt(0) == '_') {
+            throw error("Expected predicate name");
+        }
+        List<Term> terms = new ArrayList<Term>();
+        if (accept("(")) {
+            do {
+                terms.add(parseTerm());
+            } while (accept(","));
+            expect(")");
+        }
+        return new Atom(predicate, terms.toArray(new Term[terms.size()]));
+    }
+
+    private Term parseTerm() {
+        if (position < text.length()) {
+            char c = text.charAt(position);
+            if (c == '\'' || c == '"') {
+                return Term.constant(parseQuoted(c));
+            }
+            if (c == '-' || Character.isDigit(c)) {
+                return Term.constant(parseInteger());
+            }
+            String identifier = parseIdentifier();
+            if (identifier != null) {
+                if (identifier.equals("_")) {
+                    return Term.variable("_" + (++anonymousCount));
+                }
+                if (Character.isUpperCase(identifier.charAt(0)) || identifier.charAt(0) == '_') {
+                    return Term.variable(identifier);
+                }
+                return Term.constant(identifier);
+            }
+        }
+        throw error("Expected variable or constant");
+    }
+
+    private boolean startsVariable() {
+        if (position >= text.length()) return false;
+        char c = text.charAt(position);
+        return Character.isUpperCase(c) || c == '_';
+    }
+
+    private boolean startsConstantTerm() {
+        if (position >= text.length()) return false;
+        char c = text.charAt(position);
+        return c == '\'' || c == '"' || c == '-' || Character.isDigit(c);
+    }
+
+    private String parseIdentifier() {
+        int start = position;
+        while (position < text.length()) {
+            char c = text.charAt(position);
+            if (Character.isLetterOrDigit(c) || c == '_') {
+                position++;
+            } else {
+                break;
+            }
+        }
+        if (position == start || Character.isDigit(text.charAt(start))) {
+            position = start;
+            return null;
+        }
+        String identifier = text.substring(start, position);
+        skipSpace();
+        return identifier;
+    }
+
+    private Integer parseInteger() {
+        int start = position;
+        if (text.charAt(position) == '-') position++;
+        while (position < text.length() && Character.isDigit(text.charAt(position))) position++;
+        try {
+            Integer value = Integer.valueOf(text.substring(start, position));
+            skipSpace();
+            return value;
+        } catch (NumberFormatException e) {
+            position = start;
+            throw error("Expected integer");
+        }
+    }
+
+    private String parseQuoted(char quote) {
+        int start = position;
+        StringBuilder value = new StringBuilder();
+        position++;
+        while (position < text.length()) {
+            char c = text.charAt(position++);
+            if (c == quote) {
+                if (position < text.length() && text.charAt(position) == quote) {
+                    value.append(quote);
+                    position++;
+                } else {
+                    skipSpace();
+                    return value.toString();
+                }
+            } else if (c == '\\' && position < text.length()) {
+                value.append(text.charAt(position++));
+            } else {
+                value.append(c);
+            }
+        }
+        position = start;
+        throw error("Unterminated quoted string");
+    }
+
+    private boolean accept(String token) {
+        if (text.startsWith(token, position)) {
+            position += token.length();
+            skipSpace();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean acceptWord(String word) {
+        int end = position + word.length();
+        if (text.startsWith(word, position) && end < text.length() &&
+                ! (Character.isLetterOrDigit(text.charAt(end)) || text.charAt(end) == '_' || text.charAt(end) == '(')) {
+            position = end;
+            skipSpace();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String token) {
+        if (! accept(token)) throw error("Expected '" + token + "'");
+    }
+
+    private void skipSpace() {
+        while (position < text.length()) {
+            char c = text.charAt(position);
+            if (Character.isWhitespace(c)) {
+                position++;
+            } else if (c == '%') {
+                while (position < text.length() && text.charAt(position) != '\n') position++;
+            } else {
+                break;
+            }
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        int line = 1;
+        for (int i = 0; i < position && i < text.length(); ++i) {
+            if (text.charAt(i) == '\n') line++;
+        }
+        return new IllegalArgumentException(message + " at line " + line + " of Datalog text");
+    }
+}
@@ -1,5 +1,7 @@
 package org.yesworkflow.query;
 
+import java.io.IOException;
+
 public class FactsBuilder {
 	
     public static final String EOL = System.getProperty("line.separator");
@@ -8,64 +10,48 @@ public class FactsBuilder {
     public final LogicLanguageModel logicLanguageModel;
 
     private StringBuilder _buffer = new StringBuilder();
+    private final FactsWriter _writer;
     
 	public FactsBuilder(LogicLanguageModel logicLanguageModel, String name, String... fields) {
 	    
         this.logicLanguageModel = logicLanguageModel;
 	    this.name = name;
 	    this.fieldCount = fields.length;
+	    this._writer = new FactsWriter(logicLanguageModel, _buffer);
 	    
-	    StringBuilder signature = new StringBuilder();
-	    
-	    signature.append(  "FACT: "    )
-	             .append(  name        )
-	             .append(  "("         )
-	             .append(  fields[0]   );
-	    
-	    for (int i = 1; i < fieldCount; ++i) {
-	        
-	        signature.append(  ", "        )
-	                 .append(  fields[i]   );
+	    // appending to the buffer never actually throws an IOException
+	    try {
+	        _writer.relation(name, fields);
+	    } catch (IOException e) {
+	        throw new IllegalStateException(e);
 	    }
-	    
-	    signature.append(  ")."    );
-
-	    this.comment(signature.toString());
 	}
 	
 	public void add(Object... values) {
-	    
-	    _buffer.append(    name                )
-	           .append(    "("                 )
-	           .append(    quote(values[0])    );
-	    
-	    for (int i = 1; i < fieldCount; ++i) {
-	        _buffer.append(    ", "                )
-                   .append(    quote(values[i])    );
+	    try {
+	        _writer.add(values);
+	    } catch (IOException e) {
+	        throw new IllegalStateException(e);
 	    }
-
-	    _buffer.append(    ")."    )
-	           .append(    EOL     );
 	}
 	
     public FactsBuilder comment(String c) {
-        if (logicLanguageModel.showComments) {
-            _buffer.append(     EOL                             )
-                   .append(     logicLanguageModel.commentStart )
-                   .append(     c                               )
-                   .append(     EOL                             );
-        }        
+        try {
+            _writer.comment(c);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
         return this;
     }
-
-    private String quote(Object value) {
-        if (value instanceof Integer) {
-            return value.toString();
-        } else {
-            return logicLanguageModel.quote + value.toString() + logicLanguageModel.quote;
-        }
-    }  
     
+    /** Appends the facts added so far to the given output and clears them from this builder,
+     *  so that facts can be written out incrementally as they are added. */
+    public FactsBuilder writeTo(Appendable out) throws IOException {
+        out.append(_buffer);
+        _buffer.setLength(0);
+        return this;
+    }
+
 	public String toString() {
 		return _buffer.toString();
 	}
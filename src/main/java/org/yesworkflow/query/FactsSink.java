@@ -0,0 +1,17 @@
+package org.yesworkflow.query;
+
+import java.io.IOException;
+
+/** Receives facts one relation at a time, as produced by {@link org.yesworkflow.model.ModelFacts}
+ *  and {@link org.yesworkflow.extract.ExtractFacts}.  Field values are either
+ *  Integer ids or objects represented by their string values. */
+public interface FactsSink {
+
+    /** Selects the relation that subsequently added facts belong to.  Text sinks
+     *  write the facts of each relation together, so callers should add all facts
+     *  for one relation before selecting the next unless the sink states otherwise. */
+    FactsSink relation(String name, String... fields) throws IOException;
+
+    /** Adds a fact with one value for each field of the current relation. */
+    FactsSink add(Object... values) throws IOException;
+}
@@ -0,0 +1,107 @@
+package org.yesworkflow.query;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/** Writes facts straight to an {@link Appendable} as they are added, one relation
+ *  after another, in exactly the format produced by {@link FactsBuilder}. */
+public class FactsWriter implements FactsSink {
+
+    public static final String EOL = FactsBuilder.EOL;
+    private static final int FILE_BUFFER_SIZE = 64 * 1024;
+
+    public final LogicLanguageModel logicLanguageModel;
+    private final Appendable out;
+    private String name = null;
+    private int fieldCount = 0;
+
+    public FactsWriter(LogicLanguageModel logicLanguageModel, Appendable out) {
+        this.logicLanguageModel = logicLanguageModel;
+        this.out = out;
+    }
+
+    /** Starts a new relation, writing its signature as a comment.  Facts added
+     *  after this call belong to the new relation. */
+    @Override
+    public FactsWriter relation(String name, String... fields) throws IOException {
+
+        this.name = name;
+        this.fieldCount = fields.length;
+
+        StringBuilder signature = new StringBuilder();
+
+        signature.append(  "FACT: "    )
+                 .append(  name        )
+                 .append(  "("         )
+                 .append(  fields[0]   );
+
+        for (int i = 1; i < fieldCount; ++i) {
+
+            signature.append(  ", "        )
+                     .append(  fields[i]   );
+        }
+
+        signature.append(  ")."    );
+
+        return comment(signature.toString());
+    }
+
+    @Override
+    public FactsWriter add(Object... values) throws IOException {
+
+        out.append(    name                )
+           .append(    "("                 );
+        appendValue(values[0]);
+
+        for (int i = 1; i < fieldCount; ++i) {
+            out.append(    ", "                );
+            appendValue(values[i]);
+        }
+
+        out.append(    ")."    )
+           .append(    EOL     );
+
+        return this;
+    }
+
+    public FactsWriter comment(String c) throws IOException {
+        if (logicLanguageModel.showComments) {
+            out.append(     EOL                             )
+               .append(     logicLanguageModel.commentStart )
+               .append(     c                               )
+               .append(     EOL                             );
+        }
+        return this;
+    }
+
+    private void appendValue(Object value) throws IOException {
+        if (value instanceof Integer) {
+            out.append(value.toString());
+        } else {
+            out.append(logicLanguageModel.quote)
+               .append(value.toString())
+               .append(logicLanguageModel.quote);
+        }
+    }
+
+    /** Opens a buffered writer onto a file channel for the file at the given path,
+     *  replacing any existing file.  Characters are encoded with the default charset
+     *  and unmappable characters are replaced, as when printing to a PrintStream. */
+    public static Writer openFile(String path) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(path),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        return Channels.newWriter(channel,
+                Charset.defaultCharset().newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE),
+                FILE_BUFFER_SIZE);
+    }
+}
@@ -0,0 +1,49 @@
+package org.yesworkflow.query;
+
+/** Datalog rules deriving data and program lineage from the relations exported
+ *  by {@link org.yesworkflow.model.ModelFacts}.  The rules define:
+ *
+ *  <ul>
+ *  <li><code>channel_source(C, P)</code> and <code>channel_sink(C, P)</code>: the
+ *      ports at which data enters and leaves channel C.</li>
+ *  <li><code>upstream_channel(C, U)</code>: data in channel U can reach channel C.</li>
+ *  <li><code>data_upstream(D, U)</code> and <code>data_downstream(D, N)</code>: the
+ *      names of the data upstream and downstream of the data named D.</li>
+ *  <li><code>program_upstream(P, U)</code> and <code>program_downstream(P, N)</code>:
+ *      the names of the programs upstream and downstream of the program named P.</li>
+ *  </ul>
+ */
+public class LineageRules {
+
+    public static final String RULES =
+
+        "% ports of a block, and the pairs of ports joined by each channel"                         + "\n" +
+        "has_port(B, P) :- has_in_port(B, P)."                                                      + "\n" +
+        "has_port(B, P) :- has_out_port(B, P)."                                                     + "\n" +
+        "channel_ports(C, P, Q) :- port_connects_to_channel(P, C), port_connects_to_channel(Q, C), P != Q." + "\n" +
+        ""                                                                                          + "\n" +
+        "% data enters a channel at an out port of a sibling block or an in port of its workflow"  + "\n" +
+        "channel_source(C, P) :- channel_ports(C, P, Q), has_out_port(R, P), has_in_port(S, Q), R != S." + "\n" +
+        "channel_source(C, P) :- channel_ports(C, P, Q), has_in_port(R, P), has_out_port(R, Q)."    + "\n" +
+        "channel_source(C, P) :- channel_ports(C, P, Q), has_in_port(W, P), has_in_port(R, Q), has_sub_program(W, R)." + "\n" +
+        "channel_source(C, P) :- channel_ports(C, P, Q), has_out_port(R, P), has_out_port(W, Q), has_sub_program(W, R)." + "\n" +
+        "channel_sink(C, Q) :- channel_source(C, P), channel_ports(C, P, Q)."                        + "\n" +
+        ""                                                                                          + "\n" +
+        "% data flows from one channel to the next through a program or a workflow boundary"       + "\n" +
+        "channel_feeds(C1, C2) :- channel_sink(C1, P1), has_in_port(R, P1), has_out_port(R, P2), channel_source(C2, P2), not workflow(R)." + "\n" +
+        "channel_feeds(C1, C2) :- channel_sink(C1, P), channel_source(C2, P)."                      + "\n" +
+        "upstream_channel(C, U) :- channel_feeds(U, C)."                                            + "\n" +
+        "upstream_channel(C, U) :- channel_feeds(V, C), upstream_channel(V, U)."                    + "\n" +
+        ""                                                                                          + "\n" +
+        "% lineage of named data"                                                                   + "\n" +
+        "data_upstream(D, U) :- channel(C, D), upstream_channel(C, V), channel(V, U)."              + "\n" +
+        "data_downstream(D, N) :- data_upstream(N, D)."                                             + "\n" +
+        ""                                                                                          + "\n" +
+        "% lineage of named programs"                                                               + "\n" +
+        "produces(R, C) :- channel_source(C, P), has_out_port(R, P)."                               + "\n" +
+        "consumes(R, C) :- channel_sink(C, P), has_in_port(R, P)."                                  + "\n" +
+        "upstream_program(R, U) :- consumes(R, C), produces(U, C)."                                 + "\n" +
+        "upstream_program(R, U) :- consumes(R, C), upstream_channel(C, V), produces(U, V)."         + "\n" +
+        "program_upstream(N, M) :- program(R, N, _, _), upstream_program(R, U), program(U, M, _, _)." + "\n" +
+        "program_downstream(N, M) :- program_upstream(M, N)."                                       + "\n";
+}
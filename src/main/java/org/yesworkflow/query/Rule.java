@@ -0,0 +1,25 @@
+package org.yesworkflow.query;
+
+/** A Datalog rule deriving facts for the predicate of its head from the facts
+ *  matching every literal in its body. */
+public class Rule {
+
+    public final Atom head;
+    public final Atom[] body;
+
+    public Rule(Atom head, Atom... body) {
+        this.head = head;
+        this.body = body;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(head.toString());
+        if (body.length > 0) sb.append(" :- ");
+        for (int i = 0; i < body.length; ++i) {
+            if (i > 0) sb.append(", ");
+            sb.append(body[i]);
+        }
+        return sb.append(".").toString();
+    }
+}
@@ -0,0 +1,34 @@
+package org.yesworkflow.query;
+
+/** A variable or a constant appearing as an argument of a Datalog {@link Atom}.
+ *  Constants are Integers or Strings, matching the values of facts. */
+public class Term {
+
+    public final String variable;
+    public final Object constant;
+
+    private Term(String variable, Object constant) {
+        this.variable = variable;
+        this.constant = constant;
+    }
+
+    public static Term variable(String name) {
+        return new Term(name, null);
+    }
+
+    public static Term constant(Object value) {
+        if (! (value instanceof Integer)) value = value.toString();
+        return new Term(null, value);
+    }
+
+    public boolean isVariable() {
+        return variable != null;
+    }
+
+    @Override
+    public String toString() {
+        if (isVariable()) return variable;
+        if (constant instanceof Integer) return constant.toString();
+        return "'" + constant.toString().replace("'", "''") + "'";
+    }
+}
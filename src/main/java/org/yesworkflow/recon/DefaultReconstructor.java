@@ -0,0 +1,559 @@
+package org.yesworkflow.recon;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.yesworkflow.config.YWConfiguration;
+import org.yesworkflow.data.UriBase;
+import org.yesworkflow.data.UriTemplate;
+import org.yesworkflow.data.UriTemplateIndex;
+import org.yesworkflow.metrics.Metered;
+import org.yesworkflow.metrics.StageMetrics;
+import org.yesworkflow.model.Function;
+import org.yesworkflow.model.Model;
+import org.yesworkflow.model.ModelFacts;
+import org.yesworkflow.model.Port;
+import org.yesworkflow.model.Program;
+import org.yesworkflow.query.FactsWriter;
+import org.yesworkflow.query.LogicLanguage;
+import org.yesworkflow.query.LogicLanguageModel;
+
+/** Reconciles the ports of a model with the files of a run of the modeled script.
+ *
+ *  <p>Every file under the run directory is matched against the URI template of each
+ *  port declaring a <code>@uri</code>.  Templates with relative paths are matched against
+ *  paths relative to the run directory and templates with absolute paths against
+ *  absolute paths.  Each matching file becomes a resource, and the values its path gives
+ *  to the variables of each matching template are reported as facts that refer to the
+ *  <code>uri_variable</code> ids in the facts about the model.</p>
+ *
+ *  <p>The run directory is walked with one fork-join task per directory, so that
+ *  directories are listed concurrently and no task holds more than the entries of its
+ *  own directory.  Directories that no template can match below are skipped.  The
+ *  matches found in each directory are spooled to a temporary file as they are found
+ *  rather than held in memory, so the walk scales to trees far larger than the heap.</p>
+ *
+ *  <p>Resource ids do not depend on the order in which the tasks run.  The entries of
+ *  each directory are visited in name order, and resources are numbered in the order of
+ *  a depth-first walk that visits the files of each directory before its subdirectories,
+ *  so a run yields the same facts every time it is reconciled.  The spool file is
+ *  deleted once the facts have been written to the facts file, or once they have been
+ *  read with {@link #getFacts()}, and otherwise when the JVM exits.</p>
+ */
+public class DefaultReconstructor implements Reconstructor, Metered {
+
+    static private LogicLanguage DEFAULT_LOGIC_LANGUAGE = LogicLanguage.PROLOG;
+    static private final int SPOOL_BYTES = 1024 * 1024;
+    static private final Charset UTF8 = Charset.forName("UTF-8");
+
+    private Model model = null;
+    private PrintStream stdoutStream = null;
+    private PrintStream stderrStream = null;
+    private String runDirectory = ".";
+    private String factsFile = null;
+    private LogicLanguage logicLanguage = DEFAULT_LOGIC_LANGUAGE;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private ResourceSpool spool = null;
+    private Walk.DirectoryTask walked = null;
+    private String reconFacts = null;
+    private final StageMetrics metrics = new StageMetrics("recon");
+
+    public DefaultReconstructor() {
+        this(System.out, System.err);
+    }
+
+    public DefaultReconstructor(PrintStream stdoutStream, PrintStream stderrStream) {
+        this.stdoutStream = stdoutStream;
+        this.stderrStream = stderrStream;
+    }
+
+    @Override
+    public DefaultReconstructor model(Model model) {
+        this.model = model;
+        return this;
+    }
+
+    @Override
+    public DefaultReconstructor configure(Map<String,Object> config) throws Exception {
+        if (config != null) {
+            for (Map.Entry<String, Object> entry : config.entrySet()) {
+                configure(entry.getKey(), entry.getValue());
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public DefaultReconstructor configure(String key, Object value) throws Exception {
+        if (key.equalsIgnoreCase("rundir")) {
+            runDirectory = value.toString();
+        } else if (key.equalsIgnoreCase("factsfile")) {
+            factsFile = (String)value;
+        } else if (key.equalsIgnoreCase("logic")) {
+            logicLanguage = LogicLanguage.toLogicLanguage((String)value);
+        } else if (key.equalsIgnoreCase("parallelism")) {
+            parallelism = toParallelism(value);
+        }
+        return this;
+    }
+
+    private static int toParallelism(Object value) throws Exception {
+        try {
+            int p = (value instanceof Integer) ? (Integer)value : Integer.parseInt(value.toString().trim());
+            if (p > 0) return p;
+        } catch (NumberFormatException e) {
+        }
+        throw new Exception("Value of parallelism property must be a positive integer");
+    }
+
+    @Override
+    public DefaultReconstructor recon() throws Exception {
+
+        if (model == null) throw new IllegalStateException("Cannot reconcile run files without a model.");
+
+        Path root = Paths.get(runDirectory);
+        if (!Files.isDirectory(root)) throw new Exception("Run directory not found: " + runDirectory);
+
+        metrics.start();
+        deleteSpool();
+        walked = null;
+        reconFacts = null;
+
+        // a spool the caller might never read is deleted at exit at the latest, but spools
+        // written to a facts file are deleted straight away and so are not registered
+        spool = new ResourceSpool(factsFile == null);
+        Walk walk = new Walk(root, new ModelFacts(logicLanguage, model).uriVariableIds(), spool);
+        Walk.DirectoryTask rootTask = walk.new DirectoryTask(root);
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(rootTask);
+        } finally {
+            pool.shutdownNow();
+        }
+        if (walk.failure.get() != null) {
+            deleteSpool();
+            throw walk.failure.get();
+        }
+        walked = rootTask;
+
+        if (factsFile != null) {
+            writeFactsToFileOrStdout(factsFile);
+            deleteSpool();
+        }
+
+        metrics.count("directories", walk.directoryCount.get())
+               .count("directories_skipped", walk.skippedDirectoryCount.get())
+               .count("files", walk.fileCount.get())
+               .count("resources", walk.resourceCount.get())
+               .count("port_resources", walk.portResourceCount.get());
+        metrics.stop();
+        return this;
+    }
+
+    /** Returns the time taken and the directories, files and resources found by the last
+     *  call to {@link #recon()}. */
+    @Override
+    public StageMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** Returns the number of files matched by a port template in the last call to {@link #recon()}. */
+    public int getResourceCount() {
+        return (int)metrics.getCounter("resources");
+    }
+
+    /** Returns the facts about the resources found.  The facts are built from the spool file
+     *  the first time they are requested, and the spool file is then deleted, so callers
+     *  reconciling very large runs should write them to a file using the factsfile property
+     *  instead.  Facts already written to a facts file are read back from it, but facts
+     *  written to standard output are not kept. */
+    @Override
+    public String getFacts() throws IOException {
+        if (reconFacts == null) {
+            StringBuilder sb = new StringBuilder();
+            writeFactsTo(sb);
+            reconFacts = sb.toString();
+            deleteSpool();
+        }
+        return reconFacts;
+    }
+
+    /** Writes the facts about the resources found to the given output one relation at a time. */
+    public DefaultReconstructor writeFactsTo(Appendable out) throws IOException {
+        if (reconFacts != null) {
+            out.append(reconFacts);
+        } else if (spool != null) {
+            writeSpooledFactsTo(new FactsWriter(new LogicLanguageModel(logicLanguage), out));
+        } else if (walked != null && factsFile != null && !isStdout(factsFile)) {
+            out.append(new String(Files.readAllBytes(Paths.get(factsFile)), Charset.defaultCharset()));
+        } else {
+            throw new IllegalStateException("No facts to write. The facts of the last run were written to standard output.");
+        }
+        return this;
+    }
+
+    /** Writes the facts about the resources recorded in the spool file, numbering the
+     *  resources in walk order. */
+    private void writeSpooledFactsTo(FactsWriter facts) throws IOException {
+
+        facts.relation("resource", "resource_id", "resource_uri");
+        for (Resources resources = new Resources(); resources.next(); ) {
+            facts.add(resources.id, resources.uri);
+        }
+
+        facts.relation("port_resource", "port_id", "resource_id");
+        for (Resources resources = new Resources(); resources.next(); ) {
+            for (int m = 0; m < resources.portIds.size(); ++m) {
+                facts.add(resources.portIds.get(m), resources.id);
+            }
+        }
+
+        facts.relation("uri_variable_value", "resource_id", "uri_variable_id", "uri_variable_value");
+        for (Resources resources = new Resources(); resources.next(); ) {
+            for (int m = 0; m < resources.portIds.size(); ++m) {
+                List<Object[]> values = resources.variableValues.get(m);
+                for (Object[] value : values) {
+                    facts.add(resources.id, value[0], value[1]);
+                }
+            }
+        }
+    }
+
+    private void writeFactsToFileOrStdout(String path) throws IOException {
+        boolean toStdout = isStdout(path);
+        Writer out = toStdout ? new OutputStreamWriter(this.stdoutStream) : FactsWriter.openFile(path);
+        try {
+            writeFactsTo(out);
+        } finally {
+            if (toStdout) {
+                out.flush();
+            } else {
+                out.close();
+            }
+        }
+    }
+
+    private static boolean isStdout(String path) {
+        return path.equals(YWConfiguration.EMPTY_VALUE) || path.equals("-");
+    }
+
+    private void deleteSpool() {
+        if (spool != null) {
+            spool.delete();
+            spool = null;
+        }
+    }
+
+    /** Reads the resources recorded in the spool file one at a time in walk order,
+     *  i.e. the files of each directory in name order followed by its subdirectories
+     *  in name order, and numbers them from one. */
+    private class Resources {
+
+        int id = 0;
+        String uri;
+        final List<Integer> portIds = new ArrayList<Integer>();
+        final List<List<Object[]>> variableValues = new ArrayList<List<Object[]>>();
+
+        private final Deque<Walk.DirectoryTask> pending = new ArrayDeque<Walk.DirectoryTask>();
+        private Iterator<long[]> segments = Collections.<long[]>emptyList().iterator();
+        private DataInputStream in = null;
+
+        Resources() {
+            pending.push(walked);
+        }
+
+        /** Reads the next resource, returning false if there are no more. */
+        boolean next() throws IOException {
+
+            while (in == null || in.available() == 0) {
+                if (segments.hasNext()) {
+                    long[] segment = segments.next();
+                    in = spool.read(segment[0], (int)segment[1]);
+                } else if (!pending.isEmpty()) {
+                    Walk.DirectoryTask directory = pending.pop();
+                    for (int i = directory.subdirectories.size() - 1; i >= 0; --i) {
+                        pending.push(directory.subdirectories.get(i));
+                    }
+                    segments = directory.segments.iterator();
+                } else {
+                    return false;
+                }
+            }
+
+            id++;
+            uri = readString(in);
+            portIds.clear();
+            variableValues.clear();
+            int matchCount = in.readInt();
+            for (int m = 0; m < matchCount; ++m) {
+                portIds.add(in.readInt());
+                int valueCount = in.readInt();
+                List<Object[]> values = new ArrayList<Object[]>(valueCount);
+                for (int v = 0; v < valueCount; ++v) {
+                    values.add(new Object[] { in.readInt(), readString(in) });
+                }
+                variableValues.add(values);
+            }
+            return true;
+        }
+    }
+
+    /** The state shared by the tasks walking one run directory. */
+    private class Walk {
+
+        final Path root;
+        final Map<Port,Map<String,Integer>> uriVariableIds;
+        final UriTemplateIndex<Port> relativeTemplates = new UriTemplateIndex<Port>();
+        final UriTemplateIndex<Port> absoluteTemplates = new UriTemplateIndex<Port>();
+        final ResourceSpool spool;
+        final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+        final AtomicInteger resourceCount = new AtomicInteger();
+        final AtomicLong directoryCount = new AtomicLong();
+        final AtomicLong skippedDirectoryCount = new AtomicLong();
+        final AtomicLong fileCount = new AtomicLong();
+        final AtomicLong portResourceCount = new AtomicLong();
+
+        Walk(Path root, Map<Port,Map<String,Integer>> uriVariableIds, ResourceSpool spool) {
+            this.root = root;
+            this.uriVariableIds = uriVariableIds;
+            this.spool = spool;
+            if (model.program != null) indexPortTemplates(model.program);
+            for (Function function : model.functions) indexPortTemplates(function);
+        }
+
+        private void indexPortTemplates(Program program) {
+            indexPortTemplates(program.inPorts);
+            indexPortTemplates(program.outPorts);
+            for (Program child : program.programs) indexPortTemplates(child);
+            for (Function function : program.functions) indexPortTemplates(function);
+        }
+
+        private void indexPortTemplates(Port[] ports) {
+            for (Port port : ports) {
+                UriTemplate template = port.uriTemplate;
+                if (template == null) continue;
+                String scheme = template.getScheme();
+                if (!scheme.equals(UriBase.NO_SCHEME) && !scheme.equalsIgnoreCase("file")) continue;
+                if (template.getPath().startsWith("/")) {
+                    absoluteTemplates.add(template, port);
+                } else {
+                    relativeTemplates.add(template, port);
+                }
+            }
+        }
+
+        private String relativePath(Path path) {
+            return slashes(root.relativize(path).toString());
+        }
+
+        private String absolutePath(Path path) {
+            return slashes(path.toAbsolutePath().normalize().toString());
+        }
+
+        private String slashes(String path) {
+            return (File.separatorChar == '/') ? path : path.replace(File.separatorChar, '/');
+        }
+
+        /** Returns true if a file below the given directory could match a port template. */
+        boolean mayHoldResources(Path directory) {
+            return relativeTemplates.mayMatchPathsStartingWith(relativePath(directory) + "/")
+                || absoluteTemplates.mayMatchPathsStartingWith(absolutePath(directory) + "/");
+        }
+
+        /** Matches a file against the port templates and records it as a resource if any match.
+         *  @return True if the file is a resource. */
+        boolean reconcile(Path file, DataOutputStream records) throws IOException {
+
+            fileCount.incrementAndGet();
+
+            String uri = relativePath(file);
+            List<UriTemplateIndex.Match<Port>> matches = relativeTemplates.match(uri);
+            if (absoluteTemplates.size() > 0) {
+                List<UriTemplateIndex.Match<Port>> absoluteMatches = absoluteTemplates.match(absolutePath(file));
+                if (matches.isEmpty() && !absoluteMatches.isEmpty()) uri = absolutePath(file);
+                matches.addAll(absoluteMatches);
+            }
+            if (matches.isEmpty()) return false;
+
+            writeString(records, uri);
+            records.writeInt(matches.size());
+            for (UriTemplateIndex.Match<Port> match : matches) {
+                records.writeInt(match.value.id);
+                Map<String,Integer> variableIds = uriVariableIds.get(match.value);
+                List<Object[]> values = new ArrayList<Object[]>();
+                for (Map.Entry<String,String> value : match.getVariableValues().entrySet()) {
+                    Integer variableId = (variableIds == null) ? null : variableIds.get(value.getKey());
+                    if (variableId != null) {
+                        values.add(new Object[] { variableId, value.getValue() });
+                    }
+                }
+                records.writeInt(values.size());
+                for (Object[] value : values) {
+                    records.writeInt((Integer)value[0]);
+                    writeString(records, (String)value[1]);
+                }
+            }
+            resourceCount.incrementAndGet();
+            portResourceCount.addAndGet(matches.size());
+            return true;
+        }
+
+        /** Lists one directory, reconciles the files in it in name order, and then walks
+         *  its subdirectories in name order as further tasks.  The records of the resources
+         *  in the directory are appended to the spool file in segments belonging to the task,
+         *  so that they can be read back in walk order however the tasks are scheduled. */
+        @SuppressWarnings("serial")
+        class DirectoryTask extends RecursiveAction {
+
+            private final Path directory;
+            final List<long[]> segments = new ArrayList<long[]>();
+            final List<DirectoryTask> subdirectories = new ArrayList<DirectoryTask>();
+
+            DirectoryTask(Path directory) {
+                this.directory = directory;
+            }
+
+            @Override
+            protected void compute() {
+
+                if (failure.get() != null) return;
+
+                long[] usage = StageMetrics.currentThreadUsage();
+                final List<Path> files = new ArrayList<Path>();
+                final List<Path> directories = new ArrayList<Path>();
+                directoryCount.incrementAndGet();
+                try {
+                    Files.walkFileTree(directory, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                            if (!attributes.isDirectory()) {
+                                files.add(file);
+                            } else if (mayHoldResources(file)) {
+                                directories.add(file);
+                            } else {
+                                skippedDirectoryCount.incrementAndGet();
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+                        @Override
+                        public FileVisitResult visitFileFailed(Path file, IOException e) {
+                            stderrStream.println("WARNING: Cannot read " + file + ": " + e.getMessage());
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+
+                    Collections.sort(files);
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    DataOutputStream records = new DataOutputStream(bytes);
+                    for (Path file : files) {
+                        if (reconcile(file, records) && bytes.size() >= SPOOL_BYTES) {
+                            segments.add(spool.append(bytes));
+                            bytes.reset();
+                        }
+                    }
+                    if (bytes.size() > 0) segments.add(spool.append(bytes));
+
+                } catch (IOException e) {
+                    failure.compareAndSet(null, e);
+                    return;
+                } finally {
+                    metrics.addThreadUsageSince(usage);
+                }
+
+                Collections.sort(directories);
+                for (Path subdirectory : directories) {
+                    subdirectories.add(new DirectoryTask(subdirectory));
+                }
+                invokeAll(subdirectories);
+            }
+        }
+    }
+
+    /** Records of the resources found, appended to a temporary file by the directory tasks
+     *  in segments of up to about a megabyte so that they are never all held in memory. */
+    private static class ResourceSpool {
+
+        private final Path file;
+        private final FileChannel channel;
+        private long size = 0;
+
+        ResourceSpool(boolean deleteOnExit) throws IOException {
+            file = Files.createTempFile("yw-recon-", ".resources");
+            if (deleteOnExit) file.toFile().deleteOnExit();
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        /** Appends the given records and returns the offset and length of the segment written. */
+        synchronized long[] append(ByteArrayOutputStream records) throws IOException {
+            long offset = size;
+            ByteBuffer buffer = ByteBuffer.wrap(records.toByteArray());
+            while (buffer.hasRemaining()) {
+                size += channel.write(buffer, size);
+            }
+            return new long[] { offset, size - offset };
+        }
+
+        /** Returns a stream over the segment at the given offset. */
+        DataInputStream read(long offset, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("Truncated recon spool file: " + file);
+                }
+            }
+            return new DataInputStream(new ByteArrayInputStream(buffer.array()));
+        }
+
+        void delete() {
+            try {
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+}
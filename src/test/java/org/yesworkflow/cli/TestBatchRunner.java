@@ -0,0 +1,250 @@
+package org.yesworkflow.cli;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.yesworkflow.YesWorkflowTestCase;
+import org.yesworkflow.config.YWConfiguration;
+import org.yesworkflow.exceptions.YWToolUsageException;
+import org.yesworkflow.extract.DefaultExtractor;
+import org.yesworkflow.graph.DotGrapher;
+import org.yesworkflow.model.DefaultModeler;
+
+public class TestBatchRunner extends YesWorkflowTestCase {
+
+    private File directory;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("TestBatchRunner", "");
+        directory.delete();
+        directory.mkdir();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        delete(directory);
+        super.tearDown();
+    }
+
+    public void testRun_ResultsAndOutputInProjectOrder() throws Exception {
+
+        BatchRunner runner = new BatchRunner(stdoutStream, stderrStream)
+                .configure("parallelism", 2)
+                .configure("iothreads", "2");
+        StringBuilder expectedOutput = new StringBuilder();
+        for (int i = 1; i <= 20; ++i) {
+            String script = writeScript("script" + i + ".py", "step_" + i);
+            runner.project("project" + i, config(script));
+            expectedOutput.append(graph(script, "process"));
+        }
+
+        List<BatchRunner.ProjectResult> results = runner.run();
+
+        assertEquals(20, results.size());
+        for (int i = 1; i <= 20; ++i) {
+            BatchRunner.ProjectResult result = results.get(i - 1);
+            assertEquals("project" + i, result.name);
+            assertEquals(ExitCode.SUCCESS, result.getExitCode());
+            assertNull(result.getMessage());
+            assertTrue(result.getOutput().contains("step_" + i));
+        }
+        assertEquals(expectedOutput.toString(), stdoutBuffer.toString());
+    }
+
+    public void testRun_FailedProjectsReportedWithoutStoppingBatch() throws Exception {
+
+        String good = writeScript("good.py", "step_one");
+        String unpaired = write("unpaired.py", "# @begin script" + EOL);
+        String empty = write("empty.py", "x = 1" + EOL);
+
+        List<BatchRunner.ProjectResult> results = new BatchRunner(stdoutStream, stderrStream)
+                .project("unpaired", config(unpaired))
+                .project("missing", config(new File(directory, "missing.py").getPath()))
+                .project("empty", config(empty))
+                .project("good", config(good))
+                .run();
+
+        assertEquals(ExitCode.MARKUP_ERROR, results.get(0).getExitCode());
+        assertEquals("ERROR: No @end comment paired with '@begin script'", results.get(0).getMessage());
+        assertEquals(ExitCode.CLI_USAGE_ERROR, results.get(1).getExitCode());
+        assertEquals(ExitCode.MARKUP_ERROR, results.get(2).getExitCode());
+        assertEquals(ExitCode.SUCCESS, results.get(3).getExitCode());
+        assertEquals(graph(good, "process"), stdoutBuffer.toString());
+        assertTrue(stderrBuffer.toString().contains("unpaired: ERROR: No @end comment paired with '@begin script'"));
+    }
+
+    public void testManifest_ProjectConfigsAppliedOverDefaults() throws Exception {
+
+        String first = writeScript("first.py", "step_one");
+        String second = writeScript("second.py", "step_two");
+        String projectConfig = write("second.yaml",
+                "extract:"                          + EOL +
+                "  sources: " + second              + EOL);
+        String manifest = write("projects.yaml",
+                "projects:"                         + EOL +
+                "  - name: first"                   + EOL +
+                "    extract:"                      + EOL +
+                "      sources: " + first           + EOL +
+                "    graph:"                        + EOL +
+                "      view: process"               + EOL +
+                "  - " + projectConfig              + EOL);
+
+        YWConfiguration defaults = new YWConfiguration();
+        defaults.applyConfigOption("graph.view", "data");
+        List<BatchRunner.ProjectResult> results = new BatchRunner(stdoutStream, stderrStream)
+                .defaults(defaults)
+                .manifest(manifest)
+                .run();
+
+        assertEquals("first", results.get(0).name);
+        assertEquals(projectConfig, results.get(1).name);
+        assertEquals(graph(first, "process"), results.get(0).getOutput());
+        assertEquals(graph(second, "data"), results.get(1).getOutput());
+        assertEquals("data", defaults.getConfigOptionValue("graph.view"));
+    }
+
+    public void testManifest_ProjectPathsRelativeToTheirDirectories() throws Exception {
+
+        String first = writeScript("repoA/script.py", "step_one");
+        String second = writeScript("repoB/script.py", "step_two");
+        String third = writeScript("repoC/scripts/script.py", "step_three");
+        String projectConfig =
+                "extract:"                          + EOL +
+                "  sources: script.py"              + EOL +
+                "  listfile: comments.txt"          + EOL +
+                "graph:"                            + EOL +
+                "  dotfile: wf.gv"                  + EOL;
+        write("repoA/yw.yaml", projectConfig);
+        write("repoB/yw.yaml", projectConfig);
+        String manifest = write("projects.yaml",
+                "projects:"                         + EOL +
+                "  - repoA/yw.yaml"                 + EOL +
+                "  - repoB/yw.yaml"                 + EOL +
+                "  - name: repoC"                   + EOL +
+                "    extract:"                      + EOL +
+                "      sources:"                    + EOL +
+                "        - repoC/scripts/script.py" + EOL +
+                "    graph:"                        + EOL +
+                "      dotfile: repoC/wf.gv"        + EOL);
+
+        List<BatchRunner.ProjectResult> results = new BatchRunner(stdoutStream, stderrStream)
+                .manifest(manifest)
+                .run();
+
+        assertEquals(3, results.size());
+        for (BatchRunner.ProjectResult result : results) {
+            assertEquals(result.getMessage(), ExitCode.SUCCESS, result.getExitCode());
+        }
+        assertEquals("repoA/yw.yaml", results.get(0).name);
+        assertEquals(graph(first, "process"), read("repoA/wf.gv"));
+        assertEquals(graph(second, "process"), read("repoB/wf.gv"));
+        assertEquals(graph(third, "process"), read("repoC/wf.gv"));
+        assertTrue(read("repoA/comments.txt").contains("@begin step_one"));
+        assertTrue(read("repoB/comments.txt").contains("@begin step_two"));
+        assertFalse(new File("wf.gv").exists());
+        assertFalse(new File("comments.txt").exists());
+    }
+
+    public void testBatchCommand_PrintsTimings() throws Exception {
+
+        String script = writeScript("script.py", "step_one");
+        String manifest = write("projects.yaml",
+                "projects:"                         + EOL +
+                "  - extract:"                      + EOL +
+                "      sources: " + script          + EOL +
+                "  - extract:"                      + EOL +
+                "      sources: " + script          + EOL);
+
+        ExitCode exitCode = new YesWorkflowCLI(stdoutStream, stderrStream)
+                .config(new YWConfiguration())
+                .runForArgs(new String[] { "batch", manifest, "-c", "batch.parallelism=2" });
+
+        assertEquals(ExitCode.SUCCESS, exitCode);
+        assertEquals(graph(script, "process") + graph(script, "process"), stdoutBuffer.toString());
+        assertTrue(stderrBuffer.toString().contains("project2"));
+        assertTrue(stderrBuffer.toString().contains("2 projects (0 failed) in "));
+    }
+
+    public void testBatchCommand_Errors() throws Exception {
+
+        ExitCode exitCode = new YesWorkflowCLI(stdoutStream, stderrStream)
+                .config(new YWConfiguration())
+                .runForArgs(new String[] { "batch" });
+        assertEquals(ExitCode.CLI_USAGE_ERROR, exitCode);
+        assertTrue(stderrBuffer.toString().contains("ERROR: No batch manifest given."));
+
+        exitCode = new YesWorkflowCLI(stdoutStream, stderrStream)
+                .config(new YWConfiguration())
+                .runForArgs(new String[] { "batch", new File(directory, "none.yaml").getPath() });
+        assertEquals(ExitCode.CLI_USAGE_ERROR, exitCode);
+        assertTrue(stderrBuffer.toString().contains("ERROR: Batch manifest not found: "));
+
+        Exception caught = null;
+        try {
+            new BatchRunner(stdoutStream, stderrStream).configure("parallelism", 0);
+        } catch (YWToolUsageException e) {
+            caught = e;
+        }
+        assertNotNull(caught);
+        assertEquals("ERROR: Value of batch.parallelism must be a positive integer: 0", caught.getMessage());
+    }
+
+    private static YWConfiguration config(String source) throws Exception {
+        YWConfiguration config = new YWConfiguration();
+        config.applyConfigOption("extract.sources", Arrays.asList(source));
+        return config;
+    }
+
+    private String graph(String source, String view) throws Exception {
+        return new DotGrapher(stdoutStream, stderrStream)
+                .configure("view", view)
+                .configure("dotfile", new File(directory, "single.gv").getPath())
+                .model(new DefaultModeler(stdoutStream, stderrStream)
+                        .annotations(new DefaultExtractor(stdoutStream, stderrStream)
+                                .configure("sources", Arrays.asList(source))
+                                .extract()
+                                .getAnnotations())
+                        .model()
+                        .getModel())
+                .graph()
+                .toString();
+    }
+
+    private String writeScript(String name, String step) throws Exception {
+        return write(name,
+            "# @begin script"           + EOL +
+            "# @in x"                   + EOL +
+            "# @out y"                  + EOL +
+            "#   @begin " + step        + EOL +
+            "#   @in x"                 + EOL +
+            "#   @out y"                + EOL +
+            "#   @end " + step          + EOL +
+            "# @end script"             + EOL);
+    }
+
+    private String write(String name, String text) throws Exception {
+        File file = new File(directory, name);
+        file.getParentFile().mkdirs();
+        FileWriter writer = new FileWriter(file);
+        writer.write(text);
+        writer.close();
+        return file.getPath();
+    }
+
+    private String read(String name) throws Exception {
+        return new String(Files.readAllBytes(new File(directory, name).toPath()), "UTF-8");
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) delete(child);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,121 @@
+package org.yesworkflow.cli;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.yesworkflow.YesWorkflowTestCase;
+import org.yesworkflow.annotations.Annotation;
+import org.yesworkflow.extract.DefaultExtractor;
+import org.yesworkflow.model.DefaultModeler;
+import org.yesworkflow.model.Model;
+
+public class TestProjectCache extends YesWorkflowTestCase {
+
+    private File source;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        source = File.createTempFile("TestProjectCache", ".py");
+        write(source, "# @begin script" + EOL + "# @end script" + EOL);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        source.delete();
+        super.tearDown();
+    }
+
+    public void testProjectCache_AnnotationsAndModel() throws Exception {
+
+        ProjectCache cache = new ProjectCache();
+        List<Annotation> annotations = new DefaultExtractor(stdoutStream, stderrStream)
+                .configure("comment", "#")
+                .reader(new FileReader(source))
+                .extract()
+                .getAnnotations();
+        Model model = new DefaultModeler(stdoutStream, stderrStream)
+                .annotations(annotations)
+                .model()
+                .getModel();
+
+        assertNull(cache.annotations(extractConfig(source.getPath())));
+        cache.putAnnotations(extractConfig(source.getPath()), annotations);
+        cache.putModel(extractConfig(source.getPath()), modelConfig("workflow", "script"), annotations, model);
+
+        assertSame(annotations, cache.annotations(extractConfig(source.getPath())));
+        assertSame(model, cache.model(extractConfig(source.getPath()), modelConfig("workflow", "script")));
+        assertNull(cache.model(extractConfig(source.getPath()), modelConfig("workflow", "other")));
+        assertNull(cache.model(extractConfig(source.getPath()), modelConfig("factsfile", "facts.P")));
+        assertEquals(2, cache.hits());
+        assertEquals(3, cache.misses());
+    }
+
+    public void testProjectCache_ChangedSource_Invalidates() throws Exception {
+
+        ProjectCache cache = new ProjectCache();
+        cache.putAnnotations(extractConfig(source.getPath()), new ArrayList<Annotation>());
+        assertNotNull(cache.annotations(extractConfig(source.getPath())));
+
+        source.setLastModified(source.lastModified() - 10000);
+        assertNull(cache.annotations(extractConfig(source.getPath())));
+        assertEquals(0, cache.size());
+    }
+
+    public void testProjectCache_OutputFilesAndStdin_NotAnsweredFromCache() throws Exception {
+
+        ProjectCache cache = new ProjectCache();
+        Map<String,Object> config = extractConfig(source.getPath());
+        config.put("listfile", "comments.txt");
+        cache.putAnnotations(config, new ArrayList<Annotation>());
+        assertNull(cache.annotations(config));
+        assertEquals(1, cache.size());
+
+        cache.putAnnotations(extractConfig("-"), new ArrayList<Annotation>());
+        assertNull(cache.annotations(extractConfig("-")));
+        assertEquals(1, cache.size());
+    }
+
+    public void testProjectCache_LeastRecentlyUsedProjectDropped() throws Exception {
+
+        ProjectCache cache = new ProjectCache(2);
+        File other = File.createTempFile("TestProjectCache", ".py");
+        try {
+            cache.putAnnotations(extractConfig(source.getPath()), new ArrayList<Annotation>());
+            cache.putAnnotations(extractConfig(other.getPath()), new ArrayList<Annotation>());
+            assertNotNull(cache.annotations(extractConfig(source.getPath())));
+            cache.putAnnotations(extractConfig(source.getPath(), other.getPath()), new ArrayList<Annotation>());
+
+            assertEquals(2, cache.size());
+            assertNotNull(cache.annotations(extractConfig(source.getPath())));
+            assertNull(cache.annotations(extractConfig(other.getPath())));
+        } finally {
+            other.delete();
+        }
+    }
+
+    private static Map<String,Object> extractConfig(String... sources) {
+        Map<String,Object> config = new HashMap<String,Object>();
+        config.put("sources", new ArrayList<String>(Arrays.asList(sources)));
+        config.put("comment", "#");
+        return config;
+    }
+
+    private static Map<String,Object> modelConfig(String key, String value) {
+        Map<String,Object> config = new HashMap<String,Object>();
+        config.put(key, value);
+        return config;
+    }
+
+    private static void write(File file, String text) throws Exception {
+        FileWriter writer = new FileWriter(file);
+        writer.write(text);
+        writer.close();
+    }
+}
@@ -408,6 +408,47 @@ public class TestYesWorkflowCLI extends YesWorkflowTestCase {
          );
     }
 
+    public void testYesWorkflowCLI_Query_ExamplePy_ProgramUpstream() throws Exception {
+
+        String[] args = {"query", "src/main/resources/example.py",
+                         "-c", "query.goal=program_upstream(standardize_with_mask, P)"};
+        YesWorkflowCLI cli = new YesWorkflowCLI(stdoutStream, stderrStream);
+        ExitCode returnValue = cli.runForArgs(args);
+
+        assertEquals(ExitCode.SUCCESS, returnValue);
+        assertEquals(
+            ""                                                                  + EOL +
+            "% FACT: program_upstream(arg1, p)."                                + EOL +
+            "program_upstream('standardize_with_mask', 'load_data')."           + EOL +
+            "program_upstream('standardize_with_mask', 'fetch_mask')."          + EOL,
+            stdoutBuffer.toString());
+    }
+
+    public void testYesWorkflowCLI_Query_ExamplePy_ExtractRelation() throws Exception {
+
+        String[] args = {"query", "src/main/resources/example.py",
+                         "-c", "query.goal=annotation(A, S, 40, T, N)"};
+        YesWorkflowCLI cli = new YesWorkflowCLI(stdoutStream, stderrStream);
+        ExitCode returnValue = cli.runForArgs(args);
+
+        assertEquals(ExitCode.SUCCESS, returnValue);
+        assertEquals(
+            ""                                                                  + EOL +
+            "% FACT: annotation(a, s, arg3, t, n)."                             + EOL +
+            "annotation(25, 1, 40, '@BEGIN', 'standardize_with_mask')."         + EOL,
+            stdoutBuffer.toString());
+    }
+
+    public void testYesWorkflowCLI_Query_NoGoal() throws Exception {
+
+        String[] args = {"query", "src/main/resources/example.py"};
+        YesWorkflowCLI cli = new YesWorkflowCLI(stdoutStream, stderrStream);
+        ExitCode returnValue = cli.runForArgs(args);
+
+        assertEquals(ExitCode.CLI_USAGE_ERROR, returnValue);
+        assertTrue(stderrBuffer.toString().contains("ERROR: No goal given for query."));
+    }
+
     private static class MockExtractor implements Extractor {
 
         public boolean extracted = false;
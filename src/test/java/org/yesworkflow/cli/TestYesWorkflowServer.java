@@ -0,0 +1,220 @@
+package org.yesworkflow.cli;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+import org.yesworkflow.YesWorkflowTestCase;
+
+public class TestYesWorkflowServer extends YesWorkflowTestCase {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private YesWorkflowServer server;
+    private File source;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        server = new YesWorkflowServer(0, new ProjectCache()).start();
+        source = File.createTempFile("TestYesWorkflowServer", ".py");
+        writeSource("step_one");
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        server.stop();
+        source.delete();
+        super.tearDown();
+    }
+
+    public void testYesWorkflowServer_Graph_AnsweredFromCacheUntilSourceChanges() throws Exception {
+
+        Response first = post("/run", "graph" + EOL + source.getPath() + EOL);
+        assertEquals(ExitCode.SUCCESS.value(), first.exitCode);
+        assertTrue(first.stdout.startsWith("digraph Workflow {"));
+        assertTrue(first.stdout.contains("step_one"));
+        assertEquals("", first.stderr);
+        assertEquals(0, server.getCache().hits());
+
+        Response second = post("/run", "graph" + EOL + source.getPath() + EOL);
+        assertEquals(first.stdout, second.stdout);
+        assertEquals(2, server.getCache().hits());
+
+        writeSource("step_two");
+        source.setLastModified(source.lastModified() + 5000);
+        Response third = post("/run", "graph" + EOL + source.getPath() + EOL);
+        assertTrue(third.stdout.contains("step_two"));
+        assertFalse(third.stdout.contains("step_one"));
+        assertEquals(2, server.getCache().hits());
+    }
+
+    public void testYesWorkflowServer_ConfigOptions_KeyModels() throws Exception {
+
+        Response process = post("/run", "graph" + EOL + source.getPath() + EOL);
+        Response data = post("/run", "graph" + EOL + source.getPath() + EOL + "-c" + EOL + "graph.view=data" + EOL);
+        Response model = post("/run", "model" + EOL + source.getPath() + EOL + "-c" + EOL + "model.workflow=script" + EOL);
+
+        assertFalse(process.stdout.equals(data.stdout));
+        assertEquals(ExitCode.SUCCESS.value(), model.exitCode);
+        assertEquals("", model.stdout);
+        assertEquals(3, server.getCache().hits());
+        assertEquals(3, server.getCache().misses());
+    }
+
+    public void testYesWorkflowServer_Errors() throws Exception {
+
+        Response usage = post("/run", "paint" + EOL + source.getPath() + EOL);
+        assertEquals(ExitCode.CLI_USAGE_ERROR.value(), usage.exitCode);
+        assertEquals("", usage.stdout);
+        assertTrue(usage.stderr.contains("ERROR: Unrecognized YW command: paint"));
+
+        Response serve = post("/run", "serve" + EOL);
+        assertEquals(ExitCode.CLI_USAGE_ERROR.value(), serve.exitCode);
+        assertTrue(serve.stderr.contains("ERROR: The serve command cannot be sent to a running server."));
+
+        Response stdin = post("/run", "graph" + EOL);
+        assertEquals(ExitCode.CLI_USAGE_ERROR.value(), stdin.exitCode);
+        assertTrue(stdin.stderr.contains("Served commands cannot read standard input."));
+
+        HttpURLConnection connection = connect("/run");
+        connection.setRequestProperty(YesWorkflowServer.TOKEN_HEADER, server.getToken());
+        assertEquals(405, connection.getResponseCode());
+    }
+
+    public void testYesWorkflowServer_MissingOrWrongToken_Refused() throws Exception {
+
+        HttpURLConnection missing = connect("/run");
+        missing.setRequestMethod("POST");
+        assertEquals(401, missing.getResponseCode());
+
+        HttpURLConnection wrong = connect("/shutdown");
+        wrong.setRequestMethod("POST");
+        wrong.setRequestProperty(YesWorkflowServer.TOKEN_HEADER, "0123456789abcdef");
+        assertEquals(401, wrong.getResponseCode());
+
+        assertEquals(0, server.getCache().misses());
+        assertEquals(200, post("/run", "graph" + EOL + source.getPath() + EOL).status);
+    }
+
+    public void testYesWorkflowServer_BrowserRequests_Refused() throws Exception {
+
+        String tokenHeader = YesWorkflowServer.TOKEN_HEADER + ": " + server.getToken();
+        assertEquals(200, rawStatus("/run", "Host: localhost:" + server.getPort(), tokenHeader));
+        assertEquals(200, rawStatus("/run", "Host: 127.0.0.1:" + server.getPort(), tokenHeader));
+        assertEquals(403, rawStatus("/run", "Host: localhost:" + server.getPort(), tokenHeader, "Origin: http://example.com"));
+        assertEquals(403, rawStatus("/run", "Host: attacker.example.com:" + server.getPort(), tokenHeader));
+        assertEquals(403, rawStatus("/shutdown", "Host: localhost:" + server.getPort(), tokenHeader, "Origin: null"));
+    }
+
+    public void testYesWorkflowServer_TokenFile_ReadableOnlyByOwner() throws Exception {
+
+        Path tokenFile = Files.createTempFile("TestYesWorkflowServer", ".token");
+        try {
+            server.writeTokenFile(tokenFile);
+            assertEquals(server.getToken(), new String(Files.readAllBytes(tokenFile), UTF8).trim());
+            assertEquals(64, server.getToken().length());
+            if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(tokenFile);
+                assertEquals(PosixFilePermissions.fromString("rw-------"), permissions);
+            }
+        } finally {
+            Files.deleteIfExists(tokenFile);
+        }
+        assertFalse(server.getToken().equals(new YesWorkflowServer(0, new ProjectCache()).getToken()));
+    }
+
+    public void testYesWorkflowServer_Shutdown() throws Exception {
+
+        Response response = post("/shutdown", "");
+        assertEquals("Stopping YesWorkflow server\n", response.stdout);
+        server.awaitStop();
+    }
+
+    private void writeSource(String step) throws Exception {
+        FileWriter writer = new FileWriter(source);
+        writer.write(
+            "# @begin script"           + EOL +
+            "# @in x"                   + EOL +
+            "# @out y"                  + EOL +
+            "#   @begin " + step        + EOL +
+            "#   @in x"                 + EOL +
+            "#   @out y"                + EOL +
+            "#   @end " + step          + EOL +
+            "# @end script"             + EOL);
+        writer.close();
+    }
+
+    private HttpURLConnection connect(String path) throws Exception {
+        URL url = new URL("http://localhost:" + server.getPort() + path);
+        return (HttpURLConnection)url.openConnection();
+    }
+
+    private Response post(String path, String body) throws Exception {
+
+        HttpURLConnection connection = connect(path);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty(YesWorkflowServer.TOKEN_HEADER, server.getToken());
+        connection.setDoOutput(true);
+        OutputStream out = connection.getOutputStream();
+        out.write(body.getBytes(UTF8));
+        out.close();
+
+        assertEquals(200, connection.getResponseCode());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputStream in = connection.getInputStream();
+        byte[] buffer = new byte[4096];
+        for (int count; (count = in.read(buffer)) != -1; ) {
+            bytes.write(buffer, 0, count);
+        }
+        in.close();
+
+        Response response = new Response();
+        response.status = connection.getResponseCode();
+        byte[] content = bytes.toByteArray();
+        String exitCode = connection.getHeaderField(YesWorkflowServer.EXIT_CODE_HEADER);
+        String stdoutLength = connection.getHeaderField(YesWorkflowServer.STDOUT_LENGTH_HEADER);
+        int split = (stdoutLength == null) ? content.length : Integer.parseInt(stdoutLength);
+        response.exitCode = (exitCode == null) ? 0 : Integer.parseInt(exitCode);
+        response.stdout = new String(content, 0, split);
+        response.stderr = new String(content, split, content.length - split);
+        return response;
+    }
+
+    /** Sends a POST with an empty body and the given headers over a plain socket, since
+     *  HttpURLConnection does not let callers set the Host and Origin headers. */
+    private int rawStatus(String path, String... headers) throws Exception {
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        try {
+            StringBuilder request = new StringBuilder("POST " + path + " HTTP/1.1\r\n");
+            for (String header : headers) request.append(header).append("\r\n");
+            request.append("Content-Length: 0\r\nConnection: close\r\n\r\n");
+            socket.getOutputStream().write(request.toString().getBytes(UTF8));
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF8));
+            return Integer.parseInt(reader.readLine().split(" ")[1]);
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static class Response {
+        int status;
+        int exitCode;
+        String stdout;
+        String stderr;
+    }
+}
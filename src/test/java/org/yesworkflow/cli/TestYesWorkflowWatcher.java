@@ -0,0 +1,181 @@
+package org.yesworkflow.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+
+import org.yesworkflow.YesWorkflowTestCase;
+import org.yesworkflow.config.YWConfiguration;
+import org.yesworkflow.exceptions.YWToolUsageException;
+import org.yesworkflow.extract.DefaultExtractor;
+import org.yesworkflow.model.DefaultModeler;
+import org.yesworkflow.model.Model;
+import org.yesworkflow.model.ModelFacts;
+import org.yesworkflow.query.LogicLanguage;
+
+public class TestYesWorkflowWatcher extends YesWorkflowTestCase {
+
+    private File directory;
+    private File script;
+    private File functions;
+    private YWConfiguration config;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("TestYesWorkflowWatcher", "");
+        directory.delete();
+        directory.mkdir();
+        script = new File(directory, "script.py");
+        functions = new File(directory, "functions.py");
+        writeScript("step_two");
+        write(functions,
+            "# @begin helper"   + EOL +
+            "# @in a"           + EOL +
+            "# @return b"       + EOL +
+            "# @end helper"     + EOL);
+        config = new YWConfiguration();
+        config.applyConfigOption("extract.sources", Arrays.asList(script.getPath(), functions.getPath()));
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        for (File file : directory.listFiles()) file.delete();
+        directory.delete();
+        super.tearDown();
+    }
+
+    public void testUpdate_RescansOnlyChangedSources() throws Exception {
+
+        YesWorkflowWatcher watcher = new YesWorkflowWatcher(config, stdoutStream, stderrStream);
+
+        assertTrue(watcher.update());
+        assertEquals(2, watcher.getScannedSourceCount());
+        assertEquals(0, watcher.getReusedProgramCount());
+        String firstGraph = stdoutBuffer.toString();
+        assertTrue(firstGraph.contains("step_two"));
+        ((ByteArrayOutputStream)stdoutBuffer).reset();
+
+        assertTrue(watcher.update());
+        assertEquals(0, watcher.getScannedSourceCount());
+        assertEquals(3, watcher.getReusedProgramCount());
+        assertEquals(firstGraph, stdoutBuffer.toString());
+        ((ByteArrayOutputStream)stdoutBuffer).reset();
+
+        writeScript("step_2");
+        script.setLastModified(script.lastModified() + 5000);
+        assertTrue(watcher.update());
+        assertEquals(1, watcher.getScannedSourceCount());
+        assertEquals(2, watcher.getReusedProgramCount());
+        assertTrue(stdoutBuffer.toString().contains("step_2"));
+        assertFalse(stdoutBuffer.toString().contains("step_two"));
+        assertEquals(facts(freshModel()), facts(watcher.getModel()));
+        assertTrue(stderrBuffer.toString().contains("(1 of 2 sources scanned, 2 nested programs reused)"));
+    }
+
+    public void testUpdate_MarkupError_ReportedAndRecovered() throws Exception {
+
+        YesWorkflowWatcher watcher = new YesWorkflowWatcher(config, stdoutStream, stderrStream);
+        assertTrue(watcher.update());
+
+        write(script, "# @begin script" + EOL);
+        script.setLastModified(script.lastModified() + 5000);
+        assertFalse(watcher.update());
+        assertTrue(stderrBuffer.toString().contains("ERROR: No @end comment paired with '@begin script'"));
+
+        writeScript("step_two");
+        script.setLastModified(script.lastModified() + 10000);
+        assertTrue(watcher.update());
+        assertEquals(facts(freshModel()), facts(watcher.getModel()));
+    }
+
+    public void testWatch_UpdatesWhenSourceChanges() throws Exception {
+
+        final YesWorkflowWatcher watcher = new YesWorkflowWatcher(config, stdoutStream, stderrStream);
+        final Exception[] caught = new Exception[1];
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    watcher.watch();
+                } catch (Exception e) {
+                    caught[0] = e;
+                }
+            }
+        });
+        thread.start();
+
+        try {
+            awaitUpdates(watcher, 1);
+            writeScript("step_changed");
+            script.setLastModified(script.lastModified() + 5000);
+            awaitUpdates(watcher, 2);
+            assertTrue(stdoutBuffer.toString().contains("step_changed"));
+        } finally {
+            watcher.stop();
+            thread.join(10000);
+        }
+
+        assertFalse(thread.isAlive());
+        assertNull(caught[0]);
+    }
+
+    public void testWatcher_NoSources() throws Exception {
+
+        Exception caught = null;
+        try {
+            new YesWorkflowWatcher(new YWConfiguration(), stdoutStream, stderrStream);
+        } catch (YWToolUsageException e) {
+            caught = e;
+        }
+        assertNotNull(caught);
+        assertEquals("ERROR: No source files given. The watch command cannot watch standard input.", caught.getMessage());
+    }
+
+    private static void awaitUpdates(YesWorkflowWatcher watcher, int count) throws Exception {
+        long deadline = System.currentTimeMillis() + 20000;
+        while (watcher.getCompletedUpdateCount() < count || watcher.getModel() == null) {
+            assertTrue("Timed out waiting for update " + count, System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private Model freshModel() throws Exception {
+        return new DefaultModeler(stdoutStream, stderrStream)
+                .annotations(new DefaultExtractor(stdoutStream, stderrStream)
+                        .configure("sources", Arrays.asList(script.getPath(), functions.getPath()))
+                        .extract()
+                        .getAnnotations())
+                .model()
+                .getModel();
+    }
+
+    private static String facts(Model model) throws Exception {
+        return new ModelFacts(LogicLanguage.PROLOG, model).build().toString();
+    }
+
+    private void writeScript(String step) throws Exception {
+        write(script,
+            "# @begin script"           + EOL +
+            "# @in x"                   + EOL +
+            "# @out z"                  + EOL +
+            "#   @begin step_one"       + EOL +
+            "#   @in x"                 + EOL +
+            "#   @out y"                + EOL +
+            "#   @end step_one"         + EOL +
+            "#   @begin " + step        + EOL +
+            "#   @in y"                 + EOL +
+            "#   @out z"                + EOL +
+            "#   @end " + step          + EOL +
+            "#   @begin step_three"     + EOL +
+            "#   @in y"                 + EOL +
+            "#   @end step_three"       + EOL +
+            "# @end script"             + EOL);
+    }
+
+    private static void write(File file, String text) throws Exception {
+        FileWriter writer = new FileWriter(file);
+        writer.write(text);
+        writer.close();
+    }
+}
@@ -717,6 +717,61 @@ public class TestUriBase extends YesWorkflowTestCase {
 		assertEquals("a%24a", UriBaseImp.encodeString("a$a"));
 		assertEquals("a%09a", UriBaseImp.encodeString("a\ta"));
 	}
-}
 	
+	public void testEncodeString_NonAsciiCharacters() {
+		assertEquals("caf\u00e9", UriBaseImp.encodeString("caf\u00e9"));
+		assertEquals("a%a0a", UriBaseImp.encodeString("a\u00a0a"));
+		assertEquals("a%2014a", UriBaseImp.encodeString("a\u2014a"));
+		assertEquals("a%300a", UriBaseImp.encodeString("a\u0300a"));
+		assertEquals("%00", UriBaseImp.encodeString("\u0000"));
+		assertEquals("", UriBaseImp.encodeString(""));
+	}
+
+	public void testEncodeString_SameAsFormatterEncoding() {
+		java.util.Random random = new java.util.Random(42);
+		String alphabet = "aZ09-._~ /:%{}$#\t\u00e9\u00a0\u0100\u2014\u0300\ud83d\ude00";
+		for (int i = 0; i < 2000; i++) {
+			StringBuilder sb = new StringBuilder();
+			for (int j = random.nextInt(12); j > 0; j--) sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			String s = sb.toString();
+			assertEquals(s, formatterEncoding(s), UriBaseImp.encodeString(s));
+		}
+	}
+	
+	public void testReduceDoubleSlashes() {
+		assertEquals("", UriBaseImp.reduceDoubleSlashes(""));
+		assertEquals("/", UriBaseImp.reduceDoubleSlashes("/"));
+		assertEquals("/", UriBaseImp.reduceDoubleSlashes("//"));
+		assertEquals("//", UriBaseImp.reduceDoubleSlashes("///"));
+		assertEquals("//", UriBaseImp.reduceDoubleSlashes("////"));
+		assertEquals("///", UriBaseImp.reduceDoubleSlashes("/////"));
+		assertEquals("/a/b/c", UriBaseImp.reduceDoubleSlashes("/a//b/c"));
+		assertEquals("a/b//c/", UriBaseImp.reduceDoubleSlashes("a//b///c//"));
+		String path = "/no/double/slashes";
+		assertSame(path, UriBaseImp.reduceDoubleSlashes(path));
+	}
 
+	public void testReduceDoubleSlashes_SameAsRegexReplacement() {
+		java.util.Random random = new java.util.Random(42);
+		for (int i = 0; i < 2000; i++) {
+			StringBuilder sb = new StringBuilder();
+			for (int j = random.nextInt(12); j > 0; j--) sb.append("/ab:".charAt(random.nextInt(4)));
+			String s = sb.toString();
+			assertEquals(s, s.replaceAll("//", "/"), UriBaseImp.reduceDoubleSlashes(s));
+		}
+	}
+
+	// the encoding previously implemented with String.format() and StringBuffer.replace()
+	private static String formatterEncoding(String unescapedString) {
+		StringBuffer escapedString = new StringBuffer(unescapedString);
+		for (int index = 0; index < escapedString.length(); index++) {
+			Character c = escapedString.charAt(index);
+			if ((!Character.isLetterOrDigit(c)) && (c != '-') && (c != '.') && (c != '_') && (c != '~')) {
+				String hexCode = String.format("%02x", (int)c);
+				escapedString.replace(index, index+1, "%" + hexCode);
+				index += hexCode.length();
+			}
+		}
+		return escapedString.toString();
+	}
+}
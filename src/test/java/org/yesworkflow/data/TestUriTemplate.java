@@ -1,9 +1,15 @@
 package org.yesworkflow.data;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.yesworkflow.YesWorkflowTestCase;
 
@@ -1458,5 +1464,203 @@ public void testReduceTemplateAndExtractVariables_PathHasEmptyVariableBraces() {
 		}
 		assertEquals("Cannot expand a URI template with missing variable names: foo:/1/2/{v1}/bar/{}", message);
 	}
+
+	public void testMatchPath_NoVariables() {
+		t1 = new UriTemplate("file:/1/2/foo/");
+		assertEquals(0, t1.matchPath("/1/2/foo").length);
+		assertNull(t1.matchPath("/1/2/foo/bar"));
+		assertNull(t1.matchPath("/1/2/fo"));
+	}
+
+	public void testMatchPath_VariablesInSeparateElements() {
+		t1 = new UriTemplate("file:run/{sample}/{frame}/image.tif");
+		assertEquals("[s1, 007]", Arrays.toString(t1.matchPath("run/s1/007/image.tif")));
+		assertNull(t1.matchPath("run/s1/image.tif"));
+		assertNull(t1.matchPath("run/s1/a/b/image.tif"));
+		assertNull(t1.matchPath("run//007/image.tif"));
+		assertNull(t1.matchPath("run/s1/007/image.tiff"));
+		assertNull(t1.matchPath("data/s1/007/image.tif"));
+	}
+
+	public void testMatchPath_VariablesInSameElement() {
+		t1 = new UriTemplate("run/{sample}_{energy}_{frame}.raw");
+		assertEquals("[s1, 10500, 007]", Arrays.toString(t1.matchPath("run/s1_10500_007.raw")));
+		assertEquals("[s1, _10500, 007]", Arrays.toString(t1.matchPath("run/s1__10500_007.raw")));
+		assertEquals("[s1, 10500, 007_x]", Arrays.toString(t1.matchPath("run/s1_10500_007_x.raw")));
+		assertNull(t1.matchPath("run/s1_10500.raw"));
+		assertNull(t1.matchPath("run/s1_10500/007.raw"));
+	}
+
+	public void testMatchPath_LastVariableIsWholeSuffix() {
+		t1 = new UriTemplate("file:/calibration/{}");
+		assertEquals("[a.txt]", Arrays.toString(t1.matchPath("/calibration/a.txt")));
+		assertNull(t1.matchPath("/calibration/"));
+		assertNull(t1.matchPath("/calibration/a/b.txt"));
+	}
+
+	public void testMatchPath_AdjacentVariables() {
+		t1 = new UriTemplate("/{a}{b}.txt");
+		assertEquals("[x, yz]", Arrays.toString(t1.matchPath("/xyz.txt")));
+		assertNull(t1.matchPath("/x.txt"));
+	}
+
+	public void testMatchPath_RepeatedVariable() {
+		t1 = new UriTemplate("/{run}/{sample}/{run}_{sample}.dat");
+		assertEquals("[r1, s1, r1, s1]", Arrays.toString(t1.matchPath("/r1/s1/r1_s1.dat")));
+		assertNull(t1.matchPath("/r1/s1/r2_s1.dat"));
+		assertNull(t1.matchPath("/r1/s1/r1_s2.dat"));
+	}
+
+	public void testMatchPath_RepeatedVariable_LongerValueTried() {
+		t1 = new UriTemplate("{a}_{a}");
+		assertEquals("[x_y, x_y]", Arrays.toString(t1.matchPath("x_y_x_y")));
+		assertEquals("[x, x]", Arrays.toString(t1.matchPath("x_x")));
+		assertNull(t1.matchPath("x_y_x_z"));
+		t1 = new UriTemplate("/{run}_{n}/{run}.dat");
+		assertEquals("[a_b, 1, a_b]", Arrays.toString(t1.matchPath("/a_b_1/a_b.dat")));
+	}
+
+	public void testMatchPath_ManyVariablesInUnmatchedPath_ReturnsQuickly() throws Exception {
+
+		StringBuilder path = new StringBuilder("run/");
+		for (int i = 0; i < 60; i++) path.append("a-");
+		final String unmatched = path.append("x/y.csv").toString();
+		StringBuilder rest = new StringBuilder();
+		for (int i = 8; i < 61; i++) rest.append("a-");
+		rest.append("y");
+		final UriTemplate distinct = new UriTemplate("run/{v0}-{v1}-{v2}-{v3}-{v4}-{v5}-{v6}-{v7}-{last}.csv");
+		final UriTemplate repeated = new UriTemplate("run/{v0}-{v1}-{v2}-{v3}-{v4}-{v5}-{v6}-{v0}-{last}.csv");
+		
+		// run the matches on another thread so that a regression fails rather than hangs the test
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<String> matched = executor.submit(new Callable<String>() {
+				public String call() {
+					return Arrays.toString(distinct.matchPath(unmatched)) + " " 
+							+ Arrays.toString(repeated.matchPath(unmatched)) + " "
+							+ Arrays.toString(repeated.matchPath(unmatched.replace("x/y", "a-y")));
+				}
+			});
+			assertEquals("null null [a, a, a, a, a, a, a, a, " + rest + "]", matched.get(5, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	public void testMatchPath_MatchesExpandedPath() throws Exception {
+		t1 = new UriTemplate("file:/1/2/{v1}/bar/{v2}.{v3}");
+		Map<String,Object> nameValueMap = new HashMap<String,Object>();
+		nameValueMap.put("v1", "value/One");
+		nameValueMap.put("v2", "value.Two");
+		nameValueMap.put("v3", "txt");
+		String path = t1.getExpandedPath(nameValueMap, new Object[3]);
+		assertEquals("/1/2/value%2fOne/bar/value.Two.txt", path);
+		assertEquals("[value%2fOne, value, Two.txt]", Arrays.toString(t1.matchPath(path)));
+	}
+
+	public void testGetVariableValues() {
+		t1 = new UriTemplate("/{run}/{}/{sample}/{run}.dat");
+		assertEquals("{run=r1, sample=s1}", t1.getVariableValues("/r1/x/s1/r1.dat").toString());
+		assertNull(t1.getVariableValues("/r1/x/s1/r2.dat"));
+	}
+
+	public void testGetPathFragments() {
+		t1 = new UriTemplate("file:/1/{a}/2/{b}");
+		assertEquals("[/1/, /2/, ]", Arrays.toString(t1.getPathFragments()));
+	}
+
+	public void testBatchExpander_ColumnsInOrderOfFirstAppearance() throws Exception {
+		t1 = new UriTemplate("file:/run/{sample}/{frame}/{sample}_{frame}.img");
+		UriTemplate.BatchExpander expander = t1.batchExpander();
+		assertEquals("[sample, frame]", Arrays.toString(expander.getColumnNames()));
+		assertEquals("/run/s1/7/s1_7.img", expander.expand("s1", 7));
+		assertEquals("/run/s%202/8/s%202_8.img", expander.expand("s 2", 8));
+	}
+
+	public void testBatchExpander_NamedColumns() throws Exception {
+		t1 = new UriTemplate("file:/run/{sample}/{frame}.img");
+		UriTemplate.BatchExpander expander = t1.batchExpander("frame", "energy", "sample");
+		assertEquals("/run/s1/7.img", expander.expand(7, null, "s1"));
+	}
+
+	public void testBatchExpander_ExpandColumns() throws Exception {
+		t1 = new UriTemplate("file:/run/{sample}/{frame}.img");
+		final List<String> paths = new LinkedList<String>();
+		int count = t1.batchExpander().expandColumns(
+				new Object[][] { { "s1", "s1", "s 2" }, { 1, 2, 1 } },
+				new UriTemplate.ExpansionSink() {
+					public void expanded(int row, CharSequence path) {
+						paths.add(row + ":" + path);
+					}
+				});
+		assertEquals(3, count);
+		assertEquals("[0:/run/s1/1.img, 1:/run/s1/2.img, 2:/run/s%202/1.img]", paths.toString());
+	}
+
+	public void testBatchExpander_ExpandBindings() throws Exception {
+		t1 = new UriTemplate("file:/run/{sample}/{frame}.img");
+		List<Map<String,Object>> bindings = new LinkedList<Map<String,Object>>();
+		for (int frame = 1; frame <= 2; frame++) {
+			Map<String,Object> binding = new HashMap<String,Object>();
+			binding.put("sample", "s/1");
+			binding.put("frame", frame);
+			binding.put("unused", "x");
+			bindings.add(binding);
+		}
+		final StringBuilder paths = new StringBuilder();
+		int count = t1.batchExpander().expandBindings(bindings, new UriTemplate.ExpansionSink() {
+			public void expanded(int row, CharSequence path) {
+				paths.append(path).append(' ');
+			}
+		});
+		assertEquals(2, count);
+		assertEquals("/run/s%2f1/1.img /run/s%2f1/2.img ", paths.toString());
+	}
+
+	public void testBatchExpander_SameAsGetExpandedPath() throws Exception {
+		t1 = new UriTemplate("file:/1/2/{v1}/bar/{v2}{v1}.{v3}");
+		UriTemplate.BatchExpander expander = t1.batchExpander("v1", "v2", "v3");
+		Map<String,Object> nameValueMap = new HashMap<String,Object>();
+		String[] values = { "a", "b c", "d%e", "a" };
+		for (String v1 : values) {
+			for (String v2 : values) {
+				nameValueMap.put("v1", v1);
+				nameValueMap.put("v2", v2);
+				nameValueMap.put("v3", "txt");
+				assertEquals(t1.getExpandedPath(nameValueMap, new Object[4]), expander.expand(v1, v2, "txt"));
+			}
+		}
+	}
+
+	public void testBatchExpander_Errors() throws Exception {
+		String message = null;
+		try {
+			new UriTemplate("file:/1/{}/bar").batchExpander();
+		} catch (Exception e) {
+			message = e.getMessage();
+		}
+		assertEquals("Cannot expand a URI template with missing variable names: file:/1/{}/bar", message);
+
+		try {
+			new UriTemplate("file:/1/{v1}/{v2}").batchExpander("v1");
+		} catch (Exception e) {
+			message = e.getMessage();
+		}
+		assertEquals("Could not expand template. No column for variable 'v2'.", message);
+
+		UriTemplate.BatchExpander expander = new UriTemplate("file:/1/{v1}/{v2}").batchExpander();
+		try {
+			expander.expand("a", null);
+		} catch (Exception e) {
+			message = e.getMessage();
+		}
+		assertEquals("Could not expand template. No value for variable 'v2'.", message);
+
+		try {
+			expander.expandColumns(new Object[][] { { "a", "b" }, { "c" } }, null);
+		} catch (Exception e) {
+			message = e.getMessage();
+		}
+		assertEquals("Columns of values differ in length.", message);
+	}
 }
-	
@@ -0,0 +1,102 @@
+package org.yesworkflow.data;
+
+import java.util.List;
+
+import org.yesworkflow.YesWorkflowTestCase;
+
+public class TestUriTemplateIndex extends YesWorkflowTestCase {
+
+	private UriTemplateIndex<String> index;
+	
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		index = new UriTemplateIndex<String>()
+				.add(new UriTemplate("file:run/{sample}/raw/{frame}.img"), "raw_image")
+				.add(new UriTemplate("file:run/{sample}/{name}.log"), "sample_log")
+				.add(new UriTemplate("file:run/{sample}/spectra/{frame}.csv"), "spectrum")
+				.add(new UriTemplate("file:calibration.dat"), "calibration")
+				.add(new UriTemplate("file:{anything}"), "any_top_level_file");
+	}
+	
+	public void testSize() {
+		assertEquals(5, index.size());
+		assertEquals(0, new UriTemplateIndex<String>().size());
+	}
+
+	public void testGetCandidates_OnlyTemplatesWithMatchingPrefix() {
+		
+		List<UriTemplate> candidates = index.getCandidates("run/s1/raw/001.img");
+		assertEquals(4, candidates.size());
+		assertEquals("file:run/{sample}/raw/{frame}.img", candidates.get(0).toString());
+		assertEquals("file:run/{sample}/{name}.log", candidates.get(1).toString());
+		assertEquals("file:run/{sample}/spectra/{frame}.csv", candidates.get(2).toString());
+		assertEquals("file:{anything}", candidates.get(3).toString());
+		
+		candidates = index.getCandidates("calibration.dat");
+		assertEquals(2, candidates.size());
+		assertEquals("file:calibration.dat", candidates.get(0).toString());
+		assertEquals("file:{anything}", candidates.get(1).toString());
+
+		assertEquals(1, index.getCandidates("other/file.txt").size());
+		assertEquals(0, new UriTemplateIndex<String>().getCandidates("run/s1").size());
+	}
+	
+	public void testMayMatchPathsStartingWith() {
+		
+		UriTemplateIndex<String> runs = new UriTemplateIndex<String>()
+				.add(new UriTemplate("file:run/{sample}/raw/{frame}.img"), "raw_image")
+				.add(new UriTemplate("file:calibration/{name}"), "calibration");
+		assertTrue(runs.mayMatchPathsStartingWith(""));
+		assertTrue(runs.mayMatchPathsStartingWith("run/"));
+		assertTrue(runs.mayMatchPathsStartingWith("run/s1/"));
+		assertTrue(runs.mayMatchPathsStartingWith("run/s1/raw/"));
+		assertTrue(runs.mayMatchPathsStartingWith("calibration/"));
+		assertFalse(runs.mayMatchPathsStartingWith("other/"));
+		assertFalse(runs.mayMatchPathsStartingWith("runs/"));
+		assertTrue(index.mayMatchPathsStartingWith("other/"));
+		assertFalse(new UriTemplateIndex<String>().mayMatchPathsStartingWith(""));
+	}
+	
+	public void testMatch() {
+		
+		List<UriTemplateIndex.Match<String>> matches = index.match("run/s1/raw/001.img");
+		assertEquals(1, matches.size());
+		assertEquals("raw_image", matches.get(0).value);
+		assertEquals("{sample=s1, frame=001}", matches.get(0).getVariableValues().toString());
+
+		matches = index.match("run/s2/s2.log");
+		assertEquals(1, matches.size());
+		assertEquals("sample_log", matches.get(0).value);
+		assertEquals("[s2, s2]", java.util.Arrays.toString(matches.get(0).variableValues));
+		
+		matches = index.match("calibration.dat");
+		assertEquals(2, matches.size());
+		assertEquals("calibration", matches.get(0).value);
+		assertEquals("any_top_level_file", matches.get(1).value);
+		assertEquals("{anything=calibration.dat}", matches.get(1).getVariableValues().toString());
+		
+		assertEquals(0, index.match("run/s1/raw/001.tif").size());
+		assertEquals(0, index.match("other/file.txt").size());
+	}
+
+	public void testMatchFirst() {
+		assertEquals("spectrum", index.matchFirst("run/s1/spectra/002.csv").value);
+		assertEquals("calibration", index.matchFirst("calibration.dat").value);
+		assertEquals("any_top_level_file", index.matchFirst("notes.txt").value);
+		assertNull(index.matchFirst("run/s1/spectra/002.txt"));
+	}
+	
+	public void testMatch_ManyTemplates() {
+		
+		UriTemplateIndex<Integer> large = new UriTemplateIndex<Integer>();
+		for (int i = 0; i < 1000; i++) {
+			large.add(new UriTemplate("file:/data/step" + i + "/{sample}/out_{frame}.dat"), i);
+		}
+		assertEquals(1, large.getCandidates("/data/step500/s1/out_3.dat").size());
+		UriTemplateIndex.Match<Integer> match = large.matchFirst("/data/step500/s1/out_3.dat");
+		assertEquals(500, match.value.intValue());
+		assertEquals("{sample=s1, frame=3}", match.getVariableValues().toString());
+		assertNull(large.matchFirst("/data/step1000/s1/out_3.dat"));
+	}
+}
@@ -0,0 +1,79 @@
+package org.yesworkflow.extract;
+
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.yesworkflow.Language;
+import org.yesworkflow.LanguageModel;
+import org.yesworkflow.YesWorkflowTestCase;
+
+public class TestCommentMatcher_Spans extends YesWorkflowTestCase {
+
+    private CommentMatcher matcher;
+    private List<String> spans;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        LanguageModel lm = new LanguageModel(Language.JAVA);
+        Source source = new Source(1, "__reader__");
+        matcher = new CommentMatcher(source, lm);
+        spans = new LinkedList<String>();
+    }
+
+    private void scan(String source, int start, int end) {
+        matcher.scan(source.toCharArray(), start, end, new CommentMatcher.CommentSpanHandler() {
+            public void commentSpan(int lineNumber, char[] text, int start, int end) {
+                spans.add(lineNumber + ":" + start + "-" + end + ":" + new String(text, start, end - start));
+            }
+        });
+    }
+
+    public void test_Spans_SingleLineComments() {
+        String source = "code // one " + "\n" +
+                        "code"         + "\n" +
+                        "// two";
+        scan(source, 0, source.length());
+        assertEquals("[1:8-11:one, 3:21-24:two]", spans.toString());
+    }
+
+    public void test_Spans_DelimitedComments() {
+        String source = "/* one */ code /* two" + "\n" +
+                        " three */";
+        scan(source, 0, source.length());
+        assertEquals("[1:3-6:one, 1:18-21:two, 2:23-28:three]", spans.toString());
+    }
+
+    public void test_Spans_Range() {
+        String source = "xx// one\n// two\nyy";
+        scan(source, 2, 15);
+        assertEquals("[1:5-8:one, 2:12-15:two]", spans.toString());
+    }
+
+    public void test_Spans_LineTerminators() {
+        String source = "// one\r\n// two\r// three\n\n// five";
+        scan(source, 0, source.length());
+        assertEquals("[1:3-6:one, 2:11-14:two, 3:18-23:three, 5:28-32:five]", spans.toString());
+    }
+
+    public void test_CommentsAsLines_Reader() throws Exception {
+        List<SourceLine> lines = matcher.getCommentsAsLines(new StringReader("// one\r\ncode\r\n/* two */"));
+        assertEquals(2, lines.size());
+        assertEquals("one", lines.get(0).text);
+        assertEquals(1, (int)lines.get(0).lineNumber);
+        assertEquals("two", lines.get(1).text);
+        assertEquals(3, (int)lines.get(1).lineNumber);
+    }
+
+    public void test_CommentsAsLines_CharBuffer() throws Exception {
+        CharBuffer buffer = CharBuffer.wrap("code // one\ncode // two");
+        buffer.position(5);
+        List<SourceLine> lines = matcher.getCommentsAsLines(buffer);
+        assertEquals(2, lines.size());
+        assertEquals("one", lines.get(0).text);
+        assertEquals("two", lines.get(1).text);
+        assertEquals(5, buffer.position());
+    }
+}
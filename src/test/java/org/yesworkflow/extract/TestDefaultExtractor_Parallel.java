@@ -0,0 +1,88 @@
+package org.yesworkflow.extract;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.yesworkflow.YesWorkflowTestCase;
+import org.yesworkflow.exceptions.YWToolUsageException;
+
+public class TestDefaultExtractor_Parallel extends YesWorkflowTestCase {
+
+    static final String TEST_RESOURCE_DIR = "src/test/resources/org/yesworkflow/testYesWorkflowCLI/";
+
+    static final List<String> SOURCES = Arrays.asList(
+            "src/test/resources/simpleExample.py",
+            TEST_RESOURCE_DIR + "pythonFileLowercase.py",
+            TEST_RESOURCE_DIR + "javaFile.java",
+            "src/test/resources/branchExample.py",
+            TEST_RESOURCE_DIR + "matlabFileLowercaseExtension.m",
+            TEST_RESOURCE_DIR + "rFileUppercaseExtension.R",
+            "src/main/resources/example.py"
+        );
+
+    private DefaultExtractor extract(Object parallelism, List<String> sources) throws Exception {
+        DefaultExtractor extractor = new DefaultExtractor(super.stdoutStream, super.stderrStream);
+        extractor.configure("sources", sources)
+                 .configure("parallelism", parallelism)
+                 .extract();
+        return extractor;
+    }
+
+    /** Line ids are assigned from a global counter, so compare the gaps between them. */
+    private String describeLines(DefaultExtractor extractor) {
+        StringBuilder description = new StringBuilder();
+        List<SourceLine> lines = extractor.getLines();
+        int previousId = lines.get(0).lineId;
+        for (SourceLine line : lines) {
+            description.append(line.lineId - previousId).append(' ')
+                       .append(line.sourceId).append(' ')
+                       .append(line.lineNumber).append(' ')
+                       .append(line.text).append(EOL);
+            previousId = line.lineId;
+        }
+        return description.toString();
+    }
+
+    public void testExtract_ParallelMatchesSequential() throws Exception {
+
+        DefaultExtractor sequential = extract(1, SOURCES);
+        DefaultExtractor parallel = extract(4, SOURCES);
+
+        assertTrue(sequential.getLines().size() > 0);
+        assertEquals(describeLines(sequential), describeLines(parallel));
+        assertEquals(sequential.getAnnotations().toString(), parallel.getAnnotations().toString());
+        assertEquals(sequential.getFacts(), parallel.getFacts());
+        assertEquals(sequential.getLanguage(), parallel.getLanguage());
+    }
+
+    public void testExtract_ParallelismAsString() throws Exception {
+        DefaultExtractor sequential = extract(1, SOURCES);
+        DefaultExtractor parallel = extract("3", SOURCES);
+        assertEquals(describeLines(sequential), describeLines(parallel));
+    }
+
+    public void testExtract_ParallelMissingFile() throws Exception {
+        Exception caught = null;
+        try {
+            extract(4, Arrays.asList(SOURCES.get(0), "nonexistent.py", SOURCES.get(1)));
+        } catch (YWToolUsageException e) {
+            caught = e;
+        }
+        assertNotNull(caught);
+        assertEquals("ERROR: Input file not found: nonexistent.py", caught.getMessage());
+    }
+
+    public void testConfigure_InvalidParallelism() throws Exception {
+        DefaultExtractor extractor = new DefaultExtractor(super.stdoutStream, super.stderrStream);
+        for (Object value : Arrays.<Object>asList(0, -2, "many")) {
+            Exception caught = null;
+            try {
+                extractor.configure("parallelism", value);
+            } catch (Exception e) {
+                caught = e;
+            }
+            assertNotNull(caught);
+            assertEquals("Value of parallelism property must be a positive integer", caught.getMessage());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.yesworkflow.extract;
+
+import java.io.File;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.yesworkflow.YesWorkflowTestCase;
+import org.yesworkflow.annotations.Annotation;
+import org.yesworkflow.annotations.Qualification;
+
+public class TestDefaultExtractor_Streaming extends YesWorkflowTestCase {
+
+    static final List<String> SOURCES = TestDefaultExtractor_Parallel.SOURCES;
+
+    private File listFile;
+    private File factsFile;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        listFile = File.createTempFile("TestDefaultExtractor_Streaming", ".txt");
+        factsFile = File.createTempFile("TestDefaultExtractor_Streaming", ".P");
+        listFile.deleteOnExit();
+        factsFile.deleteOnExit();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        listFile.delete();
+        factsFile.delete();
+        super.tearDown();
+    }
+
+    private DefaultExtractor configuredExtractor(String listPath, String factsPath) throws Exception {
+        DefaultExtractor extractor = new DefaultExtractor(super.stdoutStream, super.stderrStream);
+        extractor.configure("sources", SOURCES)
+                 .configure("listfile", listPath)
+                 .configure("factsfile", factsPath);
+        return extractor;
+    }
+
+    public void testExtract_StreamingMatchesMaterialized() throws Exception {
+
+        DefaultExtractor materialized = configuredExtractor(listFile.getPath(), factsFile.getPath());
+        materialized.extract();
+        String expectedListing = readTextFile(listFile.getPath());
+        String expectedFacts = readTextFile(factsFile.getPath());
+        List<Annotation> expectedAnnotations = materialized.getAnnotations();
+
+        final List<Annotation> primaryAnnotations = new LinkedList<Annotation>();
+        final List<Annotation> qualifications = new LinkedList<Annotation>();
+        DefaultExtractor streaming = configuredExtractor(listFile.getPath(), factsFile.getPath());
+        streaming.extract(new AnnotationHandler() {
+            public void annotation(Annotation annotation) {
+                if (annotation instanceof Qualification) {
+                    qualifications.add(annotation);
+                } else {
+                    primaryAnnotations.add(annotation);
+                }
+            }
+        });
+
+        assertTrue(expectedAnnotations.size() > 0);
+        assertTrue(qualifications.size() > 0);
+        assertEquals(expectedAnnotations.toString(), primaryAnnotations.toString());
+        assertEquals(expectedListing, readTextFile(listFile.getPath()));
+        assertEquals(expectedFacts, readTextFile(factsFile.getPath()));
+
+        assertEquals(0, streaming.getLines().size());
+        assertEquals(0, streaming.getAnnotations().size());
+        assertNull(streaming.getFacts());
+    }
+
+    public void testExtract_StreamConfiguredInParallel() throws Exception {
+
+        configuredExtractor(listFile.getPath(), factsFile.getPath()).extract();
+        String expectedListing = readTextFile(listFile.getPath());
+        String expectedFacts = readTextFile(factsFile.getPath());
+
+        configuredExtractor(listFile.getPath(), factsFile.getPath())
+            .configure("stream", "true")
+            .configure("parallelism", 3)
+            .extract();
+
+        assertEquals(expectedListing, readTextFile(listFile.getPath()));
+        assertEquals(expectedFacts, readTextFile(factsFile.getPath()));
+    }
+
+    public void testExtract_StreamingListingAndFactsToStdout() throws Exception {
+
+        configuredExtractor("-", "-").extract();
+        String expectedOutput = stdoutBuffer.toString();
+        super.setUp();
+
+        configuredExtractor("-", "-").configure("stream", true).extract();
+
+        assertTrue(expectedOutput.length() > 0);
+        assertEquals(expectedOutput, stdoutBuffer.toString());
+        assertEquals("", stderrBuffer.toString());
+    }
+}
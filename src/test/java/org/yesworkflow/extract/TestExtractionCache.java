@@ -0,0 +1,242 @@
+package org.yesworkflow.extract;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.yesworkflow.Language;
+import org.yesworkflow.LanguageModel;
+import org.yesworkflow.YesWorkflowTestCase;
+
+public class TestExtractionCache extends YesWorkflowTestCase {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    static final String SETTINGS = ExtractionCache.describeSettings(new LanguageModel(Language.PYTHON), UTF8);
+
+    private File cacheDirectory;
+    private File sourceFile;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        cacheDirectory = File.createTempFile("TestExtractionCache", "");
+        cacheDirectory.delete();
+        sourceFile = File.createTempFile("TestExtractionCache", ".py");
+        writeText(sourceFile, "# @begin script" + EOL +
+                              "# @in x"         + EOL +
+                              "# @end script"   + EOL);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        File[] files = cacheDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        cacheDirectory.delete();
+        sourceFile.delete();
+        super.tearDown();
+    }
+
+    private static void writeText(File file, String text) throws IOException {
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            stream.write(text.getBytes(UTF8));
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static ExtractedSource extractedSource(Source source, String... lines) {
+        List<SourceLine> sourceLines = new LinkedList<SourceLine>();
+        for (int i = 0; i < lines.length; ++i) {
+            sourceLines.add(new SourceLine(2 * i, source.id, 2 * i + 1, lines[i]));
+        }
+        return new ExtractedSource(source, Language.PYTHON, 2 * lines.length, sourceLines);
+    }
+
+    private static byte[] hash(String text) {
+        return ExtractionCache.hash(ByteBuffer.wrap(text.getBytes(UTF8)));
+    }
+
+    public void testGet_Missing() throws Exception {
+        ExtractionCache cache = new ExtractionCache(cacheDirectory, ExtractionCache.DEFAULT_MAX_BYTES);
+        assertTrue(cacheDirectory.isDirectory());
+        assertNull(cache.get("script.py", SETTINGS));
+    }
+
+    public void testPutGet_RoundTrip() throws Exception {
+
+        ExtractionCache cache = new ExtractionCache(cacheDirectory, ExtractionCache.DEFAULT_MAX_BYTES);
+        Source source = new Source(3, "script.py");
+        cache.put("script.py", SETTINGS, 100, 1000, hash("text"), extractedSource(source, "@begin s", "@end s"));
+
+        ExtractionCache.Entry entry = cache.get("script.py", SETTINGS);
+        assertNotNull(entry);
+        assertEquals(new File("script.py").getAbsolutePath(), entry.path);
+        assertTrue(entry.isCurrent(100, 1000));
+        assertFalse(entry.isCurrent(101, 1000));
+        assertFalse(entry.isCurrent(100, 1001));
+        assertTrue(entry.hasContent(hash("text")));
+        assertFalse(entry.hasContent(hash("other text")));
+
+        ExtractedSource extracted = entry.toExtractedSource(new Source(7, "script.py"));
+        assertEquals(Language.PYTHON, extracted.language);
+        assertEquals(4, extracted.commentLineCount);
+        assertEquals(2, extracted.lines.size());
+        assertEquals(2, (int)extracted.lines.get(1).lineId);
+        assertEquals(7, (int)extracted.lines.get(1).sourceId);
+        assertEquals(3, (int)extracted.lines.get(1).lineNumber);
+        assertEquals("@end s", extracted.lines.get(1).text);
+    }
+
+    public void testGet_DifferentSettings() throws Exception {
+        ExtractionCache cache = new ExtractionCache(cacheDirectory, ExtractionCache.DEFAULT_MAX_BYTES);
+        cache.put("script.py", SETTINGS, 100, 1000, hash("text"), extractedSource(new Source(1, "script.py")));
+        assertNull(cache.get("script.py", ExtractionCache.describeSettings(new LanguageModel(Language.R), UTF8)));
+        assertNull(cache.get("script.py", ExtractionCache.describeSettings(new LanguageModel(Language.PYTHON),
+                                                                           Charset.forName("ISO-8859-1"))));
+        assertNotNull(cache.get("script.py", SETTINGS));
+    }
+
+    public void testIsCurrent_RecentlyModifiedFile() throws Exception {
+        ExtractionCache cache = new ExtractionCache(cacheDirectory, ExtractionCache.DEFAULT_MAX_BYTES);
+        long now = System.currentTimeMillis();
+        cache.put("script.py", SETTINGS, 100, now, hash("text"), extractedSource(new Source(1, "script.py")));
+        assertFalse(cache.get("script.py", SETTINGS).isCurrent(100, now));
+    }
+
+    public void testGet_CorruptEntry() throws Exception {
+        ExtractionCache cache = new ExtractionCache(cacheDirectory, ExtractionCache.DEFAULT_MAX_BYTES);
+        cache.put("script.py", SETTINGS, 100, 1000, hash("text"), extractedSource(new Source(1, "script.py"), "@in x"));
+        File[] entries = cacheDirectory.listFiles();
+        assertEquals(1, entries.length);
+        writeText(entries[0], "not an entry");
+        assertNull(cache.get("script.py", SETTINGS));
+    }
+
+    public void testEvict_LeastRecentlyUsed() throws Exception {
+
+        ExtractionCache unbounded = new ExtractionCache(cacheDirectory, ExtractionCache.DEFAULT_MAX_BYTES);
+        for (String name : Arrays.asList("a.py", "b.py", "c.py")) {
+            unbounded.put(name, SETTINGS, 100, 1000, hash(name), extractedSource(new Source(1, name), "@in " + name));
+        }
+        File[] entries = cacheDirectory.listFiles();
+        long entrySize = entries[0].length();
+        for (File entry : entries) entry.setLastModified(System.currentTimeMillis() - 60000);
+
+        // using an entry makes it the most recently used
+        assertNotNull(unbounded.get("a.py", SETTINGS));
+
+        ExtractionCache bounded = new ExtractionCache(cacheDirectory, entrySize + entrySize / 2);
+        bounded.evict();
+
+        assertNotNull(bounded.get("a.py", SETTINGS));
+        int remaining = 0;
+        for (String name : Arrays.asList("b.py", "c.py")) {
+            if (bounded.get(name, SETTINGS) != null) remaining++;
+        }
+        assertEquals(0, remaining);
+    }
+
+    public void testEvict_ConcurrentCachesInOneJvm() throws Exception {
+
+        ExtractionCache unbounded = new ExtractionCache(cacheDirectory, ExtractionCache.DEFAULT_MAX_BYTES);
+        for (int i = 0; i < 20; ++i) {
+            String name = "s" + i + ".py";
+            unbounded.put(name, SETTINGS, 100, 1000, hash(name), extractedSource(new Source(1, name), "@in " + name));
+        }
+
+        // each extraction opens its own cache, so the evictions share only the directory
+        final File directory = new File(cacheDirectory.getPath() + File.separator + "." + File.separator);
+        final List<Throwable> failures = Collections.synchronizedList(new LinkedList<Throwable>());
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<?>> results = new LinkedList<Future<?>>();
+            for (int i = 0; i < 200; ++i) {
+                results.add(executor.submit(new Runnable() {
+                    public void run() {
+                        try {
+                            new ExtractionCache(directory, 1).evict();
+                        } catch (Throwable t) {
+                            failures.add(t);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> result : results) result.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals("[]", failures.toString());
+        assertNull(unbounded.get("s0.py", SETTINGS));
+        assertEquals(1, cacheDirectory.listFiles().length);
+    }
+
+    public void testExtract_CachedMatchesUncached() throws Exception {
+
+        List<String> sources = new LinkedList<String>(TestDefaultExtractor_Parallel.SOURCES);
+        sources.add(sourceFile.getPath());
+
+        DefaultExtractor uncached = new DefaultExtractor(super.stdoutStream, super.stderrStream);
+        uncached.configure("sources", sources).extract();
+        String expectedFacts = uncached.getFacts();
+
+        for (int run = 0; run < 3; ++run) {
+            DefaultExtractor cached = new DefaultExtractor(super.stdoutStream, super.stderrStream);
+            cached.configure("sources", sources)
+                  .configure("cache", cacheDirectory.getPath())
+                  .configure("parallelism", 1 + run)
+                  .extract();
+            assertEquals(expectedFacts, cached.getFacts());
+            assertEquals(uncached.getAnnotations().toString(), cached.getAnnotations().toString());
+            sourceFile.setLastModified(sourceFile.lastModified() - 10000);
+        }
+
+        assertEquals(sources.size(), cacheDirectory.listFiles().length - 1);
+    }
+
+    public void testExtract_ChangedFileRescanned() throws Exception {
+
+        DefaultExtractor first = new DefaultExtractor(super.stdoutStream, super.stderrStream);
+        first.configure("sources", sourceFile.getPath())
+             .configure("cache", cacheDirectory.getPath())
+             .extract();
+        assertEquals(3, first.getAnnotations().size());
+
+        long modified = sourceFile.lastModified();
+        writeText(sourceFile, "# @begin script" + EOL +
+                              "# @in x"         + EOL +
+                              "# @out y"        + EOL +
+                              "# @end script"   + EOL);
+        sourceFile.setLastModified(modified);
+
+        DefaultExtractor second = new DefaultExtractor(super.stdoutStream, super.stderrStream);
+        second.configure("sources", sourceFile.getPath())
+              .configure("cache", cacheDirectory.getPath())
+              .extract();
+        assertEquals(4, second.getAnnotations().size());
+        assertEquals("@out y", second.getAnnotations().get(2).comment);
+    }
+
+    public void testConfigure_InvalidCacheSize() throws Exception {
+        Exception caught = null;
+        try {
+            new DefaultExtractor(super.stdoutStream, super.stderrStream).configure("cachesize", "0");
+        } catch (Exception e) {
+            caught = e;
+        }
+        assertNotNull(caught);
+        assertEquals("Value of cachesize property must be a positive number of megabytes", caught.getMessage());
+    }
+}
@@ -0,0 +1,81 @@
+package org.yesworkflow.extract;
+
+import java.util.Arrays;
+
+import org.yesworkflow.YWKeywords;
+import org.yesworkflow.YesWorkflowTestCase;
+import org.yesworkflow.extract.KeywordMatcher.MatchExtent;
+
+public class TestKeywordMatcher extends YesWorkflowTestCase {
+
+    private KeywordMatcher matcher;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        matcher = new KeywordMatcher(new YWKeywords().getKeywords());
+    }
+
+    public void test_FindKeyword_NoKeyword() {
+        assertEquals(-1, matcher.findKeyword(""));
+        assertEquals(-1, matcher.findKeyword("a comment"));
+        assertEquals(-1, matcher.findKeyword("a comment with an @ symbol in it"));
+        assertEquals(-1, matcher.findKeyword("@ begin @ end"));
+    }
+
+    public void test_FindKeyword_OneKeyword() {
+        assertEquals(0, matcher.findKeyword("@begin step"));
+        assertEquals(3, matcher.findKeyword("## @in x"));
+        assertEquals(5, matcher.findKeyword("text @out"));
+    }
+
+    public void test_FindKeyword_IgnoresCase() {
+        assertEquals(0, matcher.findKeyword("@BEGIN step"));
+        assertEquals(2, matcher.findKeyword("  @In x @OUT y"));
+        assertEquals(1, matcher.findKeyword(" @pArAm p"));
+    }
+
+    public void test_FindKeyword_FirstOfSeveralKeywords() {
+        assertEquals(0, matcher.findKeyword("@in x @out y @param z"));
+        assertEquals(4, matcher.findKeyword("abc @out y @in x"));
+        assertEquals(6, matcher.findKeyword("@@@@@@@uri file:x"));
+    }
+
+    public void test_FindKeyword_OverlappingKeywords() {
+        KeywordMatcher overlapping = new KeywordMatcher(Arrays.asList("@inputs", "puts", "@in"));
+        assertEquals(0, overlapping.findKeyword("@inputs"));
+        assertEquals(3, overlapping.findKeyword("xyzputs @in"));
+        assertEquals(2, overlapping.findKeyword("@@@inputs"));
+    }
+
+    public void test_FindKeyword_Range() {
+        KeywordAutomaton automaton = new KeywordAutomaton(new YWKeywords().getKeywords());
+        assertEquals(6, automaton.find("@in x @out y", 1, 12));
+        assertEquals(-1, automaton.find("@in x @out y", 1, 8));
+    }
+
+    public void test_MatchesKeyword() {
+        assertEquals(MatchExtent.PREFIX_MATCH, matcher.matchesKeyword(""));
+        assertEquals(MatchExtent.PREFIX_MATCH, matcher.matchesKeyword("@"));
+        assertEquals(MatchExtent.PREFIX_MATCH, matcher.matchesKeyword("@beg"));
+        assertEquals(MatchExtent.FULL_MATCH, matcher.matchesKeyword("@begin"));
+        assertEquals(MatchExtent.FULL_MATCH, matcher.matchesKeyword("@BeGiN"));
+        assertEquals(MatchExtent.FULL_MATCH, matcher.matchesKeyword(new StringBuilder("@in")));
+        assertEquals(MatchExtent.NO_MATCH, matcher.matchesKeyword("@begins"));
+        assertEquals(MatchExtent.NO_MATCH, matcher.matchesKeyword("begin"));
+        assertEquals(MatchExtent.NO_MATCH, matcher.matchesKeyword("@x"));
+    }
+
+    public void test_MatchesKeyword_NoKeywords() {
+        KeywordMatcher empty = new KeywordMatcher(Arrays.<String>asList());
+        assertEquals(MatchExtent.NO_MATCH, empty.matchesKeyword(""));
+        assertEquals(MatchExtent.NO_MATCH, empty.matchesKeyword("@in"));
+        assertEquals(-1, empty.findKeyword("@in"));
+    }
+
+    public void test_Match_Trim() {
+        assertEquals("@in x", matcher.match("# @in x", true));
+        assertEquals("# @in x", matcher.match("# @in x", false));
+        assertNull(matcher.match("# a comment", true));
+    }
+}
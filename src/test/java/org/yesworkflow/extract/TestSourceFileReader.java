@@ -0,0 +1,108 @@
+package org.yesworkflow.extract;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.yesworkflow.Language;
+import org.yesworkflow.YesWorkflowTestCase;
+import org.yesworkflow.annotations.Annotation;
+import org.yesworkflow.exceptions.YWToolUsageException;
+
+public class TestSourceFileReader extends YesWorkflowTestCase {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+    static final String SOURCE = "# @begin Gr\u00fc\u00dfe" + EOL +
+                                 "x = 1  # @out \u00e9t\u00e9" + EOL +
+                                 "# @end Gr\u00fc\u00dfe" + EOL;
+
+    private File sourceFile;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        sourceFile = File.createTempFile("TestSourceFileReader", ".py");
+        sourceFile.deleteOnExit();
+        writeBytes(sourceFile, SOURCE.getBytes(UTF8));
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        sourceFile.delete();
+        super.tearDown();
+    }
+
+    private static void writeBytes(File file, byte[] bytes) throws IOException {
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            stream.write(bytes);
+        } finally {
+            stream.close();
+        }
+    }
+
+    public void testRead_BulkRead() throws Exception {
+        CharBuffer text = new SourceFileReader(UTF8).read(sourceFile.getPath());
+        assertTrue(text.hasArray());
+        assertEquals(SOURCE, text.toString());
+    }
+
+    public void testRead_MemoryMapped() throws Exception {
+        CharBuffer text = new SourceFileReader(UTF8, 0).read(sourceFile.getPath());
+        assertTrue(text.hasArray());
+        assertEquals(SOURCE, text.toString());
+    }
+
+    public void testRead_ExplicitCharset() throws Exception {
+        CharBuffer text = new SourceFileReader(LATIN1).read(sourceFile.getPath());
+        assertEquals(new String(SOURCE.getBytes(UTF8), LATIN1), text.toString());
+    }
+
+    public void testRead_EmptyFile() throws Exception {
+        writeBytes(sourceFile, new byte[0]);
+        assertEquals(0, new SourceFileReader(UTF8, 0).read(sourceFile.getPath()).remaining());
+        assertEquals(0, new SourceFileReader(UTF8).read(sourceFile.getPath()).remaining());
+    }
+
+    public void testRead_MissingFile() throws Exception {
+        Exception caught = null;
+        try {
+            new SourceFileReader(UTF8).read("nonexistent.py");
+        } catch (YWToolUsageException e) {
+            caught = e;
+        }
+        assertNotNull(caught);
+        assertEquals("ERROR: Input file not found: nonexistent.py", caught.getMessage());
+    }
+
+    public void testExtract_Charset() throws Exception {
+
+        DefaultExtractor extractor = new DefaultExtractor(super.stdoutStream, super.stderrStream);
+        extractor.configure("language", Language.PYTHON)
+                 .configure("charset", "UTF-8")
+                 .configure("sources", sourceFile.getPath())
+                 .extract();
+
+        List<Annotation> annotations = extractor.getAnnotations();
+        assertEquals(3, annotations.size());
+        assertEquals("@begin Gr\u00fc\u00dfe", annotations.get(0).comment);
+        assertEquals("@out \u00e9t\u00e9", annotations.get(1).comment);
+        assertEquals(2, (int)extractor.getLines().get(1).lineNumber);
+    }
+
+    public void testConfigure_InvalidCharset() throws Exception {
+        Exception caught = null;
+        try {
+            new DefaultExtractor(super.stdoutStream, super.stderrStream).configure("charset", "no-such-charset");
+        } catch (Exception e) {
+            caught = e;
+        }
+        assertNotNull(caught);
+        assertEquals("Value of charset property must be a supported character set", caught.getMessage());
+    }
+}
@@ -0,0 +1,61 @@
+package org.yesworkflow.graph.tests;
+
+import java.io.StringWriter;
+
+import org.yesworkflow.YesWorkflowTestCase;
+import org.yesworkflow.graph.DotBuilder;
+
+public class TestDotBuilder extends YesWorkflowTestCase {
+
+    public void testDotBuilder_Streaming_MatchesInMemory() throws Exception {
+
+        StringWriter out = new StringWriter();
+        DotBuilder streamed = build(new DotBuilder(out), 5000);
+        String inMemory = build(new DotBuilder(), 5000).toString();
+
+        assertTrue(inMemory.length() > 10 * DotBuilder.FLUSH_THRESHOLD);
+        assertTrue(streamed.isStreaming());
+        assertEquals(inMemory, out.toString());
+        assertEquals("", streamed.toString());
+    }
+
+    public void testDotBuilder_Streaming_WritesBeforeEndOfGraph() throws Exception {
+
+        StringWriter out = new StringWriter();
+        DotBuilder dot = new DotBuilder(out).beginGraph();
+        for (int i = 0; i < 1000; ++i) {
+            dot.node("n" + i);
+        }
+
+        assertTrue(out.getBuffer().length() >= DotBuilder.FLUSH_THRESHOLD);
+        assertTrue(dot.toString().length() < DotBuilder.FLUSH_THRESHOLD);
+    }
+
+    public void testDotBuilder_Reset_MatchesNewBuilder() throws Exception {
+
+        DotBuilder dot = build(new DotBuilder(), 100);
+        dot.shape("circle").width(0.2).enableComments(false);
+        String expected = build(new DotBuilder(), 50).toString();
+
+        assertEquals(expected, build(dot.reset(null), 50).toString());
+        assertFalse(dot.isStreaming());
+
+        StringWriter out = new StringWriter();
+        build(dot.reset(out), 50);
+        assertEquals(expected, out.toString());
+    }
+
+    private static DotBuilder build(DotBuilder dot, int nodeCount) {
+        dot.beginGraph().rankDir("LR").enableComments(true);
+        dot.comment("Nodes").beginSubgraph("workflow");
+        dot.shape("box").fillcolor("#CCFFCC");
+        for (int i = 0; i < nodeCount; ++i) {
+            dot.node("program" + i);
+        }
+        dot.endSubgraph();
+        for (int i = 1; i < nodeCount; ++i) {
+            dot.edge("program" + (i - 1), "program" + i, "data" + i);
+        }
+        return dot.endGraph();
+    }
+}
@@ -0,0 +1,130 @@
+package org.yesworkflow.graph.tests;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import org.yesworkflow.YesWorkflowTestCase;
+import org.yesworkflow.annotations.Annotation;
+import org.yesworkflow.extract.DefaultExtractor;
+import org.yesworkflow.graph.DotGrapher;
+import org.yesworkflow.graph.GraphView;
+import org.yesworkflow.model.DefaultModeler;
+import org.yesworkflow.model.Model;
+
+public class TestDotGrapher_MultipleViews extends YesWorkflowTestCase {
+
+    static final String TEST_RESOURCE_DIR = "src/test/resources/org/yesworkflow/graph/TestDotGrapher_ProcessView/";
+
+    private Model model;
+    private String processGraph;
+    private String dataGraph;
+    private String combinedGraph;
+
+    @Override
+    public void setUp() throws Exception {
+
+        super.setUp();
+
+        model = modelFor("examplePyScript");
+        processGraph = singleViewGraph("process");
+        dataGraph = singleViewGraph("data");
+        combinedGraph = singleViewGraph("combined");
+        ((ByteArrayOutputStream)stdoutBuffer).reset();
+    }
+
+    public void testGraphView_ToGraphViews() throws Exception {
+
+        assertEquals(Arrays.asList(GraphView.DATA_CENTRIC_VIEW),
+                     GraphView.toGraphViews("data"));
+        assertEquals(Arrays.asList(GraphView.COMBINED_VIEW, GraphView.PROCESS_CENTRIC_VIEW),
+                     GraphView.toGraphViews(" Combined, process ,combined"));
+        assertEquals(Arrays.asList(GraphView.PROCESS_CENTRIC_VIEW, GraphView.DATA_CENTRIC_VIEW),
+                     GraphView.toGraphViews(Arrays.asList("process", GraphView.DATA_CENTRIC_VIEW)));
+
+        Exception caught = null;
+        try {
+            GraphView.toGraphViews("process,workflow");
+        } catch (Exception e) {
+            caught = e;
+        }
+        assertNotNull(caught);
+        assertEquals("Unrecognized GraphView: workflow", caught.getMessage());
+    }
+
+    public void testDotGrapher_MultipleViews_Stdout() throws Exception {
+
+        DotGrapher grapher = grapher("process,data,combined").graph();
+
+        assertEquals(processGraph + dataGraph + combinedGraph, stdoutBuffer.toString());
+        assertEquals(stdoutBuffer.toString(), grapher.toString());
+        assertEquals(dataGraph, grapher.getGraphText(GraphView.DATA_CENTRIC_VIEW));
+    }
+
+    public void testDotGrapher_MultipleViews_Concurrent_Stdout() throws Exception {
+
+        DotGrapher grapher = grapher("combined,process,data")
+                .configure("parallelism", 3)
+                .graph();
+
+        assertEquals(combinedGraph + processGraph + dataGraph, stdoutBuffer.toString());
+        assertEquals(processGraph, grapher.getGraphText(GraphView.PROCESS_CENTRIC_VIEW));
+    }
+
+    public void testDotGrapher_MultipleViews_OneDotFilePerView() throws Exception {
+
+        File dir = File.createTempFile("TestDotGrapher_MultipleViews", "");
+        dir.delete();
+        dir.mkdir();
+        String dotFile = new File(dir, "wf.gv").getPath();
+
+        for (String stream : new String[] { "false", "true" }) {
+
+            DotGrapher grapher = grapher("process,data,combined")
+                    .configure("dotfile", dotFile)
+                    .configure("parallelism", "2")
+                    .configure("stream", stream)
+                    .graph();
+
+            assertEquals(processGraph, readTextFile(new File(dir, "wf_process.gv").getPath()));
+            assertEquals(dataGraph, readTextFile(new File(dir, "wf_data.gv").getPath()));
+            assertEquals(combinedGraph, readTextFile(new File(dir, "wf_combined.gv").getPath()));
+            assertFalse(new File(dotFile).exists());
+            assertEquals(combinedGraph, grapher.getGraphText(GraphView.COMBINED_VIEW));
+            assertEquals("", stdoutBuffer.toString());
+        }
+
+        for (File file : dir.listFiles()) file.delete();
+        dir.delete();
+    }
+
+    private DotGrapher grapher(String views) throws Exception {
+        return new DotGrapher(super.stdoutStream, super.stderrStream)
+                .configure("view", views)
+                .configure("params", "show")
+                .model(model);
+    }
+
+    private String singleViewGraph(String view) throws Exception {
+        return grapher(view).graph().toString();
+    }
+
+    private Model modelFor(String name) throws Exception {
+
+        String script = super.readTextFile(TEST_RESOURCE_DIR + name + ".in");
+
+        List<Annotation> annotations = new DefaultExtractor(super.stdoutStream, super.stderrStream)
+                .configure("comment", "#")
+                .reader(new BufferedReader(new StringReader(script)))
+                .extract()
+                .getAnnotations();
+
+        return new DefaultModeler(super.stdoutStream, super.stderrStream)
+                .annotations(annotations)
+                .model()
+                .getModel();
+    }
+}
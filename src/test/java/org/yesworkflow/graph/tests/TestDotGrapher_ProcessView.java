@@ -1,6 +1,7 @@
 package org.yesworkflow.graph.tests;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.List;
@@ -126,6 +127,37 @@ public class TestDotGrapher_ProcessView extends YesWorkflowTestCase {
          assertEquals(expectedGraph(src), actualGraph(src));  
      }
 
+     public void test_ExamplePyScript_GraphedRepeatedly() throws Exception {
+         String src = "examplePyScript";
+         String expected = expectedGraph(src);
+         assertEquals(expected, actualGraph(src));
+         assertEquals(expected, grapher.graph().toString());
+         grapher.configure("view", "data").graph();
+         grapher.configure("view", "process").graph();
+         assertEquals(expected, grapher.toString());
+     }
+
+     public void test_ExamplePyScript_Streamed() throws Exception {
+         grapher.configure("stream", "true");
+         String src = "examplePyScript";
+         String expected = expectedGraph(src);
+         assertEquals(expected, actualGraph(src));
+         assertEquals(expected, stdoutBuffer.toString());
+     }
+
+     public void test_NestedSubworkflow_StreamedToFile() throws Exception {
+         File dotFile = File.createTempFile("TestDotGrapher_ProcessView", ".gv");
+         dotFile.deleteOnExit();
+         grapher.configure("stream", true)
+                .configure("dotfile", dotFile.getPath());
+         String src = "nestedSubworkflow";
+         String graph = actualGraph(src);
+         assertEquals(expectedGraph(src), readTextFile(dotFile.getPath()));
+         assertEquals(expectedGraph(src), graph);
+         assertEquals("", stdoutBuffer.toString());
+         dotFile.delete();
+     }
+
      private String actualGraph(String name) throws Exception {
           
           String script = super.readTextFile(TEST_RESOURCE_DIR + name + ".in");
@@ -0,0 +1,196 @@
+package org.yesworkflow.metrics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import org.yesworkflow.YesWorkflowTestCase;
+import org.yesworkflow.annotations.Annotation;
+import org.yesworkflow.cli.ExitCode;
+import org.yesworkflow.cli.YesWorkflowCLI;
+import org.yesworkflow.config.YWConfiguration;
+import org.yesworkflow.extract.DefaultExtractor;
+import org.yesworkflow.graph.DotGrapher;
+import org.yesworkflow.model.DefaultModeler;
+import org.yesworkflow.model.Model;
+
+public class TestStageMetrics extends YesWorkflowTestCase {
+
+    static final List<String> SOURCES = Arrays.asList(
+            "src/test/resources/simpleExample.py",
+            "src/main/resources/example.py");
+
+    static final String SCRIPT =
+            "# @begin script"               + EOL +
+            "# @in x"                       + EOL +
+            "# @out z"                      + EOL +
+            "#   @begin step_one"           + EOL +
+            "#   @in x"                     + EOL +
+            "#   @out y"                    + EOL +
+            "#   @end step_one"             + EOL +
+            "#   @begin step_two"           + EOL +
+            "#   @in y"                     + EOL +
+            "#   @out z"                    + EOL +
+            "#   @end step_two"             + EOL +
+            "# @end script"                 + EOL;
+
+    public void testStageMetrics_CountersAndTimes() throws Exception {
+
+        StageMetrics metrics = new StageMetrics("stage").start();
+        metrics.count("things", 2).count("other", 0).count("things", 3);
+        metrics.stop();
+
+        assertEquals(5, metrics.getCounter("things"));
+        assertEquals(0, metrics.getCounter("missing"));
+        assertEquals(Arrays.asList("things", "other"), Arrays.asList(metrics.getCounters().keySet().toArray()));
+        assertTrue(metrics.getWallNanos() > 0);
+        assertTrue(metrics.getCpuNanos() >= -1);
+        assertTrue(metrics.getAllocatedBytes() >= -1);
+
+        metrics.start();
+        assertEquals(0, metrics.getCounter("things"));
+    }
+
+    public void testExtractorMetrics() throws Exception {
+
+        for (int parallelism : new int[] { 1, 2 }) {
+            DefaultExtractor extractor = new DefaultExtractor(stdoutStream, stderrStream)
+                    .configure("sources", SOURCES)
+                    .configure("parallelism", parallelism)
+                    .extract();
+            StageMetrics metrics = extractor.getMetrics();
+
+            assertEquals("extract", metrics.stage);
+            assertEquals(2, metrics.getCounter("files"));
+            assertEquals(2, metrics.getCounter("files_scanned"));
+            assertEquals(27 + 67, metrics.getCounter("lines_scanned"));
+            assertEquals(extractor.getLines().size(), metrics.getCounter("yw_lines"));
+            assertTrue(metrics.getCounter("comment_lines") >= metrics.getCounter("yw_lines"));
+            assertEquals(extractor.getComments().size(), metrics.getCounter("annotations"));
+            assertTrue(metrics.getWallNanos() > 0);
+        }
+    }
+
+    public void testModelerAndGrapherMetrics() throws Exception {
+
+        List<Annotation> annotations = new DefaultExtractor(stdoutStream, stderrStream)
+                .configure("comment", "#")
+                .reader(new BufferedReader(new StringReader(SCRIPT)))
+                .extract()
+                .getAnnotations();
+        DefaultModeler modeler = new DefaultModeler(stdoutStream, stderrStream);
+        Model model = modeler.annotations(annotations).model().getModel();
+
+        StageMetrics modelMetrics = modeler.getMetrics();
+        assertEquals("model", modelMetrics.stage);
+        assertEquals(12, modelMetrics.getCounter("annotations"));
+        assertEquals(3, modelMetrics.getCounter("programs"));
+        assertEquals(0, modelMetrics.getCounter("functions"));
+        assertEquals(6, modelMetrics.getCounter("ports"));
+        assertEquals(model.program.channels.length, modelMetrics.getCounter("channels"));
+        assertEquals(3, modelMetrics.getCounter("channels"));
+
+        DotGrapher grapher = new DotGrapher(stdoutStream, stderrStream)
+                .configure("view", "process,data")
+                .configure("parallelism", 2)
+                .model(model)
+                .graph();
+        StageMetrics graphMetrics = grapher.getMetrics();
+        String graph = grapher.toString();
+        assertEquals("graph", graphMetrics.stage);
+        assertEquals(2, graphMetrics.getCounter("views"));
+        assertEquals(count(graph, "^node\\d+ \\[.*|^node\\d+$"), graphMetrics.getCounter("nodes"));
+        assertEquals(count(graph, ".* -> .*"), graphMetrics.getCounter("edges"));
+        assertTrue(graphMetrics.getCounter("edges") > 0);
+    }
+
+    public void testMetricsReport_JsonAndCsv() throws Exception {
+
+        StageMetrics extract = new StageMetrics("extract").start();
+        extract.count("files", 2).count("annotations", 7).stop();
+        StageMetrics model = new StageMetrics("model").start();
+        model.count("programs", 3).stop();
+        MetricsReport report = new MetricsReport().add(extract).add(model);
+
+        assertEquals(MetricsReport.Format.CSV, MetricsReport.formatForPath("metrics.CSV"));
+        assertEquals(MetricsReport.Format.JSON, MetricsReport.formatForPath("metrics.json"));
+        assertEquals(MetricsReport.Format.CSV, MetricsReport.toFormat(" csv"));
+
+        String csv = report.toString(MetricsReport.Format.CSV);
+        assertEquals(
+            "stage,metric,value"                                            + EOL +
+            "extract,wallNanos," + extract.getWallNanos()                   + EOL +
+            "extract,cpuNanos," + extract.getCpuNanos()                     + EOL +
+            "extract,allocatedBytes," + extract.getAllocatedBytes()         + EOL +
+            "extract,files,2"                                               + EOL +
+            "extract,annotations,7"                                         + EOL +
+            "model,wallNanos," + model.getWallNanos()                       + EOL +
+            "model,cpuNanos," + model.getCpuNanos()                         + EOL +
+            "model,allocatedBytes," + model.getAllocatedBytes()             + EOL +
+            "model,programs,3"                                              + EOL,
+            csv);
+
+        String json = report.toString(MetricsReport.Format.JSON);
+        assertEquals(
+            "{"                                                             + EOL +
+            "  \"stages\": ["                                               + EOL +
+            "    {"                                                         + EOL +
+            "      \"stage\": \"extract\","                                 + EOL +
+            "      \"wallNanos\": " + extract.getWallNanos() + ","          + EOL +
+            "      \"cpuNanos\": " + extract.getCpuNanos() + ","            + EOL +
+            "      \"allocatedBytes\": " + extract.getAllocatedBytes() + "," + EOL +
+            "      \"counters\": {\"files\": 2, \"annotations\": 7}"        + EOL +
+            "    },"                                                        + EOL +
+            "    {"                                                         + EOL +
+            "      \"stage\": \"model\","                                   + EOL +
+            "      \"wallNanos\": " + model.getWallNanos() + ","            + EOL +
+            "      \"cpuNanos\": " + model.getCpuNanos() + ","              + EOL +
+            "      \"allocatedBytes\": " + model.getAllocatedBytes() + ","  + EOL +
+            "      \"counters\": {\"programs\": 3}"                         + EOL +
+            "    }"                                                         + EOL +
+            "  ]"                                                           + EOL +
+            "}"                                                             + EOL,
+            json);
+    }
+
+    public void testCLI_MetricsFile() throws Exception {
+
+        File metricsFile = File.createTempFile("TestStageMetrics", ".csv");
+        try {
+            YesWorkflowCLI cli = new YesWorkflowCLI(stdoutStream, stderrStream).config(new YWConfiguration());
+            ExitCode exitCode = cli.runForArgs(new String[] {
+                    "graph", SOURCES.get(1), "-c", "metrics.file=" + metricsFile.getPath() });
+
+            assertEquals(ExitCode.SUCCESS, exitCode);
+            assertEquals(3, cli.getMetrics().size());
+            assertEquals("graph", cli.getMetrics().get(2).stage);
+            String csv = readTextFile(metricsFile.getPath());
+            assertTrue(csv.startsWith("stage,metric,value" + EOL + "extract,wallNanos,"));
+            assertTrue(csv.contains("extract,files,1" + EOL));
+            assertTrue(csv.contains("extract,lines_scanned,67" + EOL));
+            assertTrue(csv.contains("model,programs,"));
+            assertTrue(csv.contains("graph,nodes,"));
+
+            exitCode = new YesWorkflowCLI(stdoutStream, stderrStream).config(new YWConfiguration()).runForArgs(
+                    new String[] { "model", SOURCES.get(1), "-c", "metrics.file=" + metricsFile.getPath(),
+                                   "-c", "metrics.format=json" });
+            assertEquals(ExitCode.SUCCESS, exitCode);
+            String json = readTextFile(metricsFile.getPath());
+            assertTrue(json.startsWith("{" + EOL + "  \"stages\": [" + EOL));
+            assertTrue(json.contains("\"stage\": \"model\""));
+            assertFalse(json.contains("\"stage\": \"graph\""));
+        } finally {
+            metricsFile.delete();
+        }
+    }
+
+    private static int count(String text, String lineRegex) {
+        int count = 0;
+        for (String line : text.split("\\r?\\n")) {
+            if (line.trim().matches(lineRegex)) count++;
+        }
+        return count;
+    }
+}
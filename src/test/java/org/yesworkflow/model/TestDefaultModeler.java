@@ -664,6 +664,46 @@ public class TestDefaultModeler extends YesWorkflowTestCase {
         assertEquals("channel1", channel1.sinkPort.flowAnnotation.name);
         assertEquals(Param.class, channel1.sinkPort.flowAnnotation.getClass());
     }
+
+    public void testExtract_GetModel_HasChannelForBinding() throws Exception {
+        
+        String source = 
+                "# @begin script"       + EOL +
+                "# @in x"               + EOL +
+                "# @out z"              + EOL +
+                "#"                     + EOL +
+                "#   @begin program0"   + EOL +
+                "#   @in x"             + EOL +
+                "#   @out y @as channel0" + EOL +
+                "#   @end program0"     + EOL +
+                "#"                     + EOL +
+                "#   @begin program1"   + EOL +
+                "#   @in channel0"      + EOL +
+                "#   @out z"            + EOL +
+                "#   @end program1"     + EOL +
+                "#"                     + EOL +
+                "# @end script"         + EOL;
+
+        BufferedReader reader = new BufferedReader(new StringReader(source));
+        
+        List<Annotation> annotations = extractor
+                .configure("comment", "#")
+                .reader(reader)
+                .extract()
+                .getAnnotations();
+
+        Workflow workflow = (Workflow)modeler.annotations(annotations)
+                                             .model()
+                                             .getModel()
+                                             .program;
+        
+        assertTrue(workflow.hasChannelForBinding("x"));
+        assertTrue(workflow.hasChannelForBinding("channel0"));
+        assertTrue(workflow.hasChannelForBinding("z"));
+        assertFalse(workflow.hasChannelForBinding("y"));
+        assertFalse(workflow.hasChannelForBinding("w"));
+        assertFalse(workflow.programs[0].hasChannelForBinding("x"));
+    }
    
    
    public void testExtract_GetCommentLines_OneComment_Hash() throws Exception {
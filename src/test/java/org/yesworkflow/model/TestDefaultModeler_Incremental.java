@@ -0,0 +1,147 @@
+package org.yesworkflow.model;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.List;
+
+import org.yesworkflow.YesWorkflowTestCase;
+import org.yesworkflow.annotations.Annotation;
+import org.yesworkflow.extract.DefaultExtractor;
+import org.yesworkflow.query.LogicLanguage;
+
+public class TestDefaultModeler_Incremental extends YesWorkflowTestCase {
+
+    static final String SCRIPT =
+            "# @begin script"               + EOL +
+            "# @in x"                       + EOL +
+            "# @out z"                      + EOL +
+            "#   @begin step_one"           + EOL +
+            "#   @in x"                     + EOL +
+            "#   @out y"                    + EOL +
+            "#   @end step_one"             + EOL +
+            "#   @begin sub"                + EOL +
+            "#   @in y"                     + EOL +
+            "#   @out z"                    + EOL +
+            "#     @begin inner_a"          + EOL +
+            "#     @in y"                   + EOL +
+            "#     @out w"                  + EOL +
+            "#     @end inner_a"            + EOL +
+            "#     @begin inner_b"          + EOL +
+            "#     @in w"                   + EOL +
+            "#     @out z"                  + EOL +
+            "#     @end inner_b"            + EOL +
+            "#   @end sub"                  + EOL +
+            "# @end script"                 + EOL;
+
+    private DefaultModeler modeler;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        modeler = new DefaultModeler(super.stdoutStream, super.stderrStream);
+        modeler.configure("incremental", true);
+    }
+
+    public void testModel_Unchanged_NestedProgramsReused() throws Exception {
+
+        Model first = model(SCRIPT);
+        assertEquals(0, modeler.getReusedProgramCount());
+
+        Model second = model(SCRIPT);
+        assertEquals(2, modeler.getReusedProgramCount());
+        assertNotSame(first.program, second.program);
+        assertSame(first.program.programs[0], second.program.programs[0]);
+        assertSame(first.program.programs[1], second.program.programs[1]);
+        assertEquals(facts(freshModel(SCRIPT)), facts(second));
+    }
+
+    public void testModel_ChangedBlock_RebuiltWithinReusedSiblings() throws Exception {
+
+        Model first = model(SCRIPT);
+        model(SCRIPT);
+
+        String changed = SCRIPT.replace("#     @out z", "#     @out z The result");
+        Model third = model(changed);
+        assertEquals(2, modeler.getReusedProgramCount());
+        assertSame(first.program.programs[0], third.program.programs[0]);
+        assertNotSame(first.program.programs[1], third.program.programs[1]);
+        assertSame(first.program.programs[1].programs[0], third.program.programs[1].programs[0]);
+        assertEquals(facts(freshModel(changed)), facts(third));
+    }
+
+    public void testModel_InsertedBlock_LaterBlocksMovedAndReused() throws Exception {
+
+        Model first = model(SCRIPT);
+
+        String changed = SCRIPT.replace(
+                "#   @begin sub",
+                "#   @begin step_new"   + EOL +
+                "#   @end step_new"     + EOL +
+                "#   @begin sub");
+        Model second = model(changed);
+        assertEquals(2, modeler.getReusedProgramCount());
+        assertEquals(3, second.program.programs.length);
+        assertSame(first.program.programs[0], second.program.programs[0]);
+        assertNotSame(first.program.programs[1], second.program.programs[2]);
+        assertEquals(first.program.programs[1].id + 1, second.program.programs[2].id.intValue());
+        assertEquals(facts(freshModel(changed)), facts(second));
+    }
+
+    public void testModel_InsertedLinesAndPorts_LaterBlocksMovedAndReused() throws Exception {
+
+        model(SCRIPT);
+
+        String changed = SCRIPT.replace(
+                "# @out z"                      + EOL,
+                "# @out z"                      + EOL +
+                "x = 1"                         + EOL +
+                "# A comment without markup"    + EOL)
+            .replace(
+                "#   @in x"                     + EOL,
+                "#   @in x"                     + EOL +
+                "#   @param p"                  + EOL);
+        Model second = model(changed);
+        assertEquals(1, modeler.getReusedProgramCount());
+        assertEquals(facts(freshModel(changed)), facts(second));
+        assertEquals(22, second.program.programs[1].endAnnotation.line.lineNumber.intValue());
+
+        Model third = model(changed);
+        assertEquals(2, modeler.getReusedProgramCount());
+        assertSame(second.program.programs[1], third.program.programs[1]);
+        assertEquals(facts(freshModel(changed)), facts(third));
+    }
+
+    public void testModel_NotIncremental_NothingReused() throws Exception {
+
+        modeler.configure("incremental", "false");
+        Model first = model(SCRIPT);
+        Model second = model(SCRIPT);
+        assertEquals(0, modeler.getReusedProgramCount());
+        assertNotSame(first.program.programs[0], second.program.programs[0]);
+    }
+
+    private Model model(String script) throws Exception {
+        return modeler.annotations(annotations(script))
+                      .model()
+                      .getModel();
+    }
+
+    private Model freshModel(String script) throws Exception {
+        return new DefaultModeler(super.stdoutStream, super.stderrStream)
+                .annotations(annotations(script))
+                .model()
+                .getModel();
+    }
+
+    private List<Annotation> annotations(String script) throws Exception {
+        return new DefaultExtractor(super.stdoutStream, super.stderrStream)
+                .configure("comment", "#")
+                .reader(new BufferedReader(new StringReader(script)))
+                .extract()
+                .getAnnotations();
+    }
+
+    private static String facts(Model model) throws Exception {
+        return new ModelFacts(LogicLanguage.PROLOG, model).build().toString();
+    }
+}
@@ -0,0 +1,216 @@
+package org.yesworkflow.model;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.yesworkflow.YesWorkflowTestCase;
+import org.yesworkflow.annotations.Annotation;
+import org.yesworkflow.extract.DefaultExtractor;
+import org.yesworkflow.query.DatalogEngine;
+import org.yesworkflow.query.LineageRules;
+import org.yesworkflow.query.LogicLanguage;
+
+public class TestLineageIndex extends YesWorkflowTestCase {
+
+    private static final String NESTED_SOURCE =
+            "# @begin script"           + EOL +
+            "# @in a"                   + EOL +
+            "# @out d"                  + EOL +
+            "#"                         + EOL +
+            "#   @begin step1"          + EOL +
+            "#   @in a"                 + EOL +
+            "#   @out b"                + EOL +
+            "#   @end step1"            + EOL +
+            "#"                         + EOL +
+            "#   @begin sub"            + EOL +
+            "#   @in b"                 + EOL +
+            "#   @out c"                + EOL +
+            "#"                         + EOL +
+            "#     @begin inner1"       + EOL +
+            "#     @in b"               + EOL +
+            "#     @out b2"             + EOL +
+            "#     @end inner1"         + EOL +
+            "#"                         + EOL +
+            "#     @begin inner2"       + EOL +
+            "#     @in b2"              + EOL +
+            "#     @out c"              + EOL +
+            "#     @end inner2"         + EOL +
+            "#"                         + EOL +
+            "#   @end sub"              + EOL +
+            "#"                         + EOL +
+            "#   @begin step3"          + EOL +
+            "#   @in c"                 + EOL +
+            "#   @out d"                + EOL +
+            "#   @end step3"            + EOL +
+            "#"                         + EOL +
+            "#   @begin side"           + EOL +
+            "#   @in a"                 + EOL +
+            "#   @end side"             + EOL +
+            "#"                         + EOL +
+            "# @end script"             + EOL;
+
+    public void testLineageIndex_NestedWorkflow_Bindings() throws Exception {
+
+        LineageIndex lineage = modelFor(NESTED_SOURCE).lineage();
+
+        assertEquals(8, lineage.channels().size());
+        assertEquals("[a, b, b2, c]", sorted(lineage.upstreamBindings("d")));
+        assertEquals("[a, b]", sorted(lineage.upstreamBindings("b2")));
+        assertEquals("[]", sorted(lineage.upstreamBindings("a")));
+        assertEquals("[b, b2, c, d]", sorted(lineage.downstreamBindings("a")));
+        assertEquals("[]", sorted(lineage.upstreamBindings("nothing")));
+    }
+
+    public void testLineageIndex_NestedWorkflow_Programs() throws Exception {
+
+        Model model = modelFor(NESTED_SOURCE);
+        LineageIndex lineage = model.lineage();
+        Program step1 = program(lineage, "step1");
+        Program sub = program(lineage, "sub");
+        Program inner1 = program(lineage, "inner1");
+        Program step3 = program(lineage, "step3");
+        Program side = program(lineage, "side");
+
+        assertEquals("[inner1, inner2, step1, sub]", sorted(lineage.upstreamPrograms(step3)));
+        assertEquals("[inner1, inner2, step3, sub]", sorted(lineage.downstreamPrograms(step1)));
+        assertEquals("[step1]", sorted(lineage.upstreamPrograms(inner1)));
+        assertEquals("[]", sorted(lineage.upstreamPrograms(side)));
+
+        assertTrue(lineage.isUpstream(step1, step3));
+        assertFalse(lineage.isUpstream(inner1, sub));
+        assertTrue(lineage.isUpstream(step1, inner1));
+        assertFalse(lineage.isUpstream(step3, step1));
+        assertFalse(lineage.isUpstream(step1, side));
+    }
+
+    public void testLineageIndex_AgreesWithLineageRules() throws Exception {
+
+        Model model = modelFor(NESTED_SOURCE);
+        LineageIndex lineage = model.lineage();
+
+        DatalogEngine engine = new DatalogEngine();
+        new ModelFacts(LogicLanguage.PROLOG, model).writeTo(engine);
+        engine.rules(LineageRules.RULES);
+
+        for (Program program : lineage.programs()) {
+            List<String> derived = new ArrayList<String>();
+            for (Object[] answer : engine.query("upstream_program(" + program.id + ", U)")) {
+                derived.add(lineage.programs().get(indexOf(lineage, (Integer)answer[1])).toString());
+            }
+            assertEquals(program.toString(), sorted(derived), sorted(lineage.upstreamPrograms(program)));
+        }
+
+        for (Channel channel : lineage.channels()) {
+            assertEquals(engine.query("upstream_channel(" + channel.id + ", U)").size(),
+                         lineage.upstreamChannels(channel).size());
+        }
+    }
+
+    public void testLineageIndex_Cycle() throws Exception {
+
+        Model model = modelFor(
+                "# @begin script"           + EOL +
+                "#   @begin p"              + EOL +
+                "#   @in x"                 + EOL +
+                "#   @out y"                + EOL +
+                "#   @end p"                + EOL +
+                "#   @begin q"              + EOL +
+                "#   @in y"                 + EOL +
+                "#   @out x"                + EOL +
+                "#   @end q"                + EOL +
+                "# @end script"             + EOL);
+
+        LineageIndex lineage = model.lineage();
+        Program p = program(lineage, "p");
+        Program q = program(lineage, "q");
+
+        assertEquals("[x, y]", sorted(lineage.upstreamBindings("x")));
+        assertEquals("[p, q]", sorted(lineage.upstreamPrograms(p)));
+        assertTrue(lineage.isUpstream(p, p));
+        assertTrue(lineage.isUpstream(q, p));
+    }
+
+    public void testLineageIndex_LongChain() throws Exception {
+
+        int length = 3000;
+        StringBuilder source = new StringBuilder("# @begin script" + EOL);
+        source.append("# @in d0" + EOL)
+              .append("# @out d" + length + EOL);
+        for (int i = 0; i < length; ++i) {
+            source.append("# @begin p" + i + EOL)
+                  .append("# @in d" + i + EOL)
+                  .append("# @out d" + (i + 1) + EOL)
+                  .append("# @end p" + i + EOL);
+        }
+        source.append("# @end script" + EOL);
+
+        LineageIndex lineage = modelFor(source.toString()).lineage();
+        Program first = program(lineage, "p0");
+        Program last = program(lineage, "p" + (length - 1));
+
+        assertEquals(length - 1, lineage.upstreamPrograms(last).size());
+        assertEquals(length - 1, lineage.downstreamPrograms(first).size());
+        assertTrue(lineage.isUpstream(first, last));
+        assertEquals(length, lineage.upstreamBindings("d" + length).size());
+    }
+
+    public void testLineageIndex_Facts() throws Exception {
+
+        Model model = modelFor(NESTED_SOURCE);
+        String plain = new ModelFacts(LogicLanguage.PROLOG, model).build().toString();
+        String withLineage = new ModelFacts(LogicLanguage.PROLOG, model).lineage(true).build().toString();
+
+        assertFalse(plain.contains("upstream_channel"));
+        assertTrue(withLineage.startsWith(plain));
+        assertTrue(withLineage.contains("% FACT: upstream_channel(channel_id, upstream_channel_id)." + EOL));
+        assertTrue(withLineage.contains("% FACT: upstream_program(program_id, upstream_program_id)." + EOL));
+
+        Program step3 = program(model.lineage(), "step3");
+        Program step1 = program(model.lineage(), "step1");
+        assertTrue(withLineage.contains("upstream_program(" + step3.id + ", " + step1.id + ")." + EOL));
+
+        DefaultModeler modeler = new DefaultModeler(super.stdoutStream, super.stderrStream);
+        modeler.configure("lineage", "true")
+               .annotations(annotationsFor(NESTED_SOURCE))
+               .model();
+        assertTrue(modeler.getFacts().contains("% FACT: upstream_program(program_id, upstream_program_id)."));
+    }
+
+    private Model modelFor(String source) throws Exception {
+        return new DefaultModeler(super.stdoutStream, super.stderrStream)
+                .annotations(annotationsFor(source))
+                .model()
+                .getModel();
+    }
+
+    private List<Annotation> annotationsFor(String source) throws Exception {
+        return new DefaultExtractor(super.stdoutStream, super.stderrStream)
+                .configure("comment", "#")
+                .reader(new StringReader(source))
+                .extract()
+                .getAnnotations();
+    }
+
+    private static Program program(LineageIndex lineage, String name) {
+        for (Program program : lineage.programs()) {
+            if (program.beginAnnotation.name.equals(name)) return program;
+        }
+        throw new IllegalArgumentException("No program named " + name);
+    }
+
+    private static int indexOf(LineageIndex lineage, Integer programId) {
+        for (int i = 0; i < lineage.programs().size(); ++i) {
+            if (lineage.programs().get(i).id.equals(programId)) return i;
+        }
+        return -1;
+    }
+
+    private static String sorted(List<?> items) {
+        List<String> strings = new ArrayList<String>();
+        for (Object item : items) strings.add(item.toString());
+        Collections.sort(strings);
+        return strings.toString();
+    }
+}
@@ -0,0 +1,59 @@
+package org.yesworkflow.model;
+
+import java.io.StringReader;
+import java.util.List;
+
+import org.yesworkflow.YesWorkflowTestCase;
+import org.yesworkflow.annotations.Annotation;
+import org.yesworkflow.extract.DefaultExtractor;
+import org.yesworkflow.query.LogicLanguage;
+
+public class TestModelFacts extends YesWorkflowTestCase {
+
+    public void testModelFacts_PortDirectionDoesNotDependOnTagCase() throws Exception {
+
+        String source =
+                "# @begin script"           + EOL +
+                "# @in a"                   + EOL +
+                "# @IN b"                   + EOL +
+                "# @Param c"                + EOL +
+                "# @out d"                  + EOL +
+                "# @OUT e"                  + EOL +
+                "# @Out f"                  + EOL +
+                "# @end script"             + EOL;
+
+        List<Annotation> annotations = new DefaultExtractor(super.stdoutStream, super.stderrStream)
+                .configure("comment", "#")
+                .reader(new StringReader(source))
+                .extract()
+                .getAnnotations();
+
+        Model model = new DefaultModeler(super.stdoutStream, super.stderrStream)
+                .annotations(annotations)
+                .model()
+                .getModel();
+
+        String facts = new ModelFacts(LogicLanguage.PROLOG, model).build().toString();
+
+        assertEquals(
+            "% FACT: has_in_port(block_id, port_id)."                           + EOL +
+            "has_in_port(1, 1)."                                                + EOL +
+            "has_in_port(1, 2)."                                                + EOL +
+            "has_in_port(1, 3)."                                                + EOL,
+            relation(facts, "has_in_port"));
+
+        assertEquals(
+            "% FACT: has_out_port(block_id, port_id)."                          + EOL +
+            "has_out_port(1, 4)."                                               + EOL +
+            "has_out_port(1, 5)."                                               + EOL +
+            "has_out_port(1, 6)."                                               + EOL,
+            relation(facts, "has_out_port"));
+    }
+
+    /** Returns the header and facts of one relation, up to the blank line following them. */
+    private static String relation(String facts, String name) {
+        int start = facts.indexOf("% FACT: " + name + "(");
+        int end = facts.indexOf(EOL + EOL, start);
+        return facts.substring(start, end + EOL.length());
+    }
+}
@@ -0,0 +1,109 @@
+package org.yesworkflow.model;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.yesworkflow.YesWorkflowTestCase;
+import org.yesworkflow.extract.DefaultExtractor;
+import org.yesworkflow.extract.ExtractFacts;
+import org.yesworkflow.query.FactsBuilder;
+import org.yesworkflow.query.FactsWriter;
+import org.yesworkflow.query.LogicLanguage;
+import org.yesworkflow.query.LogicLanguageModel;
+
+public class TestModelFacts_Streaming extends YesWorkflowTestCase {
+
+    private static final String[] LOGIC_LANGUAGES = { "prolog", "dlv", "iris" };
+
+    private List<String> sources;
+    private File factsFile;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        sources = new LinkedList<String>();
+        sources.add("src/main/resources/example.py");
+        factsFile = File.createTempFile("TestModelFacts_Streaming", ".P");
+        factsFile.deleteOnExit();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        factsFile.delete();
+        super.tearDown();
+    }
+
+    public void testFactsWriter_MatchesFactsBuilder() throws Exception {
+        for (LogicLanguage language : LogicLanguage.values()) {
+            LogicLanguageModel logicLanguageModel = new LogicLanguageModel(language);
+
+            FactsBuilder builder = new FactsBuilder(logicLanguageModel, "port", "port_id", "port_name");
+            builder.add(1, "x");
+            builder.add(2, "it's");
+
+            StringWriter out = new StringWriter();
+            new FactsWriter(logicLanguageModel, out)
+                .relation("port", "port_id", "port_name")
+                .add(1, "x")
+                .add(2, "it's");
+
+            assertEquals(builder.toString(), out.toString());
+        }
+    }
+
+    public void testModelFacts_WriteToMatchesBuild() throws Exception {
+        Model model = extractAndModel("prolog", null).getModel();
+        for (LogicLanguage language : LogicLanguage.values()) {
+            StringWriter out = new StringWriter();
+            new ModelFacts(language, model).writeTo(out);
+            assertEquals(new ModelFacts(language, model).build().toString(), out.toString());
+        }
+    }
+
+    public void testExtractFacts_WriteToMatchesBuild() throws Exception {
+        DefaultExtractor extractor = new DefaultExtractor(super.stdoutStream, super.stderrStream);
+        extractor.configure("sources", sources).extract();
+        for (LogicLanguage language : LogicLanguage.values()) {
+            StringWriter out = new StringWriter();
+            new ExtractFacts(language, sources, extractor.getAnnotations()).writeTo(out);
+            assertEquals(new ExtractFacts(language, sources, extractor.getAnnotations()).build().toString(), out.toString());
+        }
+    }
+
+    public void testModeler_FactsFileMatchesGetFacts() throws Exception {
+        for (String language : LOGIC_LANGUAGES) {
+            DefaultModeler modeler = extractAndModel(language, factsFile.getPath());
+            String written = readTextFile(factsFile.getPath());
+            assertEquals(modeler.getFacts(), written);
+        }
+    }
+
+    public void testExtractor_FactsFileMatchesGetFacts() throws Exception {
+        for (String language : LOGIC_LANGUAGES) {
+            DefaultExtractor extractor = new DefaultExtractor(super.stdoutStream, super.stderrStream);
+            extractor.configure("sources", sources)
+                     .configure("logic", language)
+                     .configure("factsfile", factsFile.getPath())
+                     .extract();
+            String written = readTextFile(factsFile.getPath());
+            assertEquals(extractor.getFacts(), written);
+        }
+    }
+
+    public void testModeler_FactsToStdoutMatchesGetFacts() throws Exception {
+        DefaultModeler modeler = extractAndModel("dlv", "-");
+        assertEquals(modeler.getFacts(), super.stdoutBuffer.toString());
+    }
+
+    private DefaultModeler extractAndModel(String language, String factsPath) throws Exception {
+        DefaultExtractor extractor = new DefaultExtractor(super.stdoutStream, super.stderrStream);
+        extractor.configure("sources", sources).extract();
+        DefaultModeler modeler = new DefaultModeler(super.stdoutStream, super.stderrStream);
+        modeler.configure("logic", language);
+        if (factsPath != null) modeler.configure("factsfile", factsPath);
+        modeler.annotations(extractor.getAnnotations()).model();
+        return modeler;
+    }
+}
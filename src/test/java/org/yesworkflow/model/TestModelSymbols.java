@@ -0,0 +1,163 @@
+package org.yesworkflow.model;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.List;
+
+import org.yesworkflow.YesWorkflowTestCase;
+import org.yesworkflow.annotations.Annotation;
+import org.yesworkflow.extract.DefaultExtractor;
+import org.yesworkflow.graph.DotGrapher;
+
+public class TestModelSymbols extends YesWorkflowTestCase {
+
+    static final String SCRIPT =
+            "# @begin script"                           + EOL +
+            "# @in x"                                   + EOL +
+            "# @out z @uri file:run/{id}/z.csv"         + EOL +
+            "#   @begin step_one"                       + EOL +
+            "#   @in x"                                 + EOL +
+            "#   @out y @uri file:run/{id}/y.csv"       + EOL +
+            "#   @end step_one"                         + EOL +
+            "#   @begin step_two"                       + EOL +
+            "#   @in y @uri file:run/{id}/y.csv"        + EOL +
+            "#   @out z @uri file:run/{id}/z.csv"       + EOL +
+            "#   @end step_two"                         + EOL +
+            "# @end script"                             + EOL;
+
+    private DefaultModeler modeler;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        modeler = new DefaultModeler(super.stdoutStream, super.stderrStream);
+    }
+
+    public void testModelSymbols_BindingIds() throws Exception {
+
+        ModelSymbols symbols = new ModelSymbols();
+        assertEquals(0, symbols.bindingId("x"));
+        assertEquals(1, symbols.bindingId("y"));
+        assertEquals(0, symbols.bindingId(new String("x")));
+        assertEquals("y", symbols.binding(1));
+        assertEquals(2, symbols.getBindingCount());
+    }
+
+    public void testModelSymbols_UriTemplatesParsedOnce() throws Exception {
+
+        ModelSymbols symbols = new ModelSymbols();
+        assertSame(symbols.uriTemplate("file:run/{id}/y.csv"), symbols.uriTemplate("file:run/{id}/y.csv"));
+        assertNotSame(symbols.uriTemplate("file:run/{id}/y.csv"), symbols.uriTemplate("file:run/{id}/z.csv"));
+        assertEquals(2, symbols.getUriTemplateCount());
+    }
+
+    public void testModel_PortsShareBindingsAndTemplates() throws Exception {
+
+        Model model = model(SCRIPT);
+        Program script = model.program;
+        Program stepOne = script.programs[0];
+        Program stepTwo = script.programs[1];
+
+        Port scriptIn = script.inPorts[0];
+        Port scriptOut = script.outPorts[0];
+        Port stepOneIn = stepOne.inPorts[0];
+        Port stepOneOut = stepOne.outPorts[0];
+        Port stepTwoIn = stepTwo.inPorts[0];
+        Port stepTwoOut = stepTwo.outPorts[0];
+
+        assertEquals("x", scriptIn.binding);
+        assertSame(scriptIn.binding, stepOneIn.binding);
+        assertEquals(scriptIn.bindingId, stepOneIn.bindingId);
+        assertSame(stepOneOut.binding, stepTwoIn.binding);
+        assertEquals(stepOneOut.bindingId, stepTwoIn.bindingId);
+        assertSame(scriptOut.binding, stepTwoOut.binding);
+        assertEquals(scriptOut.bindingId, stepTwoOut.bindingId);
+        assertFalse(scriptIn.bindingId == stepOneOut.bindingId);
+        assertFalse(stepOneOut.bindingId == stepTwoOut.bindingId);
+
+        assertSame(stepOneOut.uriTemplate, stepTwoIn.uriTemplate);
+        assertSame(scriptOut.uriTemplate, stepTwoOut.uriTemplate);
+        assertNotSame(stepOneOut.uriTemplate, stepTwoOut.uriTemplate);
+        assertNull(scriptIn.uriTemplate);
+
+        assertNotNull(model.symbols);
+        assertEquals(3, model.symbols.getBindingCount());
+        assertEquals(2, model.symbols.getUriTemplateCount());
+        assertSame(stepOneOut.binding, model.symbols.binding(stepOneOut.bindingId));
+    }
+
+    public void testModel_SymbolsScopedToModel() throws Exception {
+
+        Model first = model(SCRIPT);
+        Model second = model(SCRIPT);
+        assertNotSame(first.symbols, second.symbols);
+
+        modeler.configure("incremental", true);
+        Model third = model(SCRIPT);
+        Model fourth = model(SCRIPT);
+        assertSame(third.symbols, fourth.symbols);
+        assertEquals(3, fourth.symbols.getBindingCount());
+    }
+
+    public void testModel_Incremental_UnusedSymbolsPruned() throws Exception {
+
+        modeler.configure("incremental", true);
+        model(SCRIPT);
+
+        String renamed = SCRIPT.replace("y", "y2");
+        for (int i = 0; i < 10; ++i) {
+            model(renamed.replace("y2", "y" + i));
+        }
+        Model last = model(renamed);
+        Port stepOneOut = last.program.programs[0].outPorts[0];
+        assertEquals("y2", stepOneOut.binding);
+        assertTrue(stepOneOut.bindingId <= 3);
+        assertEquals(3, last.symbols.getBindingCount());
+        assertEquals(2, last.symbols.getUriTemplateCount());
+        assertTrue(last.symbols.registers(last.program));
+
+        // the unchanged step reused from the first model still has its bindings registered
+        Model restored = model(SCRIPT);
+        assertTrue(restored.symbols.registers(restored.program));
+        assertEquals(3, restored.symbols.getBindingCount());
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testPort_WithoutSymbols_OwnBindingAndTemplate() throws Exception {
+
+        Port shared = model(SCRIPT).program.programs[0].outPorts[0];
+        Port own = new Port(shared.id, shared.flowAnnotation, shared.beginAnnotation);
+        assertEquals(Port.NO_BINDING_ID, own.bindingId);
+        assertEquals("y", own.binding);
+        assertEquals(shared.uriTemplate.toString(), own.uriTemplate.toString());
+        assertNotSame(shared.uriTemplate, own.uriTemplate);
+    }
+
+    public void testGraph_ModelWithoutSymbols_SameAsWithSymbols() throws Exception {
+
+        Model model = model(SCRIPT);
+        Model withoutSymbols = new Model(model.program, model.functions);
+        assertFalse(new ModelSymbols().registers(model.program));
+        for (String view : new String[] { "process", "data", "combined" }) {
+            assertEquals(graph(model, view), graph(withoutSymbols, view));
+        }
+    }
+
+    private String graph(Model model, String view) throws Exception {
+        return new DotGrapher(super.stdoutStream, super.stderrStream)
+                .configure("view", view)
+                .configure("dotfile", "")
+                .model(model)
+                .graph()
+                .toString();
+    }
+
+    private Model model(String script) throws Exception {
+        List<Annotation> annotations = new DefaultExtractor(super.stdoutStream, super.stderrStream)
+                .configure("comment", "#")
+                .reader(new BufferedReader(new StringReader(script)))
+                .extract()
+                .getAnnotations();
+        return modeler.annotations(annotations).model().getModel();
+    }
+}
@@ -0,0 +1,133 @@
+package org.yesworkflow.model;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.yesworkflow.YesWorkflowTestCase;
+import org.yesworkflow.annotations.Annotation;
+import org.yesworkflow.extract.DefaultExtractor;
+
+public class TestProgramIndex extends YesWorkflowTestCase {
+
+    private Workflow workflow;
+    private Program program0;
+    private Program program1;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        String source =
+                "# @begin script"           + EOL +
+                "# @in x"                   + EOL +
+                "# @param p"                + EOL +
+                "# @out z"                  + EOL +
+                "#"                         + EOL +
+                "#   @begin program0"       + EOL +
+                "#   @in x"                 + EOL +
+                "#   @param p"              + EOL +
+                "#   @out y @as channel0"   + EOL +
+                "#   @end program0"         + EOL +
+                "#"                         + EOL +
+                "#   @begin program1"       + EOL +
+                "#   @in channel0"          + EOL +
+                "#   @param p"              + EOL +
+                "#   @out z"                + EOL +
+                "#   @end program1"         + EOL +
+                "#"                         + EOL +
+                "# @end script"             + EOL;
+
+        List<Annotation> annotations = new DefaultExtractor(super.stdoutStream, super.stderrStream)
+                .configure("comment", "#")
+                .reader(new StringReader(source))
+                .extract()
+                .getAnnotations();
+
+        workflow = (Workflow)new DefaultModeler(super.stdoutStream, super.stderrStream)
+                .annotations(annotations)
+                .model()
+                .getModel()
+                .program;
+
+        program0 = workflow.programs[0];
+        program1 = workflow.programs[1];
+    }
+
+    public void testIndex_IsBuiltOnce() {
+        assertSame(workflow.index(), workflow.index());
+        assertNotSame(workflow.index(), program0.index());
+    }
+
+    public void testIndex_ChannelsByBinding() {
+        ProgramIndex index = workflow.index();
+        assertEquals(1, index.channelsForBinding("x").size());
+        assertEquals(2, index.channelsForBinding("p").size());
+        assertEquals(1, index.channelsForBinding("channel0").size());
+        assertEquals(0, index.channelsForBinding("y").size());
+        assertTrue(index.hasChannelForBinding("z"));
+        assertFalse(index.hasChannelForBinding("w"));
+    }
+
+    public void testIndex_ChannelsBySource() {
+        ProgramIndex index = workflow.index();
+
+        List<Channel> fromProgram0 = index.channelsFromProgram(program0);
+        assertEquals(1, fromProgram0.size());
+        assertSame(program1, fromProgram0.get(0).sinkProgram);
+
+        assertEquals(3, index.channelsFromProgram(null).size());
+
+        Port channel0Port = program0.outPorts[0];
+        assertEquals(1, index.channelsFromPort(channel0Port).size());
+        assertEquals(0, index.channelsFromPort(program1.inPorts[0]).size());
+    }
+
+    public void testIndex_ChannelsAndBindingsByKind() {
+        ProgramIndex index = workflow.index();
+        assertEquals(workflow.channels.length, index.channels().size());
+        assertEquals(2, index.paramChannels().size());
+        assertEquals(workflow.channels.length - 2, index.dataChannels().size());
+
+        assertEquals("[x, p, channel0]", program0.outerBindings().toString());
+        assertEquals("[x, channel0]", program0.outerDataBindings().toString());
+        assertEquals("[p]", program0.outerParamBindings().toString());
+    }
+
+    public void testIndex_ListsAreUnmodifiable() {
+        try {
+            workflow.innerChannels().clear();
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+        }
+        try {
+            workflow.index().channelsForBinding("x").clear();
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+        }
+    }
+
+    public void testIndex_SharedAcrossThreads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<ProgramIndex>> results = new ArrayList<Future<ProgramIndex>>();
+            for (int i = 0; i < 32; ++i) {
+                results.add(executor.submit(new Callable<ProgramIndex>() {
+                    public ProgramIndex call() {
+                        return program1.index();
+                    }
+                }));
+            }
+            ProgramIndex first = results.get(0).get();
+            for (Future<ProgramIndex> result : results) {
+                assertSame(first, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
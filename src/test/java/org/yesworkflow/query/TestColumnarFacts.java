@@ -0,0 +1,169 @@
+package org.yesworkflow.query;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.yesworkflow.YesWorkflowTestCase;
+import org.yesworkflow.extract.DefaultExtractor;
+import org.yesworkflow.model.DefaultModeler;
+
+public class TestColumnarFacts extends YesWorkflowTestCase {
+
+    private List<String> sources;
+    private File columnarFile;
+    private File otherColumnarFile;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        sources = new LinkedList<String>();
+        sources.add("src/main/resources/example.py");
+        columnarFile = File.createTempFile("TestColumnarFacts", ".ywf");
+        otherColumnarFile = File.createTempFile("TestColumnarFacts", ".ywf");
+        columnarFile.deleteOnExit();
+        otherColumnarFile.deleteOnExit();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        columnarFile.delete();
+        otherColumnarFile.delete();
+        super.tearDown();
+    }
+
+    public void testColumnarFacts_RoundTrip() throws Exception {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ColumnarFactsWriter writer = new ColumnarFactsWriter(bytes);
+        writer.relation("port", "port_id", "port_name")
+              .add(1, "x")
+              .add(2, "café");
+        writer.relation("empty", "id");
+        writer.relation("mixed", "value")
+              .add(7)
+              .add("seven");
+        writer.relation("port", "port_id", "port_name")
+              .add(3, "x");
+        writer.close();
+
+        ColumnarFacts facts = ColumnarFacts.read(ByteBuffer.wrap(bytes.toByteArray()));
+        assertEquals("[port, empty, mixed]", facts.relationNames().toString());
+
+        ColumnarFacts.Relation port = facts.relation("port");
+        assertEquals(3, port.rowCount());
+        assertEquals(2, port.fieldCount());
+        assertEquals("port_name", port.fieldName(1));
+        assertEquals(1, port.field("port_name"));
+        assertEquals(-1, port.field("port_type"));
+        assertFalse(port.isStringColumn(0));
+        assertTrue(port.isStringColumn(1));
+        assertEquals(2, port.getInt(1, 0));
+        assertEquals(Integer.valueOf(3), port.get(2, 0));
+        assertEquals("café", port.getString(1, 1));
+        assertEquals(port.getInt(0, 1), port.getInt(2, 1));
+        assertEquals(facts.stringId("x"), port.getInt(0, 1));
+        assertEquals(-1, facts.stringId("y"));
+        assertEquals(3, port.column(0).remaining());
+
+        assertEquals(0, facts.relation("empty").rowCount());
+
+        ColumnarFacts.Relation mixed = facts.relation("mixed");
+        assertTrue(mixed.isStringColumn(0));
+        assertEquals("7", mixed.get(0, 0));
+        assertEquals("seven", mixed.get(1, 0));
+
+        assertNull(facts.relation("channel"));
+    }
+
+    public void testColumnarFacts_RejectsOtherFiles() throws Exception {
+        try {
+            ColumnarFacts.read(ByteBuffer.wrap("% FACT: program(program_id).".getBytes()));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("Not a columnar facts file.", e.getMessage());
+        }
+    }
+
+    public void testColumnarFacts_RejectsFileTruncatedInColumn() throws Exception {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ColumnarFactsWriter writer = new ColumnarFactsWriter(bytes);
+        writer.relation("port", "port_id", "port_name")
+              .add(1, "x")
+              .add(2, "y")
+              .add(3, "z");
+        writer.close();
+        byte[] complete = bytes.toByteArray();
+
+        for (int cut = 4; cut <= 3 * 4 + 4; cut += 6) {
+            ByteBuffer truncated = ByteBuffer.wrap(complete, 0, complete.length - cut);
+            try {
+                ColumnarFacts.read(truncated);
+                fail("Expected IOException when " + cut + " bytes are missing");
+            } catch (IOException e) {
+                assertEquals("Truncated columnar facts file.", e.getMessage());
+            }
+        }
+    }
+
+    public void testColumnarFacts_Modeler_MatchesTextFacts() throws Exception {
+        for (LogicLanguage language : LogicLanguage.values()) {
+            DefaultExtractor extractor = new DefaultExtractor(super.stdoutStream, super.stderrStream);
+            extractor.configure("sources", sources).extract();
+            DefaultModeler modeler = new DefaultModeler(super.stdoutStream, super.stderrStream);
+            modeler.configure("logic", language.name().substring(language.name().indexOf('_') + 1))
+                   .configure("columnarfile", columnarFile.getPath())
+                   .annotations(extractor.getAnnotations())
+                   .model();
+            ColumnarFacts facts = ColumnarFacts.read(columnarFile.getPath());
+            assertEquals(modeler.getFacts(), toText(facts, language));
+        }
+    }
+
+    public void testColumnarFacts_Extractor_MatchesTextFacts() throws Exception {
+        DefaultExtractor extractor = new DefaultExtractor(super.stdoutStream, super.stderrStream);
+        extractor.configure("sources", sources)
+                 .configure("columnarfile", columnarFile.getPath())
+                 .extract();
+        ColumnarFacts facts = ColumnarFacts.read(columnarFile.getPath());
+        assertEquals("[extract_source, annotation, annotation_description, annotation_qualifies]",
+                     facts.relationNames().toString());
+        assertEquals(extractor.getFacts(), toText(facts, LogicLanguage.PROLOG));
+    }
+
+    public void testColumnarFacts_StreamingExtractor_MatchesMaterialized() throws Exception {
+        new DefaultExtractor(super.stdoutStream, super.stderrStream)
+            .configure("sources", sources)
+            .configure("columnarfile", columnarFile.getPath())
+            .extract();
+        new DefaultExtractor(super.stdoutStream, super.stderrStream)
+            .configure("sources", sources)
+            .configure("columnarfile", otherColumnarFile.getPath())
+            .configure("stream", true)
+            .extract();
+        assertEquals(toText(ColumnarFacts.read(columnarFile.getPath()), LogicLanguage.PROLOG),
+                     toText(ColumnarFacts.read(otherColumnarFile.getPath()), LogicLanguage.PROLOG));
+    }
+
+    private static String toText(ColumnarFacts facts, LogicLanguage language) throws IOException {
+        StringWriter out = new StringWriter();
+        FactsWriter writer = new FactsWriter(new LogicLanguageModel(language), out);
+        for (String name : facts.relationNames()) {
+            ColumnarFacts.Relation relation = facts.relation(name);
+            String[] fields = new String[relation.fieldCount()];
+            for (int i = 0; i < fields.length; ++i) fields[i] = relation.fieldName(i);
+            writer.relation(name, fields);
+            Object[] values = new Object[fields.length];
+            for (int row = 0; row < relation.rowCount(); ++row) {
+                for (int i = 0; i < fields.length; ++i) values[i] = relation.get(row, i);
+                writer.add(values);
+            }
+        }
+        return out.toString();
+    }
+}
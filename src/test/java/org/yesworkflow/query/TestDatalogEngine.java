@@ -0,0 +1,169 @@
+package org.yesworkflow.query;
+
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.yesworkflow.YesWorkflowTestCase;
+import org.yesworkflow.extract.DefaultExtractor;
+import org.yesworkflow.model.DefaultModeler;
+import org.yesworkflow.model.Model;
+import org.yesworkflow.model.ModelFacts;
+
+public class TestDatalogEngine extends YesWorkflowTestCase {
+
+    public void testDatalogParser_RulesFactsAndComments() throws Exception {
+
+        List<Rule> rules = new DatalogParser(
+            "% facts"                                       + EOL +
+            "edge(1, 'a b'). edge(2, \"it's\")."           + EOL +
+            "path(X, Y) :- edge(X, Y)."                     + EOL +
+            "lonely(X) :- node(X), not edge(X, _), X != 3." + EOL +
+            "other(X) :- node(X), \\+ lonely(X)."           + EOL
+        ).parseRules();
+
+        assertEquals(5, rules.size());
+        assertEquals("edge(1, 'a b').", rules.get(0).toString());
+        assertEquals("edge(2, 'it''s').", rules.get(1).toString());
+        assertEquals("path(X, Y) :- edge(X, Y).", rules.get(2).toString());
+        assertEquals("lonely(X) :- node(X), not edge(X, _1), X != 3.", rules.get(3).toString());
+        assertEquals("other(X) :- node(X), not lonely(X).", rules.get(4).toString());
+    }
+
+    public void testDatalogParser_SyntaxError() throws Exception {
+        try {
+            new DatalogParser("p(X) :- q(X)" + EOL + "r(1).").parseRules();
+            fail("Expected exception");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Expected '.' at line 2 of Datalog text", e.getMessage());
+        }
+    }
+
+    public void testDatalogEngine_TransitiveClosure() throws Exception {
+
+        DatalogEngine engine = new DatalogEngine();
+        engine.relation("edge", "from", "to")
+              .add(1, 2)
+              .add(2, 3)
+              .add(3, 4)
+              .add(4, 2);
+        engine.rules(
+            "path(X, Y) :- edge(X, Y)."                 + EOL +
+            "path(X, Z) :- path(X, Y), edge(Y, Z)."     + EOL
+        );
+
+        assertEquals(12, engine.size("path"));
+        assertEquals("[2, 3, 4]", answers(engine, "path(1, X)"));
+        assertEquals("[2, 3, 4]", answers(engine, "?- path(X, X)."));
+        assertEquals("[]", answers(engine, "path(X, 1)"));
+    }
+
+    public void testDatalogEngine_StratifiedNegation() throws Exception {
+
+        DatalogEngine engine = new DatalogEngine();
+        engine.rules(
+            "node(a). node(b). node(c). node(d)."               + EOL +
+            "edge(a, b). edge(b, c)."                           + EOL +
+            "reachable(X) :- edge(a, X)."                       + EOL +
+            "reachable(Y) :- reachable(X), edge(X, Y)."         + EOL +
+            "unreachable(X) :- node(X), not reachable(X), X != a." + EOL
+        );
+
+        assertEquals("[d]", answers(engine, "unreachable(X)"));
+
+        engine.rules("edge(c, d).");
+        assertEquals("[]", answers(engine, "unreachable(X)"));
+    }
+
+    public void testDatalogEngine_NotStratified() throws Exception {
+
+        DatalogEngine engine = new DatalogEngine();
+        engine.rules(
+            "node(a)."                          + EOL +
+            "p(X) :- node(X), not q(X)."        + EOL +
+            "q(X) :- node(X), not p(X)."        + EOL
+        );
+
+        try {
+            engine.evaluate();
+            fail("Expected exception");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("Rules are not stratified"));
+        }
+    }
+
+    public void testDatalogEngine_UnsafeRule() throws Exception {
+        try {
+            new DatalogEngine().rules("p(X, Y) :- q(X), not r(Y).");
+            fail("Expected exception");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Unsafe rule, variable Y not in a positive body literal: " +
+                         "p(X, Y) :- q(X), not r(Y).", e.getMessage());
+        }
+    }
+
+    public void testDatalogEngine_WriteAnswers() throws Exception {
+
+        DatalogEngine engine = new DatalogEngine();
+        engine.rules("port(1, 'in', x). port(2, 'out', y).");
+
+        StringWriter out = new StringWriter();
+        engine.writeAnswers("port(Id, 'out', Name)",
+                            new FactsWriter(new LogicLanguageModel(LogicLanguage.PROLOG), out));
+
+        assertEquals(
+            ""                                  + EOL +
+            "% FACT: port(id, arg2, name)."     + EOL +
+            "port(2, 'out', 'y')."              + EOL,
+            out.toString());
+    }
+
+    public void testDatalogEngine_LineageRules_ExamplePy() throws Exception {
+
+        DatalogEngine engine = lineageOf("src/main/resources/example.py");
+
+        assertEquals(
+            "[NEE_data, db_pth, fmodel, input_data_file, input_mask_file, " +
+            "land_water_mask, standardized_NEE_data]",
+            answers(engine, "data_upstream(result_NEE_pdf, U)"));
+
+        assertEquals(
+            "[NEE_data, result_NEE_pdf, standardized_NEE_data]",
+            answers(engine, "data_downstream(input_data_file, D)"));
+
+        assertEquals(
+            "[fetch_mask, load_data, standardize_with_mask]",
+            answers(engine, "program_upstream(simple_diagnose, P)"));
+
+        assertEquals(
+            "[simple_diagnose, standardize_with_mask]",
+            answers(engine, "program_downstream(fetch_mask, P)"));
+
+        assertEquals("[]", answers(engine, "program_upstream(fetch_mask, P)"));
+    }
+
+    private DatalogEngine lineageOf(String source) throws Exception {
+
+        DefaultExtractor extractor = new DefaultExtractor(super.stdoutStream, super.stderrStream);
+        extractor.configure("sources", source).extract();
+
+        Model model = new DefaultModeler(super.stdoutStream, super.stderrStream)
+                          .annotations(extractor.getAnnotations())
+                          .model()
+                          .getModel();
+
+        DatalogEngine engine = new DatalogEngine();
+        new ModelFacts(LogicLanguage.PROLOG, model).writeTo(engine);
+        return engine.rules(LineageRules.RULES);
+    }
+
+    /** Returns the sorted distinct values of the last field of the answers to the goal. */
+    private static String answers(DatalogEngine engine, String goal) {
+        Set<String> values = new TreeSet<String>();
+        for (Object[] answer : engine.query(goal)) {
+            values.add(answer[answer.length - 1].toString());
+        }
+        return values.toString();
+    }
+}
@@ -0,0 +1,323 @@
+package org.yesworkflow.recon;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.yesworkflow.YesWorkflowTestCase;
+import org.yesworkflow.annotations.Annotation;
+import org.yesworkflow.cli.ExitCode;
+import org.yesworkflow.cli.YesWorkflowCLI;
+import org.yesworkflow.config.YWConfiguration;
+import org.yesworkflow.extract.DefaultExtractor;
+import org.yesworkflow.metrics.StageMetrics;
+import org.yesworkflow.model.DefaultModeler;
+import org.yesworkflow.model.Model;
+import org.yesworkflow.model.ModelFacts;
+import org.yesworkflow.query.LogicLanguage;
+
+public class TestDefaultReconstructor extends YesWorkflowTestCase {
+
+    static final String SCRIPT =
+        "# @begin script"                                                   + EOL +
+        "# @in calibration @uri file:calibration.dat"                       + EOL +
+        "# @out spectra @uri file:run/{sample}/spectra/{frame}.csv"         + EOL +
+        "#   @begin collect"                                                + EOL +
+        "#   @in calibration @uri file:calibration.dat"                     + EOL +
+        "#   @out raw @uri file:run/{sample}/raw/{frame}.img"               + EOL +
+        "#   @end collect"                                                  + EOL +
+        "#   @begin transform"                                              + EOL +
+        "#   @in raw @uri file:run/{sample}/raw/{frame}.img"                + EOL +
+        "#   @out spectra @uri file:run/{sample}/spectra/{frame}.csv"       + EOL +
+        "#   @end transform"                                                + EOL +
+        "# @end script"                                                     + EOL;
+
+    private Model model;
+    private Path runDirectory;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        List<Annotation> annotations = new DefaultExtractor(stdoutStream, stderrStream)
+                .configure("comment", "#")
+                .reader(new BufferedReader(new StringReader(SCRIPT)))
+                .extract()
+                .getAnnotations();
+        model = new DefaultModeler(stdoutStream, stderrStream)
+                .annotations(annotations)
+                .model()
+                .getModel();
+
+        runDirectory = Files.createTempDirectory("TestDefaultReconstructor");
+        createFile("calibration.dat");
+        createFile("run/s1/raw/001.img");
+        createFile("run/s1/raw/002.img");
+        createFile("run/s1/spectra/001.csv");
+        createFile("run/s1/notes.txt");
+        createFile("other/big/x.img");
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        deleteRecursively(runDirectory.toFile());
+        super.tearDown();
+    }
+
+    public void testRecon_FactsAboutMatchingFiles() throws Exception {
+
+        for (int parallelism : new int[] { 1, 4 }) {
+            DefaultReconstructor reconstructor = new DefaultReconstructor(stdoutStream, stderrStream)
+                    .configure("rundir", runDirectory.toString())
+                    .configure("parallelism", parallelism)
+                    .model(model)
+                    .recon();
+            String facts = reconstructor.getFacts();
+
+            assertEquals(4, reconstructor.getResourceCount());
+            assertEquals(
+                "resource(_, 'calibration.dat')."                           + EOL +
+                "resource(_, 'run/s1/raw/001.img')."                        + EOL +
+                "resource(_, 'run/s1/raw/002.img')."                        + EOL +
+                "resource(_, 'run/s1/spectra/001.csv')."                    + EOL,
+                sortedFacts(facts, "resource(", "resource\\(\\d+,", "resource(_,"));
+            assertEquals(8, sortedFacts(facts, "port_resource(", "", "").split(EOL).length);
+            assertEquals(
+                "uri_variable_value(_, _, '001')."                          + EOL +
+                "uri_variable_value(_, _, '001')."                          + EOL +
+                "uri_variable_value(_, _, '001')."                          + EOL +
+                "uri_variable_value(_, _, '001')."                          + EOL +
+                "uri_variable_value(_, _, '002')."                          + EOL +
+                "uri_variable_value(_, _, '002')."                          + EOL +
+                "uri_variable_value(_, _, 's1')."                           + EOL +
+                "uri_variable_value(_, _, 's1')."                           + EOL +
+                "uri_variable_value(_, _, 's1')."                           + EOL +
+                "uri_variable_value(_, _, 's1')."                           + EOL +
+                "uri_variable_value(_, _, 's1')."                           + EOL +
+                "uri_variable_value(_, _, 's1')."                           + EOL,
+                sortedFacts(facts, "uri_variable_value(", "\\(\\d+, \\d+,", "(_, _,"));
+        }
+    }
+
+    public void testRecon_ResourcesNumberedInWalkOrder() throws Exception {
+
+        createFile("run/s0/raw/003.img");
+        createFile("run/s2/raw/001.img");
+
+        String expected = null;
+        for (int parallelism : new int[] { 1, 4, 8, 1, 8 }) {
+            String facts = new DefaultReconstructor(stdoutStream, stderrStream)
+                    .configure("rundir", runDirectory.toString())
+                    .configure("parallelism", parallelism)
+                    .model(model)
+                    .recon()
+                    .getFacts();
+            if (expected == null) expected = facts;
+            assertEquals(expected, facts);
+        }
+
+        // each directory's files come in name order before its subdirectories in name order
+        assertEquals(
+            "resource(1, 'calibration.dat')."                               + EOL +
+            "resource(2, 'run/s0/raw/003.img')."                            + EOL +
+            "resource(3, 'run/s1/raw/001.img')."                            + EOL +
+            "resource(4, 'run/s1/raw/002.img')."                            + EOL +
+            "resource(5, 'run/s1/spectra/001.csv')."                        + EOL +
+            "resource(6, 'run/s2/raw/001.img')."                            + EOL,
+            sortedFacts(expected, "resource(", "", ""));
+        assertEquals(
+            "uri_variable_value(6, 3, 's2')."                               + EOL +
+            "uri_variable_value(6, 4, '001')."                              + EOL +
+            "uri_variable_value(6, 5, 's2')."                               + EOL +
+            "uri_variable_value(6, 6, '001')."                              + EOL,
+            sortedFacts(expected, "uri_variable_value(6,", "", ""));
+    }
+
+    public void testRecon_ValuesReferToUriVariablesOfModel() throws Exception {
+
+        String modelFacts = new ModelFacts(LogicLanguage.PROLOG, model).build().toString();
+        String facts = new DefaultReconstructor(stdoutStream, stderrStream)
+                .configure("rundir", runDirectory.toString())
+                .model(model)
+                .recon()
+                .getFacts();
+
+        // the resource matching only templates without variables has no variable values
+        String calibrationId = idOf(facts, "resource(", "'calibration.dat'");
+        assertEquals(0, count(facts, "uri_variable_value(" + calibrationId + ","));
+
+        // the other resources have a value for each variable of each port they match,
+        // and each value refers to a variable of a port the resource matches
+        String imageId = idOf(facts, "resource(", "'run/s1/raw/002.img'");
+        List<String> values = lines(facts, "uri_variable_value(" + imageId + ",");
+        assertEquals(4, values.size());
+        for (String value : values) {
+            String variableId = value.split(", ")[1];
+            String variable = lines(modelFacts, "uri_variable(" + variableId + ",").get(0);
+            String portId = variable.substring(variable.lastIndexOf(", ") + 2, variable.indexOf(")."));
+            assertEquals(1, count(facts, "port_resource(" + portId + ", " + imageId + ")."));
+            assertEquals(value.endsWith("'002').") ? "'frame'" : "'sample'", variable.split(", ")[1]);
+        }
+    }
+
+    public void testRecon_SkipsDirectoriesNoTemplateCanMatch() throws Exception {
+
+        DefaultReconstructor reconstructor = new DefaultReconstructor(stdoutStream, stderrStream)
+                .configure("rundir", runDirectory.toString())
+                .model(model)
+                .recon();
+        StageMetrics metrics = reconstructor.getMetrics();
+
+        assertEquals("recon", metrics.stage);
+        assertEquals(5, metrics.getCounter("directories"));
+        assertEquals(1, metrics.getCounter("directories_skipped"));
+        assertEquals(5, metrics.getCounter("files"));
+        assertEquals(4, metrics.getCounter("resources"));
+        assertEquals(8, metrics.getCounter("port_resources"));
+    }
+
+    public void testRecon_ManyFilesSpooled() throws Exception {
+
+        for (int i = 0; i < 5000; i++) {
+            createFile("run/s" + (i % 10) + "/raw/" + i + ".img");
+        }
+
+        File factsFile = File.createTempFile("TestDefaultReconstructor", ".P");
+        try {
+            DefaultReconstructor reconstructor = new DefaultReconstructor(stdoutStream, stderrStream)
+                    .configure("rundir", runDirectory.toString())
+                    .configure("factsfile", factsFile.getPath())
+                    .configure("parallelism", 2)
+                    .model(model)
+                    .recon();
+            assertEquals(5004, reconstructor.getResourceCount());
+            String facts = readTextFile(factsFile.getPath());
+            assertEquals(facts, reconstructor.getFacts());
+            assertEquals(5004, count(facts, "resource("));
+            assertEquals(10008, count(facts, "port_resource("));
+            assertEquals(4 * 5003, count(facts, "uri_variable_value("));
+        } finally {
+            factsFile.delete();
+        }
+    }
+
+    public void testRecon_SpoolDeletedOnceFactsWritten() throws Exception {
+
+        int spoolCount = spoolFileCount();
+        File factsFile = File.createTempFile("TestDefaultReconstructor", ".P");
+        try {
+            DefaultReconstructor reconstructor = new DefaultReconstructor(stdoutStream, stderrStream)
+                    .configure("rundir", runDirectory.toString())
+                    .configure("factsfile", factsFile.getPath())
+                    .model(model)
+                    .recon();
+            assertEquals(spoolCount, spoolFileCount());
+            assertEquals(readTextFile(factsFile.getPath()), reconstructor.getFacts());
+        } finally {
+            factsFile.delete();
+        }
+
+        DefaultReconstructor reconstructor = new DefaultReconstructor(stdoutStream, stderrStream)
+                .configure("rundir", runDirectory.toString())
+                .model(model)
+                .recon();
+        assertEquals(spoolCount + 1, spoolFileCount());
+        assertEquals(4, count(reconstructor.getFacts(), "resource("));
+        assertEquals(spoolCount, spoolFileCount());
+        assertEquals(4, count(reconstructor.getFacts(), "resource("));
+    }
+
+    public void testRecon_MissingRunDirectory() throws Exception {
+        Exception caught = null;
+        try {
+            new DefaultReconstructor(stdoutStream, stderrStream)
+                .configure("rundir", runDirectory.resolve("missing").toString())
+                .model(model)
+                .recon();
+        } catch (Exception e) {
+            caught = e;
+        }
+        assertNotNull(caught);
+        assertEquals("Run directory not found: " + runDirectory.resolve("missing"), caught.getMessage());
+    }
+
+    public void testCLI_Recon() throws Exception {
+
+        File script = runDirectory.resolve("script.py").toFile();
+        Files.write(script.toPath(), SCRIPT.getBytes("UTF-8"));
+
+        YesWorkflowCLI cli = new YesWorkflowCLI(stdoutStream, stderrStream).config(new YWConfiguration());
+        ExitCode exitCode = cli.runForArgs(new String[] {
+                "recon", script.getPath(), "-c", "recon.rundir=" + runDirectory });
+
+        assertEquals(ExitCode.SUCCESS, exitCode);
+        String facts = stdoutBuffer.toString();
+        assertEquals(4, count(facts, "resource("));
+        assertEquals("recon", cli.getMetrics().get(2).stage);
+    }
+
+    private void createFile(String relativePath) throws IOException {
+        Path file = runDirectory.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[0]);
+    }
+
+    private static int spoolFileCount() {
+        File[] spools = new File(System.getProperty("java.io.tmpdir")).listFiles(new FilenameFilter() {
+            public boolean accept(File directory, String name) {
+                return name.startsWith("yw-recon-");
+            }
+        });
+        return (spools == null) ? 0 : spools.length;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) deleteRecursively(child);
+        }
+        file.delete();
+    }
+
+    private static String sortedFacts(String facts, String relation, String regex, String replacement) {
+        List<String> lines = new ArrayList<String>();
+        for (String line : facts.split(EOL)) {
+            if (line.startsWith(relation)) lines.add(regex.isEmpty() ? line : line.replaceFirst(regex, replacement));
+        }
+        Collections.sort(lines);
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) sb.append(line).append(EOL);
+        return sb.toString();
+    }
+
+    private static String idOf(String facts, String relation, String value) {
+        for (String line : facts.split(EOL)) {
+            if (line.startsWith(relation) && line.contains(value)) {
+                return line.substring(relation.length(), line.indexOf(','));
+            }
+        }
+        return null;
+    }
+
+    private static List<String> lines(String facts, String prefix) {
+        List<String> lines = new ArrayList<String>();
+        for (String line : facts.split(EOL)) {
+            if (line.startsWith(prefix)) lines.add(line);
+        }
+        return lines;
+    }
+
+    private static int count(String facts, String relation) {
+        int count = 0;
+        for (String line : facts.split(EOL)) {
+            if (line.startsWith(relation)) count++;
+        }
+        return count;
+    }
+}